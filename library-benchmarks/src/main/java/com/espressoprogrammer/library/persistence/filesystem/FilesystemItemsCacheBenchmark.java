@@ -0,0 +1,129 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads random books through {@link FilesystemItemsCache}, through {@link FilesystemOffHeapCache} and straight
+ * from the files, the baseline without any cache.
+ * <p>
+ * Every cache holds all the books. The heap left in use once they are loaded, and the collections the
+ * measured reads went through, are printed at the end of every trial. Run with
+ * {@code mvn -Pbenchmarks package && java -jar library-benchmarks/target/benchmarks.jar FilesystemItemsCacheBenchmark -prof gc}
+ * to get the allocation rate and GC time next to them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-XX:MaxDirectMemorySize=2g"})
+public class FilesystemItemsCacheBenchmark {
+    private static final String TMPDIR = "java.io.tmpdir";
+    private static final String USER = "johndoe";
+    private static final String BOOKS = "books";
+
+    @Param({"none", "heap", "offheap"})
+    public String cache;
+
+    @Param({"100000"})
+    public int items;
+
+    private final FilesystemItemCodec<Book> codec = new FilesystemJsonCodec<>(Book.class);
+    private final FilesystemFileStorage storage = new FilesystemFileStorage();
+    private FilesystemItemsCache itemsCache;
+    private FilesystemOffHeapCache offHeapCache;
+    private String folder;
+    private String[] uuids;
+    private long gcCountBefore;
+    private long gcMillisBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = System.getProperty(TMPDIR) + "/library-cache-benchmark-" + System.nanoTime();
+        Files.createDirectories(Paths.get(folder));
+        itemsCache = new FilesystemItemsCache("heap".equals(cache) ? Long.MAX_VALUE : 0);
+        offHeapCache = new FilesystemOffHeapCache("offheap".equals(cache) ? 1024L * 1024 * 1024 : 0);
+
+        uuids = new String[items];
+        for(int i = 0; i < items; i++) {
+            uuids[i] = "uuid-" + i;
+            Book book = new Book(uuids[i],
+                String.format("%010d", i),
+                String.format("978%010d", i),
+                "Title of the book number " + i,
+                Arrays.asList("First author " + i, "Second author " + i),
+                "https://images.example.com/books/" + i + ".jpg",
+                100 + i % 900);
+            byte[] content = codec.encode(book);
+            if("none".equals(cache)) {
+                storage.write(folder, uuids[i], content);
+            }
+            itemsCache.put(USER, BOOKS, uuids[i], book, content.length);
+            offHeapCache.put(USER, BOOKS, uuids[i], content);
+        }
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%n%s cache: %,d heap bytes in use with %,d books loaded%n",
+            cache, runtime.totalMemory() - runtime.freeMemory(), items);
+        gcCountBefore = gcCount();
+        gcMillisBefore = gcMillis();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n%s cache: %d collections taking %d ms while reading%n",
+            cache, gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+        storage.close();
+        FileSystemUtils.deleteRecursively(new File(folder));
+    }
+
+    @Benchmark
+    public Book readBook() throws IOException {
+        String uuid = uuids[ThreadLocalRandom.current().nextInt(items)];
+        switch(cache) {
+            case "heap":
+                return itemsCache.get(USER, BOOKS, uuid);
+            case "offheap":
+                return codec.decode(offHeapCache.get(USER, BOOKS, uuid));
+            default:
+                return codec.decode(storage.read(folder, uuid).get());
+        }
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+            .sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+            .sum();
+    }
+}
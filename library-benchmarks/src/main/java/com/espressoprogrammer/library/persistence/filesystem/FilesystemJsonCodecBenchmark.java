@@ -0,0 +1,89 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.util.concurrent.TimeUnit;
+
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBookJson;
+
+/**
+ * Compares {@link FilesystemJsonCodec} with the way the DAOs used to convert items, a new mapper per call
+ * and the item type looked up through reflection.
+ * <p>
+ * Run with {@code mvn -Pbenchmarks package && java -jar library-benchmarks/target/benchmarks.jar -prof gc}
+ * to see the allocation rate next to the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilesystemJsonCodecBenchmark {
+
+    private final FilesystemItemCodec<Book> codec = new FilesystemJsonCodec<>(Book.class);
+    private final LegacyBooksConverter legacyConverter = new LegacyBooksConverter();
+
+    private Book book;
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws IOException {
+        book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
+        content = getTestBookJson("1e4014b1-a551-4310-9f30-590c3140b695.json").getBytes();
+    }
+
+    @Benchmark
+    public Book decodeWithCodec() throws IOException {
+        return codec.decode(content);
+    }
+
+    @Benchmark
+    public Book decodeWithNewMapper() throws IOException {
+        return legacyConverter.fromJson(content);
+    }
+
+    @Benchmark
+    public byte[] encodeWithCodec() throws IOException {
+        return codec.encode(book);
+    }
+
+    @Benchmark
+    public byte[] encodeWithNewMapper() throws IOException {
+        return legacyConverter.toJson(book).getBytes();
+    }
+
+    private static abstract class LegacyConverter<T> {
+
+        T fromJson(byte[] content) throws IOException {
+            ObjectMapper objectMapper = new ObjectMapper();
+            Class<T> itemType = (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+            return objectMapper.readValue(content, itemType);
+        }
+
+        String toJson(T item) throws IOException {
+            ObjectMapper objectMapper = new ObjectMapper();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            objectMapper.writeValue(out, item);
+            return out.toString();
+        }
+    }
+
+    private static class LegacyBooksConverter extends LegacyConverter<Book> {
+    }
+}
@@ -0,0 +1,109 @@
+package com.espressoprogrammer.library.persistence;
+
+import com.espressoprogrammer.library.dto.Book;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Position of a book in a {@link BooksSort} order.
+ * <p>
+ * A page starts right after the position of the last book of the previous page instead of at an offset,
+ * so books added or removed meanwhile don't make the next page repeat or skip books. Positions are sent to
+ * clients as opaque URL safe strings.
+ */
+public final class BooksCursor implements Comparable<BooksCursor> {
+    private static final String SEPARATOR = "\n";
+    // Books without pages come first, like books without a title
+    private static final long NO_PAGES = -1;
+
+    private final BooksSort sort;
+    private final String text;
+    private final long number;
+    private final String uuid;
+
+    private BooksCursor(BooksSort sort, String text, long number, String uuid) {
+        this.sort = sort;
+        this.text = text;
+        this.number = number;
+        this.uuid = uuid;
+    }
+
+    /**
+     * The position of the book, the creation sequence being used only by {@link BooksSort#CREATED}.
+     */
+    public static BooksCursor of(BooksSort sort, Book book, long created) {
+        switch(sort) {
+            case TITLE:
+                String title = book.getTitle() != null ? book.getTitle().toLowerCase(Locale.ROOT) : "";
+                return new BooksCursor(sort, title, 0, book.getUuid());
+            case PAGES:
+                long pages = book.getPages() != null ? book.getPages() : NO_PAGES;
+                return new BooksCursor(sort, null, pages, book.getUuid());
+            default:
+                return new BooksCursor(sort, null, created, book.getUuid());
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor is malformed or was made for another sort
+     */
+    public static BooksCursor decode(String cursor, BooksSort sort) {
+        String value;
+        try {
+            value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch(IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, ex);
+        }
+        // Titles may hold the separator, sorts and uuids don't
+        int keyStart = value.indexOf(SEPARATOR);
+        int uuidStart = value.lastIndexOf(SEPARATOR);
+        if(keyStart < 0 || keyStart == uuidStart || !sort.name().equals(value.substring(0, keyStart))) {
+            throw new IllegalArgumentException("Cursor " + cursor + " isn't a " + sort + " cursor");
+        }
+        String key = value.substring(keyStart + 1, uuidStart);
+        String uuid = value.substring(uuidStart + 1);
+        if(sort == BooksSort.TITLE) {
+            return new BooksCursor(sort, key, 0, uuid);
+        }
+        try {
+            return new BooksCursor(sort, null, Long.parseLong(key), uuid);
+        } catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, ex);
+        }
+    }
+
+    public String encode() {
+        String key = sort == BooksSort.TITLE ? text : Long.toString(number);
+        String cursor = sort.name() + SEPARATOR + key + SEPARATOR + uuid;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    @Override
+    public int compareTo(BooksCursor other) {
+        int result = sort == BooksSort.TITLE ? text.compareTo(other.text) : Long.compare(number, other.number);
+        return result != 0 ? result : uuid.compareTo(other.uuid);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof BooksCursor)) return false;
+        BooksCursor cursor = (BooksCursor) o;
+        return sort == cursor.sort
+            && number == cursor.number
+            && Objects.equals(text, cursor.text)
+            && uuid.equals(cursor.uuid);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sort, text, number, uuid);
+    }
+}
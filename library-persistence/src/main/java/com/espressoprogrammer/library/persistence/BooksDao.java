@@ -2,8 +2,16 @@ package com.espressoprogrammer.library.persistence;
 
 import com.espressoprogrammer.library.dto.Book;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
 
 public interface BooksDao {
 
@@ -11,11 +19,117 @@ public interface BooksDao {
 
     List<Book> getUserBooks(String user, String searchText);
 
+    /**
+     * Books are read as the stream is consumed. The stream may hold storage resources, so close it when done.
+     */
+    default Stream<Book> streamUserBooks(String user) {
+        return getUserBooks(user).stream();
+    }
+
+    default Stream<Book> streamUserBooks(String user, String searchText) {
+        return getUserBooks(user, searchText).stream();
+    }
+
+    /**
+     * The version of all the books of the user, empty when the backend doesn't keep one.
+     */
+    default Optional<CollectionVersion> getUserBooksVersion(String user) {
+        return Optional.empty();
+    }
+
+    /**
+     * Reads at most limit books matching the search text, in the given order and after the given cursor, a
+     * null cursor starting with the first book.
+     * <p>
+     * This reads and sorts all the books of the user. Backends that keep the books sorted read only the
+     * page. Backends without a creation order use their listing order for {@link BooksSort#CREATED}.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed or was made for another sort
+     */
+    default BooksPage getUserBooksPage(String user, String searchText, BooksSort sort, String cursor, int limit) {
+        BooksCursor after = cursor != null ? BooksCursor.decode(cursor, sort) : null;
+        List<Book> books = getUserBooks(user, searchText);
+        List<BooksCursor> positions = new ArrayList<>(books.size());
+        Map<String, Book> booksByUuid = new HashMap<>();
+        for(int i = 0; i < books.size(); i++) {
+            positions.add(BooksCursor.of(sort, books.get(i), i));
+            booksByUuid.put(books.get(i).getUuid(), books.get(i));
+        }
+
+        List<BooksCursor> page = positions.stream()
+            .filter(p -> after == null || p.compareTo(after) > 0)
+            .sorted()
+            .limit(limit + 1L)
+            .collect(toList());
+        String nextCursor = page.size() > limit ? page.get(limit - 1).encode() : null;
+        return new BooksPage(page.stream()
+                .limit(limit)
+                .map(p -> booksByUuid.get(p.getUuid()))
+                .collect(toList()),
+            nextCursor);
+    }
+
+    /**
+     * @throws DuplicateIsbnException if another book of the user has the same ISBN
+     */
     Book createUserBook(String user, Book book);
 
     Optional<Book> getUserBook(String user, String uuid);
 
-    Optional<String> updateUserBook(String user, String uuid, Book book);
+    /**
+     * The stored JSON of the book, for backends that keep it in the form it is sent in. Empty when the
+     * backend can't hand it out as it is, {@link #getUserBook(String, String)} tells then whether the book
+     * exists.
+     */
+    default Optional<StoredJson> getUserBookJson(String user, String uuid) {
+        return Optional.empty();
+    }
+
+    /**
+     * Writes the JSON array of the books {@link #getUserBooks(String)} returns, copying what is stored
+     * instead of converting books. Returns false without writing anything when the backend can't.
+     */
+    default boolean writeUserBooksJson(String user, WritableByteChannel target) throws IOException {
+        return false;
+    }
+
+    /**
+     * Looks for the book with the given ISBN-10 or ISBN-13, compared as {@link Isbns} keys.
+     */
+    default Optional<Book> getUserBookByIsbn(String user, String isbn) {
+        Optional<String> key = Isbns.toKey(isbn);
+        if(!key.isPresent()) {
+            return Optional.empty();
+        }
+        try(Stream<Book> books = streamUserBooks(user)) {
+            return books
+                .filter(b -> Isbns.toKeys(b).contains(key.get()))
+                .findFirst();
+        }
+    }
+
+    /**
+     * @throws DuplicateIsbnException if another book of the user has the same ISBN
+     */
+    default Optional<String> updateUserBook(String user, String uuid, Book book) {
+        return updateUserBook(user, uuid, book, null);
+    }
+
+    /**
+     * Updates the book only if it is still at the given {@link ItemVersions} version, a null version
+     * updating it whatever its version is. The check and the write are atomic.
+     *
+     * @throws DuplicateIsbnException if another book of the user has the same ISBN
+     * @throws VersionMismatchException if the book is at another version
+     */
+    Optional<String> updateUserBook(String user, String uuid, Book book, String version);
+
+    default Optional<String> deleteUserBook(String user, String uuid) {
+        return deleteUserBook(user, uuid, null);
+    }
 
-    Optional<String> deleteUserBook(String user, String uuid);
+    /**
+     * @throws VersionMismatchException if the book is at another version than the given one
+     */
+    Optional<String> deleteUserBook(String user, String uuid, String version);
 }
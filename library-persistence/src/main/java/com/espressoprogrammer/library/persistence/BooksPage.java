@@ -0,0 +1,27 @@
+package com.espressoprogrammer.library.persistence;
+
+import com.espressoprogrammer.library.dto.Book;
+
+import java.util.List;
+
+/**
+ * Books read with {@link BooksDao#getUserBooksPage(String, String, BooksSort, String, int)} and the cursor of
+ * the page after them, null when there are no more books.
+ */
+public final class BooksPage {
+    private final List<Book> books;
+    private final String nextCursor;
+
+    public BooksPage(List<Book> books, String nextCursor) {
+        this.books = books;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,14 @@
+package com.espressoprogrammer.library.persistence;
+
+/**
+ * Orders a page of books can be read in. Books with the same title or the same number of pages are ordered
+ * by uuid, so every order is total.
+ */
+public enum BooksSort {
+    TITLE,
+    PAGES,
+    /**
+     * The order the books were added in, updates don't move a book.
+     */
+    CREATED
+}
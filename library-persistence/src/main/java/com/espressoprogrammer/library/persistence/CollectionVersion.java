@@ -0,0 +1,25 @@
+package com.espressoprogrammer.library.persistence;
+
+/**
+ * Version of all the books or all the reading sessions of a user, changed by every write to one of them.
+ * <p>
+ * The tag is opaque and never used again for other content, even after a restart. The last modified time
+ * is in milliseconds since the epoch and is never earlier than the last change.
+ */
+public final class CollectionVersion {
+    private final String tag;
+    private final long lastModified;
+
+    public CollectionVersion(String tag, long lastModified) {
+        this.tag = tag;
+        this.lastModified = lastModified;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,24 @@
+package com.espressoprogrammer.library.persistence;
+
+/**
+ * Thrown when a book would share an ISBN with another book of the same user.
+ */
+public class DuplicateIsbnException extends RuntimeException {
+
+    private final String isbn;
+    private final String existingUuid;
+
+    public DuplicateIsbnException(String isbn, String existingUuid) {
+        super("ISBN " + isbn + " is already used by book " + existingUuid);
+        this.isbn = isbn;
+        this.existingUuid = existingUuid;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public String getExistingUuid() {
+        return existingUuid;
+    }
+}
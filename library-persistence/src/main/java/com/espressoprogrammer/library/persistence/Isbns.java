@@ -0,0 +1,94 @@
+package com.espressoprogrammer.library.persistence;
+
+import com.espressoprogrammer.library.dto.Book;
+import org.springframework.util.StringUtils;
+
+import java.util.LinkedHashSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * ISBN normalization used to detect books that are the same edition.
+ * <p>
+ * Valid ISBN-10 and ISBN-13 values, with or without separators, are reduced to the 13 digits of their ISBN-13
+ * form, so {@code 1-61729-310-5} and {@code 978-1-61729-310-8} get the same key. Values that don't pass the
+ * checksum are kept as they are, apart from surrounding blanks, and only match themselves.
+ */
+public final class Isbns {
+
+    private Isbns() {
+    }
+
+    public static Optional<String> toKey(String isbn) {
+        if(!StringUtils.hasText(isbn)) {
+            return Optional.empty();
+        }
+
+        String value = isbn.trim();
+        String digits = value.replace("-", "").replace(" ", "").toUpperCase();
+        if(isValidIsbn10(digits)) {
+            return Optional.of(toIsbn13(digits));
+        }
+        if(isValidIsbn13(digits)) {
+            return Optional.of(digits);
+        }
+        return Optional.of(value);
+    }
+
+    public static Set<String> toKeys(Book book) {
+        Set<String> keys = new LinkedHashSet<>(2);
+        toKey(book.getIsbn10()).ifPresent(keys::add);
+        toKey(book.getIsbn13()).ifPresent(keys::add);
+        return keys;
+    }
+
+    static boolean isValidIsbn10(String digits) {
+        if(digits.length() != 10) {
+            return false;
+        }
+
+        int sum = 0;
+        for(int i = 0; i < 10; i++) {
+            char c = digits.charAt(i);
+            int digit;
+            if(c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if(c == 'X' && i == 9) {
+                digit = 10;
+            } else {
+                return false;
+            }
+            sum += digit * (10 - i);
+        }
+        return sum % 11 == 0;
+    }
+
+    static boolean isValidIsbn13(String digits) {
+        if(digits.length() != 13 || !isDigits(digits)) {
+            return false;
+        }
+        return checkDigit13(digits.substring(0, 12)) == digits.charAt(12) - '0';
+    }
+
+    static String toIsbn13(String isbn10) {
+        String prefix = "978" + isbn10.substring(0, 9);
+        return prefix + checkDigit13(prefix);
+    }
+
+    private static int checkDigit13(String first12) {
+        int sum = 0;
+        for(int i = 0; i < 12; i++) {
+            sum += (first12.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    private static boolean isDigits(String value) {
+        for(int i = 0; i < value.length(); i++) {
+            if(value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
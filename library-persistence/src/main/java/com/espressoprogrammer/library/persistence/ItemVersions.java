@@ -0,0 +1,52 @@
+package com.espressoprogrammer.library.persistence;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Versions of stored items, used for optimistic concurrency.
+ * <p>
+ * A version is a hash of the JSON form of the item, so it changes with every change of its content and
+ * doesn't depend on the storage format or on the backend that keeps the item.
+ */
+public final class ItemVersions {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int VERSION_BYTES = 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ItemVersions() {
+    }
+
+    public static String of(Object item) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(item));
+            char[] version = new char[VERSION_BYTES * 2];
+            for(int i = 0; i < VERSION_BYTES; i++) {
+                version[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+                version[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+            }
+            return new String(version);
+        } catch(JsonProcessingException | NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Can't compute the version of " + item, ex);
+        }
+    }
+
+    /**
+     * Checks the version of the current item, a null expected version matching any item.
+     *
+     * @throws VersionMismatchException if the item has another version
+     */
+    public static void check(String uuid, Object currentItem, String expectedVersion) {
+        if(expectedVersion == null) {
+            return;
+        }
+
+        String currentVersion = of(currentItem);
+        if(!currentVersion.equals(expectedVersion)) {
+            throw new VersionMismatchException(uuid, expectedVersion, currentVersion);
+        }
+    }
+}
@@ -4,16 +4,60 @@ import com.espressoprogrammer.library.dto.ReadingSession;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface ReadingSessionsDao {
 
+    /**
+     * Returns the reading sessions of the book in the order they were created.
+     */
     List<ReadingSession> getUserReadingSessions(String user, String bookUuid);
 
+    /**
+     * Reading sessions are read in the order they were created, as the stream is consumed. The stream may hold
+     * storage resources, so close it when done.
+     */
+    default Stream<ReadingSession> streamUserReadingSessions(String user, String bookUuid) {
+        return getUserReadingSessions(user, bookUuid).stream();
+    }
+
+    /**
+     * The version of all the reading sessions of the user, of all the books, empty when the backend doesn't
+     * keep one.
+     */
+    default Optional<CollectionVersion> getUserReadingSessionsVersion(String user) {
+        return Optional.empty();
+    }
+
     ReadingSession createUserReadingSession(String user, String bookUuid, ReadingSession readingSession);
 
     Optional<ReadingSession> getUserReadingSession(String user, String bookUuid, String uuid);
 
-    Optional<String> updateUserReadingSession(String user, String bookUuid, String uuid, ReadingSession readingSession);
-
-    Optional<String> deleteUserReadingSession(String user, String bookUuid, String uuid);
+    /**
+     * The stored JSON of the reading session, empty when the backend can't hand it out as it is.
+     */
+    default Optional<StoredJson> getUserReadingSessionJson(String user, String bookUuid, String uuid) {
+        return Optional.empty();
+    }
+
+    default Optional<String> updateUserReadingSession(String user, String bookUuid, String uuid, ReadingSession readingSession) {
+        return updateUserReadingSession(user, bookUuid, uuid, readingSession, null);
+    }
+
+    /**
+     * Updates the reading session only if it is still at the given {@link ItemVersions} version, a null
+     * version updating it whatever its version is. The check and the write are atomic.
+     *
+     * @throws VersionMismatchException if the reading session is at another version
+     */
+    Optional<String> updateUserReadingSession(String user, String bookUuid, String uuid, ReadingSession readingSession, String version);
+
+    default Optional<String> deleteUserReadingSession(String user, String bookUuid, String uuid) {
+        return deleteUserReadingSession(user, bookUuid, uuid, null);
+    }
+
+    /**
+     * @throws VersionMismatchException if the reading session is at another version than the given one
+     */
+    Optional<String> deleteUserReadingSession(String user, String bookUuid, String uuid, String version);
 }
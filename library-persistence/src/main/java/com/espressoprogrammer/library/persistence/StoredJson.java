@@ -0,0 +1,50 @@
+package com.espressoprogrammer.library.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * JSON of a stored item, read from storage as it is when written to a response.
+ * <p>
+ * It holds the file of the item open, so it keeps the content it was opened with even if the item is
+ * updated meanwhile. Close it when done.
+ */
+public final class StoredJson implements AutoCloseable {
+    private final FileChannel channel;
+    private final long length;
+    private final String version;
+
+    public StoredJson(FileChannel channel, long length, String version) {
+        this.channel = channel;
+        this.length = length;
+        this.version = version;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * The {@link ItemVersions} version of the item.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public void transferTo(WritableByteChannel target) throws IOException {
+        long position = 0;
+        while(position < length) {
+            long transferred = channel.transferTo(position, length - position, target);
+            if(transferred <= 0) {
+                throw new IOException("Stored JSON ended after " + position + " of " + length + " bytes");
+            }
+            position += transferred;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
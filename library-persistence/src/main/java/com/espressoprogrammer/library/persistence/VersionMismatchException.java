@@ -0,0 +1,30 @@
+package com.espressoprogrammer.library.persistence;
+
+/**
+ * Thrown when an item was changed since the version a conditional write was based on.
+ */
+public class VersionMismatchException extends RuntimeException {
+
+    private final String uuid;
+    private final String expectedVersion;
+    private final String currentVersion;
+
+    public VersionMismatchException(String uuid, String expectedVersion, String currentVersion) {
+        super("Item " + uuid + " is at version " + currentVersion + ", not " + expectedVersion);
+        this.uuid = uuid;
+        this.expectedVersion = expectedVersion;
+        this.currentVersion = currentVersion;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public String getCurrentVersion() {
+        return currentVersion;
+    }
+}
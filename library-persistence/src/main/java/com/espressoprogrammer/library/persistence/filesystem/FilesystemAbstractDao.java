@@ -1,42 +1,73 @@
 package com.espressoprogrammer.library.persistence.filesystem;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.StoredJson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Function;
-
-import static java.util.stream.Collectors.toList;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 abstract class FilesystemAbstractDao<T> {
+    private static final int ITEM_LOCKS = 64;
+    private static final int ITEM_GENERATIONS = 64;
+    private static final ByteBuffer JSON_ARRAY_START = ByteBuffer.wrap(new byte[] {'['});
+    private static final ByteBuffer JSON_ARRAY_SEPARATOR = ByteBuffer.wrap(new byte[] {','});
+    private static final ByteBuffer JSON_ARRAY_END = ByteBuffer.wrap(new byte[] {']'});
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
-    
-    private static final String FILE_EXTENSION = ".json";
+
+    private final Object[] itemLocks = new Object[ITEM_LOCKS];
+    // Writes and deletes of the items, striped, so a read that missed the cache can tell whether the item
+    // changed while it was reading. Guarded by itself, which is also held while the caches are changed.
+    private final long[] itemGenerations = new long[ITEM_GENERATIONS];
+
+    private final FilesystemItemCodec<T> jsonCodec;
+    private final FilesystemItemCodec<T> binaryCodec;
+
+    FilesystemAbstractDao() {
+        Class<T> itemType = (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+        jsonCodec = new FilesystemJsonCodec<>(itemType);
+        binaryCodec = createBinaryCodec(jsonCodec);
+        for(int i = 0; i < ITEM_LOCKS; i++) {
+            itemLocks[i] = new Object();
+        }
+    }
 
     List<T> getUserItems(String user) {
         return getUserItems(user, null);
     }
 
     List<T> getUserItems(String user, String searchText) {
+        return findUserItems(user, t -> applySearchCriteria(t, searchText));
+    }
+
+    List<T> findUserItems(String user, Predicate<T> filter) {
         try {
             String storageFolder = createStorageFolderIfMissing(user);
             logger.debug("Look for item for user {} into {}", user, storageFolder);
 
-            return Files.list(Paths.get(storageFolder))
-                .filter(p -> p.getFileName().toFile().getName().endsWith(FILE_EXTENSION))
-                .map(p -> fromJson(p))
-                .filter(t -> applySearchCriteria(t, searchText))
-                .collect(toList());
+            return itemsScanner.scan(storage.list(storageFolder), uuid -> readItem(user, storageFolder, uuid), filter);
         } catch(FilesystemDaoException ex) {
             throw ex;
         } catch(Exception ex) {
@@ -44,100 +75,415 @@ abstract class FilesystemAbstractDao<T> {
         }
     }
 
-    protected abstract boolean applySearchCriteria(T t, String searchText);
-
-    T createUserItem(String user, T item) {
+    /**
+     * Reads only the given items, for subclasses that already know which items may pass the filter.
+     */
+    List<T> findUserItems(String user, List<String> uuids, Predicate<T> filter) {
         try {
             String storageFolder = createStorageFolderIfMissing(user);
-            logger.debug("Add new item for user {} into {}", user, storageFolder);
+            logger.debug("Look for {} items for user {} into {}", uuids.size(), user, storageFolder);
 
-            String uuid = UUID.randomUUID().toString();
-            T persistedItem = createItem(uuid, item);
-            Files.write(Paths.get(storageFolder, uuid + FILE_EXTENSION), toJson(persistedItem).getBytes());
-            return persistedItem;
+            return itemsScanner.scan(uuids, uuid -> readItem(user, storageFolder, uuid), filter);
+        } catch(FilesystemDaoException ex) {
+            throw ex;
         } catch(Exception ex) {
             throw new FilesystemDaoException(ex);
         }
     }
 
-    Optional<T> getUserItem(String user, String id) {
+    Stream<T> streamUserItems(String user, String searchText) {
+        return streamUserItems(user, t -> applySearchCriteria(t, searchText));
+    }
+
+    /**
+     * Lazy counterpart of {@link #findUserItems(String, Predicate)}, items are read one at a time while the
+     * stream is consumed.
+     */
+    Stream<T> streamUserItems(String user, Predicate<T> filter) {
         try {
             String storageFolder = createStorageFolderIfMissing(user);
-            logger.debug("Look for item for user {} into {} with uuid {}", user, storageFolder, id);
-
-            Path pathToItem = Paths.get(storageFolder, id + FILE_EXTENSION);
-            if(pathToItem.toFile().exists()) {
-                return Optional.of(fromJson(pathToItem));
-            }
+            logger.debug("Stream items for user {} from {}", user, storageFolder);
 
-            return Optional.empty();
+            return storage.stream(storageFolder)
+                .map(uuid -> readItem(user, storageFolder, uuid))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .filter(filter);
         } catch(Exception ex) {
             throw new FilesystemDaoException(ex);
         }
     }
 
-    Optional<String> updateUserItem(String user, String uuid, T item) {
+    /**
+     * Reads the given items one at a time as the stream is consumed, skipping the ones that are missing.
+     */
+    Stream<T> streamUserItems(String user, List<String> uuids, Predicate<T> filter) {
         try {
             String storageFolder = createStorageFolderIfMissing(user);
-            logger.debug("Update item for user {} with uuid {}", user, uuid);
+            logger.debug("Look for {} items for user {} into {}", uuids.size(), user, storageFolder);
+
+            return uuids.stream()
+                .map(uuid -> readItem(user, storageFolder, uuid))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .filter(filter);
+        } catch(Exception ex) {
+            throw new FilesystemDaoException(ex);
+        }
+    }
+
+    protected abstract boolean applySearchCriteria(T t, String searchText);
+
+    T createUserItem(String user, T item) {
+        return userRoots.write(user, () -> {
+            try {
+                String storageFolder = createStorageFolderIfMissing(user);
+                logger.debug("Add new item for user {} into {}", user, storageFolder);
 
-            Path pathToItem = Paths.get(storageFolder, uuid + FILE_EXTENSION);
-            if(pathToItem.toFile().exists()) {
+                String uuid = UUID.randomUUID().toString();
                 T persistedItem = createItem(uuid, item);
-                Files.write(pathToItem, toJson(persistedItem).getBytes());
-                return Optional.of(uuid);
+                writeItem(user, storageFolder, uuid, persistedItem);
+                itemWritten(user, persistedItem);
+                collectionVersions.changed(user, getItemType());
+                return persistedItem;
+            } catch(Exception ex) {
+                throw new FilesystemDaoException(ex);
             }
+        });
+    }
 
-            return Optional.empty();
+    /**
+     * The version of all the items of the user, known without looking at the storage folder.
+     */
+    CollectionVersion getUserItemsVersion(String user) {
+        return collectionVersions.get(user, getItemType());
+    }
+
+    Optional<T> getUserItem(String user, String id) {
+        try {
+            String storageFolder = createStorageFolderIfMissing(user);
+            logger.debug("Look for item for user {} into {} with uuid {}", user, storageFolder, id);
+
+            return readItem(user, storageFolder, id);
         } catch(Exception ex) {
             throw new FilesystemDaoException(ex);
         }
     }
 
+    Optional<String> updateUserItem(String user, String uuid, T item) {
+        return userRoots.write(user, () -> {
+            try {
+                String storageFolder = createStorageFolderIfMissing(user);
+                logger.debug("Update item for user {} with uuid {}", user, uuid);
+
+                if(storage.exists(storageFolder, uuid)) {
+                    T persistedItem = createItem(uuid, item);
+                    writeItem(user, storageFolder, uuid, persistedItem);
+                    itemWritten(user, persistedItem);
+                    collectionVersions.changed(user, getItemType());
+                    return Optional.of(uuid);
+                }
+
+                return Optional.empty();
+            } catch(Exception ex) {
+                throw new FilesystemDaoException(ex);
+            }
+        });
+    }
+
     Optional<String> deleteUserItem(String user, String uuid) {
+        return userRoots.write(user, () -> {
+            try {
+                String storageFolder = createStorageFolderIfMissing(user);
+                logger.debug("Delete item for user {} with uuid {}", user, uuid);
+
+                if(storage.delete(storageFolder, uuid)) {
+                    itemChanged(user, uuid, null, null);
+                    itemDeleted(user, uuid);
+                    collectionVersions.changed(user, getItemType());
+                    return Optional.of(uuid);
+                }
+
+                return Optional.empty();
+            } catch(Exception ex) {
+                throw new FilesystemDaoException(ex);
+            }
+        });
+    }
+
+    /**
+     * Opens the file of the item when it holds the JSON the item would be sent as, byte for byte, so it can
+     * be sent without being decoded. The check decodes the file once, later reads of the same file only
+     * look up its version.
+     */
+    Optional<StoredJson> getUserItemJson(String user, String uuid) {
+        if(!filesystemConfiguration.isPassthroughEnabled() || filesystemConfiguration.isBinaryFormat()) {
+            return Optional.empty();
+        }
+
         try {
             String storageFolder = createStorageFolderIfMissing(user);
-            logger.debug("Delete item for user {} with uuid {}", user, uuid);
-
-            Path pathToItem = Paths.get(storageFolder, uuid + FILE_EXTENSION);
-            if(pathToItem.toFile().exists()) {
-                pathToItem.toFile().delete();
-                return Optional.of(uuid);
+            Optional<Path> path = storage.locate(storageFolder, uuid);
+            if(!path.isPresent()) {
+                return Optional.empty();
             }
 
+            BasicFileAttributes attributes = Files.readAttributes(path.get(), BasicFileAttributes.class);
+            FileChannel channel = FileChannel.open(path.get(), StandardOpenOption.READ);
+            try {
+                // The file could have been replaced between reading its attributes and opening it
+                BasicFileAttributes openedAttributes = Files.readAttributes(path.get(), BasicFileAttributes.class);
+                if(attributes.fileKey() == null || !attributes.fileKey().equals(openedAttributes.fileKey())) {
+                    channel.close();
+                    return Optional.empty();
+                }
+
+                String version = jsonVersions.get(storageFolder,
+                    attributes,
+                    () -> getPassthroughVersion(channel, attributes.size()));
+                if(FilesystemJsonVersions.NOT_PASSTHROUGH.equals(version)) {
+                    channel.close();
+                    return Optional.empty();
+                }
+                return Optional.of(new StoredJson(channel, attributes.size(), version));
+            } catch(IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        } catch(NoSuchFileException ex) {
             return Optional.empty();
-        } catch(Exception ex) {
+        } catch(IOException ex) {
             throw new FilesystemDaoException(ex);
         }
     }
 
+    /**
+     * Writes the JSON array of all the items of the user. Item files are copied as they are when they hold
+     * JSON, items in the binary format are converted.
+     */
+    boolean writeUserItemsJson(String user, WritableByteChannel target) throws IOException {
+        if(!filesystemConfiguration.isPassthroughEnabled()) {
+            return false;
+        }
+
+        String storageFolder = createStorageFolderIfMissing(user);
+        logger.debug("Copy items for user {} from {}", user, storageFolder);
+
+        writeFully(target, JSON_ARRAY_START);
+        boolean first = true;
+        try(Stream<String> uuids = storage.stream(storageFolder)) {
+            for(Iterator<String> iterator = uuids.iterator(); iterator.hasNext(); ) {
+                if(copyItemJson(storageFolder, iterator.next(), target, first ? null : JSON_ARRAY_SEPARATOR)) {
+                    first = false;
+                }
+            }
+        }
+        writeFully(target, JSON_ARRAY_END);
+        return true;
+    }
+
     protected abstract T createItem(String uuid, T item);
 
+    /**
+     * Runs the action holding the lock of the item, so conditional writes can check the current item and
+     * replace it atomically. Locks are striped, two items may share one.
+     */
+    <R> R lockItem(String user, String uuid, Supplier<R> action) {
+        int hash = (getStorageFolder(user) + "/" + uuid).hashCode();
+        synchronized (itemLocks[(hash ^ (hash >>> 16)) & (ITEM_LOCKS - 1)]) {
+            return action.get();
+        }
+    }
+
+    /**
+     * Called after an item was created or updated, so subclasses can maintain their own indexes.
+     */
+    protected void itemWritten(String user, T item) throws IOException {
+    }
+
+    protected void itemDeleted(String user, String uuid) throws IOException {
+    }
+
+    protected abstract FilesystemBinaryCodec<T> createBinaryCodec(FilesystemItemCodec<T> jsonCodec);
+
+    /**
+     * Decodes items stored in either format.
+     */
+    T decode(byte[] content) throws IOException {
+        return binaryCodec.decode(content);
+    }
+
+    byte[] encode(T item, boolean binary) throws IOException {
+        return binary ? binaryCodec.encode(item) : jsonCodec.encode(item);
+    }
+
     @Autowired
     FilesystemConfiguration filesystemConfiguration;
 
+    @Autowired
+    FilesystemJsonVersions jsonVersions;
+
+    @Autowired
+    FilesystemItemsCache itemsCache;
+
+    @Autowired
+    FilesystemOffHeapCache offHeapCache;
+
+    @Autowired
+    FilesystemStorage storage;
+
+    @Autowired
+    FilesystemItemsScanner itemsScanner;
+
+    @Autowired
+    FilesystemCollectionVersions collectionVersions;
+
+    @Autowired
+    FilesystemUserRoots userRoots;
+
+    private String getPassthroughVersion(FileChannel channel, long size) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) size);
+        while(content.hasRemaining() && channel.read(content, content.position()) >= 0) {
+        }
+        if(content.hasRemaining() || size == 0 || content.get(0) != '{') {
+            return FilesystemJsonVersions.NOT_PASSTHROUGH;
+        }
+
+        T item = decode(content.array());
+        return Arrays.equals(content.array(), encode(item, false))
+            ? ItemVersions.of(item)
+            : FilesystemJsonVersions.NOT_PASSTHROUGH;
+    }
+
+    /**
+     * Copies the JSON of the item after the separator, returns false when the item is gone.
+     */
+    private boolean copyItemJson(String storageFolder, String uuid, WritableByteChannel target, ByteBuffer separator) throws IOException {
+        Optional<Path> path = storage.locate(storageFolder, uuid);
+        if(path.isPresent()) {
+            try(FileChannel channel = FileChannel.open(path.get(), StandardOpenOption.READ)) {
+                ByteBuffer firstByte = ByteBuffer.allocate(1);
+                if(channel.read(firstByte, 0) == 1 && firstByte.get(0) == '{') {
+                    if(separator != null) {
+                        writeFully(target, separator);
+                    }
+                    new StoredJson(channel, channel.size(), null).transferTo(target);
+                    return true;
+                }
+            } catch(NoSuchFileException ex) {
+                // Deleted or replaced meanwhile, the storage knows which
+            }
+        }
+
+        Optional<byte[]> content = storage.read(storageFolder, uuid);
+        if(!content.isPresent()) {
+            return false;
+        }
+        if(separator != null) {
+            writeFully(target, separator);
+        }
+        byte[] json = content.get().length > 0 && content.get()[0] == '{' ? content.get() : encode(decode(content.get()), false);
+        writeFully(target, ByteBuffer.wrap(json));
+        return true;
+    }
+
+    private static void writeFully(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+        ByteBuffer content = buffer.duplicate();
+        while(content.hasRemaining()) {
+            target.write(content);
+        }
+    }
+
+    private Optional<T> readItem(String user, String storageFolder, String uuid) {
+        T cachedItem = itemsCache.get(user, getItemType(), uuid);
+        if(cachedItem != null) {
+            return Optional.of(cachedItem);
+        }
+
+        return loadItem(user, storageFolder, uuid);
+    }
 
-    private T fromJson(Path path) {
+    /**
+     * Decodes the item from the off heap cache when it is there, so only the bytes of the item and not the
+     * decoded item have to stay in memory.
+     */
+    private Optional<T> loadItem(String user, String storageFolder, String uuid) {
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            return objectMapper.readValue(path.toFile(),
-                (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0]);
+            long generation = getItemGeneration(user, uuid);
+            byte[] content = offHeapCache.get(user, getItemType(), uuid);
+            boolean offHeap = content != null;
+            if(!offHeap) {
+                Optional<byte[]> optionalContent = storage.read(storageFolder, uuid);
+                if(!optionalContent.isPresent()) {
+                    return Optional.empty();
+                }
+                content = optionalContent.get();
+            }
+
+            T item = decode(content);
+            cacheLoadedItem(user, uuid, generation, item, content, !offHeap);
+            return Optional.of(item);
         } catch (IOException ex) {
             throw new FilesystemDaoException(ex);
         }
     }
 
-    private String toJson(T t) {
-        ObjectMapper objectMapper = new ObjectMapper();
+    private void writeItem(String user, String storageFolder, String uuid, T item) throws IOException {
+        byte[] content = encode(item, filesystemConfiguration.isBinaryFormat());
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            objectMapper.writeValue(out, t);
-            return out.toString();
-        } catch (IOException ex) {
-            throw new FilesystemDaoException(ex);
+            storage.write(storageFolder, uuid, content);
+        } catch(IOException | RuntimeException ex) {
+            // The item may have been written anyway, the cached one can't be trusted anymore
+            itemChanged(user, uuid, null, null);
+            throw ex;
+        }
+        itemChanged(user, uuid, item, content);
+    }
+
+    private long getItemGeneration(String user, String uuid) {
+        synchronized (itemGenerations) {
+            return itemGenerations[getGenerationIndex(user, uuid)];
+        }
+    }
+
+    /**
+     * Caches an item read from the storage, and its bytes too when they didn't come from the off heap
+     * cache, unless it was written or deleted since the read started. The caches then already have the
+     * newer item, or nothing.
+     */
+    private void cacheLoadedItem(String user, String uuid, long generation, T item, byte[] content, boolean cacheContent) {
+        synchronized (itemGenerations) {
+            if(itemGenerations[getGenerationIndex(user, uuid)] == generation) {
+                itemsCache.put(user, getItemType(), uuid, item, content.length);
+                if(cacheContent) {
+                    offHeapCache.put(user, getItemType(), uuid, content);
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches the item that was just written, or forgets it when the item is null, after the storage
+     * changed.
+     */
+    private void itemChanged(String user, String uuid, T item, byte[] content) {
+        synchronized (itemGenerations) {
+            itemGenerations[getGenerationIndex(user, uuid)]++;
+            if(item != null) {
+                itemsCache.put(user, getItemType(), uuid, item, content.length);
+                offHeapCache.put(user, getItemType(), uuid, content);
+            } else {
+                itemsCache.remove(user, getItemType(), uuid);
+                offHeapCache.remove(user, getItemType(), uuid);
+            }
         }
     }
 
+    private static int getGenerationIndex(String user, String uuid) {
+        int hash = (user + "/" + uuid).hashCode();
+        return (hash ^ (hash >>> 16)) & (ITEM_GENERATIONS - 1);
+    }
+
     private String createStorageFolderIfMissing(String user) throws IOException {
         return createFolderIfMissing(user, u -> getStorageFolder(u));
     }
@@ -150,6 +496,8 @@ abstract class FilesystemAbstractDao<T> {
 
     protected abstract String getStorageFolder(String user);
 
+    protected abstract String getItemType();
+
     private void createFolderIfMissing(String folder) throws IOException {
         Path path = Paths.get(folder);
         if(!path.toFile().exists()) {
@@ -0,0 +1,51 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import java.io.IOException;
+
+/**
+ * Versioned binary codec for one item type.
+ * <p>
+ * Encoded items start with a zero byte, which never starts a JSON document, followed by the format version.
+ * Content without that prefix is handed to the JSON codec, so folders holding both formats stay readable.
+ */
+abstract class FilesystemBinaryCodec<T> implements FilesystemItemCodec<T> {
+    static final int MAGIC = 0;
+    static final int VERSION = 1;
+
+    private final FilesystemItemCodec<T> jsonCodec;
+
+    FilesystemBinaryCodec(FilesystemItemCodec<T> jsonCodec) {
+        this.jsonCodec = jsonCodec;
+    }
+
+    static boolean isBinary(byte[] content) {
+        return content.length > 0 && content[0] == MAGIC;
+    }
+
+    @Override
+    public T decode(byte[] content) throws IOException {
+        if(!isBinary(content)) {
+            return jsonCodec.decode(content);
+        }
+
+        FilesystemBinaryInput in = new FilesystemBinaryInput(content, 1);
+        int version = in.readByte();
+        if(version != VERSION) {
+            throw new IOException("Unsupported binary item version " + version);
+        }
+        return readItem(in);
+    }
+
+    @Override
+    public byte[] encode(T item) throws IOException {
+        FilesystemBinaryOutput out = new FilesystemBinaryOutput();
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        writeItem(out, item);
+        return out.toByteArray();
+    }
+
+    protected abstract T readItem(FilesystemBinaryInput in) throws IOException;
+
+    protected abstract void writeItem(FilesystemBinaryOutput out, T item);
+}
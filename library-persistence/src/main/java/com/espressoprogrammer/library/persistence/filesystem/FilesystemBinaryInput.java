@@ -0,0 +1,89 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static com.espressoprogrammer.library.persistence.filesystem.FilesystemBinaryOutput.DATE_EPOCH_DAY;
+import static com.espressoprogrammer.library.persistence.filesystem.FilesystemBinaryOutput.DATE_NULL;
+import static com.espressoprogrammer.library.persistence.filesystem.FilesystemBinaryOutput.DATE_TEXT;
+
+/**
+ * Reads the primitives written by {@link FilesystemBinaryOutput}.
+ */
+class FilesystemBinaryInput {
+    private final byte[] content;
+    private int position;
+
+    FilesystemBinaryInput(byte[] content, int position) {
+        this.content = content;
+        this.position = position;
+    }
+
+    int readByte() throws IOException {
+        if(position >= content.length) {
+            throw new EOFException("Unexpected end of binary item");
+        }
+        return content[position++] & 0xFF;
+    }
+
+    long readVarLong() throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary item");
+    }
+
+    int readCount() throws IOException {
+        long count = readVarLong();
+        if(count < 0 || count > content.length - position) {
+            throw new IOException("Invalid count " + count + " in binary item");
+        }
+        return (int) count;
+    }
+
+    Integer readInt() throws IOException {
+        long value = readVarLong();
+        if(value == 0) {
+            return null;
+        }
+        return (int) unzigzag(value - 1);
+    }
+
+    String readString() throws IOException {
+        long length = readVarLong();
+        if(length == 0) {
+            return null;
+        }
+        if(length - 1 > content.length - position) {
+            throw new EOFException("Unexpected end of binary item");
+        }
+        String value = new String(content, position, (int) (length - 1), StandardCharsets.UTF_8);
+        position += length - 1;
+        return value;
+    }
+
+    String readDate() throws IOException {
+        int kind = readByte();
+        switch(kind) {
+            case DATE_NULL:
+                return null;
+            case DATE_EPOCH_DAY:
+                return LocalDate.ofEpochDay(unzigzag(readVarLong())).toString();
+            case DATE_TEXT:
+                return readString();
+            default:
+                throw new IOException("Unknown date kind " + kind + " in binary item");
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,102 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+/**
+ * Growable buffer that writes the primitives of the binary item format.
+ * <p>
+ * Integers are zigzag varints shifted by one so that 0 stands for null, strings are prefixed by their UTF-8
+ * length shifted the same way, and ISO dates are written as epoch days.
+ */
+class FilesystemBinaryOutput {
+    static final int DATE_NULL = 0;
+    static final int DATE_EPOCH_DAY = 1;
+    static final int DATE_TEXT = 2;
+
+    private byte[] buffer = new byte[128];
+    private int size;
+
+    void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    void writeVarLong(long value) {
+        ensureCapacity(10);
+        while((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    void writeCount(int count) {
+        writeVarLong(count);
+    }
+
+    void writeInt(Integer value) {
+        if(value == null) {
+            writeVarLong(0);
+            return;
+        }
+        writeVarLong(zigzag(value) + 1);
+    }
+
+    void writeString(String value) {
+        if(value == null) {
+            writeVarLong(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Dates are kept as strings by the DTOs, so only the ones that come back unchanged from an ISO date
+     * are packed into epoch days. Anything else is written as text.
+     */
+    void writeDate(String value) {
+        if(value == null) {
+            writeByte(DATE_NULL);
+            return;
+        }
+
+        LocalDate date = parseDate(value);
+        if(date != null) {
+            writeByte(DATE_EPOCH_DAY);
+            writeVarLong(zigzag(date.toEpochDay()));
+        } else {
+            writeByte(DATE_TEXT);
+            writeString(value);
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private static LocalDate parseDate(String value) {
+        try {
+            LocalDate date = LocalDate.parse(value);
+            return date.toString().equals(value) ? date : null;
+        } catch(DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void ensureCapacity(int length) {
+        if(size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class FilesystemBookBinaryCodec extends FilesystemBinaryCodec<Book> {
+
+    FilesystemBookBinaryCodec(FilesystemItemCodec<Book> jsonCodec) {
+        super(jsonCodec);
+    }
+
+    @Override
+    protected Book readItem(FilesystemBinaryInput in) throws IOException {
+        String uuid = in.readString();
+        String isbn10 = in.readString();
+        String isbn13 = in.readString();
+        String title = in.readString();
+        int authorsCount = in.readCount();
+        List<String> authors = new ArrayList<>(authorsCount);
+        for(int i = 0; i < authorsCount; i++) {
+            authors.add(in.readString());
+        }
+        String image = in.readString();
+        Integer pages = in.readInt();
+        return new Book(uuid, isbn10, isbn13, title, authors, image, pages);
+    }
+
+    @Override
+    protected void writeItem(FilesystemBinaryOutput out, Book book) {
+        out.writeString(book.getUuid());
+        out.writeString(book.getIsbn10());
+        out.writeString(book.getIsbn13());
+        out.writeString(book.getTitle());
+        out.writeCount(book.getAuthors().size());
+        book.getAuthors().forEach(out::writeString);
+        out.writeString(book.getImage());
+        out.writeInt(book.getPages());
+    }
+}
@@ -0,0 +1,204 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.BooksCursor;
+import com.espressoprogrammer.library.persistence.BooksSort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * In memory sorted sets of the books of a storage folder, one per {@link BooksSort}, so a page of books is
+ * found in time proportional to its size.
+ * <p>
+ * Titles and pages come from the books. The creation order is kept in a journal next to the storage folder,
+ * {@code <folder>.created}, with one line per book holding its creation sequence and uuid. The journal is
+ * rewritten on first use without the books that are gone, books missing from it are added in listing
+ * order.
+ */
+@Component
+class FilesystemBookOrderIndex implements FilesystemFolderCache {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemBookOrderIndex.class);
+
+    private static final String JOURNAL_EXTENSION = ".created";
+    private static final String SEPARATOR = "\t";
+
+    private final ConcurrentMap<String, UserOrder> indexes = new ConcurrentHashMap<>();
+
+    UserOrder get(String folder, Supplier<List<Book>> books) throws IOException {
+        try {
+            return indexes.computeIfAbsent(folder, f -> {
+                try {
+                    long start = System.nanoTime();
+                    UserOrder order = new UserOrder(getJournalPath(Paths.get(f)), books.get());
+                    logger.info("Built order index of {} with {} books in {} ms",
+                        f,
+                        order.getBookCount(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    return order;
+                } catch(IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch(UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    @Override
+    public void release(String folder) {
+        indexes.remove(folder);
+    }
+
+    static Path getJournalPath(Path folder) {
+        return folder.resolveSibling(folder.getFileName() + JOURNAL_EXTENSION);
+    }
+
+    static class UserOrder {
+        private final Path journalPath;
+        private final Map<BooksSort, TreeSet<BooksCursor>> positions = new EnumMap<>(BooksSort.class);
+        private final Map<String, Map<BooksSort, BooksCursor>> positionsByUuid = new HashMap<>();
+        private final Map<String, Long> createdByUuid = new HashMap<>();
+        private long nextCreated;
+
+        private UserOrder(Path journalPath, List<Book> books) throws IOException {
+            this.journalPath = journalPath;
+            for(BooksSort sort : BooksSort.values()) {
+                positions.put(sort, new TreeSet<>());
+            }
+
+            Map<String, Long> journal = replay();
+            for(Book book : books) {
+                Long created = journal.get(book.getUuid());
+                createdByUuid.put(book.getUuid(), created != null ? created : -1L);
+            }
+            nextCreated = journal.values().stream().mapToLong(c -> c + 1).max().orElse(0);
+            for(Book book : books) {
+                if(createdByUuid.get(book.getUuid()) < 0) {
+                    createdByUuid.put(book.getUuid(), nextCreated++);
+                }
+                link(book);
+            }
+            rewrite();
+        }
+
+        /**
+         * Returns at most count positions that come after the given one, a null position starting with the
+         * first book, skipping the books the filter rejects.
+         */
+        synchronized List<BooksCursor> after(BooksSort sort, BooksCursor after, int count, Predicate<String> filter) {
+            TreeSet<BooksCursor> sorted = positions.get(sort);
+            List<BooksCursor> page = new ArrayList<>(count);
+            for(BooksCursor position : after != null ? sorted.tailSet(after, false) : sorted) {
+                if(page.size() == count) {
+                    break;
+                }
+                if(filter.test(position.getUuid())) {
+                    page.add(position);
+                }
+            }
+            return page;
+        }
+
+        synchronized void put(Book book) throws IOException {
+            unlink(book.getUuid());
+            if(!createdByUuid.containsKey(book.getUuid())) {
+                long created = nextCreated++;
+                Files.write(journalPath,
+                    (created + SEPARATOR + book.getUuid() + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+                createdByUuid.put(book.getUuid(), created);
+            }
+            link(book);
+        }
+
+        synchronized void remove(String uuid) {
+            unlink(uuid);
+            createdByUuid.remove(uuid);
+        }
+
+        synchronized int getBookCount() {
+            return positionsByUuid.size();
+        }
+
+        private void link(Book book) {
+            Map<BooksSort, BooksCursor> bookPositions = new EnumMap<>(BooksSort.class);
+            for(BooksSort sort : BooksSort.values()) {
+                BooksCursor position = BooksCursor.of(sort, book, createdByUuid.get(book.getUuid()));
+                positions.get(sort).add(position);
+                bookPositions.put(sort, position);
+            }
+            positionsByUuid.put(book.getUuid(), bookPositions);
+        }
+
+        private void unlink(String uuid) {
+            Map<BooksSort, BooksCursor> bookPositions = positionsByUuid.remove(uuid);
+            if(bookPositions != null) {
+                bookPositions.forEach((sort, position) -> positions.get(sort).remove(position));
+            }
+        }
+
+        private Map<String, Long> replay() throws IOException {
+            Map<String, Long> journal = new HashMap<>();
+            if(!Files.exists(journalPath)) {
+                return journal;
+            }
+            for(String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(SEPARATOR);
+                try {
+                    if(fields.length == 2) {
+                        journal.put(fields[1], Long.parseLong(fields[0]));
+                        continue;
+                    }
+                } catch(NumberFormatException ex) {
+                    // Logged below
+                }
+                if(!line.isEmpty()) {
+                    logger.warn("Skip unknown line '{}' of {}", line, journalPath);
+                }
+            }
+            return journal;
+        }
+
+        private void rewrite() throws IOException {
+            Path tmpPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+            Files.createDirectories(journalPath.getParent());
+            try(BufferedWriter writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+                for(Map.Entry<Long, String> entry : sortByCreated().entrySet()) {
+                    writer.write(entry.getKey() + SEPARATOR + entry.getValue() + "\n");
+                }
+            }
+            Files.move(tmpPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private TreeMap<Long, String> sortByCreated() {
+            TreeMap<Long, String> uuidsByCreated = new TreeMap<>();
+            createdByUuid.forEach((uuid, created) -> uuidsByCreated.put(created, uuid));
+            return uuidsByCreated;
+        }
+    }
+}
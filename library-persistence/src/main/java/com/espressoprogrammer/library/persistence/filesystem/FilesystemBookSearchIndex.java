@@ -0,0 +1,162 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * In memory trigram index over the searchable fields of books, one per storage folder.
+ * <p>
+ * Every lower cased field is split in overlapping three character sequences and each of them points to the
+ * books that contain it. A book that contains the search text in one of its fields contains all the
+ * trigrams of the search text, so intersecting their postings gives a small superset of the matching books
+ * that still has to be checked against the fields. Search texts shorter than a trigram can't use the index.
+ */
+@Component
+class FilesystemBookSearchIndex implements FilesystemFolderCache {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemBookSearchIndex.class);
+
+    static final int TRIGRAM_LENGTH = 3;
+
+    private final ConcurrentMap<String, UserTrigrams> indexes = new ConcurrentHashMap<>();
+
+    UserTrigrams get(String folder, Supplier<List<Book>> books) {
+        return indexes.computeIfAbsent(folder, f -> {
+            long start = System.nanoTime();
+            UserTrigrams trigrams = new UserTrigrams();
+            books.get().forEach(trigrams::put);
+            logger.info("Built search index of {} with {} books, {} trigrams and {} postings (about {} KB) in {} ms",
+                f,
+                trigrams.getBookCount(),
+                trigrams.getTrigramCount(),
+                trigrams.getPostingCount(),
+                trigrams.getEstimatedBytes() / 1024,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return trigrams;
+        });
+    }
+
+    @Override
+    public void release(String folder) {
+        indexes.remove(folder);
+    }
+
+    /**
+     * The values a search text is looked for in, the authors being searched as a single value.
+     */
+    static List<String> getSearchFields(Book book) {
+        return Arrays.asList(book.getTitle(),
+            book.getIsbn10() != null ? book.getIsbn10() : "",
+            book.getIsbn13() != null ? book.getIsbn13() : "",
+            book.getAuthors().stream().reduce("", (acc, s) -> acc + s + " "));
+    }
+
+    static Set<String> getTrigrams(String value) {
+        String text = value.toLowerCase();
+        Set<String> trigrams = new HashSet<>();
+        for(int i = 0; i + TRIGRAM_LENGTH <= text.length(); i++) {
+            trigrams.add(text.substring(i, i + TRIGRAM_LENGTH));
+        }
+        return trigrams;
+    }
+
+    static class UserTrigrams {
+        // Rough footprint of a trigram key with its postings set and of one posting, used for reporting only
+        private static final int TRIGRAM_BYTES = 160;
+        private static final int POSTING_BYTES = 40;
+
+        private final Map<String, Set<String>> uuidsByTrigram = new HashMap<>();
+        private final Map<String, Set<String>> trigramsByUuid = new HashMap<>();
+        private long postings;
+
+        /**
+         * Returns the uuids of the books that may contain the search text, or empty when the search text is
+         * too short to be looked up.
+         */
+        synchronized Optional<List<String>> findCandidates(String searchText) {
+            Set<String> trigrams = getTrigrams(searchText);
+            if(trigrams.isEmpty()) {
+                return Optional.empty();
+            }
+
+            List<Set<String>> postingSets = new ArrayList<>(trigrams.size());
+            for(String trigram : trigrams) {
+                Set<String> uuids = uuidsByTrigram.get(trigram);
+                if(uuids == null) {
+                    return Optional.of(Collections.emptyList());
+                }
+                postingSets.add(uuids);
+            }
+            postingSets.sort(Comparator.comparingInt(Set::size));
+
+            List<String> candidates = new ArrayList<>();
+            for(String uuid : postingSets.get(0)) {
+                if(postingSets.stream().skip(1).allMatch(s -> s.contains(uuid))) {
+                    candidates.add(uuid);
+                }
+            }
+            return Optional.of(candidates);
+        }
+
+        synchronized void put(Book book) {
+            remove(book.getUuid());
+            Set<String> trigrams = new HashSet<>();
+            getSearchFields(book).forEach(field -> trigrams.addAll(getTrigrams(field)));
+            trigrams.forEach(t -> uuidsByTrigram.computeIfAbsent(t, k -> new HashSet<>()).add(book.getUuid()));
+            trigramsByUuid.put(book.getUuid(), trigrams);
+            postings += trigrams.size();
+        }
+
+        synchronized void remove(String uuid) {
+            Set<String> trigrams = trigramsByUuid.remove(uuid);
+            if(trigrams == null) {
+                return;
+            }
+
+            for(String trigram : trigrams) {
+                Set<String> uuids = uuidsByTrigram.get(trigram);
+                uuids.remove(uuid);
+                if(uuids.isEmpty()) {
+                    uuidsByTrigram.remove(trigram);
+                }
+            }
+            postings -= trigrams.size();
+        }
+
+        synchronized int getBookCount() {
+            return trigramsByUuid.size();
+        }
+
+        synchronized int getTrigramCount() {
+            return uuidsByTrigram.size();
+        }
+
+        synchronized long getPostingCount() {
+            return postings;
+        }
+
+        /**
+         * Approximate heap used by the index, postings are counted twice because they are kept in both
+         * directions.
+         */
+        synchronized long getEstimatedBytes() {
+            return (long) uuidsByTrigram.size() * TRIGRAM_BYTES + 2 * postings * POSTING_BYTES;
+        }
+    }
+}
@@ -1,18 +1,45 @@
 package com.espressoprogrammer.library.persistence.filesystem;
 
 import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.BooksCursor;
 import com.espressoprogrammer.library.persistence.BooksDao;
+import com.espressoprogrammer.library.persistence.BooksPage;
+import com.espressoprogrammer.library.persistence.BooksSort;
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import com.espressoprogrammer.library.persistence.DuplicateIsbnException;
+import com.espressoprogrammer.library.persistence.Isbns;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.StoredJson;
+import com.espressoprogrammer.library.persistence.filesystem.FilesystemBookOrderIndex.UserOrder;
+import com.espressoprogrammer.library.persistence.filesystem.FilesystemBookSearchIndex.UserTrigrams;
+import com.espressoprogrammer.library.persistence.filesystem.FilesystemIsbnIndex.UserIsbns;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.function.Predicate;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Repository
+@Profile("!h2 & !memory")
 public class FilesystemBooksDao extends FilesystemAbstractDao<Book> implements BooksDao {
 
+    @Autowired
+    FilesystemIsbnIndex isbnIndex;
+
+    @Autowired
+    FilesystemBookSearchIndex searchIndex;
+
+    @Autowired
+    FilesystemBookOrderIndex orderIndex;
+
     @Override
     public List<Book> getUserBooks(String user) {
         return getUserItems(user);
@@ -20,12 +47,83 @@ public class FilesystemBooksDao extends FilesystemAbstractDao<Book> implements B
 
     @Override
     public List<Book> getUserBooks(String user, String searchText) {
+        Optional<List<String>> candidates = findSearchCandidates(user, searchText);
+        if(candidates.isPresent()) {
+            return findUserItems(user, candidates.get(), b -> applySearchCriteria(b, searchText));
+        }
         return getUserItems(user, searchText);
     }
 
+    @Override
+    public Stream<Book> streamUserBooks(String user) {
+        return streamUserItems(user, (String) null);
+    }
+
+    @Override
+    public Stream<Book> streamUserBooks(String user, String searchText) {
+        Optional<List<String>> candidates = findSearchCandidates(user, searchText);
+        if(candidates.isPresent()) {
+            return streamUserItems(user, candidates.get(), b -> applySearchCriteria(b, searchText));
+        }
+        return streamUserItems(user, searchText);
+    }
+
+    @Override
+    public Optional<CollectionVersion> getUserBooksVersion(String user) {
+        return Optional.of(getUserItemsVersion(user));
+    }
+
+    /**
+     * Walks the order index from the cursor and reads only the books it hands out, checking them against
+     * the search text. A search text that can use the trigram index skips the books that can't match
+     * without reading them.
+     */
+    @Override
+    public BooksPage getUserBooksPage(String user, String searchText, BooksSort sort, String cursor, int limit) {
+        BooksCursor after = cursor != null ? BooksCursor.decode(cursor, sort) : null;
+        Optional<Set<String>> candidates = findSearchCandidates(user, searchText).map(HashSet::new);
+        UserOrder order = getOrder(user);
+
+        // One book more than the limit tells whether there is a next page
+        List<Book> books = new ArrayList<>(limit + 1);
+        List<BooksCursor> positions = new ArrayList<>(limit + 1);
+        BooksCursor last = after;
+        while(books.size() <= limit) {
+            List<BooksCursor> nextPositions = order.after(sort, last, limit + 1 - books.size(),
+                uuid -> !candidates.isPresent() || candidates.get().contains(uuid));
+            if(nextPositions.isEmpty()) {
+                break;
+            }
+            for(BooksCursor position : nextPositions) {
+                Optional<Book> book = getUserItem(user, position.getUuid())
+                    .filter(b -> applySearchCriteria(b, searchText));
+                if(book.isPresent()) {
+                    books.add(book.get());
+                    positions.add(position);
+                }
+                last = position;
+            }
+        }
+
+        if(books.size() > limit) {
+            return new BooksPage(books.subList(0, limit), positions.get(limit - 1).encode());
+        }
+        return new BooksPage(books, null);
+    }
+
+    /**
+     * Writes take the lock of the user folder first, then the lock of the book and then the isbns of the
+     * folder, which are only looked up once the folder can't move anymore.
+     */
     @Override
     public Book createUserBook(String user, Book book) {
-        return createUserItem(user, book);
+        return userRoots.write(user, () -> {
+            UserIsbns isbns = getIsbns(user);
+            synchronized (isbns) {
+                checkIsbns(isbns, createItem(null, book));
+                return createUserItem(user, book);
+            }
+        });
     }
 
     @Override
@@ -34,28 +132,54 @@ public class FilesystemBooksDao extends FilesystemAbstractDao<Book> implements B
     }
 
     @Override
-    public Optional<String> updateUserBook(String user, String uuid, Book book) {
-        return updateUserItem(user, uuid, book);
+    public Optional<StoredJson> getUserBookJson(String user, String uuid) {
+        return getUserItemJson(user, uuid);
     }
 
     @Override
-    public Optional<String> deleteUserBook(String user, String uuid) {
-        return deleteUserItem(user, uuid);
+    public boolean writeUserBooksJson(String user, WritableByteChannel target) throws IOException {
+        return writeUserItemsJson(user, target);
     }
 
     @Override
-    protected boolean applySearchCriteria(Book book, String searchText) {
-        if(StringUtils.isEmpty(searchText)) return true;
+    public Optional<Book> getUserBookByIsbn(String user, String isbn) {
+        Optional<String> key = Isbns.toKey(isbn);
+        if(!key.isPresent()) {
+            return Optional.empty();
+        }
 
-        return createSearchPredicate(book.getTitle())
-            .or(createSearchPredicate(book.getIsbn10() != null ? book.getIsbn10() : ""))
-            .or(createSearchPredicate(book.getIsbn13() != null ? book.getIsbn13() : ""))
-            .or(createSearchPredicate(book.getAuthors().stream().reduce("", (acc, s) -> acc + s + " ")))
-            .test(searchText);
+        return getIsbns(user).find(key.get())
+            .flatMap(uuid -> getUserItem(user, uuid))
+            .filter(b -> Isbns.toKeys(b).contains(key.get()));
     }
 
-    private Predicate<String> createSearchPredicate(String value) {
-        return s -> value.toLowerCase().contains(s.toLowerCase());
+    @Override
+    public Optional<String> updateUserBook(String user, String uuid, Book book, String version) {
+        return userRoots.write(user, () -> lockItem(user, uuid, () -> {
+            checkVersion(user, uuid, version);
+            UserIsbns isbns = getIsbns(user);
+            synchronized (isbns) {
+                checkIsbns(isbns, createItem(uuid, book));
+                return updateUserItem(user, uuid, book);
+            }
+        }));
+    }
+
+    @Override
+    public Optional<String> deleteUserBook(String user, String uuid, String version) {
+        return userRoots.write(user, () -> lockItem(user, uuid, () -> {
+            checkVersion(user, uuid, version);
+            return deleteUserItem(user, uuid);
+        }));
+    }
+
+    @Override
+    protected boolean applySearchCriteria(Book book, String searchText) {
+        if(StringUtils.isEmpty(searchText)) return true;
+
+        String text = searchText.toLowerCase();
+        return FilesystemBookSearchIndex.getSearchFields(book).stream()
+            .anyMatch(value -> value.toLowerCase().contains(text));
     }
 
     @Override
@@ -69,9 +193,73 @@ public class FilesystemBooksDao extends FilesystemAbstractDao<Book> implements B
             book.getPages());
     }
 
+    @Override
+    protected FilesystemBinaryCodec<Book> createBinaryCodec(FilesystemItemCodec<Book> jsonCodec) {
+        return new FilesystemBookBinaryCodec(jsonCodec);
+    }
+
+    @Override
+    protected void itemWritten(String user, Book book) throws IOException {
+        getIsbns(user).put(book);
+        getSearchTrigrams(user).put(book);
+        orderIndex.get(getStorageFolder(user), () -> getUserItems(user)).put(book);
+    }
+
+    @Override
+    protected void itemDeleted(String user, String uuid) throws IOException {
+        getIsbns(user).remove(uuid);
+        getSearchTrigrams(user).remove(uuid);
+        orderIndex.get(getStorageFolder(user), () -> getUserItems(user)).remove(uuid);
+    }
+
+    private UserIsbns getIsbns(String user) {
+        return isbnIndex.get(getStorageFolder(user), () -> getUserItems(user));
+    }
+
+    private UserOrder getOrder(String user) {
+        try {
+            return orderIndex.get(getStorageFolder(user), () -> getUserItems(user));
+        } catch(IOException ex) {
+            throw new FilesystemDaoException(ex);
+        }
+    }
+
+    private UserTrigrams getSearchTrigrams(String user) {
+        return searchIndex.get(getStorageFolder(user), () -> getUserItems(user));
+    }
+
+    /**
+     * Books that may match the search text, or empty when all the books have to be checked.
+     */
+    private Optional<List<String>> findSearchCandidates(String user, String searchText) {
+        if(!StringUtils.hasLength(searchText)
+            || searchText.toLowerCase().length() < FilesystemBookSearchIndex.TRIGRAM_LENGTH) {
+            return Optional.empty();
+        }
+        return getSearchTrigrams(user).findCandidates(searchText);
+    }
+
+    private void checkVersion(String user, String uuid, String version) {
+        if(version != null) {
+            getUserItem(user, uuid).ifPresent(b -> ItemVersions.check(uuid, b, version));
+        }
+    }
+
+    private void checkIsbns(UserIsbns isbns, Book book) {
+        Optional<String> conflict = isbns.findConflict(book);
+        if(conflict.isPresent()) {
+            throw new DuplicateIsbnException(conflict.get(), isbns.find(conflict.get()).orElse(null));
+        }
+    }
+
     @Override
     protected String getStorageFolder(String user) {
-        return filesystemConfiguration.getLibraryFolder() + "/" + user + "/books";
+        return userRoots.getUserFolder(user) + "/" + getItemType();
+    }
+
+    @Override
+    protected String getItemType() {
+        return "books";
     }
 
 }
@@ -0,0 +1,54 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Change counters of the items of one type of a user, so a client that already has the items can be told so
+ * without listing their storage folder.
+ * <p>
+ * Counters are kept by user and item type, not by storage folder, so they keep counting when the user is
+ * moved to another root. They are kept in memory only and count only the changes made through this
+ * application, items written by another instance sharing the storage are never noticed and clients keep
+ * being told they have the latest items. Tags start with a value drawn when the application starts, so a
+ * counter that starts over after a restart never repeats a tag of the previous run, and items nobody
+ * wrote to yet are last modified when the application started. The DAOs count a change after it is
+ * visible to readers, a reader that gets the version first never pairs a new tag with old items.
+ */
+@Component
+class FilesystemCollectionVersions {
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+    private final long startMillis = System.currentTimeMillis();
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    CollectionVersion get(String user, String type) {
+        Counter counter = counters.get(getKey(user, type));
+        if(counter == null) {
+            return new CollectionVersion(epoch + "-0", startMillis);
+        }
+        synchronized (counter) {
+            return new CollectionVersion(epoch + "-" + counter.changes, counter.lastModified);
+        }
+    }
+
+    void changed(String user, String type) {
+        Counter counter = counters.computeIfAbsent(getKey(user, type), k -> new Counter());
+        synchronized (counter) {
+            counter.changes++;
+            counter.lastModified = Math.max(counter.lastModified, System.currentTimeMillis());
+        }
+    }
+
+    private static String getKey(String user, String type) {
+        return user + "/" + type;
+    }
+
+    private static class Counter {
+        private long changes;
+        private long lastModified;
+    }
+}
@@ -4,16 +4,172 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
 @Component
 class FilesystemConfiguration {
 
     @Value(value = "${filesystem.dao.rootfolder:}")
     private String libraryFolder;
 
+    @Value(value = "${filesystem.dao.cache.maxbytes:33554432}")
+    private long cacheMaxBytes;
+
+    @Value(value = "${filesystem.dao.offheap.maxbytes:0}")
+    private long offHeapCacheMaxBytes;
+
+    @Value(value = "${filesystem.dao.passthrough:true}")
+    private boolean passthrough;
+
+    @Value(value = "${filesystem.dao.index.enabled:true}")
+    private boolean indexEnabled;
+
+    @Value(value = "${filesystem.dao.format:json}")
+    private String format;
+
+    @Value(value = "${filesystem.dao.scan.parallelism:0}")
+    private int scanParallelism;
+
+    @Value(value = "${filesystem.dao.scan.parallel.threshold:1000}")
+    private int scanParallelThreshold;
+
+    @Value(value = "${filesystem.dao.storage:files}")
+    private String storage;
+
+    @Value(value = "${filesystem.dao.log.segment.maxbytes:8388608}")
+    private long logSegmentMaxBytes;
+
+    @Value(value = "${filesystem.dao.log.compaction.interval:60000}")
+    private long logCompactionInterval;
+
+    @Value(value = "${filesystem.dao.durability:none}")
+    private String durability;
+
+    @Value(value = "${filesystem.dao.durability.group.window:2}")
+    private long groupCommitWindow;
+
+    @Value(value = "${filesystem.dao.mirror.rootfolder:}")
+    private String mirrorFolder;
+
+    @Value(value = "${filesystem.dao.mirror.hedge.percentile:95}")
+    private double hedgePercentile;
+
+    @Value(value = "${filesystem.dao.mirror.metrics.interval:0}")
+    private long mirrorMetricsInterval;
+
+    @Value(value = "${filesystem.dao.rebalance.grace:60000}")
+    private long rebalanceGrace;
+
+    @Value(value = "${filesystem.dao.layout:flat}")
+    private String layout;
+
+    @Value(value = "${filesystem.dao.writebehind.delay:0}")
+    private long writeBehindDelay;
+
+    @Value(value = "${filesystem.dao.writebehind.maxpending:10000}")
+    private int writeBehindMaxPending;
+
+    /**
+     * The first of the library roots.
+     */
     String getLibraryFolder() {
-        if(!StringUtils.isEmpty(libraryFolder)) {
-            return libraryFolder;
+        return getLibraryFolders().get(0);
+    }
+
+    List<String> getLibraryFolders() {
+        List<String> libraryFolders = Arrays.stream(StringUtils.commaDelimitedListToStringArray(libraryFolder))
+            .map(String::trim)
+            .filter(f -> !f.isEmpty())
+            .collect(toList());
+        if(!libraryFolders.isEmpty()) {
+            return libraryFolders;
+        }
+        return Collections.singletonList(System.getProperty("user.home") + "/Library");
+    }
+
+    /**
+     * Root that mirrors every storage folder, empty when items aren't mirrored.
+     */
+    String getMirrorFolder() {
+        return mirrorFolder;
+    }
+
+    double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    long getMirrorMetricsInterval() {
+        return mirrorMetricsInterval;
+    }
+
+    long getRebalanceGrace() {
+        return rebalanceGrace;
+    }
+
+    long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    long getOffHeapCacheMaxBytes() {
+        return offHeapCacheMaxBytes;
+    }
+
+    boolean isPassthroughEnabled() {
+        return passthrough;
+    }
+
+    boolean isIndexEnabled() {
+        return indexEnabled;
+    }
+
+    boolean isBinaryFormat() {
+        return "binary".equals(format);
+    }
+
+    int getScanParallelism() {
+        if(scanParallelism > 0) {
+            return scanParallelism;
         }
-        return System.getProperty("user.home") + "/Library";
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    int getScanParallelThreshold() {
+        return scanParallelThreshold;
+    }
+
+    String getStorage() {
+        return storage;
+    }
+
+    long getLogSegmentMaxBytes() {
+        return logSegmentMaxBytes;
+    }
+
+    long getLogCompactionInterval() {
+        return logCompactionInterval;
+    }
+
+    String getDurability() {
+        return durability;
+    }
+
+    long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    String getLayout() {
+        return layout;
+    }
+
+    long getWriteBehindDelay() {
+        return writeBehindDelay;
+    }
+
+    int getWriteBehindMaxPending() {
+        return writeBehindMaxPending;
     }
 }
@@ -0,0 +1,77 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Where item files sit inside a storage folder.
+ * <p>
+ * The {@code flat} layout keeps every item file right in the storage folder. The {@code sharded} layout spreads
+ * them over two levels of subfolders named after a hash of the uuid, like {@code books/3f/a2/<uuid>.json}, so
+ * no folder holds more than a few entries even for users with hundreds of thousands of items.
+ */
+class FilesystemFileLayout {
+    static final String FLAT = "flat";
+    static final String SHARDED = "sharded";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final boolean sharded;
+
+    private FilesystemFileLayout(boolean sharded) {
+        this.sharded = sharded;
+    }
+
+    static FilesystemFileLayout create(String layout) {
+        switch(layout) {
+            case FLAT:
+                return new FilesystemFileLayout(false);
+            case SHARDED:
+                return new FilesystemFileLayout(true);
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout + ", expected one of " + FLAT + ", " + SHARDED);
+        }
+    }
+
+    boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * How deep item files sit below the storage folder, 1 meaning right in it.
+     */
+    int getDepth() {
+        return sharded ? 3 : 1;
+    }
+
+    Path getPath(String folder, String uuid, String extension) {
+        if(!sharded) {
+            return getFlatPath(folder, uuid, extension);
+        }
+
+        int hash = hash(uuid);
+        return Paths.get(folder, toHex(hash >>> 8), toHex(hash), uuid + extension);
+    }
+
+    /**
+     * Path of the item in the flat layout, where items stored before switching to the sharded layout are.
+     */
+    Path getFlatPath(String folder, String uuid, String extension) {
+        return Paths.get(folder, uuid + extension);
+    }
+
+    private static String toHex(int value) {
+        return new String(new char[] {HEX_DIGITS[(value >>> 4) & 0xf], HEX_DIGITS[value & 0xf]});
+    }
+
+    private static int hash(String uuid) {
+        // Spreads similar uuids like uuid-1, uuid-2 over different subfolders
+        int h = uuid.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,400 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps every item into its own {@code <uuid>.json} file, or {@code <uuid>.bin} when items are stored in the
+ * binary format.
+ * <p>
+ * When indexing is enabled every storage folder gets a {@link FilesystemItemsIndex}, so listings and
+ * existence checks are answered from the index instead of the folder. At most {@value #MAX_INDEXES} indexes
+ * stay mapped, the others are dropped and mapped again when their folder is used. Files are replaced through a
+ * {@link FilesystemFileWriter}, never rewritten in place.
+ * <p>
+ * With the sharded {@link FilesystemFileLayout} items stored before in the flat layout are still read, and a
+ * background thread moves them into their subfolders. A move links the file under its new name and then
+ * unlinks the old one, so it never overwrites a newer write and never brings back a deleted item.
+ */
+class FilesystemFileStorage implements FilesystemStorage, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemFileStorage.class);
+
+    static final String JSON_EXTENSION = ".json";
+    static final String BINARY_EXTENSION = ".bin";
+
+    static final int MAX_INDEXES = 4096;
+
+    private final boolean indexed;
+    private final String extension;
+    private final FilesystemFileWriter writer;
+    private final FilesystemFileLayout layout;
+    private final ConcurrentMap<String, Optional<FilesystemItemsIndex>> indexes = new ConcurrentHashMap<>();
+    // Folders of the sharded layout, true once no item is left in the flat layout
+    private final ConcurrentMap<String, Boolean> migrated = new ConcurrentHashMap<>();
+    private final ExecutorService migrationExecutor;
+
+    FilesystemFileStorage() {
+        this(true, JSON_EXTENSION);
+    }
+
+    FilesystemFileStorage(boolean indexed, String extension) {
+        this(indexed, extension, new FilesystemFileWriter(false));
+    }
+
+    FilesystemFileStorage(boolean indexed, String extension, FilesystemFileWriter writer) {
+        this(indexed, extension, writer, FilesystemFileLayout.create(FilesystemFileLayout.FLAT));
+    }
+
+    FilesystemFileStorage(boolean indexed, String extension, FilesystemFileWriter writer, FilesystemFileLayout layout) {
+        this.indexed = indexed;
+        this.extension = extension;
+        this.writer = writer;
+        this.layout = layout;
+        if(layout.isSharded()) {
+            migrationExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "filesystem-layout-migration");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            migrationExecutor = null;
+        }
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        Optional<FilesystemItemsIndex> index = getIndex(folder);
+        if(index.isPresent()) {
+            return index.get().list();
+        }
+
+        try(Stream<String> uuids = stream(folder)) {
+            return uuids.collect(toList());
+        }
+    }
+
+    /**
+     * Walks the index or the folder as the stream is consumed, the folder staying open until the stream is
+     * closed.
+     */
+    @Override
+    public Stream<String> stream(String folder) throws IOException {
+        Optional<FilesystemItemsIndex> index = getIndex(folder);
+        if(index.isPresent()) {
+            return index.get().stream();
+        }
+
+        Path folderPath = Paths.get(folder);
+        Stream<String> uuids = (layout.isSharded() ? Files.walk(folderPath, layout.getDepth()) : Files.list(folderPath))
+            .filter(p -> !layout.isSharded() || Files.isRegularFile(p))
+            .map(p -> p.getFileName().toString())
+            .filter(n -> n.endsWith(extension))
+            .map(n -> n.substring(0, n.length() - extension.length()));
+        // An item being moved into its subfolder shows up twice for a moment
+        return layout.isSharded() ? uuids.distinct() : uuids;
+    }
+
+    @Override
+    public boolean exists(String folder, String uuid) throws IOException {
+        Optional<FilesystemItemsIndex> index = getIndex(folder);
+        if(index.isPresent()) {
+            return index.get().contains(uuid);
+        }
+
+        return getPath(folder, uuid).toFile().exists()
+            || (hasFlatItems(folder) && getFlatPath(folder, uuid).toFile().exists());
+    }
+
+    @Override
+    public Optional<byte[]> read(String folder, String uuid) throws IOException {
+        Optional<FilesystemItemsIndex> index = getIndex(folder);
+        if(index.isPresent()) {
+            if(!index.get().contains(uuid)) {
+                return Optional.empty();
+            }
+        }
+
+        return readItem(folder, uuid);
+    }
+
+    @Override
+    public Optional<Path> locate(String folder, String uuid) throws IOException {
+        Path path = getPath(folder, uuid);
+        if(path.toFile().exists()) {
+            return Optional.of(path);
+        }
+        if(hasFlatItems(folder) && getFlatPath(folder, uuid).toFile().exists()) {
+            return Optional.of(getFlatPath(folder, uuid));
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public void write(String folder, String uuid, byte[] content) throws IOException {
+        Optional<FilesystemItemsIndex> index = getIndex(folder);
+        Path path = getPath(folder, uuid);
+        if(layout.isSharded()) {
+            Files.createDirectories(path.getParent());
+        }
+        writer.write(path, content);
+        if(hasFlatItems(folder)) {
+            // The item may have been stored in the flat layout, which is now stale
+            Files.deleteIfExists(getFlatPath(folder, uuid));
+        }
+        while(index.isPresent() && FilesystemItemsIndex.canIndex(uuid)) {
+            synchronized (index.get()) {
+                if(!index.get().isClosed()) {
+                    index.get().put(uuid, content.length, System.currentTimeMillis());
+                    return;
+                }
+            }
+            index = getIndex(folder);
+        }
+
+        if(index.isPresent()) {
+            closeIndex(folder, index.get());
+        }
+    }
+
+    @Override
+    public boolean delete(String folder, String uuid) throws IOException {
+        Optional<FilesystemItemsIndex> index = getIndex(folder);
+        while(index.isPresent()) {
+            synchronized (index.get()) {
+                if(!index.get().isClosed()) {
+                    if(!index.get().contains(uuid)) {
+                        return false;
+                    }
+                    deleteFiles(folder, uuid);
+                    index.get().remove(uuid);
+                    return true;
+                }
+            }
+            index = getIndex(folder);
+        }
+
+        return deleteFiles(folder, uuid);
+    }
+
+    @Override
+    public void release(String folder) {
+        dropIndex(folder);
+        migrated.remove(folder);
+    }
+
+    @Override
+    public void close() {
+        if(migrationExecutor != null) {
+            migrationExecutor.shutdownNow();
+            try {
+                migrationExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        indexes.keySet().forEach(this::dropIndex);
+        writer.close();
+    }
+
+    /**
+     * Returns true when the folder may still hold items in the flat layout, starting their move into the
+     * sharded layout the first time the folder is used.
+     */
+    private boolean hasFlatItems(String folder) {
+        if(!layout.isSharded()) {
+            return false;
+        }
+
+        return !migrated.computeIfAbsent(folder, f -> {
+            try {
+                migrationExecutor.execute(() -> migrate(f));
+            } catch(RejectedExecutionException ex) {
+                logger.debug("Storage is closed, items of {} stay in the flat layout", f);
+            }
+            return false;
+        });
+    }
+
+    private void migrate(String folder) {
+        long start = System.nanoTime();
+        List<Path> flatFiles;
+        try(Stream<Path> paths = Files.list(Paths.get(folder))) {
+            flatFiles = paths
+                .filter(p -> p.getFileName().toString().endsWith(extension))
+                .filter(Files::isRegularFile)
+                .collect(toList());
+        } catch(NoSuchFileException ex) {
+            migrated.put(folder, true);
+            return;
+        } catch(IOException ex) {
+            logger.warn("Can't list {}, its items stay in the flat layout", folder, ex);
+            return;
+        }
+
+        int moved = 0;
+        for(Path flatFile : flatFiles) {
+            if(Thread.currentThread().isInterrupted()) {
+                logger.info("Stopped moving items of {} into subfolders after {} of {}", folder, moved, flatFiles.size());
+                return;
+            }
+
+            String fileName = flatFile.getFileName().toString();
+            Path path = getPath(folder, fileName.substring(0, fileName.length() - extension.length()));
+            try {
+                Files.createDirectories(path.getParent());
+                try {
+                    Files.createLink(path, flatFile);
+                } catch(FileAlreadyExistsException ex) {
+                    // Written after the switch, the flat file is stale
+                } catch(NoSuchFileException ex) {
+                    // Deleted or rewritten meanwhile
+                    continue;
+                }
+                Files.deleteIfExists(flatFile);
+                moved++;
+            } catch(IOException | UnsupportedOperationException ex) {
+                logger.warn("Can't move {} into its subfolder, the items of {} stay in the flat layout", flatFile, folder, ex);
+                return;
+            }
+        }
+
+        migrated.put(folder, true);
+        if(moved > 0) {
+            logger.info("Moved {} items of {} into subfolders in {} ms",
+                moved,
+                folder,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private boolean deleteFiles(String folder, String uuid) throws IOException {
+        // The flat file goes first, so a concurrent move into the subfolder can't bring the item back
+        boolean deleted = hasFlatItems(folder) && Files.deleteIfExists(getFlatPath(folder, uuid));
+        return Files.deleteIfExists(getPath(folder, uuid)) || deleted;
+    }
+
+    private Optional<byte[]> readItem(String folder, String uuid) throws IOException {
+        Optional<byte[]> content = readFile(getPath(folder, uuid));
+        if(content.isPresent() || !hasFlatItems(folder)) {
+            return content;
+        }
+
+        content = readFile(getFlatPath(folder, uuid));
+        if(content.isPresent()) {
+            return content;
+        }
+        // Moved into its subfolder between the two reads
+        return readFile(getPath(folder, uuid));
+    }
+
+    /**
+     * Reads the already opened file into a buffer of its size. Items are replaced, never rewritten in place,
+     * so the opened file keeps its size.
+     */
+    private Optional<byte[]> readFile(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("Item file " + path + " is too big");
+            }
+            return Optional.of(readFully(channel, (int) size));
+        } catch(NoSuchFileException ex) {
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] readFully(FileChannel channel, int length) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(length);
+        while(content.hasRemaining()) {
+            if(channel.read(content) < 0) {
+                return Arrays.copyOf(content.array(), content.position());
+            }
+        }
+        return content.array();
+    }
+
+    private Optional<FilesystemItemsIndex> getIndex(String folder) throws IOException {
+        if(!indexed) {
+            return Optional.empty();
+        }
+
+        Optional<FilesystemItemsIndex> index;
+        try {
+            index = indexes.computeIfAbsent(folder, f -> {
+                try {
+                    return Optional.ofNullable(FilesystemItemsIndex.open(Paths.get(f),
+                        extension,
+                        layout.getDepth(),
+                        writer.isDurable()));
+                } catch(IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch(UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        if(indexes.size() > MAX_INDEXES) {
+            indexes.keySet().stream()
+                .filter(f -> !f.equals(folder))
+                .limit(indexes.size() - MAX_INDEXES)
+                .collect(toList())
+                .forEach(this::dropIndex);
+        }
+        return index;
+    }
+
+    private void dropIndex(String folder) {
+        Optional<FilesystemItemsIndex> index = indexes.get(folder);
+        if(index == null) {
+            return;
+        }
+        if(index.isPresent()) {
+            closeIndex(folder, index.get());
+        } else {
+            indexes.remove(folder, index);
+        }
+    }
+
+    /**
+     * Drops the index of a folder once no update is running on it, an update that comes later finds it
+     * closed and goes to the index mapped again.
+     */
+    private void closeIndex(String folder, FilesystemItemsIndex index) {
+        synchronized (index) {
+            index.close();
+            indexes.remove(folder, Optional.of(index));
+        }
+    }
+
+    private Path getPath(String folder, String uuid) {
+        return layout.getPath(folder, uuid, extension);
+    }
+
+    private Path getFlatPath(String folder, String uuid) {
+        return layout.getFlatPath(folder, uuid, extension);
+    }
+}
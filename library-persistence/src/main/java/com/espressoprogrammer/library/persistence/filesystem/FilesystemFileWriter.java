@@ -0,0 +1,110 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces item files atomically: the content goes into a temporary file of the same folder, which is then
+ * renamed over the item file, so readers and a restart after a crash see either the old or the new content.
+ * <p>
+ * Temporary files are named {@code <uuid><extension>.<random>.tmp} and are never mistaken for items.
+ * With {@code fsync} durability the temporary file is flushed before the rename and the folder after it,
+ * so a write that returned survives a power loss.
+ */
+class FilesystemFileWriter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemFileWriter.class);
+
+    static final String NONE = "none";
+    static final String FSYNC = "fsync";
+    static final String GROUP_COMMIT = "group-commit";
+
+    static final String TEMP_EXTENSION = ".tmp";
+
+    private final boolean fsync;
+
+    FilesystemFileWriter(boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    static FilesystemFileWriter create(String durability, long groupCommitWindowMillis) {
+        switch(durability) {
+            case NONE:
+                return new FilesystemFileWriter(false);
+            case FSYNC:
+                return new FilesystemFileWriter(true);
+            case GROUP_COMMIT:
+                return new FilesystemGroupCommitWriter(groupCommitWindowMillis);
+            default:
+                throw new IllegalArgumentException("Unknown durability " + durability
+                    + ", expected one of " + NONE + ", " + FSYNC + ", " + GROUP_COMMIT);
+        }
+    }
+
+    /**
+     * Returns true when written files are flushed to the disk.
+     */
+    boolean isDurable() {
+        return fsync;
+    }
+
+    void write(Path path, byte[] content) throws IOException {
+        Path tmpPath = writeTemp(path, content, fsync);
+        try {
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException ex) {
+            Files.deleteIfExists(tmpPath);
+            throw ex;
+        }
+        if(fsync) {
+            forceFolder(path.getParent());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    static Path writeTemp(Path path, byte[] content, boolean force) throws IOException {
+        Path tmpPath = Files.createTempFile(path.getParent(), path.getFileName() + ".", TEMP_EXTENSION);
+        try(FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if(force) {
+                channel.force(false);
+            }
+        } catch(IOException ex) {
+            Files.deleteIfExists(tmpPath);
+            throw ex;
+        }
+        return tmpPath;
+    }
+
+    /**
+     * Flushes the folder entries, which is what makes a rename durable.
+     */
+    static void forceFolder(Path folder) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(folder, StandardOpenOption.READ);
+        } catch(IOException ex) {
+            // Some platforms, Windows among them, can't open a folder for reading
+            logger.debug("Can't open {} to flush it", folder, ex);
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+/**
+ * Keeps in memory what was built from storage folders, like the indexes of their items.
+ */
+interface FilesystemFolderCache {
+
+    /**
+     * Forgets what is kept for the folder, which is about to be moved or deleted. Using the folder afterwards
+     * builds it again.
+     */
+    void release(String folder);
+}
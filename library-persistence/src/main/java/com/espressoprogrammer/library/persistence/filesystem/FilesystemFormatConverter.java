@@ -0,0 +1,87 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Rewrites the items of a user folder from JSON to the binary format or back.
+ * <p>
+ * Every item is written under its new extension before the old file is removed, so an interrupted run
+ * leaves at most a duplicate that the next run converts again. It is meant to be run while the API is
+ * stopped, switching {@code filesystem.dao.format} at the same time. The classes of the application jar
+ * sit under {@code BOOT-INF/}, so the converter is started through the launcher of Spring Boot:
+ * <pre>
+ * java -cp library-rest-0.1-SNAPSHOT.jar \
+ *     -Dloader.main=com.espressoprogrammer.library.persistence.filesystem.FilesystemFormatConverter \
+ *     org.springframework.boot.loader.PropertiesLauncher ~/Library/johndoe binary
+ * </pre>
+ */
+public class FilesystemFormatConverter {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemFormatConverter.class);
+
+    private final List<FilesystemAbstractDao<?>> daos = Arrays.asList(new FilesystemBooksDao(),
+        new FilesystemReadingSessionsDao());
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2 || !Arrays.asList("json", "binary").contains(args[1])) {
+            System.err.println("Usage: FilesystemFormatConverter <user folder> json|binary");
+            System.exit(1);
+        }
+        new FilesystemFormatConverter().convert(Paths.get(args[0]), "binary".equals(args[1]));
+    }
+
+    public void convert(Path userFolder, boolean toBinary) throws IOException {
+        for(FilesystemAbstractDao<?> dao : daos) {
+            Path folder = userFolder.resolve(dao.getItemType());
+            if(Files.isDirectory(folder)) {
+                convertFolder(dao, folder, toBinary);
+            }
+        }
+    }
+
+    private <T> void convertFolder(FilesystemAbstractDao<T> dao, Path folder, boolean toBinary) throws IOException {
+        String sourceExtension = toBinary ? FilesystemFileStorage.JSON_EXTENSION : FilesystemFileStorage.BINARY_EXTENSION;
+        String targetExtension = toBinary ? FilesystemFileStorage.BINARY_EXTENSION : FilesystemFileStorage.JSON_EXTENSION;
+
+        List<Path> sources;
+        // Deep enough for the sharded layout too
+        try(Stream<Path> paths = Files.walk(folder, 3)) {
+            sources = paths
+                .filter(p -> p.getFileName().toString().endsWith(sourceExtension))
+                .filter(Files::isRegularFile)
+                .collect(toList());
+        }
+
+        long sourceBytes = 0;
+        long targetBytes = 0;
+        for(Path source : sources) {
+            String fileName = source.getFileName().toString();
+            String uuid = fileName.substring(0, fileName.length() - sourceExtension.length());
+            byte[] content = Files.readAllBytes(source);
+            byte[] converted = dao.encode(dao.decode(content), toBinary);
+
+            Path target = source.resolveSibling(uuid + targetExtension);
+            Path tmp = source.resolveSibling(uuid + targetExtension + ".tmp");
+            Files.write(tmp, converted);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(source);
+
+            sourceBytes += content.length;
+            targetBytes += converted.length;
+        }
+
+        Files.deleteIfExists(FilesystemItemsIndex.getIndexPath(folder));
+        logger.info("Converted {} items of {} from {} to {} bytes", sources.size(), folder, sourceBytes, targetBytes);
+    }
+}
@@ -0,0 +1,195 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durable writer that shares the flushes of concurrent writers.
+ * <p>
+ * Writers only fill their temporary files and wait. A single committer thread collects the writes that
+ * arrive during one flush window, flushes their files back to back, renames them in arrival order and then
+ * flushes every touched folder once, before it releases the writers. Files still need one flush each, but
+ * issued together they usually end up in the same journal commit, and a folder is flushed once per window
+ * instead of once per write.
+ */
+class FilesystemGroupCommitWriter extends FilesystemFileWriter {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemGroupCommitWriter.class);
+
+    private static final Write CLOSE = new Write(null, null);
+
+    private final long windowNanos;
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private boolean closed;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+
+    FilesystemGroupCommitWriter(long windowMillis) {
+        super(true);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.committer = new Thread(this::commitLoop, "filesystem-group-commit");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    @Override
+    void write(Path path, byte[] content) throws IOException {
+        Write write = new Write(path, writeTemp(path, content, false));
+        synchronized (this) {
+            if(closed) {
+                Files.deleteIfExists(write.tmpPath);
+                throw new IOException("Writer is closed");
+            }
+            queue.add(write);
+        }
+        try {
+            write.done.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + path + " to be committed", ex);
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    long getWriteCount() {
+        return writes.sum();
+    }
+
+    long getCommitCount() {
+        return commits.sum();
+    }
+
+    /**
+     * Commits the pending writes and stops the committer.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            queue.add(CLOSE);
+        }
+        try {
+            committer.join();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commitLoop() {
+        List<Write> batch = new ArrayList<>();
+        try {
+            boolean stop = false;
+            while(!stop) {
+                batch = new ArrayList<>();
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                for(long remaining = windowNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+                    Write write = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if(write == null) {
+                        break;
+                    }
+                    batch.add(write);
+                }
+                queue.drainTo(batch);
+                stop = batch.remove(CLOSE);
+                commit(batch);
+            }
+        } catch(InterruptedException ex) {
+            synchronized (this) {
+                closed = true;
+            }
+            // Nothing is queued after closing, so the writers still waiting are all drained here
+            queue.drainTo(batch);
+            batch.remove(CLOSE);
+            logger.warn("Group commit interrupted, {} writes are left uncommitted", batch.size());
+            IOException failure = new IOException("Group commit interrupted", ex);
+            for(Write write : batch) {
+                fail(write, failure);
+            }
+        }
+    }
+
+    private void commit(List<Write> batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        Map<Path, List<Write>> renamedByFolder = new LinkedHashMap<>();
+        for(Write write : batch) {
+            try {
+                try(FileChannel channel = FileChannel.open(write.tmpPath, StandardOpenOption.WRITE)) {
+                    channel.force(false);
+                }
+            } catch(IOException ex) {
+                fail(write, ex);
+            }
+        }
+        for(Write write : batch) {
+            if(write.done.isDone()) {
+                continue;
+            }
+            try {
+                Files.move(write.tmpPath, write.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                renamedByFolder.computeIfAbsent(write.path.getParent(), f -> new ArrayList<>()).add(write);
+            } catch(IOException ex) {
+                fail(write, ex);
+            }
+        }
+        writes.add(batch.size());
+        commits.increment();
+        for(Map.Entry<Path, List<Write>> entry : renamedByFolder.entrySet()) {
+            try {
+                forceFolder(entry.getKey());
+                entry.getValue().forEach(w -> w.done.complete(null));
+            } catch(IOException ex) {
+                entry.getValue().forEach(w -> w.done.completeExceptionally(ex));
+            }
+        }
+        logger.debug("Committed {} writes into {} folders", batch.size(), renamedByFolder.size());
+    }
+
+    private void fail(Write write, IOException ex) {
+        try {
+            Files.deleteIfExists(write.tmpPath);
+        } catch(IOException deleteEx) {
+            logger.warn("Can't delete {}", write.tmpPath, deleteEx);
+        }
+        write.done.completeExceptionally(ex);
+    }
+
+    private static class Write {
+        private final Path path;
+        private final Path tmpPath;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Write(Path path, Path tmpPath) {
+            this.path = path;
+            this.tmpPath = tmpPath;
+        }
+    }
+}
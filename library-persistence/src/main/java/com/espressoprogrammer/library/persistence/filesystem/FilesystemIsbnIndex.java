@@ -0,0 +1,84 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.Isbns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * In memory index from normalized ISBN to book uuid, one per storage folder.
+ * <p>
+ * An index is built from the books of the folder on first use and then kept up to date by the DAO. The DAO
+ * holds the lock of a folder's index while it checks and writes a book, which makes the uniqueness check
+ * and the write atomic for that user.
+ */
+@Component
+class FilesystemIsbnIndex implements FilesystemFolderCache {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemIsbnIndex.class);
+
+    private final ConcurrentMap<String, UserIsbns> indexes = new ConcurrentHashMap<>();
+
+    UserIsbns get(String folder, Supplier<List<Book>> books) {
+        return indexes.computeIfAbsent(folder, f -> {
+            UserIsbns isbns = new UserIsbns();
+            books.get().forEach(b -> {
+                if(isbns.findConflict(b).isPresent()) {
+                    logger.warn("Book {} of {} has the ISBN of another book", b.getUuid(), f);
+                    return;
+                }
+                isbns.put(b);
+            });
+            return isbns;
+        });
+    }
+
+    @Override
+    public void release(String folder) {
+        indexes.remove(folder);
+    }
+
+    static class UserIsbns {
+        private final Map<String, String> uuidsByKey = new HashMap<>();
+        private final Map<String, Set<String>> keysByUuid = new HashMap<>();
+
+        synchronized Optional<String> find(String key) {
+            return Optional.ofNullable(uuidsByKey.get(key));
+        }
+
+        /**
+         * Returns the first ISBN key of the book that belongs to a different book.
+         */
+        synchronized Optional<String> findConflict(Book book) {
+            for(String key : Isbns.toKeys(book)) {
+                String uuid = uuidsByKey.get(key);
+                if(uuid != null && !uuid.equals(book.getUuid())) {
+                    return Optional.of(key);
+                }
+            }
+            return Optional.empty();
+        }
+
+        synchronized void put(Book book) {
+            remove(book.getUuid());
+            Set<String> keys = Isbns.toKeys(book);
+            keys.forEach(k -> uuidsByKey.put(k, book.getUuid()));
+            keysByUuid.put(book.getUuid(), keys);
+        }
+
+        synchronized void remove(String uuid) {
+            keysByUuid.getOrDefault(uuid, Collections.emptySet()).forEach(k -> uuidsByKey.remove(k, uuid));
+            keysByUuid.remove(uuid);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import java.io.IOException;
+
+/**
+ * Converts items to and from the bytes kept by a {@link FilesystemStorage}.
+ */
+interface FilesystemItemCodec<T> {
+
+    T decode(byte[] content) throws IOException;
+
+    byte[] encode(T item) throws IOException;
+}
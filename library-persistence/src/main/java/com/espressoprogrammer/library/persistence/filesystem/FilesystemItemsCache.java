@@ -0,0 +1,157 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of decoded items shared by the filesystem DAOs.
+ * <p>
+ * Entries are keyed by (user, entity type, uuid) and weighted by the size of their serialized form,
+ * so {@code filesystem.dao.cache.maxbytes} bounds the cache by the bytes it saves us from reading.
+ * A max size of 0 disables the cache.
+ */
+@Component
+class FilesystemItemsCache {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    FilesystemItemsCache(FilesystemConfiguration filesystemConfiguration) {
+        this(filesystemConfiguration.getCacheMaxBytes());
+    }
+
+    FilesystemItemsCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    <T> T get(String user, String type, String uuid) {
+        if(!isEnabled()) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(user, type, uuid));
+        }
+        if(entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return (T) entry.item;
+    }
+
+    void put(String user, String type, String uuid, Object item, long weight) {
+        if(!isEnabled()) {
+            return;
+        }
+
+        Key key = new Key(user, type, uuid);
+        synchronized (this) {
+            Entry previous = entries.remove(key);
+            if(previous != null) {
+                currentBytes -= previous.weight;
+            }
+            if(weight > maxBytes) {
+                logger.debug("Item {} of user {} is bigger than the cache, it won't be cached", uuid, user);
+                return;
+            }
+            entries.put(key, new Entry(item, weight));
+            currentBytes += weight;
+            evictIfNeeded();
+        }
+    }
+
+    void remove(String user, String type, String uuid) {
+        if(!isEnabled()) {
+            return;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.remove(new Key(user, type, uuid));
+            if(previous != null) {
+                currentBytes -= previous.weight;
+            }
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    private boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while(currentBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            currentBytes -= eldest.weight;
+            evictions.increment();
+        }
+    }
+
+    private static class Key {
+        private final String user;
+        private final String type;
+        private final String uuid;
+
+        private Key(String user, String type, String uuid) {
+            this.user = user;
+            this.type = type;
+            this.uuid = uuid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return user.equals(key.user) && type.equals(key.type) && uuid.equals(key.uuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, type, uuid);
+        }
+    }
+
+    private static class Entry {
+        private final Object item;
+        private final long weight;
+
+        private Entry(Object item, long weight) {
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Memory mapped hash table with one fixed size slot per item of a storage folder.
+ * <p>
+ * A slot holds the uuid, the length and the last modified time of the item file, so existence checks and
+ * listings don't need to touch the storage folder. The header records the
+ * modification time of the storage folder seen by the last update; an index that doesn't match the folder
+ * anymore is rebuilt from the item files. A forced index flushes its slots before stamping the header and
+ * the header right after, so after a crash a header that matches the folder never vouches for lost slots.
+ */
+class FilesystemItemsIndex {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemItemsIndex.class);
+
+    private static final int MAX_UUID_LENGTH = 64;
+
+    private static final int MAGIC = 0x4c494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 1 + 1 + MAX_UUID_LENGTH + 4 + 8;
+    private static final int MIN_CAPACITY = 64;
+
+    private static final byte EMPTY = 0;
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 2;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    private static final int DELETED_OFFSET = 16;
+    private static final int FOLDER_MODIFIED_OFFSET = 20;
+
+    private final Path indexPath;
+    private final Path folder;
+    private final String extension;
+    private final int depth;
+    private final boolean force;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private int deleted;
+    private boolean closed;
+
+    private FilesystemItemsIndex(Path indexPath, Path folder, String extension, int depth, boolean force) {
+        this.indexPath = indexPath;
+        this.folder = folder;
+        this.extension = extension;
+        this.depth = depth;
+        this.force = force;
+    }
+
+    /**
+     * Maps the index of the folder, rebuilding it when it is missing or stale. Returns null when the folder
+     * holds files that can't be indexed.
+     */
+    static FilesystemItemsIndex open(Path folder, String extension) throws IOException {
+        return open(folder, extension, 1);
+    }
+
+    /**
+     * Maps the index of a folder whose item files may also sit in subfolders, up to the given depth.
+     * Only the modification time of the folder itself is checked, so changes made inside subfolders
+     * without going through the index are not noticed.
+     */
+    static FilesystemItemsIndex open(Path folder, String extension, int depth) throws IOException {
+        return open(folder, extension, depth, false);
+    }
+
+    /**
+     * Maps the index of a folder, flushing every update to the disk when force is true.
+     */
+    static FilesystemItemsIndex open(Path folder, String extension, int depth, boolean force) throws IOException {
+        FilesystemItemsIndex index = new FilesystemItemsIndex(getIndexPath(folder), folder, extension, depth, force);
+        if(index.map()) {
+            return index;
+        }
+        return index.rebuild() ? index : null;
+    }
+
+    static Path getIndexPath(Path folder) {
+        return folder.resolveSibling(folder.getFileName() + ".idx");
+    }
+
+    static boolean canIndex(String uuid) {
+        return uuid.getBytes(StandardCharsets.UTF_8).length <= MAX_UUID_LENGTH;
+    }
+
+    synchronized List<String> list() {
+        List<String> uuids = new ArrayList<>(count);
+        for(int slot = 0; slot < capacity; slot++) {
+            if(buffer.get(slotOffset(slot)) == LIVE) {
+                uuids.add(readUuid(buffer, slot));
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * Lists the items slot by slot as the stream is consumed. Items added or removed meanwhile may or may not
+     * be listed, and once the table is resized the rest of the listing comes from the table as it was.
+     */
+    Stream<String> stream() {
+        MappedByteBuffer listedBuffer;
+        int listedCapacity;
+        synchronized (this) {
+            listedBuffer = buffer;
+            listedCapacity = capacity;
+        }
+        return IntStream.range(0, listedCapacity)
+            .mapToObj(slot -> readLiveUuid(listedBuffer, slot))
+            .filter(Objects::nonNull);
+    }
+
+    synchronized boolean contains(String uuid) {
+        return findSlot(uuid) >= 0;
+    }
+
+    synchronized OptionalInt getLength(String uuid) {
+        int slot = findSlot(uuid);
+        if(slot < 0) {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(buffer.getInt(slotOffset(slot) + 2 + MAX_UUID_LENGTH));
+    }
+
+    synchronized void put(String uuid, int length, long modified) throws IOException {
+        byte[] uuidBytes = uuid.getBytes(StandardCharsets.UTF_8);
+        if((count + deleted + 1) * 2 > capacity) {
+            resize(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, count + 1) * 4)));
+        }
+
+        int slot = findSlot(uuid);
+        if(slot < 0) {
+            slot = findFreeSlot(uuid);
+            if(buffer.get(slotOffset(slot)) == DELETED) {
+                deleted--;
+            }
+            count++;
+        }
+        writeSlot(slot, uuidBytes, length, modified);
+        writeHeader();
+    }
+
+    synchronized void remove(String uuid) throws IOException {
+        int slot = findSlot(uuid);
+        if(slot >= 0) {
+            buffer.put(slotOffset(slot), DELETED);
+            count--;
+            deleted++;
+            writeHeader();
+        }
+    }
+
+    /**
+     * Marks the index as dropped by its storage, which maps it again before the next update.
+     */
+    synchronized void close() {
+        closed = true;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private boolean map() throws IOException {
+        if(!Files.exists(indexPath)) {
+            return false;
+        }
+
+        try(FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if(channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int mappedCapacity = mapped.getInt(CAPACITY_OFFSET);
+            if(mapped.getInt(MAGIC_OFFSET) != MAGIC
+                || mapped.getInt(VERSION_OFFSET) != VERSION
+                || channel.size() != HEADER_SIZE + (long) mappedCapacity * SLOT_SIZE
+                || mapped.getLong(FOLDER_MODIFIED_OFFSET) != getFolderModified()) {
+                logger.debug("Index {} is stale", indexPath);
+                return false;
+            }
+
+            buffer = mapped;
+            capacity = mappedCapacity;
+            count = mapped.getInt(COUNT_OFFSET);
+            deleted = mapped.getInt(DELETED_OFFSET);
+            return true;
+        }
+    }
+
+    private boolean rebuild() throws IOException {
+        long start = System.nanoTime();
+        List<Path> files;
+        try(Stream<Path> paths = depth > 1 ? Files.walk(folder, depth) : Files.list(folder)) {
+            files = paths
+                .filter(p -> p.getFileName().toString().endsWith(extension))
+                .filter(p -> depth == 1 || Files.isRegularFile(p))
+                .collect(toList());
+        }
+
+        List<Slot> slots = new ArrayList<>(files.size());
+        Set<String> uuids = new HashSet<>();
+        for(Path file : files) {
+            String fileName = file.getFileName().toString();
+            String uuid = fileName.substring(0, fileName.length() - extension.length());
+            if(!canIndex(uuid)) {
+                logger.warn("Can't index {}, its name is longer than {} bytes", file, MAX_UUID_LENGTH);
+                return false;
+            }
+            if(!uuids.add(uuid)) {
+                // An item being moved into a subfolder shows up twice for a moment
+                continue;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            slots.add(new Slot(uuid, (int) attributes.size(), attributes.lastModifiedTime().toMillis()));
+        }
+
+        write(slots, Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, slots.size()) * 4)));
+        logger.debug("Rebuilt index {} with {} items in {} ms",
+            indexPath,
+            slots.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+    private void resize(int newCapacity) throws IOException {
+        List<Slot> slots = new ArrayList<>(count);
+        for(int slot = 0; slot < capacity; slot++) {
+            int offset = slotOffset(slot);
+            if(buffer.get(offset) == LIVE) {
+                slots.add(new Slot(readUuid(buffer, slot),
+                    buffer.getInt(offset + 2 + MAX_UUID_LENGTH),
+                    buffer.getLong(offset + 2 + MAX_UUID_LENGTH + 4)));
+            }
+        }
+        write(slots, newCapacity);
+    }
+
+    private void write(List<Slot> slots, int newCapacity) throws IOException {
+        Path tmpPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(tmpPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        }
+        capacity = newCapacity;
+        count = 0;
+        deleted = 0;
+        for(Slot slot : slots) {
+            writeSlot(findFreeSlot(slot.uuid), slot.uuid.getBytes(StandardCharsets.UTF_8), slot.length, slot.modified);
+            count++;
+        }
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        writeHeader();
+        Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeHeader() throws IOException {
+        if(force) {
+            buffer.force();
+        }
+        buffer.putInt(COUNT_OFFSET, count);
+        buffer.putInt(DELETED_OFFSET, deleted);
+        buffer.putLong(FOLDER_MODIFIED_OFFSET, getFolderModified());
+        if(force) {
+            buffer.force();
+        }
+    }
+
+    private long getFolderModified() throws IOException {
+        return Files.getLastModifiedTime(folder).to(TimeUnit.NANOSECONDS);
+    }
+
+    private int findSlot(String uuid) {
+        if(!canIndex(uuid)) {
+            return -1;
+        }
+        byte[] uuidBytes = uuid.getBytes(StandardCharsets.UTF_8);
+
+        int mask = capacity - 1;
+        for(int slot = hash(uuid) & mask, probes = 0; probes < capacity; slot = (slot + 1) & mask, probes++) {
+            byte state = buffer.get(slotOffset(slot));
+            if(state == EMPTY) {
+                return -1;
+            }
+            if(state == LIVE && matches(slot, uuidBytes)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int findFreeSlot(String uuid) {
+        int mask = capacity - 1;
+        int slot = hash(uuid) & mask;
+        while(buffer.get(slotOffset(slot)) == LIVE) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(int slot, byte[] uuidBytes) {
+        int offset = slotOffset(slot);
+        if(buffer.get(offset + 1) != uuidBytes.length) {
+            return false;
+        }
+        for(int i = 0; i < uuidBytes.length; i++) {
+            if(buffer.get(offset + 2 + i) != uuidBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized String readLiveUuid(MappedByteBuffer listedBuffer, int slot) {
+        return listedBuffer.get(slotOffset(slot)) == LIVE ? readUuid(listedBuffer, slot) : null;
+    }
+
+    private static String readUuid(MappedByteBuffer slots, int slot) {
+        int offset = slotOffset(slot);
+        byte[] uuidBytes = new byte[slots.get(offset + 1)];
+        for(int i = 0; i < uuidBytes.length; i++) {
+            uuidBytes[i] = slots.get(offset + 2 + i);
+        }
+        return new String(uuidBytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeSlot(int slot, byte[] uuidBytes, int length, long modified) {
+        int offset = slotOffset(slot);
+        buffer.put(offset, LIVE);
+        buffer.put(offset + 1, (byte) uuidBytes.length);
+        for(int i = 0; i < MAX_UUID_LENGTH; i++) {
+            buffer.put(offset + 2 + i, i < uuidBytes.length ? uuidBytes[i] : 0);
+        }
+        buffer.putInt(offset + 2 + MAX_UUID_LENGTH, length);
+        buffer.putLong(offset + 2 + MAX_UUID_LENGTH + 4, modified);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int hash(String uuid) {
+        int h = uuid.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static class Slot {
+        private final String uuid;
+        private final int length;
+        private final long modified;
+
+        private Slot(String uuid, int length, long modified) {
+            this.uuid = uuid;
+            this.length = length;
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reads and filters the items of a storage folder.
+ * <p>
+ * Folders with at least {@code filesystem.dao.scan.parallel.threshold} items are decoded and filtered on a
+ * dedicated pool of {@code filesystem.dao.scan.parallelism} threads, so large libraries neither block one
+ * request thread nor compete with other work on the common pool. Results keep the order of the listing in
+ * both modes.
+ */
+@Component
+class FilesystemItemsScanner implements AutoCloseable {
+
+    private final int threshold;
+    private final ForkJoinPool pool;
+
+    @Autowired
+    FilesystemItemsScanner(FilesystemConfiguration filesystemConfiguration) {
+        this(filesystemConfiguration.getScanParallelism(), filesystemConfiguration.getScanParallelThreshold());
+    }
+
+    FilesystemItemsScanner(int parallelism, int threshold) {
+        this.threshold = threshold;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism), p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("filesystem-scan-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    <T> List<T> scan(List<String> uuids, Function<String, Optional<T>> reader, Predicate<T> filter) {
+        if(uuids.size() < threshold) {
+            return scan(uuids.stream(), reader, filter);
+        }
+
+        try {
+            return pool.submit(() -> scan(uuids.parallelStream(), reader, filter)).get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FilesystemDaoException(ex);
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new FilesystemDaoException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private <T> List<T> scan(Stream<String> uuids, Function<String, Optional<T>> reader, Predicate<T> filter) {
+        return uuids
+            .map(reader)
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .filter(filter)
+            .collect(toList());
+    }
+}
@@ -0,0 +1,35 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+
+/**
+ * JSON codec bound to one item type.
+ * <p>
+ * Readers and writers are immutable and thread safe, so they are built once per type and shared. Encoding
+ * goes straight to bytes through Jackson's recycled buffers instead of an intermediate string.
+ */
+class FilesystemJsonCodec<T> implements FilesystemItemCodec<T> {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    FilesystemJsonCodec(Class<T> type) {
+        this.reader = objectMapper.readerFor(type);
+        this.writer = objectMapper.writerFor(type);
+    }
+
+    @Override
+    public T decode(byte[] content) throws IOException {
+        return reader.readValue(content);
+    }
+
+    @Override
+    public byte[] encode(T item) throws IOException {
+        return writer.writeValueAsBytes(item);
+    }
+}
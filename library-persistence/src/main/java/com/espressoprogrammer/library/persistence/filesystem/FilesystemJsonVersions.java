@@ -0,0 +1,62 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versions of item files whose JSON can be sent as it is, so the entity tag of a passthrough read doesn't
+ * need the file to be decoded again.
+ * <p>
+ * Item files are replaced and never changed, so a version is kept for the file itself, its storage folder,
+ * file key, modification time and size, and a new file of the item simply misses. Files that can't be sent
+ * as they are get an empty version. At most {@value #MAX_ENTRIES} versions are kept, the least recently used
+ * ones go first.
+ */
+@Component
+class FilesystemJsonVersions implements FilesystemFolderCache {
+    static final int MAX_ENTRIES = 65536;
+    static final String NOT_PASSTHROUGH = "";
+
+    private final Map<List<Object>, String> versions = new LinkedHashMap<List<Object>, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Returns the version of the file, computing it when the file wasn't seen yet.
+     */
+    String get(String folder, BasicFileAttributes attributes, VersionLoader loader) throws IOException {
+        List<Object> key = Arrays.asList(folder, attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+        synchronized (versions) {
+            String version = versions.get(key);
+            if(version != null) {
+                return version;
+            }
+        }
+
+        String version = loader.load();
+        synchronized (versions) {
+            versions.put(key, version);
+        }
+        return version;
+    }
+
+    @Override
+    public void release(String folder) {
+        synchronized (versions) {
+            versions.keySet().removeIf(key -> folder.equals(key.get(0)));
+        }
+    }
+
+    interface VersionLoader {
+        String load() throws IOException;
+    }
+}
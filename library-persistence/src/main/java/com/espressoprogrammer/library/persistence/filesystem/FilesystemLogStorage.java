@@ -0,0 +1,512 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Appends items to segment files and keeps an in memory index with the position of the latest
+ * version of every item.
+ * <p>
+ * Every storage folder gets its own log. A record is
+ * {@code [length][crc][type][uuid length][uuid][content]}, where a delete is a record without content.
+ * The active segment is sealed once it grows beyond the configured size and a background task
+ * rewrites the live records of sealed segments that are mostly garbage. A delete is rewritten only while an
+ * older segment still has a record of the item it deletes.
+ * <p>
+ * With {@code fsync} durability a write returns once its segment is flushed, with {@code group-commit}
+ * durability the first writer waits for the flush window and flushes for every writer that appended
+ * meanwhile. Compaction flushes the records it rewrote before deleting the segment they came from, whatever
+ * the durability.
+ */
+class FilesystemLogStorage implements FilesystemStorage, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemLogStorage.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int LENGTH_SIZE = 4;
+    private static final int HEADER_SIZE = 4 + 1 + 2;
+    private static final double COMPACTION_LIVE_RATIO = 0.5;
+
+    private final long maxSegmentBytes;
+    private final boolean fsync;
+    private final long groupCommitWindowMillis;
+    private final ConcurrentMap<String, Log> logs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService compactionExecutor;
+
+    FilesystemLogStorage(long maxSegmentBytes, long compactionIntervalMillis) {
+        this(maxSegmentBytes, compactionIntervalMillis, FilesystemFileWriter.NONE, 0);
+    }
+
+    FilesystemLogStorage(long maxSegmentBytes, long compactionIntervalMillis, String durability, long groupCommitWindowMillis) {
+        switch(durability) {
+            case FilesystemFileWriter.NONE:
+            case FilesystemFileWriter.FSYNC:
+            case FilesystemFileWriter.GROUP_COMMIT:
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown durability " + durability
+                    + ", expected one of " + FilesystemFileWriter.NONE
+                    + ", " + FilesystemFileWriter.FSYNC
+                    + ", " + FilesystemFileWriter.GROUP_COMMIT);
+        }
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.fsync = !FilesystemFileWriter.NONE.equals(durability);
+        this.groupCommitWindowMillis = FilesystemFileWriter.GROUP_COMMIT.equals(durability) ? groupCommitWindowMillis : 0;
+        this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "filesystem-log-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if(compactionIntervalMillis > 0) {
+            compactionExecutor.scheduleWithFixedDelay(this::compact,
+                compactionIntervalMillis,
+                compactionIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        return getLog(folder).list();
+    }
+
+    @Override
+    public boolean exists(String folder, String uuid) throws IOException {
+        return getLog(folder).exists(uuid);
+    }
+
+    @Override
+    public Optional<byte[]> read(String folder, String uuid) throws IOException {
+        return getLog(folder).read(uuid);
+    }
+
+    @Override
+    public void write(String folder, String uuid, byte[] content) throws IOException {
+        Log log = getLog(folder);
+        log.force(log.append(PUT, uuid, content));
+    }
+
+    @Override
+    public boolean delete(String folder, String uuid) throws IOException {
+        Log log = getLog(folder);
+        Location location = log.delete(uuid);
+        if(location == null) {
+            return false;
+        }
+        log.force(location);
+        return true;
+    }
+
+    void compact() {
+        for(Log log : logs.values()) {
+            try {
+                log.compact();
+            } catch(Exception ex) {
+                logger.error("Error on compacting log " + log.folder, ex);
+            }
+        }
+    }
+
+    @Override
+    public void release(String folder) {
+        Log log = logs.remove(folder);
+        if(log != null) {
+            log.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        compactionExecutor.shutdownNow();
+        for(Log log : logs.values()) {
+            log.close();
+        }
+        logs.clear();
+    }
+
+    private Log getLog(String folder) throws IOException {
+        try {
+            return logs.computeIfAbsent(folder, f -> {
+                try {
+                    return new Log(Paths.get(f));
+                } catch(IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch(UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private class Log {
+        private final Path folder;
+        private final TreeMap<Long, Segment> segments = new TreeMap<>();
+        private final Map<String, Location> index = new HashMap<>();
+        private Segment active;
+
+        private Log(Path folder) throws IOException {
+            this.folder = folder;
+            open();
+        }
+
+        synchronized List<String> list() {
+            return index.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<String, Location> e) -> e.getValue().segment.id)
+                    .thenComparing(e -> e.getValue().offset))
+                .map(Map.Entry::getKey)
+                .collect(toList());
+        }
+
+        synchronized boolean exists(String uuid) {
+            return index.containsKey(uuid);
+        }
+
+        synchronized Optional<byte[]> read(String uuid) throws IOException {
+            Location location = index.get(uuid);
+            if(location == null) {
+                return Optional.empty();
+            }
+
+            ByteBuffer content = ByteBuffer.allocate(location.contentLength);
+            readFully(location.segment.channel, content, location.contentOffset());
+            return Optional.of(content.array());
+        }
+
+        synchronized Location append(byte type, String uuid, byte[] content) throws IOException {
+            byte[] uuidBytes = uuid.getBytes(StandardCharsets.UTF_8);
+            int length = HEADER_SIZE + uuidBytes.length + content.length;
+            if(active.size > 0 && active.size + LENGTH_SIZE + length > maxSegmentBytes) {
+                active = createSegment(active.id + 1);
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(LENGTH_SIZE + length);
+            record.putInt(length);
+            record.putInt(0);
+            record.put(type);
+            record.putShort((short) uuidBytes.length);
+            record.put(uuidBytes);
+            record.put(content);
+            record.putInt(LENGTH_SIZE, crc(record.array(), LENGTH_SIZE + 4, length - 4));
+            record.flip();
+
+            long offset = active.size;
+            writeFully(active.channel, record, offset);
+            active.size += record.capacity();
+            Location location = new Location(active, offset, uuidBytes.length, content.length);
+            apply(type, uuid, location);
+            return location;
+        }
+
+        /**
+         * Appends the delete of the item, returns null when there is no item to delete.
+         */
+        synchronized Location delete(String uuid) throws IOException {
+            if(!index.containsKey(uuid)) {
+                return null;
+            }
+            return append(DELETE, uuid, new byte[0]);
+        }
+
+        /**
+         * Flushes the segment up to the end of the record, when the durability asks for it. Not synchronized
+         * on the log, so writers keep appending while a flush is running and the next flush covers them all.
+         */
+        void force(Location location) throws IOException {
+            if(!fsync) {
+                return;
+            }
+
+            Segment segment = location.segment;
+            long end = location.offset + location.recordLength();
+            synchronized (segment.forceLock) {
+                if(segment.forcedSize >= end) {
+                    return;
+                }
+                if(groupCommitWindowMillis > 0) {
+                    try {
+                        Thread.sleep(groupCommitWindowMillis);
+                    } catch(InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting to flush " + segment.path, ex);
+                    }
+                }
+
+                long size;
+                synchronized (this) {
+                    size = segment.size;
+                }
+                try {
+                    segment.channel.force(false);
+                } catch(ClosedChannelException ex) {
+                    // Compacted meanwhile, compaction flushed the records it kept
+                    return;
+                }
+                segment.forcedSize = size;
+            }
+        }
+
+        synchronized void compact() throws IOException {
+            List<Segment> candidates = segments.values().stream()
+                .filter(s -> s != active && s.liveBytes < s.size * COMPACTION_LIVE_RATIO)
+                .collect(toList());
+            for(Segment segment : candidates) {
+                compact(segment);
+            }
+        }
+
+        synchronized void close() {
+            for(Segment segment : segments.values()) {
+                try {
+                    segment.channel.close();
+                } catch(IOException ex) {
+                    logger.warn("Error on closing segment {}", segment.path, ex);
+                }
+            }
+        }
+
+        private void compact(Segment segment) throws IOException {
+            logger.debug("Compact segment {} with {} live bytes out of {}", segment.path, segment.liveBytes, segment.size);
+
+            List<Record> records = scan(segment);
+            Set<String> deletes = findDeletesToKeep(segment, records);
+            long firstTargetId = active.id;
+            for(Record record : records) {
+                Location location = index.get(record.uuid);
+                if(record.type == PUT && location != null && location.segment == segment && location.offset == record.location.offset) {
+                    ByteBuffer content = ByteBuffer.allocate(record.location.contentLength);
+                    readFully(segment.channel, content, record.location.contentOffset());
+                    append(PUT, record.uuid, content.array());
+                } else if(record.type == DELETE && location == null && deletes.remove(record.uuid)) {
+                    append(DELETE, record.uuid, new byte[0]);
+                }
+            }
+
+            // The rewritten records have to be on disk before the only other copy of them is gone
+            for(Segment target : segments.tailMap(firstTargetId).values()) {
+                target.channel.force(false);
+            }
+            FilesystemFileWriter.forceFolder(folder);
+            segments.remove(segment.id);
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+            FilesystemFileWriter.forceFolder(folder);
+        }
+
+        /**
+         * Items deleted in the segment that an older segment still has a record of. The deletes of the other
+         * items have nothing left to hide and are dropped.
+         */
+        private Set<String> findDeletesToKeep(Segment segment, List<Record> records) throws IOException {
+            Set<String> deleted = new HashSet<>();
+            for(Record record : records) {
+                if(record.type == DELETE && !index.containsKey(record.uuid)) {
+                    deleted.add(record.uuid);
+                }
+            }
+
+            Set<String> deletesToKeep = new HashSet<>();
+            for(Segment olderSegment : segments.headMap(segment.id).values()) {
+                if(deleted.isEmpty()) {
+                    break;
+                }
+                for(Record record : scan(olderSegment)) {
+                    if(record.type == PUT && deleted.remove(record.uuid)) {
+                        deletesToKeep.add(record.uuid);
+                    }
+                }
+            }
+            return deletesToKeep;
+        }
+
+        private void open() throws IOException {
+            List<Path> segmentPaths;
+            try(Stream<Path> paths = Files.list(folder)) {
+                segmentPaths = paths
+                    .filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                        && p.getFileName().toString().endsWith(SEGMENT_EXTENSION))
+                    .sorted()
+                    .collect(toList());
+            }
+
+            for(Path segmentPath : segmentPaths) {
+                Segment segment = openSegment(segmentPath);
+                for(Record record : scan(segment)) {
+                    apply(record.type, record.uuid, record.location);
+                }
+            }
+
+            active = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+        }
+
+        private Segment openSegment(Path path) throws IOException {
+            String fileName = path.getFileName().toString();
+            long id = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_EXTENSION.length()));
+            Segment segment = new Segment(id, path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segment.size = segment.channel.size();
+            segments.put(id, segment);
+            return segment;
+        }
+
+        private Segment createSegment(long id) throws IOException {
+            Path path = folder.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_EXTENSION));
+            Segment segment = new Segment(id, path, FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE));
+            segment.size = segment.channel.size();
+            segments.put(id, segment);
+            if(fsync) {
+                FilesystemFileWriter.forceFolder(folder);
+            }
+            return segment;
+        }
+
+        private List<Record> scan(Segment segment) throws IOException {
+            List<Record> records = new ArrayList<>();
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(LENGTH_SIZE);
+            long offset = 0;
+            while(offset + LENGTH_SIZE <= segment.size) {
+                lengthBuffer.clear();
+                readFully(segment.channel, lengthBuffer, offset);
+                int length = lengthBuffer.getInt(0);
+                if(length < HEADER_SIZE || offset + LENGTH_SIZE + length > segment.size) {
+                    break;
+                }
+
+                ByteBuffer body = ByteBuffer.allocate(length);
+                readFully(segment.channel, body, offset + LENGTH_SIZE);
+                if(body.getInt(0) != crc(body.array(), 4, length - 4)) {
+                    break;
+                }
+
+                byte type = body.get(4);
+                int uuidLength = body.getShort(5);
+                String uuid = new String(body.array(), HEADER_SIZE, uuidLength, StandardCharsets.UTF_8);
+                int contentLength = length - HEADER_SIZE - uuidLength;
+                records.add(new Record(type, uuid, new Location(segment, offset, uuidLength, contentLength)));
+                offset += LENGTH_SIZE + length;
+            }
+
+            if(offset < segment.size) {
+                logger.warn("Truncate segment {} from {} to {} bytes after a torn or corrupted record",
+                    segment.path, segment.size, offset);
+                segment.channel.truncate(offset);
+                segment.size = offset;
+            }
+            return records;
+        }
+
+        private void apply(byte type, String uuid, Location location) {
+            Location previous = type == PUT ? index.put(uuid, location) : index.remove(uuid);
+            if(previous != null) {
+                previous.segment.liveBytes -= previous.recordLength();
+            }
+            if(type == PUT) {
+                location.segment.liveBytes += location.recordLength();
+            }
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final Object forceLock = new Object();
+        private long size;
+        private long liveBytes;
+        // Guarded by forceLock
+        private long forcedSize;
+
+        private Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int uuidLength;
+        private final int contentLength;
+
+        private Location(Segment segment, long offset, int uuidLength, int contentLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.uuidLength = uuidLength;
+            this.contentLength = contentLength;
+        }
+
+        private long contentOffset() {
+            return offset + LENGTH_SIZE + HEADER_SIZE + uuidLength;
+        }
+
+        private long recordLength() {
+            return LENGTH_SIZE + HEADER_SIZE + uuidLength + contentLength;
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final String uuid;
+        private final Location location;
+
+        private Record(byte type, String uuid, Location location) {
+            this.type = type;
+            this.uuid = uuid;
+            this.location = location;
+        }
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if(read < 0) {
+                throw new IOException("Unexpected end of segment at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
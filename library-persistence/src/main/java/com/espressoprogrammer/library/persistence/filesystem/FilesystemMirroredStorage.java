@@ -0,0 +1,388 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a copy of every storage folder under a mirror root and hedges reads against it.
+ * <p>
+ * Writes and deletes go to the primary folder first and then to the mirror folder, listings, existence
+ * checks and item files only to the primary one. A read that the primary folder doesn't answer within the
+ * configured percentile of recent primary reads is also sent to the mirror folder, and the first answer wins.
+ * The mirror folder only wins with an item, when it doesn't have the item the read waits for the primary
+ * folder, which has items written before mirroring was enabled.
+ * <p>
+ * The mirror copy of an item is older than the primary one while the item is being written or deleted, and
+ * stays older when that failed half way. Reads of such items, and reads that find the pool of read threads
+ * busy, go only to the primary folder, on the caller's thread. A mirror answer is also dropped when the item
+ * was written or deleted while it was being read.
+ * <p>
+ * A mirror folder is {@code <mirror root>/<user>/<type>}, whichever root the primary folder is on.
+ */
+class FilesystemMirroredStorage implements FilesystemStorage, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemMirroredStorage.class);
+
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final int DELAY_UPDATE_INTERVAL = 64;
+    // Hedge delay until there are enough primary reads to compute it
+    private static final long INITIAL_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // Each hedged read takes two threads, one for each folder
+    private static final int MAX_READ_THREADS = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+    private static final int ITEM_STRIPES = 64;
+
+    private final FilesystemStorage storage;
+    private final Path mirrorRoot;
+    private final double hedgePercentile;
+    private final Set<String> mirrorFolders = ConcurrentHashMap.newKeySet();
+    // Items whose mirror copy was left behind by a write or delete that failed
+    private final Set<String> staleMirrorItems = ConcurrentHashMap.newKeySet();
+    // Bumped when a write or delete of an item starts and ends, guarded by itself
+    private final long[] itemGenerations = new long[ITEM_STRIPES];
+    private final int[] itemWrites = new int[ITEM_STRIPES];
+    private final ExecutorService readExecutor;
+    private final ScheduledExecutorService metricsExecutor;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private volatile long hedgeDelayNanos = INITIAL_HEDGE_DELAY_NANOS;
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder mirrorWins = new LongAdder();
+
+    FilesystemMirroredStorage(FilesystemStorage storage, String mirrorRoot, double hedgePercentile, long metricsIntervalMillis) {
+        this.storage = storage;
+        this.mirrorRoot = Paths.get(mirrorRoot);
+        this.hedgePercentile = hedgePercentile;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.readExecutor = new ThreadPoolExecutor(0, MAX_READ_THREADS, 1, TimeUnit.MINUTES, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "filesystem-mirror-read-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if(metricsIntervalMillis > 0) {
+            metricsExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "filesystem-mirror-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            metricsExecutor.scheduleAtFixedRate(this::logMetrics, metricsIntervalMillis, metricsIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            metricsExecutor = null;
+        }
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        return storage.list(folder);
+    }
+
+    @Override
+    public Stream<String> stream(String folder) throws IOException {
+        return storage.stream(folder);
+    }
+
+    @Override
+    public boolean exists(String folder, String uuid) throws IOException {
+        return storage.exists(folder, uuid);
+    }
+
+    @Override
+    public Optional<byte[]> read(String folder, String uuid) throws IOException {
+        reads.increment();
+        String mirrorFolder = getMirrorFolder(folder);
+        long generation = getMirrorGeneration(mirrorFolder, uuid);
+        if(generation < 0) {
+            return readPrimary(folder, uuid);
+        }
+
+        CompletableFuture<Optional<byte[]>> primaryRead;
+        try {
+            primaryRead = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return readPrimary(folder, uuid);
+                } catch(IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, readExecutor);
+        } catch(RejectedExecutionException ex) {
+            return readPrimary(folder, uuid);
+        }
+
+        try {
+            return primaryRead.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch(TimeoutException ex) {
+            return hedgedRead(primaryRead, folder, mirrorFolder, uuid, generation);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + uuid + " from " + folder, ex);
+        } catch(ExecutionException ex) {
+            throw toIOException(ex);
+        }
+    }
+
+    @Override
+    public void write(String folder, String uuid, byte[] content) throws IOException {
+        String mirrorFolder = getMirrorFolder(folder);
+        boolean mirrored = false;
+        startItemWrite(mirrorFolder, uuid);
+        try {
+            storage.write(folder, uuid, content);
+            storage.write(createMirrorFolderIfMissing(folder), uuid, content);
+            mirrored = true;
+        } finally {
+            endItemWrite(mirrorFolder, uuid, mirrored);
+        }
+    }
+
+    @Override
+    public boolean delete(String folder, String uuid) throws IOException {
+        String mirrorFolder = getMirrorFolder(folder);
+        boolean mirrored = false;
+        startItemWrite(mirrorFolder, uuid);
+        try {
+            boolean deleted = storage.delete(folder, uuid);
+            if(Files.isDirectory(Paths.get(mirrorFolder))) {
+                storage.delete(mirrorFolder, uuid);
+            }
+            mirrored = true;
+            return deleted;
+        } finally {
+            endItemWrite(mirrorFolder, uuid, mirrored);
+        }
+    }
+
+    @Override
+    public Optional<Path> locate(String folder, String uuid) throws IOException {
+        return storage.locate(folder, uuid);
+    }
+
+    @Override
+    public void release(String folder) throws IOException {
+        storage.release(folder);
+    }
+
+    long getReadCount() {
+        return reads.sum();
+    }
+
+    /**
+     * Reads that were also sent to the mirror folder.
+     */
+    long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * Hedged reads the mirror folder answered first.
+     */
+    long getMirrorWinCount() {
+        return mirrorWins.sum();
+    }
+
+    long getHedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if(metricsExecutor != null) {
+            metricsExecutor.shutdownNow();
+        }
+        readExecutor.shutdownNow();
+        if(storage instanceof AutoCloseable) {
+            ((AutoCloseable) storage).close();
+        }
+    }
+
+    private Optional<byte[]> readPrimary(String folder, String uuid) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return storage.read(folder, uuid);
+        } finally {
+            recordLatency(System.nanoTime() - start);
+        }
+    }
+
+    private Optional<byte[]> hedgedRead(CompletableFuture<Optional<byte[]>> primaryRead,
+                                        String folder,
+                                        String mirrorFolder,
+                                        String uuid,
+                                        long generation) throws IOException {
+        CompletableFuture<Optional<byte[]>> mirrorRead;
+        try {
+            mirrorRead = CompletableFuture.supplyAsync(() -> {
+                try {
+                    Optional<byte[]> content = Files.isDirectory(Paths.get(mirrorFolder))
+                        ? storage.read(mirrorFolder, uuid)
+                        : Optional.empty();
+                    // A copy read while the item was written or deleted may be older than the primary one
+                    return getMirrorGeneration(mirrorFolder, uuid) == generation ? content : Optional.<byte[]>empty();
+                } catch(IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, readExecutor);
+        } catch(RejectedExecutionException ex) {
+            return waitFor(primaryRead, folder, uuid);
+        }
+        hedges.increment();
+
+        CompletableFuture<Answer> firstRead = new CompletableFuture<>();
+        mirrorRead.whenComplete((content, ex) -> {
+            if(ex == null && content.isPresent()) {
+                firstRead.complete(new Answer(content, true));
+            }
+        });
+        primaryRead.whenComplete((content, ex) -> {
+            if(ex == null) {
+                firstRead.complete(new Answer(content, false));
+            } else {
+                // The mirror folder may still have the item
+                mirrorRead.whenComplete((mirrorContent, mirrorEx) -> {
+                    if(mirrorEx == null && mirrorContent.isPresent()) {
+                        return;
+                    }
+                    firstRead.completeExceptionally(ex);
+                });
+            }
+        });
+
+        Answer answer = waitFor(firstRead, folder, uuid);
+        if(answer.mirror) {
+            mirrorWins.increment();
+        }
+        return answer.content;
+    }
+
+    private <R> R waitFor(CompletableFuture<R> read, String folder, String uuid) throws IOException {
+        try {
+            return read.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + uuid + " from " + folder, ex);
+        } catch(ExecutionException ex) {
+            throw toIOException(ex);
+        }
+    }
+
+    /**
+     * Generation of the mirror copy of the item, or -1 when the copy can't be trusted to be as new as the
+     * primary one.
+     */
+    private long getMirrorGeneration(String mirrorFolder, String uuid) {
+        String item = mirrorFolder + "/" + uuid;
+        int stripe = getItemStripe(item);
+        synchronized (itemGenerations) {
+            return itemWrites[stripe] == 0 && !staleMirrorItems.contains(item) ? itemGenerations[stripe] : -1;
+        }
+    }
+
+    private void startItemWrite(String mirrorFolder, String uuid) {
+        int stripe = getItemStripe(mirrorFolder + "/" + uuid);
+        synchronized (itemGenerations) {
+            itemWrites[stripe]++;
+            itemGenerations[stripe]++;
+        }
+    }
+
+    private void endItemWrite(String mirrorFolder, String uuid, boolean mirrored) {
+        String item = mirrorFolder + "/" + uuid;
+        int stripe = getItemStripe(item);
+        synchronized (itemGenerations) {
+            if(mirrored) {
+                staleMirrorItems.remove(item);
+            } else {
+                staleMirrorItems.add(item);
+            }
+            itemWrites[stripe]--;
+            itemGenerations[stripe]++;
+        }
+    }
+
+    private static int getItemStripe(String item) {
+        int hash = item.hashCode();
+        return (hash ^ (hash >>> 16)) & (ITEM_STRIPES - 1);
+    }
+
+    private String getMirrorFolder(String folder) {
+        Path path = Paths.get(folder);
+        return mirrorRoot.resolve(path.getParent().getFileName()).resolve(path.getFileName()).toString();
+    }
+
+    private String createMirrorFolderIfMissing(String folder) throws IOException {
+        String mirrorFolder = getMirrorFolder(folder);
+        if(!mirrorFolders.contains(mirrorFolder)) {
+            Files.createDirectories(Paths.get(mirrorFolder));
+            mirrorFolders.add(mirrorFolder);
+        }
+        return mirrorFolder;
+    }
+
+    private void recordLatency(long latencyNanos) {
+        long[] samples = null;
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_SAMPLES] = latencyNanos;
+            latencyCount++;
+            if(latencyCount % DELAY_UPDATE_INTERVAL == 0) {
+                samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+            }
+        }
+        if(samples != null) {
+            Arrays.sort(samples);
+            hedgeDelayNanos = samples[(int) Math.min(samples.length - 1, Math.floor(samples.length * hedgePercentile / 100))];
+        }
+    }
+
+    private IOException toIOException(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if(cause instanceof UncheckedIOException) {
+            return ((UncheckedIOException) cause).getCause();
+        }
+        if(cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private void logMetrics() {
+        logger.info("Mirror reads: {} reads, {} hedged, {} won by the mirror, hedge delay {} us",
+            reads.sum(),
+            hedges.sum(),
+            mirrorWins.sum(),
+            TimeUnit.NANOSECONDS.toMicros(hedgeDelayNanos));
+    }
+
+    private static class Answer {
+        private final Optional<byte[]> content;
+        private final boolean mirror;
+
+        private Answer(Optional<byte[]> content, boolean mirror) {
+            this.content = content;
+            this.mirror = mirror;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of the stored bytes of items, kept outside the heap so a large cache adds nothing for the
+ * garbage collector to trace.
+ * <p>
+ * Memory comes in direct pages of {@value #PAGE_BYTES} bytes, allocated as needed until
+ * {@code filesystem.dao.offheap.maxbytes} is reached. Like a slab allocator, a page is given to one size
+ * class, a power of two from {@value #MIN_CHUNK_BYTES} bytes up to the page size, and cut into chunks of
+ * that size. An item takes one chunk of the smallest class it fits in. Once no page is left, an item
+ * takes the chunk of the least recently used item of its class, and isn't cached when its class has no
+ * items to evict. Items bigger than a page are never cached. A max size of 0 disables the cache.
+ */
+@Component
+class FilesystemOffHeapCache {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemOffHeapCache.class);
+
+    static final int PAGE_BYTES = 1024 * 1024;
+    static final int MIN_CHUNK_BYTES = 64;
+
+    private final int maxPages;
+    private final SizeClass[] sizeClasses;
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private int allocatedPages;
+    private long usedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    @Autowired
+    FilesystemOffHeapCache(FilesystemConfiguration filesystemConfiguration) {
+        this(filesystemConfiguration.getOffHeapCacheMaxBytes());
+    }
+
+    FilesystemOffHeapCache(long maxBytes) {
+        this.maxPages = (int) Math.min(Integer.MAX_VALUE, maxBytes / PAGE_BYTES);
+        int classCount = Integer.numberOfTrailingZeros(PAGE_BYTES / MIN_CHUNK_BYTES) + 1;
+        this.sizeClasses = new SizeClass[classCount];
+        for(int i = 0; i < classCount; i++) {
+            sizeClasses[i] = new SizeClass(MIN_CHUNK_BYTES << i);
+        }
+        if(isEnabled()) {
+            logger.info("Cache up to {} bytes of items off heap", (long) maxPages * PAGE_BYTES);
+        }
+    }
+
+    /**
+     * Copies the cached bytes of the item to the heap, returns null when the item isn't cached.
+     */
+    byte[] get(String user, String type, String uuid) {
+        if(!isEnabled()) {
+            return null;
+        }
+
+        Key key = new Key(user, type, uuid);
+        byte[] content;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if(entry == null) {
+                misses.increment();
+                return null;
+            }
+            // Moves the entry to the end of the LRU order of its class
+            entry.sizeClass.entries.get(key);
+            content = new byte[entry.length];
+            ByteBuffer chunk = entry.page.duplicate();
+            chunk.position(entry.offset);
+            chunk.get(content);
+        }
+        hits.increment();
+        return content;
+    }
+
+    void put(String user, String type, String uuid, byte[] content) {
+        if(!isEnabled()) {
+            return;
+        }
+
+        Key key = new Key(user, type, uuid);
+        synchronized (this) {
+            remove(key);
+            if(content.length > PAGE_BYTES) {
+                rejections.increment();
+                return;
+            }
+
+            SizeClass sizeClass = sizeClasses[sizeClassIndex(content.length)];
+            Chunk chunk = allocate(sizeClass);
+            if(chunk == null) {
+                rejections.increment();
+                return;
+            }
+
+            ByteBuffer target = chunk.page.duplicate();
+            target.position(chunk.offset);
+            target.put(content);
+            Entry entry = new Entry(sizeClass, chunk.page, chunk.offset, content.length);
+            entries.put(key, entry);
+            sizeClass.entries.put(key, entry);
+            usedBytes += content.length;
+        }
+    }
+
+    void remove(String user, String type, String uuid) {
+        if(!isEnabled()) {
+            return;
+        }
+
+        synchronized (this) {
+            remove(new Key(user, type, uuid));
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Items that weren't cached because there was no chunk for them.
+     */
+    long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    synchronized long getAllocatedBytes() {
+        return (long) allocatedPages * PAGE_BYTES;
+    }
+
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private boolean isEnabled() {
+        return maxPages > 0;
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if(entry != null) {
+            entry.sizeClass.entries.remove(key);
+            entry.sizeClass.freeChunks.push(new Chunk(entry.page, entry.offset));
+            usedBytes -= entry.length;
+        }
+    }
+
+    private Chunk allocate(SizeClass sizeClass) {
+        if(sizeClass.freeChunks.isEmpty() && allocatedPages < maxPages) {
+            ByteBuffer page = ByteBuffer.allocateDirect(PAGE_BYTES);
+            allocatedPages++;
+            for(int offset = 0; offset + sizeClass.chunkBytes <= PAGE_BYTES; offset += sizeClass.chunkBytes) {
+                sizeClass.freeChunks.add(new Chunk(page, offset));
+            }
+        }
+        if(sizeClass.freeChunks.isEmpty()) {
+            Iterator<Key> eldest = sizeClass.entries.keySet().iterator();
+            if(!eldest.hasNext()) {
+                return null;
+            }
+            remove(eldest.next());
+            evictions.increment();
+        }
+        return sizeClass.freeChunks.pop();
+    }
+
+    static int sizeClassIndex(int length) {
+        int chunkBytes = MIN_CHUNK_BYTES;
+        int index = 0;
+        while(chunkBytes < length) {
+            chunkBytes <<= 1;
+            index++;
+        }
+        return index;
+    }
+
+    private static class SizeClass {
+        private final int chunkBytes;
+        private final ArrayDeque<Chunk> freeChunks = new ArrayDeque<>();
+        // Access ordered, the first entry is the least recently used one
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private SizeClass(int chunkBytes) {
+            this.chunkBytes = chunkBytes;
+        }
+    }
+
+    private static class Chunk {
+        private final ByteBuffer page;
+        private final int offset;
+
+        private Chunk(ByteBuffer page, int offset) {
+            this.page = page;
+            this.offset = offset;
+        }
+    }
+
+    private static class Entry {
+        private final SizeClass sizeClass;
+        private final ByteBuffer page;
+        private final int offset;
+        private final int length;
+
+        private Entry(SizeClass sizeClass, ByteBuffer page, int offset, int length) {
+            this.sizeClass = sizeClass;
+            this.page = page;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Key {
+        private final String user;
+        private final String type;
+        private final String uuid;
+
+        private Key(String user, String type, String uuid) {
+            this.user = user;
+            this.type = type;
+            this.uuid = uuid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return user.equals(key.user) && type.equals(key.type) && uuid.equals(key.uuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, type, uuid);
+        }
+    }
+}
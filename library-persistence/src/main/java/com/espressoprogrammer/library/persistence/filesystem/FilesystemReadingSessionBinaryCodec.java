@@ -0,0 +1,41 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.DateReadingSession;
+import com.espressoprogrammer.library.dto.ReadingSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class FilesystemReadingSessionBinaryCodec extends FilesystemBinaryCodec<ReadingSession> {
+
+    FilesystemReadingSessionBinaryCodec(FilesystemItemCodec<ReadingSession> jsonCodec) {
+        super(jsonCodec);
+    }
+
+    @Override
+    protected ReadingSession readItem(FilesystemBinaryInput in) throws IOException {
+        String uuid = in.readString();
+        String bookUuid = in.readString();
+        String deadline = in.readDate();
+        int dateReadingSessionsCount = in.readCount();
+        List<DateReadingSession> dateReadingSessions = new ArrayList<>(dateReadingSessionsCount);
+        for(int i = 0; i < dateReadingSessionsCount; i++) {
+            dateReadingSessions.add(new DateReadingSession(in.readDate(), in.readInt(), in.readString()));
+        }
+        return new ReadingSession(uuid, bookUuid, deadline, dateReadingSessions);
+    }
+
+    @Override
+    protected void writeItem(FilesystemBinaryOutput out, ReadingSession readingSession) {
+        out.writeString(readingSession.getUuid());
+        out.writeString(readingSession.getBookUuid());
+        out.writeDate(readingSession.getDeadline());
+        out.writeCount(readingSession.getDateReadingSessions().size());
+        for(DateReadingSession dateReadingSession : readingSession.getDateReadingSessions()) {
+            out.writeDate(dateReadingSession.getDate());
+            out.writeInt(dateReadingSession.getLastReadPage());
+            out.writeString(dateReadingSession.getBookmark());
+        }
+    }
+}
@@ -1,23 +1,60 @@
 package com.espressoprogrammer.library.persistence.filesystem;
 
 import com.espressoprogrammer.library.dto.ReadingSession;
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import com.espressoprogrammer.library.persistence.ItemVersions;
 import com.espressoprogrammer.library.persistence.ReadingSessionsDao;
+import com.espressoprogrammer.library.persistence.StoredJson;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 
 @Repository
-public class FilesystemReadingSessionsDao extends FilesystemAbstractDao<ReadingSession> implements ReadingSessionsDao {
+@Profile("!h2 & !memory")
+public class FilesystemReadingSessionsDao extends FilesystemAbstractDao<ReadingSession> implements ReadingSessionsDao, DisposableBean {
+
+    @Autowired
+    FilesystemReadingSessionsIndex readingSessionsIndex;
+
+    @Autowired
+    FilesystemWriteBehindQueue writeBehindQueue;
 
     @Override
     public List<ReadingSession> getUserReadingSessions(String user, String bookUuid) {
-        return getUserItems(user).stream()
-            .filter(r -> bookUuid.equals(r.getBookUuid()))
-            .collect(toList());
+        try(Stream<ReadingSession> readingSessions = streamUserReadingSessions(user, bookUuid)) {
+            return readingSessions.collect(toList());
+        }
+    }
+
+    /**
+     * Reads only the reading sessions the index holds for the book, in the order they were created. They are
+     * still checked against the book uuid, in case the index is behind the storage folder.
+     */
+    @Override
+    public Stream<ReadingSession> streamUserReadingSessions(String user, String bookUuid) {
+        try {
+            List<String> uuids = readingSessionsIndex.get(getStorageFolder(user), bookUuid, () -> indexUserReadingSessions(user));
+            return streamUserItems(user, uuids, r -> bookUuid.equals(r.getBookUuid()))
+                .map(r -> writeBehindQueue.<ReadingSession>get(user, getItemType(), r.getUuid()).orElse(r));
+        } catch(IOException ex) {
+            throw new FilesystemDaoException(ex);
+        }
+    }
+
+    @Override
+    public Optional<CollectionVersion> getUserReadingSessionsVersion(String user) {
+        return Optional.of(getUserItemsVersion(user));
     }
 
     @Override
@@ -27,17 +64,73 @@ public class FilesystemReadingSessionsDao extends FilesystemAbstractDao<ReadingS
 
     @Override
     public Optional<ReadingSession> getUserReadingSession(String user, String bookUuid, String uuid) {
+        Optional<ReadingSession> pendingReadingSession = writeBehindQueue.get(user, getItemType(), uuid);
+        if(pendingReadingSession.isPresent()) {
+            return pendingReadingSession;
+        }
         return getUserItem(user, uuid);
     }
 
+    /**
+     * A reading session waiting to be written is newer than its file, so it is never sent from the file.
+     */
+    @Override
+    public Optional<StoredJson> getUserReadingSessionJson(String user, String bookUuid, String uuid) {
+        if(writeBehindQueue.get(user, getItemType(), uuid).isPresent()) {
+            return Optional.empty();
+        }
+        return getUserItemJson(user, uuid);
+    }
+
+    /**
+     * With write-behind enabled the update is only queued, as long as the reading session stays with the
+     * same book. Moving it to another book changes the index, so that is written right away. Versions are
+     * checked against the queued update, which is the latest state of the reading session.
+     */
+    @Override
+    public Optional<String> updateUserReadingSession(String user, String bookUuid, String uuid, ReadingSession readingSession, String version) {
+        return lockItem(user, uuid, () -> {
+            boolean writeBehind = writeBehindQueue.isEnabled() && bookUuid.equals(readingSession.getBookUuid());
+            Optional<ReadingSession> currentReadingSession = version != null || writeBehind
+                ? getUserReadingSession(user, bookUuid, uuid)
+                : Optional.empty();
+            currentReadingSession.ifPresent(r -> ItemVersions.check(uuid, r, version));
+
+            if(writeBehind) {
+                if(!currentReadingSession.isPresent()) {
+                    return Optional.empty();
+                }
+
+                ReadingSession pendingReadingSession = createItem(uuid, readingSession);
+                if(writeBehindQueue.offer(user, getItemType(), uuid, pendingReadingSession,
+                        () -> updateUserItem(user, uuid, pendingReadingSession))) {
+                    // Readers see the queued update from now on
+                    collectionVersions.changed(user, getItemType());
+                    return Optional.of(uuid);
+                }
+            }
+
+            return writeBehindQueue.writeThrough(user, getItemType(), uuid, () -> updateUserItem(user, uuid, readingSession));
+        });
+    }
+
     @Override
-    public Optional<String> updateUserReadingSession(String user, String bookUuid, String uuid, ReadingSession readingSession) {
-        return updateUserItem(user, uuid, readingSession);
+    public Optional<String> deleteUserReadingSession(String user, String bookUuid, String uuid, String version) {
+        return lockItem(user, uuid, () -> {
+            if(version != null) {
+                getUserReadingSession(user, bookUuid, uuid).ifPresent(r -> ItemVersions.check(uuid, r, version));
+            }
+            return writeBehindQueue.writeThrough(user, getItemType(), uuid, () -> deleteUserItem(user, uuid));
+        });
     }
 
+    /**
+     * Writes the queued updates while the storage is still open, the DAO being destroyed before the beans
+     * it depends on.
+     */
     @Override
-    public Optional<String> deleteUserReadingSession(String user, String bookUuid, String uuid) {
-        return deleteUserItem(user, uuid);
+    public void destroy() {
+        writeBehindQueue.flush();
     }
 
     @Override
@@ -53,9 +146,42 @@ public class FilesystemReadingSessionsDao extends FilesystemAbstractDao<ReadingS
             new ArrayList<>(readingSession.getDateReadingSessions()));
     }
 
+    @Override
+    protected FilesystemBinaryCodec<ReadingSession> createBinaryCodec(FilesystemItemCodec<ReadingSession> jsonCodec) {
+        return new FilesystemReadingSessionBinaryCodec(jsonCodec);
+    }
+
+    @Override
+    protected void itemWritten(String user, ReadingSession readingSession) throws IOException {
+        if(readingSession.getBookUuid() == null) {
+            itemDeleted(user, readingSession.getUuid());
+            return;
+        }
+        readingSessionsIndex.put(getStorageFolder(user),
+            readingSession.getBookUuid(),
+            readingSession.getUuid(),
+            () -> indexUserReadingSessions(user));
+    }
+
+    @Override
+    protected void itemDeleted(String user, String uuid) throws IOException {
+        readingSessionsIndex.remove(getStorageFolder(user), uuid, () -> indexUserReadingSessions(user));
+    }
+
+    private Map<String, String> indexUserReadingSessions(String user) {
+        Map<String, String> bookUuids = new LinkedHashMap<>();
+        findUserItems(user, r -> r.getBookUuid() != null).forEach(r -> bookUuids.put(r.getUuid(), r.getBookUuid()));
+        return bookUuids;
+    }
+
     @Override
     protected String getStorageFolder(String user) {
-        return filesystemConfiguration.getLibraryFolder() + "/" + user + "/reading-sessions";
+        return userRoots.getUserFolder(user) + "/" + getItemType();
+    }
+
+    @Override
+    protected String getItemType() {
+        return "reading-sessions";
     }
 
 }
@@ -0,0 +1,249 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Persistent index from book uuid to the uuids of its reading sessions, in the order they were created.
+ * <p>
+ * Every storage folder gets a journal next to it, {@code <folder>.books}, with one line per change. The
+ * journal is replayed into memory on first use and rewritten once most of its lines are obsolete. Its header
+ * records the modification time of the storage folder seen by the last change, which is stamped only after
+ * the change is forced to disk. A journal that is missing or doesn't match the folder anymore, because a
+ * reading session was written but the process stopped before journaling it, is rebuilt from the reading
+ * sessions found in the storage folder, in listing order.
+ */
+@Component
+class FilesystemReadingSessionsIndex implements FilesystemFolderCache {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemReadingSessionsIndex.class);
+
+    private static final String JOURNAL_EXTENSION = ".books";
+    private static final String PUT = "+";
+    private static final String REMOVE = "-";
+    private static final String HEADER = "#";
+    private static final int HEADER_SIZE = HEADER.length() + 1 + 20 + 1;
+    private static final String SEPARATOR = "\t";
+    private static final int MIN_COMPACTION_LINES = 64;
+
+    private final ConcurrentMap<String, Journal> journals = new ConcurrentHashMap<>();
+
+    List<String> get(String folder, String bookUuid, Supplier<Map<String, String>> sessions) throws IOException {
+        return getJournal(folder, sessions).get(bookUuid);
+    }
+
+    void put(String folder, String bookUuid, String uuid, Supplier<Map<String, String>> sessions) throws IOException {
+        getJournal(folder, sessions).put(bookUuid, uuid);
+    }
+
+    void remove(String folder, String uuid, Supplier<Map<String, String>> sessions) throws IOException {
+        getJournal(folder, sessions).remove(uuid);
+    }
+
+    @Override
+    public void release(String folder) {
+        journals.remove(folder);
+    }
+
+    static Path getJournalPath(Path folder) {
+        return folder.resolveSibling(folder.getFileName() + JOURNAL_EXTENSION);
+    }
+
+    private Journal getJournal(String folder, Supplier<Map<String, String>> sessions) throws IOException {
+        try {
+            return journals.computeIfAbsent(folder, f -> {
+                try {
+                    return new Journal(Paths.get(f), sessions);
+                } catch(IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch(UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("%", "%25").replace("\t", "%09").replace("\n", "%0A");
+    }
+
+    private static String unescape(String value) {
+        if(value.indexOf('%') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '%' && i + 2 < value.length()) {
+                unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private static class Journal {
+        private final Path folder;
+        private final Path path;
+        private final Map<String, List<String>> sessionsByBook = new HashMap<>();
+        private final Map<String, String> bookBySession = new HashMap<>();
+        private int lines;
+
+        private Journal(Path folder, Supplier<Map<String, String>> sessions) throws IOException {
+            this.folder = folder;
+            this.path = getJournalPath(folder);
+            if(!Files.exists(path) || !replay()) {
+                sessionsByBook.clear();
+                bookBySession.clear();
+                sessions.get().forEach((uuid, bookUuid) -> apply(bookUuid, uuid));
+                rewrite();
+            }
+        }
+
+        synchronized List<String> get(String bookUuid) {
+            List<String> uuids = sessionsByBook.get(bookUuid);
+            return uuids != null ? new ArrayList<>(uuids) : Collections.emptyList();
+        }
+
+        synchronized void put(String bookUuid, String uuid) throws IOException {
+            if(bookUuid.equals(bookBySession.get(uuid))) {
+                return;
+            }
+            apply(bookUuid, uuid);
+            append(PUT + SEPARATOR + escape(bookUuid) + SEPARATOR + escape(uuid));
+        }
+
+        synchronized void remove(String uuid) throws IOException {
+            if(!bookBySession.containsKey(uuid)) {
+                return;
+            }
+            unlink(uuid);
+            append(REMOVE + SEPARATOR + escape(uuid));
+        }
+
+        private void apply(String bookUuid, String uuid) {
+            unlink(uuid);
+            sessionsByBook.computeIfAbsent(bookUuid, b -> new ArrayList<>(1)).add(uuid);
+            bookBySession.put(uuid, bookUuid);
+        }
+
+        private void unlink(String uuid) {
+            String bookUuid = bookBySession.remove(uuid);
+            if(bookUuid == null) {
+                return;
+            }
+            List<String> uuids = sessionsByBook.get(bookUuid);
+            uuids.remove(uuid);
+            if(uuids.isEmpty()) {
+                sessionsByBook.remove(bookUuid);
+            }
+        }
+
+        /**
+         * Returns false when the journal is stale and has to be rebuilt.
+         */
+        private boolean replay() throws IOException {
+            byte[] content = Files.readAllBytes(path);
+            String header = new String(content, 0, Math.min(HEADER_SIZE, content.length), StandardCharsets.UTF_8);
+            if(!header.equals(getHeader(getFolderModified()))) {
+                logger.debug("Journal {} is stale", path);
+                return false;
+            }
+
+            int end = content.length;
+            while(end > 0 && content[end - 1] != '\n') {
+                end--;
+            }
+            if(end < content.length) {
+                logger.warn("Drop incomplete last line of {}", path);
+                try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(end);
+                }
+            }
+
+            for(String line : new String(content, HEADER_SIZE, end - HEADER_SIZE, StandardCharsets.UTF_8).split("\n")) {
+                String[] fields = line.split(SEPARATOR);
+                if(fields.length == 3 && PUT.equals(fields[0])) {
+                    apply(unescape(fields[1]), unescape(fields[2]));
+                } else if(fields.length == 2 && REMOVE.equals(fields[0])) {
+                    unlink(unescape(fields[1]));
+                } else if(!line.isEmpty()) {
+                    logger.warn("Skip unknown line '{}' of {}", line, path);
+                }
+                lines++;
+            }
+            return true;
+        }
+
+        /**
+         * Appends the line and stamps the header only once the line is on disk, so a journal missing a
+         * change never looks up to date.
+         */
+        private void append(String line) throws IOException {
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                writeFully(channel, line + "\n", channel.size());
+                channel.force(false);
+                writeFully(channel, getHeader(getFolderModified()), 0);
+            }
+            lines++;
+            if(lines > MIN_COMPACTION_LINES && lines > 2 * bookBySession.size()) {
+                rewrite();
+            }
+        }
+
+        private void rewrite() throws IOException {
+            Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.createDirectories(path.getParent());
+            StringBuilder content = new StringBuilder(getHeader(getFolderModified()));
+            for(Map.Entry<String, List<String>> entry : sessionsByBook.entrySet()) {
+                for(String uuid : entry.getValue()) {
+                    content.append(PUT + SEPARATOR + escape(entry.getKey()) + SEPARATOR + escape(uuid) + "\n");
+                }
+            }
+            try(FileChannel channel = FileChannel.open(tmpPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeFully(channel, content.toString(), 0);
+                channel.force(false);
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = bookBySession.size();
+        }
+
+        private long getFolderModified() throws IOException {
+            return Files.exists(folder) ? Files.getLastModifiedTime(folder).to(TimeUnit.NANOSECONDS) : 0;
+        }
+
+        private static String getHeader(long folderModified) {
+            return String.format("%s%s%020d\n", HEADER, SEPARATOR, folderModified);
+        }
+
+        private static void writeFully(FileChannel channel, String content, long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while(buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+}
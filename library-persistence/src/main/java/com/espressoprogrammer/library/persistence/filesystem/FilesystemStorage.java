@@ -0,0 +1,45 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Stores the serialized items of one storage folder, which holds one entity type of one user.
+ */
+interface FilesystemStorage {
+
+    List<String> list(String folder) throws IOException;
+
+    /**
+     * Lists the items as the stream is consumed. The stream may hold the folder open, so close it when done.
+     */
+    default Stream<String> stream(String folder) throws IOException {
+        return list(folder).stream();
+    }
+
+    boolean exists(String folder, String uuid) throws IOException;
+
+    Optional<byte[]> read(String folder, String uuid) throws IOException;
+
+    void write(String folder, String uuid, byte[] content) throws IOException;
+
+    boolean delete(String folder, String uuid) throws IOException;
+
+    /**
+     * The file that holds the item, for storages that keep every item in a file of its own. The file is
+     * replaced, never changed, when the item is written again.
+     */
+    default Optional<Path> locate(String folder, String uuid) throws IOException {
+        return Optional.empty();
+    }
+
+    /**
+     * Forgets what is kept open or in memory for the folder, which is about to be moved or deleted. Using the
+     * folder afterwards opens it again.
+     */
+    default void release(String folder) throws IOException {
+    }
+}
@@ -0,0 +1,49 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+@Configuration
+class FilesystemStorageConfiguration {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String LOG_STORAGE = "log";
+
+    @Bean
+    FilesystemStorage filesystemStorage(FilesystemConfiguration filesystemConfiguration) {
+        FilesystemStorage storage = createStorage(filesystemConfiguration);
+        if(!StringUtils.hasLength(filesystemConfiguration.getMirrorFolder())) {
+            return storage;
+        }
+
+        logger.info("Mirror items into {}, hedging reads slower than the {} percentile",
+            filesystemConfiguration.getMirrorFolder(),
+            filesystemConfiguration.getHedgePercentile());
+        return new FilesystemMirroredStorage(storage,
+            filesystemConfiguration.getMirrorFolder(),
+            filesystemConfiguration.getHedgePercentile(),
+            filesystemConfiguration.getMirrorMetricsInterval());
+    }
+
+    private FilesystemStorage createStorage(FilesystemConfiguration filesystemConfiguration) {
+        if(LOG_STORAGE.equals(filesystemConfiguration.getStorage())) {
+            logger.info("Store items into append only segment files with {} durability",
+                filesystemConfiguration.getDurability());
+            return new FilesystemLogStorage(filesystemConfiguration.getLogSegmentMaxBytes(),
+                filesystemConfiguration.getLogCompactionInterval(),
+                filesystemConfiguration.getDurability(),
+                filesystemConfiguration.getGroupCommitWindow());
+        }
+
+        logger.info("Store every item into its own file with {} durability and {} layout",
+            filesystemConfiguration.getDurability(),
+            filesystemConfiguration.getLayout());
+        return new FilesystemFileStorage(filesystemConfiguration.isIndexEnabled(),
+            filesystemConfiguration.isBinaryFormat() ? FilesystemFileStorage.BINARY_EXTENSION : FilesystemFileStorage.JSON_EXTENSION,
+            FilesystemFileWriter.create(filesystemConfiguration.getDurability(), filesystemConfiguration.getGroupCommitWindow()),
+            FilesystemFileLayout.create(filesystemConfiguration.getLayout()));
+    }
+}
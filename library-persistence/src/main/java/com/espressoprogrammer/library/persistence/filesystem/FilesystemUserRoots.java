@@ -0,0 +1,372 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Places the folder of every user on one of the library roots.
+ * <p>
+ * {@code filesystem.dao.rootfolder} takes a comma separated list of roots, usually on different disks. Users
+ * are placed by consistent hashing, every root owning {@value #VIRTUAL_NODES} points of a hash ring, so
+ * adding a root only takes users away from the other roots and never moves users between them.
+ * <p>
+ * Users that sit on another root than their own, like after a root was added, are moved in the background
+ * while they keep being served from where they are. A move copies the user folder into the new root,
+ * copies again what changed meanwhile while writes of the user wait, and then switches the user over. The
+ * old folder is deleted after {@code filesystem.dao.rebalance.grace} milliseconds, so reads that started
+ * before the switch can still finish. What the storage and the {@link FilesystemFolderCache}s keep for the
+ * old folders is released at the switch and again at the deletion.
+ */
+@Component
+class FilesystemUserRoots implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemUserRoots.class);
+
+    static final int VIRTUAL_NODES = 128;
+    private static final int USER_LOCKS = 64;
+    private static final String STAGING_PREFIX = ".moving-";
+
+    private final FilesystemConfiguration filesystemConfiguration;
+    private final FilesystemStorage storage;
+    private final List<FilesystemFolderCache> folderCaches;
+    private final List<String> roots;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final long graceMillis;
+    private final ConcurrentMap<String, String> userRoots = new ConcurrentHashMap<>();
+    private final Set<String> scheduledMoves = ConcurrentHashMap.newKeySet();
+    // Moved users whose old folder waits to be deleted, only touched by the rebalance thread
+    private final Set<String> movedUsers = new HashSet<>();
+    private final ReadWriteLock[] userLocks = new ReadWriteLock[USER_LOCKS];
+    private final ScheduledExecutorService rebalanceExecutor;
+
+    FilesystemUserRoots(FilesystemConfiguration filesystemConfiguration, FilesystemStorage storage) {
+        this(filesystemConfiguration, storage, Collections.emptyList());
+    }
+
+    @Autowired
+    FilesystemUserRoots(FilesystemConfiguration filesystemConfiguration,
+                        FilesystemStorage storage,
+                        List<FilesystemFolderCache> folderCaches) {
+        this.filesystemConfiguration = filesystemConfiguration;
+        this.storage = storage;
+        this.folderCaches = folderCaches;
+        this.roots = new ArrayList<>(filesystemConfiguration.getLibraryFolders());
+        this.graceMillis = filesystemConfiguration.getRebalanceGrace();
+        for(int i = 0; i < USER_LOCKS; i++) {
+            userLocks[i] = new ReentrantReadWriteLock();
+        }
+
+        if(roots.size() > 1) {
+            for(String root : roots) {
+                for(int i = 0; i < VIRTUAL_NODES; i++) {
+                    ring.put(hash(root + "#" + i), root);
+                }
+            }
+            rebalanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "filesystem-rebalance");
+                thread.setDaemon(true);
+                return thread;
+            });
+            rebalanceExecutor.execute(this::rebalance);
+        } else {
+            rebalanceExecutor = null;
+        }
+    }
+
+    /**
+     * Folder of the user, on the root that holds the user right now.
+     */
+    String getUserFolder(String user) {
+        if(rebalanceExecutor == null) {
+            return filesystemConfiguration.getLibraryFolder() + "/" + user;
+        }
+
+        return userRoots.computeIfAbsent(user, this::locate) + "/" + user;
+    }
+
+    /**
+     * Root the user belongs to, where new users are created and where others are moved to.
+     */
+    String getTargetRoot(String user) {
+        if(rebalanceExecutor == null) {
+            return filesystemConfiguration.getLibraryFolder();
+        }
+
+        Map.Entry<Long, String> node = ring.ceilingEntry(hash(user));
+        return node != null ? node.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Runs a write of the user, which never overlaps with the user being moved to another root. Writes may
+     * nest, and a write that takes other locks takes them inside this one, so a waiting move can't get in
+     * between.
+     */
+    <R> R write(String user, Supplier<R> write) {
+        if(rebalanceExecutor == null) {
+            return write.get();
+        }
+
+        Lock lock = getUserLock(user).readLock();
+        lock.lock();
+        try {
+            return write.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves every user that isn't on its own root.
+     */
+    void rebalance() {
+        int moved = 0;
+        for(String root : roots) {
+            List<String> users;
+            try(Stream<Path> paths = Files.list(Paths.get(root))) {
+                users = paths
+                    .filter(Files::isDirectory)
+                    .map(p -> p.getFileName().toString())
+                    .filter(n -> !n.startsWith(STAGING_PREFIX))
+                    .collect(toList());
+            } catch(NoSuchFileException ex) {
+                continue;
+            } catch(IOException ex) {
+                logger.error("Can't list users of root {}", root, ex);
+                continue;
+            }
+
+            for(String user : users) {
+                if(Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                if(!root.equals(getTargetRoot(user)) && move(user, root)) {
+                    moved++;
+                }
+            }
+        }
+        logger.info("Rebalanced users over {} roots, moved {} users", roots.size(), moved);
+    }
+
+    @Override
+    public void close() {
+        if(rebalanceExecutor != null) {
+            rebalanceExecutor.shutdownNow();
+            try {
+                rebalanceExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String locate(String user) {
+        String targetRoot = getTargetRoot(user);
+        if(Files.isDirectory(Paths.get(targetRoot, user))) {
+            return targetRoot;
+        }
+
+        for(String root : roots) {
+            if(!root.equals(targetRoot) && Files.isDirectory(Paths.get(root, user))) {
+                scheduleMove(user, root);
+                return root;
+            }
+        }
+        return targetRoot;
+    }
+
+    private void scheduleMove(String user, String root) {
+        if(scheduledMoves.add(user)) {
+            try {
+                rebalanceExecutor.execute(() -> {
+                    scheduledMoves.remove(user);
+                    move(user, root);
+                });
+            } catch(RejectedExecutionException ex) {
+                scheduledMoves.remove(user);
+            }
+        }
+    }
+
+    /**
+     * Moves the user from the given root to its own root, returns true when the user was moved.
+     */
+    private boolean move(String user, String root) {
+        String targetRoot = getTargetRoot(user);
+        Path source = Paths.get(root, user);
+        Path target = Paths.get(targetRoot, user);
+        Path staging = Paths.get(targetRoot, STAGING_PREFIX + user);
+        try {
+            if(movedUsers.contains(user) || !Files.isDirectory(source)) {
+                return false;
+            }
+            if(Files.isDirectory(target)) {
+                // Left behind by a move that was stopped before deleting it
+                userRoots.put(user, targetRoot);
+                deleteUserFolder(user, root);
+                return false;
+            }
+
+            long start = System.nanoTime();
+            sync(source, staging, false);
+
+            Lock lock = getUserLock(user).writeLock();
+            lock.lock();
+            try {
+                // The storage lets go of the files first, so the last sync copies them as they are on the disk
+                releaseUserFolder(user, root);
+                sync(source, staging, true);
+                Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+                // Left from an earlier stay of the user on the target root
+                releaseUserFolder(user, targetRoot);
+                userRoots.put(user, targetRoot);
+                // Built again by reads while the user was waiting to switch
+                releaseUserFolder(user, root);
+            } finally {
+                lock.unlock();
+            }
+
+            logger.info("Moved user {} from {} to {} in {} ms",
+                user,
+                root,
+                targetRoot,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            movedUsers.add(user);
+            rebalanceExecutor.schedule(() -> {
+                deleteUserFolder(user, root);
+                movedUsers.remove(user);
+            }, graceMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch(IOException | RuntimeException ex) {
+            logger.error("Can't move user {} from {} to {}, it stays where it is", user, root, targetRoot, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Copies into the target folder the files of the source folder it doesn't have yet and deletes the ones
+     * the source folder doesn't have anymore. Files of the same size and modification time are taken as
+     * copied already, unless their content has to be compared, since a file rewritten within the same
+     * modification time tick keeps both.
+     */
+    private void sync(Path source, Path target, boolean compareContent) throws IOException {
+        Set<Path> files = new HashSet<>();
+        List<Path> sourceFiles;
+        try(Stream<Path> paths = Files.walk(source)) {
+            sourceFiles = paths.collect(toList());
+        }
+        for(Path sourceFile : sourceFiles) {
+            Path relativePath = source.relativize(sourceFile);
+            Path targetFile = target.resolve(relativePath.toString());
+            files.add(relativePath);
+            try {
+                if(Files.isDirectory(sourceFile)) {
+                    Files.createDirectories(targetFile);
+                } else if(!isSameFile(sourceFile, targetFile, compareContent)) {
+                    Files.copy(sourceFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            } catch(NoSuchFileException ex) {
+                // Deleted since it was listed, the next sync deletes it from the target too
+                files.remove(relativePath);
+            }
+        }
+
+        List<Path> targetFiles;
+        try(Stream<Path> paths = Files.walk(target)) {
+            targetFiles = paths.collect(toList());
+        }
+        for(Path targetFile : targetFiles) {
+            if(!files.contains(target.relativize(targetFile))) {
+                FileSystemUtils.deleteRecursively(targetFile);
+            }
+        }
+    }
+
+    private boolean isSameFile(Path sourceFile, Path targetFile, boolean compareContent) throws IOException {
+        if(!Files.exists(targetFile)) {
+            return false;
+        }
+
+        BasicFileAttributes sourceAttributes = Files.readAttributes(sourceFile, BasicFileAttributes.class);
+        BasicFileAttributes targetAttributes = Files.readAttributes(targetFile, BasicFileAttributes.class);
+        if(sourceAttributes.size() != targetAttributes.size()
+            || !sourceAttributes.lastModifiedTime().equals(targetAttributes.lastModifiedTime())) {
+            return false;
+        }
+        return !compareContent || Arrays.equals(Files.readAllBytes(sourceFile), Files.readAllBytes(targetFile));
+    }
+
+    private void deleteUserFolder(String user, String root) {
+        try {
+            releaseUserFolder(user, root);
+            FileSystemUtils.deleteRecursively(Paths.get(root, user));
+        } catch(IOException ex) {
+            logger.error("Can't delete the old folder of user {} from {}", user, root, ex);
+        }
+    }
+
+    /**
+     * Makes the storage and the folder caches forget the folders of the user, so nothing they keep open or in
+     * memory refers to them.
+     */
+    private void releaseUserFolder(String user, String root) throws IOException {
+        String userFolder = root + "/" + user;
+        try(Stream<Path> paths = Files.list(Paths.get(userFolder))) {
+            for(Path path : paths.filter(Files::isDirectory).collect(toList())) {
+                String folder = userFolder + "/" + path.getFileName();
+                storage.release(folder);
+                folderCaches.forEach(c -> c.release(folder));
+            }
+        } catch(NoSuchFileException ex) {
+            // Nothing left to release
+        }
+    }
+
+    private ReadWriteLock getUserLock(String user) {
+        int hash = user.hashCode();
+        return userLocks[(hash ^ (hash >>> 16)) & (USER_LOCKS - 1)];
+    }
+
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
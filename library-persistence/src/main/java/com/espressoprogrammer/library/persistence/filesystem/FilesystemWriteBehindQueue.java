@@ -0,0 +1,293 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Delays item updates so repeated updates of the same item end up in a single write.
+ * <p>
+ * An update waits up to {@code filesystem.dao.writebehind.delay} milliseconds, replacing any update of the
+ * same item that is still waiting. Waiting updates are kept until they are written, so DAOs can serve reads
+ * from them. At most {@code filesystem.dao.writebehind.maxpending} items wait at a time, updates that don't
+ * fit are written right away. A delay of 0 disables the queue.
+ * <p>
+ * A write that fails keeps its update waiting and is retried with a growing delay. Once the retries run
+ * out the update is dropped, the queue reports itself unhealthy and the next write of the same item fails,
+ * so the loss reaches a client.
+ */
+@Component
+class FilesystemWriteBehindQueue implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemWriteBehindQueue.class);
+
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long MAX_RETRY_DELAY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int WRITE_LOCKS = 64;
+
+    private final long delayNanos;
+    private final int maxPending;
+    private final int maxAttempts;
+    private final ConcurrentMap<Key, Pending> pending = new ConcurrentHashMap<>();
+    // Updates dropped after their last attempt, until the next write of the item reports them
+    private final ConcurrentMap<Key, Exception> lost = new ConcurrentHashMap<>();
+    // One held while writing an item, so a delayed write never lands after a newer one of the same item
+    private final Object[] writeLocks = new Object[WRITE_LOCKS];
+    private final ScheduledExecutorService flushExecutor;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder losses = new LongAdder();
+
+    @Autowired
+    FilesystemWriteBehindQueue(FilesystemConfiguration filesystemConfiguration) {
+        this(filesystemConfiguration.getWriteBehindDelay(), filesystemConfiguration.getWriteBehindMaxPending());
+    }
+
+    FilesystemWriteBehindQueue(long delayMillis, int maxPending) {
+        this(delayMillis, maxPending, MAX_ATTEMPTS);
+    }
+
+    FilesystemWriteBehindQueue(long delayMillis, int maxPending, int maxAttempts) {
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        this.maxPending = maxPending;
+        this.maxAttempts = maxAttempts;
+        for(int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = new Object();
+        }
+        if(isEnabled()) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "filesystem-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, delayMillis / 4);
+            flushExecutor.scheduleWithFixedDelay(() -> flush(false), period, period, TimeUnit.MILLISECONDS);
+        } else {
+            flushExecutor = null;
+        }
+    }
+
+    boolean isEnabled() {
+        return delayNanos > 0 && maxPending > 0;
+    }
+
+    /**
+     * Returns the item waiting to be written, which is newer than the stored one.
+     */
+    <T> Optional<T> get(String user, String type, String uuid) {
+        if(!isEnabled()) {
+            return Optional.empty();
+        }
+
+        Pending waiting = pending.get(new Key(user, type, uuid));
+        return waiting != null ? Optional.of((T) waiting.item) : Optional.empty();
+    }
+
+    /**
+     * Queues the write of the item, returns false when the queue is full and the caller has to write it.
+     * Fails when an earlier update of the item was lost.
+     */
+    boolean offer(String user, String type, String uuid, Object item, Runnable write) {
+        if(!isEnabled()) {
+            return false;
+        }
+
+        Key key = new Key(user, type, uuid);
+        synchronized (getWriteLock(key)) {
+            checkLost(key);
+            Pending waiting = pending.get(key);
+            // Offers on other stripes may overshoot the limit by a few items
+            if(waiting == null && pending.size() >= maxPending) {
+                return false;
+            }
+
+            if(waiting != null) {
+                // A failing item keeps retrying on its own schedule
+                pending.put(key, new Pending(item, write, waiting.queued, waiting.attempts, waiting.nextAttempt));
+            } else {
+                long queued = System.nanoTime();
+                pending.put(key, new Pending(item, write, queued, 0, queued));
+            }
+        }
+        updates.increment();
+        return true;
+    }
+
+    /**
+     * Runs a write that replaces whatever waits for the item, like an update that can't be delayed or a
+     * delete, so that no older update is written after it. Fails when an earlier update of the item was lost.
+     */
+    <R> R writeThrough(String user, String type, String uuid, Supplier<R> write) {
+        if(!isEnabled()) {
+            return write.get();
+        }
+
+        Key key = new Key(user, type, uuid);
+        synchronized (getWriteLock(key)) {
+            checkLost(key);
+            pending.remove(key);
+            return write.get();
+        }
+    }
+
+    /**
+     * Writes every waiting item.
+     */
+    void flush() {
+        flush(true);
+    }
+
+    long getUpdateCount() {
+        return updates.sum();
+    }
+
+    long getWriteCount() {
+        return writes.sum();
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Failed write attempts, including the ones retried successfully.
+     */
+    long getFailureCount() {
+        return failures.sum();
+    }
+
+    long getLostCount() {
+        return losses.sum();
+    }
+
+    /**
+     * False while a lost update hasn't been reported to a write of its item yet.
+     */
+    boolean isHealthy() {
+        return lost.isEmpty();
+    }
+
+    @Override
+    public void close() {
+        if(flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            flush(true);
+        }
+    }
+
+    /**
+     * Writes the updates that waited long enough, or all of them as a last attempt.
+     */
+    private void flush(boolean all) {
+        long now = System.nanoTime();
+        for(Map.Entry<Key, Pending> entry : pending.entrySet()) {
+            Pending waiting = entry.getValue();
+            if(all || (now - waiting.queued >= delayNanos && now - waiting.nextAttempt >= 0)) {
+                write(entry.getKey(), waiting, all);
+            }
+        }
+    }
+
+    private void write(Key key, Pending waiting, boolean lastAttempt) {
+        synchronized (getWriteLock(key)) {
+            if(pending.get(key) != waiting) {
+                return;
+            }
+
+            try {
+                waiting.write.run();
+                writes.increment();
+                // An update queued while writing replaced this one and waits for its own write
+                pending.remove(key, waiting);
+            } catch(Exception ex) {
+                failures.increment();
+                int attempts = waiting.attempts + 1;
+                if(!lastAttempt && attempts < maxAttempts) {
+                    long retryDelay = Math.min(MAX_RETRY_DELAY_NANOS, Math.max(delayNanos, 1) << Math.min(attempts, 20));
+                    logger.warn("Error on writing item {} of user {}, attempt {} of {}, retry in {} ms",
+                        key.uuid, key.user, attempts, maxAttempts, TimeUnit.NANOSECONDS.toMillis(retryDelay), ex);
+                    pending.replace(key, waiting,
+                        new Pending(waiting.item, waiting.write, waiting.queued, attempts, System.nanoTime() + retryDelay));
+                } else {
+                    logger.error("Error on writing item {} of user {}, the update is lost after {} attempts",
+                        key.uuid, key.user, attempts, ex);
+                    // Recorded before the item leaves the queue, so whoever doesn't find it there finds the loss
+                    lost.put(key, ex);
+                    losses.increment();
+                    pending.remove(key, waiting);
+                }
+            }
+        }
+    }
+
+    private void checkLost(Key key) {
+        Exception ex = lost.remove(key);
+        if(ex != null) {
+            throw new FilesystemDaoException(ex);
+        }
+    }
+
+    private Object getWriteLock(Key key) {
+        int hash = key.hashCode();
+        return writeLocks[(hash ^ (hash >>> 16)) & (WRITE_LOCKS - 1)];
+    }
+
+    private static class Key {
+        private final String user;
+        private final String type;
+        private final String uuid;
+
+        private Key(String user, String type, String uuid) {
+            this.user = user;
+            this.type = type;
+            this.uuid = uuid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return user.equals(key.user) && type.equals(key.type) && uuid.equals(key.uuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, type, uuid);
+        }
+    }
+
+    private static class Pending {
+        private final Object item;
+        private final Runnable write;
+        private final long queued;
+        private final int attempts;
+        private final long nextAttempt;
+
+        private Pending(Object item, Runnable write, long queued, int attempts, long nextAttempt) {
+            this.item = item;
+            this.write = write;
+            this.queued = queued;
+            this.attempts = attempts;
+            this.nextAttempt = nextAttempt;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.espressoprogrammer.library.persistence.h2;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+abstract class H2AbstractDao {
+    // SQL state of a duplicate key in a unique index
+    static final String DUPLICATE_KEY = "23505";
+
+    @Autowired
+    DataSource dataSource;
+
+    /**
+     * Runs the work on a connection of the pool, committing what it wrote.
+     */
+    <R> R withConnection(Work<R> work) {
+        try(Connection connection = dataSource.getConnection()) {
+            return work.run(connection);
+        } catch(SQLException ex) {
+            throw new H2DaoException(ex);
+        }
+    }
+
+    /**
+     * Runs the work in one transaction, rolled back when the work fails.
+     */
+    <R> R inTransaction(Work<R> work) {
+        return withConnection(connection -> {
+            connection.setAutoCommit(false);
+            try {
+                R result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch(SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        });
+    }
+
+    <T> List<T> query(Connection connection, String sql, Row<T> row, Object... parameters) throws SQLException {
+        try(PreparedStatement statement = prepare(connection, sql, parameters);
+            ResultSet resultSet = statement.executeQuery()) {
+            List<T> rows = new ArrayList<>();
+            while(resultSet.next()) {
+                rows.add(row.map(resultSet));
+            }
+            return rows;
+        }
+    }
+
+    int update(Connection connection, String sql, Object... parameters) throws SQLException {
+        try(PreparedStatement statement = prepare(connection, sql, parameters)) {
+            return statement.executeUpdate();
+        }
+    }
+
+    PreparedStatement prepare(Connection connection, String sql, Object... parameters) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        for(int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+        }
+        return statement;
+    }
+
+    /**
+     * Escapes the text for a {@code LIKE ... ESCAPE '\'} pattern that looks for it anywhere in a value.
+     */
+    static String toContainsPattern(String text) {
+        return "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    interface Work<R> {
+        R run(Connection connection) throws SQLException;
+    }
+
+    interface Row<T> {
+        T map(ResultSet resultSet) throws SQLException;
+    }
+}
@@ -0,0 +1,234 @@
+package com.espressoprogrammer.library.persistence.h2;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.BooksDao;
+import com.espressoprogrammer.library.persistence.DuplicateIsbnException;
+import com.espressoprogrammer.library.persistence.Isbns;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.StringUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Keeps books in the {@code books} table, with their authors and ISBN keys in tables of their own. The primary
+ * key of {@code book_isbns} is what keeps two books of a user from sharing an ISBN.
+ */
+@Repository
+@Profile("h2")
+public class H2BooksDao extends H2AbstractDao implements BooksDao {
+    private static final String BOOK_COLUMNS = "uuid, isbn10, isbn13, title, image, pages";
+
+    @Override
+    public List<Book> getUserBooks(String user) {
+        return withConnection(connection -> readBooks(connection, user,
+            "SELECT " + BOOK_COLUMNS + " FROM books WHERE user_name = ? ORDER BY id",
+            user));
+    }
+
+    @Override
+    public List<Book> getUserBooks(String user, String searchText) {
+        if(!StringUtils.hasLength(searchText)) {
+            return getUserBooks(user);
+        }
+
+        String pattern = toContainsPattern(searchText.toLowerCase());
+        return withConnection(connection -> readBooks(connection, user,
+            "SELECT " + BOOK_COLUMNS + " FROM books b WHERE user_name = ?"
+                + " AND (LOWER(title) LIKE ? ESCAPE '\\'"
+                + " OR LOWER(isbn10) LIKE ? ESCAPE '\\'"
+                + " OR LOWER(isbn13) LIKE ? ESCAPE '\\'"
+                + " OR EXISTS (SELECT 1 FROM book_authors a WHERE a.user_name = b.user_name AND a.book_uuid = b.uuid"
+                + " AND LOWER(a.author) LIKE ? ESCAPE '\\'))"
+                + " ORDER BY id",
+            user, pattern, pattern, pattern, pattern));
+    }
+
+    @Override
+    public Book createUserBook(String user, Book book) {
+        return inTransaction(connection -> {
+            Book persistedBook = createBook(UUID.randomUUID().toString(), book);
+            update(connection, "INSERT INTO books (user_name, " + BOOK_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)",
+                user,
+                persistedBook.getUuid(),
+                persistedBook.getIsbn10(),
+                persistedBook.getIsbn13(),
+                persistedBook.getTitle(),
+                persistedBook.getImage(),
+                persistedBook.getPages());
+            insertAuthors(connection, user, persistedBook);
+            insertIsbns(connection, user, persistedBook);
+            return persistedBook;
+        });
+    }
+
+    @Override
+    public Optional<Book> getUserBook(String user, String uuid) {
+        return withConnection(connection -> readBook(connection, user, uuid, false));
+    }
+
+    @Override
+    public Optional<Book> getUserBookByIsbn(String user, String isbn) {
+        Optional<String> key = Isbns.toKey(isbn);
+        if(!key.isPresent()) {
+            return Optional.empty();
+        }
+
+        return withConnection(connection -> {
+            List<String> uuids = query(connection,
+                "SELECT book_uuid FROM book_isbns WHERE user_name = ? AND isbn = ?",
+                r -> r.getString(1),
+                user, key.get());
+            return uuids.isEmpty() ? Optional.empty() : readBook(connection, user, uuids.get(0), false);
+        });
+    }
+
+    @Override
+    public Optional<String> updateUserBook(String user, String uuid, Book book, String version) {
+        return inTransaction(connection -> {
+            Optional<Book> currentBook = readBook(connection, user, uuid, true);
+            if(!currentBook.isPresent()) {
+                return Optional.empty();
+            }
+            ItemVersions.check(uuid, currentBook.get(), version);
+
+            Book persistedBook = createBook(uuid, book);
+            update(connection, "UPDATE books SET isbn10 = ?, isbn13 = ?, title = ?, image = ?, pages = ? WHERE user_name = ? AND uuid = ?",
+                persistedBook.getIsbn10(),
+                persistedBook.getIsbn13(),
+                persistedBook.getTitle(),
+                persistedBook.getImage(),
+                persistedBook.getPages(),
+                user,
+                uuid);
+            update(connection, "DELETE FROM book_authors WHERE user_name = ? AND book_uuid = ?", user, uuid);
+            insertAuthors(connection, user, persistedBook);
+            update(connection, "DELETE FROM book_isbns WHERE user_name = ? AND book_uuid = ?", user, uuid);
+            insertIsbns(connection, user, persistedBook);
+            return Optional.of(uuid);
+        });
+    }
+
+    @Override
+    public Optional<String> deleteUserBook(String user, String uuid, String version) {
+        return inTransaction(connection -> {
+            Optional<Book> currentBook = readBook(connection, user, uuid, true);
+            if(!currentBook.isPresent()) {
+                return Optional.empty();
+            }
+            ItemVersions.check(uuid, currentBook.get(), version);
+
+            update(connection, "DELETE FROM book_isbns WHERE user_name = ? AND book_uuid = ?", user, uuid);
+            update(connection, "DELETE FROM book_authors WHERE user_name = ? AND book_uuid = ?", user, uuid);
+            update(connection, "DELETE FROM books WHERE user_name = ? AND uuid = ?", user, uuid);
+            return Optional.of(uuid);
+        });
+    }
+
+    /**
+     * Reads the book, locking its row until the end of the transaction when it is going to be changed.
+     */
+    private Optional<Book> readBook(Connection connection, String user, String uuid, boolean forUpdate) throws SQLException {
+        List<Book> books = readBooks(connection, user,
+            "SELECT " + BOOK_COLUMNS + " FROM books WHERE user_name = ? AND uuid = ?" + (forUpdate ? " FOR UPDATE" : ""),
+            user, uuid);
+        return books.isEmpty() ? Optional.empty() : Optional.of(books.get(0));
+    }
+
+    private List<Book> readBooks(Connection connection, String user, String sql, Object... parameters) throws SQLException {
+        List<Book> books = query(connection, sql, this::toBook, parameters);
+        if(books.isEmpty()) {
+            return books;
+        }
+
+        Map<String, List<String>> authors = new HashMap<>();
+        String authorsSql = books.size() == 1
+            ? "SELECT book_uuid, author FROM book_authors WHERE user_name = ? AND book_uuid = ? ORDER BY position"
+            : "SELECT book_uuid, author FROM book_authors WHERE user_name = ? ORDER BY book_uuid, position";
+        Object[] authorsParameters = books.size() == 1 ? new Object[] {user, books.get(0).getUuid()} : new Object[] {user};
+        try(PreparedStatement statement = prepare(connection, authorsSql, authorsParameters);
+            ResultSet resultSet = statement.executeQuery()) {
+            while(resultSet.next()) {
+                authors.computeIfAbsent(resultSet.getString(1), u -> new ArrayList<>()).add(resultSet.getString(2));
+            }
+        }
+
+        List<Book> booksWithAuthors = new ArrayList<>(books.size());
+        for(Book book : books) {
+            booksWithAuthors.add(new Book(book.getUuid(),
+                book.getIsbn10(),
+                book.getIsbn13(),
+                book.getTitle(),
+                authors.getOrDefault(book.getUuid(), new ArrayList<>()),
+                book.getImage(),
+                book.getPages()));
+        }
+        return booksWithAuthors;
+    }
+
+    private Book toBook(ResultSet resultSet) throws SQLException {
+        return new Book(resultSet.getString("uuid"),
+            resultSet.getString("isbn10"),
+            resultSet.getString("isbn13"),
+            resultSet.getString("title"),
+            new ArrayList<>(),
+            resultSet.getString("image"),
+            (Integer) resultSet.getObject("pages"));
+    }
+
+    private void insertAuthors(Connection connection, String user, Book book) throws SQLException {
+        if(book.getAuthors().isEmpty()) {
+            return;
+        }
+
+        try(PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO book_authors (user_name, book_uuid, position, author) VALUES (?, ?, ?, ?)")) {
+            for(int i = 0; i < book.getAuthors().size(); i++) {
+                statement.setString(1, user);
+                statement.setString(2, book.getUuid());
+                statement.setInt(3, i);
+                statement.setString(4, book.getAuthors().get(i));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void insertIsbns(Connection connection, String user, Book book) throws SQLException {
+        for(String isbn : Isbns.toKeys(book)) {
+            try {
+                update(connection, "INSERT INTO book_isbns (user_name, isbn, book_uuid) VALUES (?, ?, ?)",
+                    user, isbn, book.getUuid());
+            } catch(SQLException ex) {
+                if(!DUPLICATE_KEY.equals(ex.getSQLState())) {
+                    throw ex;
+                }
+                List<String> existingUuids = query(connection,
+                    "SELECT book_uuid FROM book_isbns WHERE user_name = ? AND isbn = ?",
+                    r -> r.getString(1),
+                    user, isbn);
+                throw new DuplicateIsbnException(isbn, existingUuids.isEmpty() ? null : existingUuids.get(0));
+            }
+        }
+    }
+
+    private Book createBook(String uuid, Book book) {
+        return new Book(uuid,
+            book.getIsbn10(),
+            book.getIsbn13(),
+            book.getTitle(),
+            new ArrayList<>(book.getAuthors()),
+            book.getImage(),
+            book.getPages());
+    }
+}
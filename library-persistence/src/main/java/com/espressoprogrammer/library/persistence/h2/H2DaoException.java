@@ -0,0 +1,9 @@
+package com.espressoprogrammer.library.persistence.h2;
+
+class H2DaoException extends RuntimeException {
+
+    H2DaoException(Exception cause) {
+        super(cause);
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.espressoprogrammer.library.persistence.h2;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.sql.SQLException;
+
+/**
+ * Embedded H2 database used by the DAOs of the {@code h2} profile.
+ * <p>
+ * Connections come from a pool of at most {@code h2.dao.pool.maxconnections} connections, a request waits up
+ * to {@code h2.dao.pool.timeout} seconds for one. Pooled connections keep their H2 session, so statements
+ * prepared again on a connection are found in the session's query cache, sized by {@code QUERY_CACHE_SIZE}
+ * in the url, instead of being parsed again.
+ */
+@Configuration
+@Profile("h2")
+class H2DataSourceConfiguration {
+    private static final Logger logger = LoggerFactory.getLogger(H2DataSourceConfiguration.class);
+
+    @Value(value = "${h2.dao.url:jdbc:h2:~/Library/library;QUERY_CACHE_SIZE=64}")
+    private String url;
+
+    @Value(value = "${h2.dao.user:sa}")
+    private String user;
+
+    @Value(value = "${h2.dao.password:}")
+    private String password;
+
+    @Value(value = "${h2.dao.pool.maxconnections:16}")
+    private int maxConnections;
+
+    @Value(value = "${h2.dao.pool.timeout:30}")
+    private int timeout;
+
+    @Bean(destroyMethod = "dispose")
+    JdbcConnectionPool h2DataSource() throws SQLException {
+        logger.info("Store items into H2 database {} with at most {} connections", url, maxConnections);
+        JdbcConnectionPool dataSource = JdbcConnectionPool.create(url, user, password);
+        dataSource.setMaxConnections(maxConnections);
+        dataSource.setLoginTimeout(timeout);
+        H2Schema.create(dataSource);
+        return dataSource;
+    }
+}
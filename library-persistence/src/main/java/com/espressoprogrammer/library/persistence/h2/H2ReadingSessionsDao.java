@@ -0,0 +1,192 @@
+package com.espressoprogrammer.library.persistence.h2;
+
+import com.espressoprogrammer.library.dto.DateReadingSession;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.ReadingSessionsDao;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Keeps reading sessions in the {@code reading_sessions} table and their date reading sessions in
+ * {@code date_reading_sessions}, one row each, written in JDBC batches.
+ */
+@Repository
+@Profile("h2")
+public class H2ReadingSessionsDao extends H2AbstractDao implements ReadingSessionsDao {
+    private static final String DATE_READING_SESSION_COLUMNS = "reading_session_uuid, position, session_date, last_read_page, bookmark";
+
+    @Override
+    public List<ReadingSession> getUserReadingSessions(String user, String bookUuid) {
+        return withConnection(connection -> {
+            List<ReadingSession> readingSessions = query(connection,
+                "SELECT uuid, book_uuid, deadline FROM reading_sessions WHERE user_name = ? AND book_uuid = ? ORDER BY id",
+                this::toReadingSession,
+                user, bookUuid);
+            if(readingSessions.isEmpty()) {
+                return readingSessions;
+            }
+
+            Map<String, List<DateReadingSession>> dateReadingSessions = readDateReadingSessions(connection,
+                "SELECT " + DATE_READING_SESSION_COLUMNS + " FROM date_reading_sessions d WHERE user_name = ?"
+                    + " AND EXISTS (SELECT 1 FROM reading_sessions r WHERE r.user_name = d.user_name"
+                    + " AND r.uuid = d.reading_session_uuid AND r.book_uuid = ?)"
+                    + " ORDER BY reading_session_uuid, position",
+                user, bookUuid);
+            List<ReadingSession> readingSessionsWithDates = new ArrayList<>(readingSessions.size());
+            for(ReadingSession readingSession : readingSessions) {
+                readingSessionsWithDates.add(withDateReadingSessions(readingSession,
+                    dateReadingSessions.getOrDefault(readingSession.getUuid(), new ArrayList<>())));
+            }
+            return readingSessionsWithDates;
+        });
+    }
+
+    @Override
+    public ReadingSession createUserReadingSession(String user, String bookUuid, ReadingSession readingSession) {
+        return inTransaction(connection -> {
+            ReadingSession persistedReadingSession = new ReadingSession(UUID.randomUUID().toString(),
+                readingSession.getBookUuid(),
+                readingSession.getDeadline(),
+                new ArrayList<>(readingSession.getDateReadingSessions()));
+            update(connection, "INSERT INTO reading_sessions (user_name, uuid, book_uuid, deadline) VALUES (?, ?, ?, ?)",
+                user,
+                persistedReadingSession.getUuid(),
+                persistedReadingSession.getBookUuid(),
+                persistedReadingSession.getDeadline());
+            insertDateReadingSessions(connection, user, persistedReadingSession.getUuid(), persistedReadingSession.getDateReadingSessions(), 0);
+            return persistedReadingSession;
+        });
+    }
+
+    @Override
+    public Optional<ReadingSession> getUserReadingSession(String user, String bookUuid, String uuid) {
+        return withConnection(connection -> readReadingSession(connection, user, uuid, false));
+    }
+
+    /**
+     * Date reading sessions are mostly added at the end, so when the stored ones are still the first ones only
+     * the new ones are inserted.
+     */
+    @Override
+    public Optional<String> updateUserReadingSession(String user, String bookUuid, String uuid, ReadingSession readingSession, String version) {
+        return inTransaction(connection -> {
+            Optional<ReadingSession> currentReadingSession = readReadingSession(connection, user, uuid, true);
+            if(!currentReadingSession.isPresent()) {
+                return Optional.empty();
+            }
+            ItemVersions.check(uuid, currentReadingSession.get(), version);
+
+            update(connection, "UPDATE reading_sessions SET book_uuid = ?, deadline = ? WHERE user_name = ? AND uuid = ?",
+                readingSession.getBookUuid(),
+                readingSession.getDeadline(),
+                user,
+                uuid);
+            List<DateReadingSession> currentDateReadingSessions = currentReadingSession.get().getDateReadingSessions();
+            List<DateReadingSession> dateReadingSessions = readingSession.getDateReadingSessions();
+            if(dateReadingSessions.size() >= currentDateReadingSessions.size()
+                && dateReadingSessions.subList(0, currentDateReadingSessions.size()).equals(currentDateReadingSessions)) {
+                insertDateReadingSessions(connection, user, uuid, dateReadingSessions, currentDateReadingSessions.size());
+            } else {
+                update(connection, "DELETE FROM date_reading_sessions WHERE user_name = ? AND reading_session_uuid = ?", user, uuid);
+                insertDateReadingSessions(connection, user, uuid, dateReadingSessions, 0);
+            }
+            return Optional.of(uuid);
+        });
+    }
+
+    @Override
+    public Optional<String> deleteUserReadingSession(String user, String bookUuid, String uuid, String version) {
+        return inTransaction(connection -> {
+            Optional<ReadingSession> currentReadingSession = readReadingSession(connection, user, uuid, true);
+            if(!currentReadingSession.isPresent()) {
+                return Optional.empty();
+            }
+            ItemVersions.check(uuid, currentReadingSession.get(), version);
+
+            update(connection, "DELETE FROM date_reading_sessions WHERE user_name = ? AND reading_session_uuid = ?", user, uuid);
+            update(connection, "DELETE FROM reading_sessions WHERE user_name = ? AND uuid = ?", user, uuid);
+            return Optional.of(uuid);
+        });
+    }
+
+    private Optional<ReadingSession> readReadingSession(Connection connection, String user, String uuid, boolean forUpdate) throws SQLException {
+        List<ReadingSession> readingSessions = query(connection,
+            "SELECT uuid, book_uuid, deadline FROM reading_sessions WHERE user_name = ? AND uuid = ?" + (forUpdate ? " FOR UPDATE" : ""),
+            this::toReadingSession,
+            user, uuid);
+        if(readingSessions.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Map<String, List<DateReadingSession>> dateReadingSessions = readDateReadingSessions(connection,
+            "SELECT " + DATE_READING_SESSION_COLUMNS + " FROM date_reading_sessions"
+                + " WHERE user_name = ? AND reading_session_uuid = ? ORDER BY position",
+            user, uuid);
+        return Optional.of(withDateReadingSessions(readingSessions.get(0), dateReadingSessions.getOrDefault(uuid, new ArrayList<>())));
+    }
+
+    private Map<String, List<DateReadingSession>> readDateReadingSessions(Connection connection, String sql, Object... parameters) throws SQLException {
+        Map<String, List<DateReadingSession>> dateReadingSessions = new HashMap<>();
+        try(PreparedStatement statement = prepare(connection, sql, parameters);
+            ResultSet resultSet = statement.executeQuery()) {
+            while(resultSet.next()) {
+                dateReadingSessions.computeIfAbsent(resultSet.getString("reading_session_uuid"), u -> new ArrayList<>())
+                    .add(new DateReadingSession(resultSet.getString("session_date"),
+                        (Integer) resultSet.getObject("last_read_page"),
+                        resultSet.getString("bookmark")));
+            }
+        }
+        return dateReadingSessions;
+    }
+
+    private void insertDateReadingSessions(Connection connection,
+                                           String user,
+                                           String uuid,
+                                           List<DateReadingSession> dateReadingSessions,
+                                           int from) throws SQLException {
+        if(from >= dateReadingSessions.size()) {
+            return;
+        }
+
+        try(PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO date_reading_sessions (user_name, " + DATE_READING_SESSION_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?)")) {
+            for(int i = from; i < dateReadingSessions.size(); i++) {
+                DateReadingSession dateReadingSession = dateReadingSessions.get(i);
+                statement.setString(1, user);
+                statement.setString(2, uuid);
+                statement.setInt(3, i);
+                statement.setString(4, dateReadingSession.getDate());
+                statement.setObject(5, dateReadingSession.getLastReadPage());
+                statement.setString(6, dateReadingSession.getBookmark());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private ReadingSession toReadingSession(ResultSet resultSet) throws SQLException {
+        return new ReadingSession(resultSet.getString("uuid"),
+            resultSet.getString("book_uuid"),
+            resultSet.getString("deadline"),
+            new ArrayList<>());
+    }
+
+    private ReadingSession withDateReadingSessions(ReadingSession readingSession, List<DateReadingSession> dateReadingSessions) {
+        return new ReadingSession(readingSession.getUuid(),
+            readingSession.getBookUuid(),
+            readingSession.getDeadline(),
+            dateReadingSessions);
+    }
+}
@@ -0,0 +1,69 @@
+package com.espressoprogrammer.library.persistence.h2;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Tables of the H2 backend, created when they are missing.
+ * <p>
+ * Every table starts its primary key with the user, so everything a request reads or writes is found through
+ * the user's part of an index. Books and reading sessions also get an {@code id} column that keeps the order
+ * they were created in.
+ */
+final class H2Schema {
+    private static final String[] TABLES = {
+        "CREATE TABLE IF NOT EXISTS books ("
+            + " id BIGINT GENERATED BY DEFAULT AS IDENTITY,"
+            + " user_name VARCHAR(255) NOT NULL,"
+            + " uuid VARCHAR(64) NOT NULL,"
+            + " isbn10 VARCHAR(64),"
+            + " isbn13 VARCHAR(64),"
+            + " title VARCHAR(4096),"
+            + " image VARCHAR(4096),"
+            + " pages INT,"
+            + " PRIMARY KEY (user_name, uuid))",
+        "CREATE INDEX IF NOT EXISTS books_user_id ON books (user_name, id)",
+        "CREATE TABLE IF NOT EXISTS book_authors ("
+            + " user_name VARCHAR(255) NOT NULL,"
+            + " book_uuid VARCHAR(64) NOT NULL,"
+            + " position INT NOT NULL,"
+            + " author VARCHAR(4096) NOT NULL,"
+            + " PRIMARY KEY (user_name, book_uuid, position))",
+        "CREATE TABLE IF NOT EXISTS book_isbns ("
+            + " user_name VARCHAR(255) NOT NULL,"
+            + " isbn VARCHAR(64) NOT NULL,"
+            + " book_uuid VARCHAR(64) NOT NULL,"
+            + " PRIMARY KEY (user_name, isbn))",
+        "CREATE INDEX IF NOT EXISTS book_isbns_user_book ON book_isbns (user_name, book_uuid)",
+        "CREATE TABLE IF NOT EXISTS reading_sessions ("
+            + " id BIGINT GENERATED BY DEFAULT AS IDENTITY,"
+            + " user_name VARCHAR(255) NOT NULL,"
+            + " uuid VARCHAR(64) NOT NULL,"
+            + " book_uuid VARCHAR(64),"
+            + " deadline VARCHAR(64),"
+            + " PRIMARY KEY (user_name, uuid))",
+        "CREATE INDEX IF NOT EXISTS reading_sessions_user_book ON reading_sessions (user_name, book_uuid, id)",
+        "CREATE TABLE IF NOT EXISTS date_reading_sessions ("
+            + " user_name VARCHAR(255) NOT NULL,"
+            + " reading_session_uuid VARCHAR(64) NOT NULL,"
+            + " position INT NOT NULL,"
+            + " session_date VARCHAR(64),"
+            + " last_read_page INT,"
+            + " bookmark VARCHAR(4096),"
+            + " PRIMARY KEY (user_name, reading_session_uuid, position))"
+    };
+
+    private H2Schema() {
+    }
+
+    static void create(DataSource dataSource) throws SQLException {
+        try(Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement()) {
+            for(String table : TABLES) {
+                statement.execute(table);
+            }
+        }
+    }
+}
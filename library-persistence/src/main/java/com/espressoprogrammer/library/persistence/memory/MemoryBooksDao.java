@@ -0,0 +1,130 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.BooksDao;
+import com.espressoprogrammer.library.persistence.DuplicateIsbnException;
+import com.espressoprogrammer.library.persistence.Isbns;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Serves books from the {@link MemoryStore}, reads never leave memory.
+ */
+@Repository
+@Profile("memory")
+public class MemoryBooksDao implements BooksDao {
+
+    @Autowired
+    MemoryStore store;
+
+    @Override
+    public List<Book> getUserBooks(String user) {
+        return new ArrayList<>(store.get(user).getBooks());
+    }
+
+    @Override
+    public List<Book> getUserBooks(String user, String searchText) {
+        if(!StringUtils.hasLength(searchText)) {
+            return getUserBooks(user);
+        }
+
+        String text = searchText.toLowerCase();
+        return store.get(user).getBooks().stream()
+            .filter(b -> matches(b, text))
+            .collect(toList());
+    }
+
+    @Override
+    public Book createUserBook(String user, Book book) {
+        Book persistedBook = createBook(UUID.randomUUID().toString(), book);
+        store.update(user, items -> {
+            checkIsbns(items, persistedBook);
+            return Optional.of(MemoryChange.putBook(persistedBook));
+        });
+        return persistedBook;
+    }
+
+    @Override
+    public Optional<Book> getUserBook(String user, String uuid) {
+        return store.get(user).getBook(uuid);
+    }
+
+    @Override
+    public Optional<Book> getUserBookByIsbn(String user, String isbn) {
+        Optional<String> key = Isbns.toKey(isbn);
+        if(!key.isPresent()) {
+            return Optional.empty();
+        }
+
+        MemoryUserItems items = store.get(user);
+        return items.findIsbn(key.get()).flatMap(items::getBook);
+    }
+
+    @Override
+    public Optional<String> updateUserBook(String user, String uuid, Book book, String version) {
+        return store.update(user, items -> {
+            Optional<Book> currentBook = items.getBook(uuid);
+            if(!currentBook.isPresent()) {
+                return Optional.empty();
+            }
+            ItemVersions.check(uuid, currentBook.get(), version);
+
+            Book persistedBook = createBook(uuid, book);
+            checkIsbns(items, persistedBook);
+            return Optional.of(MemoryChange.putBook(persistedBook));
+        }).map(MemoryChange::getUuid);
+    }
+
+    @Override
+    public Optional<String> deleteUserBook(String user, String uuid, String version) {
+        return store.update(user, items -> {
+            Optional<Book> currentBook = items.getBook(uuid);
+            if(!currentBook.isPresent()) {
+                return Optional.empty();
+            }
+            ItemVersions.check(uuid, currentBook.get(), version);
+
+            return Optional.of(MemoryChange.deleteBook(uuid));
+        }).map(MemoryChange::getUuid);
+    }
+
+    private void checkIsbns(MemoryUserItems items, Book book) {
+        for(String isbn : Isbns.toKeys(book)) {
+            Optional<String> existingUuid = items.findIsbn(isbn);
+            if(existingUuid.isPresent() && !existingUuid.get().equals(book.getUuid())) {
+                throw new DuplicateIsbnException(isbn, existingUuid.get());
+            }
+        }
+    }
+
+    private boolean matches(Book book, String text) {
+        return contains(book.getTitle(), text)
+            || contains(book.getIsbn10(), text)
+            || contains(book.getIsbn13(), text)
+            || book.getAuthors().stream().anyMatch(a -> contains(a, text));
+    }
+
+    private boolean contains(String value, String text) {
+        return value != null && value.toLowerCase().contains(text);
+    }
+
+    private Book createBook(String uuid, Book book) {
+        return new Book(uuid,
+            book.getIsbn10(),
+            book.getIsbn13(),
+            book.getTitle(),
+            new ArrayList<>(book.getAuthors()),
+            book.getImage(),
+            book.getPages());
+    }
+}
@@ -0,0 +1,127 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * One write of a user, as it is applied in memory and appended to the write-ahead log.
+ * <p>
+ * Changes carry the whole item, so applying a change again gives the same result and the log can be replayed
+ * over a snapshot that already holds some of its changes.
+ */
+final class MemoryChange {
+    private static final byte PUT_BOOK = 1;
+    private static final byte DELETE_BOOK = 2;
+    private static final byte PUT_READING_SESSION = 3;
+    private static final byte DELETE_READING_SESSION = 4;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    static final ObjectReader BOOK_READER = objectMapper.readerFor(Book.class);
+    static final ObjectWriter BOOK_WRITER = objectMapper.writerFor(Book.class);
+    static final ObjectReader READING_SESSION_READER = objectMapper.readerFor(ReadingSession.class);
+    static final ObjectWriter READING_SESSION_WRITER = objectMapper.writerFor(ReadingSession.class);
+
+    private final byte type;
+    private final String uuid;
+    private final Object item;
+
+    private MemoryChange(byte type, String uuid, Object item) {
+        this.type = type;
+        this.uuid = uuid;
+        this.item = item;
+    }
+
+    static MemoryChange putBook(Book book) {
+        return new MemoryChange(PUT_BOOK, book.getUuid(), book);
+    }
+
+    static MemoryChange deleteBook(String uuid) {
+        return new MemoryChange(DELETE_BOOK, uuid, null);
+    }
+
+    static MemoryChange putReadingSession(ReadingSession readingSession) {
+        return new MemoryChange(PUT_READING_SESSION, readingSession.getUuid(), readingSession);
+    }
+
+    static MemoryChange deleteReadingSession(String uuid) {
+        return new MemoryChange(DELETE_READING_SESSION, uuid, null);
+    }
+
+    String getUuid() {
+        return uuid;
+    }
+
+    MemoryUserItems applyTo(MemoryUserItems items) {
+        switch(type) {
+            case PUT_BOOK:
+                return items.withBook((Book) item);
+            case DELETE_BOOK:
+                return items.withoutBook(uuid);
+            case PUT_READING_SESSION:
+                return items.withReadingSession((ReadingSession) item);
+            case DELETE_READING_SESSION:
+                return items.withoutReadingSession(uuid);
+            default:
+                throw new IllegalStateException("Unknown change type " + type);
+        }
+    }
+
+    /**
+     * Log record of the change, {@code [type][user][uuid][content length][content]} where the content is the
+     * JSON form of the item and is empty for deletes.
+     */
+    byte[] encode(String user) throws IOException {
+        byte[] content = new byte[0];
+        if(type == PUT_BOOK) {
+            content = BOOK_WRITER.writeValueAsBytes(item);
+        } else if(type == PUT_READING_SESSION) {
+            content = READING_SESSION_WRITER.writeValueAsBytes(item);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 128);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(type);
+        output.writeUTF(user);
+        output.writeUTF(uuid);
+        output.writeInt(content.length);
+        output.write(content);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    static Decoded decode(byte[] record) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = input.readByte();
+        String user = input.readUTF();
+        String uuid = input.readUTF();
+        byte[] content = new byte[input.readInt()];
+        input.readFully(content);
+
+        Object item = null;
+        if(type == PUT_BOOK) {
+            item = BOOK_READER.readValue(content);
+        } else if(type == PUT_READING_SESSION) {
+            item = READING_SESSION_READER.readValue(content);
+        }
+        return new Decoded(user, new MemoryChange(type, uuid, item));
+    }
+
+    static class Decoded {
+        final String user;
+        final MemoryChange change;
+
+        private Decoded(String user, MemoryChange change) {
+            this.user = user;
+            this.change = change;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+class MemoryDaoException extends RuntimeException {
+
+    MemoryDaoException(Exception cause) {
+        super(cause);
+    }
+
+}
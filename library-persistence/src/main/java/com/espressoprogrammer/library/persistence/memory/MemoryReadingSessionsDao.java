@@ -0,0 +1,75 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import com.espressoprogrammer.library.dto.ReadingSession;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.ReadingSessionsDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Serves reading sessions from the {@link MemoryStore}, which keeps them grouped by book so the reading
+ * sessions of a book are found without looking at the others.
+ */
+@Repository
+@Profile("memory")
+public class MemoryReadingSessionsDao implements ReadingSessionsDao {
+
+    @Autowired
+    MemoryStore store;
+
+    @Override
+    public List<ReadingSession> getUserReadingSessions(String user, String bookUuid) {
+        return new ArrayList<>(store.get(user).getReadingSessions(bookUuid));
+    }
+
+    @Override
+    public ReadingSession createUserReadingSession(String user, String bookUuid, ReadingSession readingSession) {
+        ReadingSession persistedReadingSession = createReadingSession(UUID.randomUUID().toString(), readingSession);
+        store.update(user, items -> Optional.of(MemoryChange.putReadingSession(persistedReadingSession)));
+        return persistedReadingSession;
+    }
+
+    @Override
+    public Optional<ReadingSession> getUserReadingSession(String user, String bookUuid, String uuid) {
+        return store.get(user).getReadingSession(uuid);
+    }
+
+    @Override
+    public Optional<String> updateUserReadingSession(String user, String bookUuid, String uuid, ReadingSession readingSession, String version) {
+        return store.update(user, items -> {
+            Optional<ReadingSession> currentReadingSession = items.getReadingSession(uuid);
+            if(!currentReadingSession.isPresent()) {
+                return Optional.empty();
+            }
+            ItemVersions.check(uuid, currentReadingSession.get(), version);
+
+            return Optional.of(MemoryChange.putReadingSession(createReadingSession(uuid, readingSession)));
+        }).map(MemoryChange::getUuid);
+    }
+
+    @Override
+    public Optional<String> deleteUserReadingSession(String user, String bookUuid, String uuid, String version) {
+        return store.update(user, items -> {
+            Optional<ReadingSession> currentReadingSession = items.getReadingSession(uuid);
+            if(!currentReadingSession.isPresent()) {
+                return Optional.empty();
+            }
+            ItemVersions.check(uuid, currentReadingSession.get(), version);
+
+            return Optional.of(MemoryChange.deleteReadingSession(uuid));
+        }).map(MemoryChange::getUuid);
+    }
+
+    private ReadingSession createReadingSession(String uuid, ReadingSession readingSession) {
+        return new ReadingSession(uuid,
+            readingSession.getBookUuid(),
+            readingSession.getDeadline(),
+            new ArrayList<>(readingSession.getDateReadingSessions()));
+    }
+}
@@ -0,0 +1,276 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps the items of every user in memory, as a {@link MemoryUserItems} swapped atomically on every write.
+ * <p>
+ * Reads take the current items of the user without any lock. Writes of a user run one at a time: the change
+ * is appended to the {@link MemoryWriteAheadLog} and only then made visible, so a change that was seen is
+ * never lost. A snapshot of all users is written every {@code memory.dao.snapshot.interval} milliseconds and
+ * after every {@code memory.dao.snapshot.records} changes, which bounds the log to replay on startup. The
+ * time taken by the recovery is logged and kept for {@link #getRecoveryMillis()}.
+ */
+class MemoryStore implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MemoryStore.class);
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_EXTENSION = ".bin";
+
+    private final Path folder;
+    private final long snapshotRecords;
+    private final ConcurrentMap<String, AtomicReference<MemoryUserItems>> users = new ConcurrentHashMap<>();
+    private final MemoryWriteAheadLog log;
+    // Held for reading while a change is logged and applied, and for writing while a snapshot starts a new
+    // segment, so every change of the older segments is already in memory when the snapshot is taken
+    private final ReadWriteLock logLock = new ReentrantReadWriteLock();
+    private final AtomicLong changesSinceSnapshot = new AtomicLong();
+    private final ScheduledExecutorService snapshotExecutor;
+
+    private long recoveryMillis;
+    private long recoveredChanges;
+
+    MemoryStore(Path folder, boolean sync, long snapshotIntervalMillis, long snapshotRecords) throws IOException {
+        this.folder = folder;
+        this.snapshotRecords = snapshotRecords;
+        Files.createDirectories(folder);
+        this.log = new MemoryWriteAheadLog(folder, sync);
+        recover();
+
+        this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "memory-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if(snapshotIntervalMillis > 0) {
+            snapshotExecutor.scheduleWithFixedDelay(this::snapshotIfChanged,
+                snapshotIntervalMillis,
+                snapshotIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    MemoryUserItems get(String user) {
+        AtomicReference<MemoryUserItems> items = users.get(user);
+        return items != null ? items.get() : MemoryUserItems.EMPTY;
+    }
+
+    /**
+     * Asks the update for a change of the current items of the user and applies it, unless the update has no
+     * change to make. Exceptions thrown by the update leave the items as they are.
+     */
+    Optional<MemoryChange> update(String user, Function<MemoryUserItems, Optional<MemoryChange>> update) {
+        AtomicReference<MemoryUserItems> items = users.computeIfAbsent(user, u -> new AtomicReference<>(MemoryUserItems.EMPTY));
+        synchronized (items) {
+            Optional<MemoryChange> change = update.apply(items.get());
+            if(!change.isPresent()) {
+                return change;
+            }
+
+            logLock.readLock().lock();
+            try {
+                log.append(change.get().encode(user));
+                items.set(change.get().applyTo(items.get()));
+            } catch(IOException ex) {
+                throw new MemoryDaoException(ex);
+            } finally {
+                logLock.readLock().unlock();
+            }
+
+            long changes = changesSinceSnapshot.incrementAndGet();
+            if(snapshotRecords > 0 && changes == snapshotRecords) {
+                snapshotExecutor.execute(this::snapshotIfChanged);
+            }
+            return change;
+        }
+    }
+
+    long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    long getRecoveredChanges() {
+        return recoveredChanges;
+    }
+
+    /**
+     * Writes the items of all users and drops the log they make useless.
+     */
+    synchronized void snapshot() throws IOException {
+        long segmentId;
+        logLock.writeLock().lock();
+        try {
+            segmentId = log.rotate();
+            changesSinceSnapshot.set(0);
+        } finally {
+            logLock.writeLock().unlock();
+        }
+
+        Map<String, MemoryUserItems> snapshot = new HashMap<>();
+        users.forEach((user, items) -> snapshot.put(user, items.get()));
+        writeSnapshot(segmentId, snapshot);
+
+        for(long id : listSnapshots()) {
+            if(id < segmentId) {
+                Files.deleteIfExists(snapshotPath(id));
+            }
+        }
+        log.deleteBefore(segmentId);
+        logger.debug("Wrote snapshot {} with {} users", segmentId, snapshot.size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotExecutor.shutdownNow();
+        try {
+            snapshotExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        // The next start only has to read this snapshot
+        snapshotIfChanged();
+        log.close();
+    }
+
+    private void snapshotIfChanged() {
+        if(changesSinceSnapshot.get() == 0) {
+            return;
+        }
+
+        try {
+            snapshot();
+        } catch(Exception ex) {
+            logger.error("Error on writing snapshot into " + folder, ex);
+        }
+    }
+
+    /**
+     * Loads the latest snapshot and replays the log written after it.
+     */
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        List<Long> snapshots = listSnapshots();
+        long snapshotId = snapshots.isEmpty() ? 1 : snapshots.get(snapshots.size() - 1);
+        if(!snapshots.isEmpty()) {
+            readSnapshot(snapshotId);
+        }
+
+        recoveredChanges = log.replay(snapshotId, record -> {
+            MemoryChange.Decoded decoded = MemoryChange.decode(record);
+            AtomicReference<MemoryUserItems> items = users.computeIfAbsent(decoded.user, u -> new AtomicReference<>(MemoryUserItems.EMPTY));
+            items.set(decoded.change.applyTo(items.get()));
+        });
+        changesSinceSnapshot.set(recoveredChanges);
+        recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("Recovered {} users from {} in {} ms, replaying {} changes after snapshot {}",
+            users.size(), folder, recoveryMillis, recoveredChanges, snapshots.isEmpty() ? "none" : snapshotId);
+    }
+
+    /**
+     * A snapshot is {@code [user count]} followed by {@code [user][book count][books][reading session count][reading sessions]}
+     * for every user, items being written as {@code [length][JSON]}. It is written next to its final name and
+     * moved there once it is on disk, so a snapshot file is always complete.
+     */
+    private void writeSnapshot(long segmentId, Map<String, MemoryUserItems> snapshot) throws IOException {
+        Path path = snapshotPath(segmentId);
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporaryPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            output.writeInt(snapshot.size());
+            for(Map.Entry<String, MemoryUserItems> entry : snapshot.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeInt(entry.getValue().getBooks().size());
+                for(Book book : entry.getValue().getBooks()) {
+                    writeItem(output, MemoryChange.BOOK_WRITER.writeValueAsBytes(book));
+                }
+                output.writeInt(entry.getValue().getReadingSessions().size());
+                for(ReadingSession readingSession : entry.getValue().getReadingSessions()) {
+                    writeItem(output, MemoryChange.READING_SESSION_WRITER.writeValueAsBytes(readingSession));
+                }
+            }
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void readSnapshot(long segmentId) throws IOException {
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath(segmentId)), 64 * 1024))) {
+            int userCount = input.readInt();
+            for(int i = 0; i < userCount; i++) {
+                String user = input.readUTF();
+                MemoryUserItems items = MemoryUserItems.EMPTY;
+                int bookCount = input.readInt();
+                for(int j = 0; j < bookCount; j++) {
+                    items = items.withBook(MemoryChange.BOOK_READER.readValue(readItem(input)));
+                }
+                int readingSessionCount = input.readInt();
+                for(int j = 0; j < readingSessionCount; j++) {
+                    items = items.withReadingSession(MemoryChange.READING_SESSION_READER.readValue(readItem(input)));
+                }
+                users.put(user, new AtomicReference<>(items));
+            }
+        }
+    }
+
+    private static void writeItem(DataOutputStream output, byte[] content) throws IOException {
+        output.writeInt(content.length);
+        output.write(content);
+    }
+
+    private static byte[] readItem(DataInputStream input) throws IOException {
+        byte[] content = new byte[input.readInt()];
+        input.readFully(content);
+        return content;
+    }
+
+    private List<Long> listSnapshots() throws IOException {
+        try(Stream<Path> paths = Files.list(folder)) {
+            return paths
+                .map(p -> p.getFileName().toString())
+                .filter(n -> n.startsWith(SNAPSHOT_PREFIX) && n.endsWith(SNAPSHOT_EXTENSION))
+                .map(n -> Long.parseLong(n.substring(SNAPSHOT_PREFIX.length(), n.length() - SNAPSHOT_EXTENSION.length())))
+                .sorted()
+                .collect(toList());
+        }
+    }
+
+    private Path snapshotPath(long segmentId) {
+        return folder.resolve(String.format("%s%010d%s", SNAPSHOT_PREFIX, segmentId, SNAPSHOT_EXTENSION));
+    }
+}
@@ -0,0 +1,39 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * In memory store used by the DAOs of the {@code memory} profile.
+ * <p>
+ * The write-ahead log and the snapshots go into {@code memory.dao.folder}. With {@code memory.dao.sync} every
+ * change is forced to disk before it is visible, otherwise a crash of the machine, though not of the process,
+ * may lose the latest changes.
+ */
+@Configuration
+@Profile("memory")
+class MemoryStoreConfiguration {
+
+    @Value(value = "${memory.dao.folder:}")
+    private String folder;
+
+    @Value(value = "${memory.dao.sync:true}")
+    private boolean sync;
+
+    @Value(value = "${memory.dao.snapshot.interval:300000}")
+    private long snapshotInterval;
+
+    @Value(value = "${memory.dao.snapshot.records:100000}")
+    private long snapshotRecords;
+
+    @Bean(destroyMethod = "close")
+    MemoryStore memoryStore() throws IOException {
+        String storeFolder = folder.isEmpty() ? System.getProperty("user.home") + "/Library/memory" : folder;
+        return new MemoryStore(Paths.get(storeFolder), sync, snapshotInterval, snapshotRecords);
+    }
+}
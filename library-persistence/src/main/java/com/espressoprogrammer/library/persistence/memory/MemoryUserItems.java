@@ -0,0 +1,146 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import com.espressoprogrammer.library.persistence.Isbns;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Books and reading sessions of one user at one point in time.
+ * <p>
+ * Instances never change, a write builds a new instance that shares nothing mutable with the old one, so
+ * readers can keep using the instance they got while writers move on. Maps keep the creation order.
+ */
+final class MemoryUserItems {
+    static final MemoryUserItems EMPTY = new MemoryUserItems(Collections.emptyMap(),
+        Collections.emptyMap(),
+        Collections.emptyMap(),
+        Collections.emptyMap());
+
+    private final Map<String, Book> books;
+    // ISBN key to the uuid of the book that has it
+    private final Map<String, String> isbns;
+    private final Map<String, ReadingSession> readingSessions;
+    private final Map<String, Map<String, ReadingSession>> bookReadingSessions;
+
+    private MemoryUserItems(Map<String, Book> books,
+                            Map<String, String> isbns,
+                            Map<String, ReadingSession> readingSessions,
+                            Map<String, Map<String, ReadingSession>> bookReadingSessions) {
+        this.books = books;
+        this.isbns = isbns;
+        this.readingSessions = readingSessions;
+        this.bookReadingSessions = bookReadingSessions;
+    }
+
+    Collection<Book> getBooks() {
+        return books.values();
+    }
+
+    Optional<Book> getBook(String uuid) {
+        return Optional.ofNullable(books.get(uuid));
+    }
+
+    /**
+     * Uuid of the book with the given {@link Isbns} key.
+     */
+    Optional<String> findIsbn(String key) {
+        return Optional.ofNullable(isbns.get(key));
+    }
+
+    Collection<ReadingSession> getReadingSessions() {
+        return readingSessions.values();
+    }
+
+    Collection<ReadingSession> getReadingSessions(String bookUuid) {
+        return bookReadingSessions.getOrDefault(bookUuid, Collections.emptyMap()).values();
+    }
+
+    Optional<ReadingSession> getReadingSession(String uuid) {
+        return Optional.ofNullable(readingSessions.get(uuid));
+    }
+
+    MemoryUserItems withBook(Book book) {
+        Map<String, String> newIsbns = new LinkedHashMap<>(isbns);
+        Book previousBook = books.get(book.getUuid());
+        if(previousBook != null) {
+            Isbns.toKeys(previousBook).forEach(newIsbns::remove);
+        }
+        Isbns.toKeys(book).forEach(key -> newIsbns.put(key, book.getUuid()));
+
+        Map<String, Book> newBooks = new LinkedHashMap<>(books);
+        newBooks.put(book.getUuid(), book);
+        return new MemoryUserItems(Collections.unmodifiableMap(newBooks),
+            Collections.unmodifiableMap(newIsbns),
+            readingSessions,
+            bookReadingSessions);
+    }
+
+    MemoryUserItems withoutBook(String uuid) {
+        Book previousBook = books.get(uuid);
+        if(previousBook == null) {
+            return this;
+        }
+
+        Map<String, String> newIsbns = new LinkedHashMap<>(isbns);
+        Isbns.toKeys(previousBook).forEach(newIsbns::remove);
+        Map<String, Book> newBooks = new LinkedHashMap<>(books);
+        newBooks.remove(uuid);
+        return new MemoryUserItems(Collections.unmodifiableMap(newBooks),
+            Collections.unmodifiableMap(newIsbns),
+            readingSessions,
+            bookReadingSessions);
+    }
+
+    MemoryUserItems withReadingSession(ReadingSession readingSession) {
+        Map<String, Map<String, ReadingSession>> newBookReadingSessions = new LinkedHashMap<>(bookReadingSessions);
+        ReadingSession previousReadingSession = readingSessions.get(readingSession.getUuid());
+        if(previousReadingSession != null && !previousReadingSession.getBookUuid().equals(readingSession.getBookUuid())) {
+            removeBookReadingSession(newBookReadingSessions, previousReadingSession);
+        }
+        Map<String, ReadingSession> newReadingSessionsOfBook = new LinkedHashMap<>(
+            bookReadingSessions.getOrDefault(readingSession.getBookUuid(), Collections.emptyMap()));
+        newReadingSessionsOfBook.put(readingSession.getUuid(), readingSession);
+        newBookReadingSessions.put(readingSession.getBookUuid(), Collections.unmodifiableMap(newReadingSessionsOfBook));
+
+        Map<String, ReadingSession> newReadingSessions = new LinkedHashMap<>(readingSessions);
+        newReadingSessions.put(readingSession.getUuid(), readingSession);
+        return new MemoryUserItems(books,
+            isbns,
+            Collections.unmodifiableMap(newReadingSessions),
+            Collections.unmodifiableMap(newBookReadingSessions));
+    }
+
+    MemoryUserItems withoutReadingSession(String uuid) {
+        ReadingSession previousReadingSession = readingSessions.get(uuid);
+        if(previousReadingSession == null) {
+            return this;
+        }
+
+        Map<String, Map<String, ReadingSession>> newBookReadingSessions = new LinkedHashMap<>(bookReadingSessions);
+        removeBookReadingSession(newBookReadingSessions, previousReadingSession);
+        Map<String, ReadingSession> newReadingSessions = new LinkedHashMap<>(readingSessions);
+        newReadingSessions.remove(uuid);
+        return new MemoryUserItems(books,
+            isbns,
+            Collections.unmodifiableMap(newReadingSessions),
+            Collections.unmodifiableMap(newBookReadingSessions));
+    }
+
+    private static void removeBookReadingSession(Map<String, Map<String, ReadingSession>> bookReadingSessions,
+                                                 ReadingSession readingSession) {
+        Map<String, ReadingSession> readingSessionsOfBook = new LinkedHashMap<>(
+            bookReadingSessions.getOrDefault(readingSession.getBookUuid(), Collections.emptyMap()));
+        readingSessionsOfBook.remove(readingSession.getUuid());
+        if(readingSessionsOfBook.isEmpty()) {
+            bookReadingSessions.remove(readingSession.getBookUuid());
+        } else {
+            bookReadingSessions.put(readingSession.getBookUuid(), Collections.unmodifiableMap(readingSessionsOfBook));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Log of the changes of all users, split in numbered segments.
+ * <p>
+ * A record is {@code [length][crc][body]}. A snapshot starts a new segment, so the segments before the one
+ * a snapshot was taken at can be deleted once the snapshot is written. A torn record at the end of a
+ * segment, left by a crash in the middle of an append, is cut off when the segment is replayed.
+ */
+class MemoryWriteAheadLog implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MemoryWriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final int HEADER_SIZE = 4 + 4;
+
+    private final Path folder;
+    private final boolean sync;
+    private long activeId;
+    private FileChannel active;
+    private long activeSize;
+
+    MemoryWriteAheadLog(Path folder, boolean sync) {
+        this.folder = folder;
+        this.sync = sync;
+    }
+
+    /**
+     * Hands the records of the segments starting with the given one to the handler, in the order they were
+     * appended, and opens the last segment for appends. Returns the number of records replayed.
+     */
+    synchronized long replay(long fromSegment, RecordHandler handler) throws IOException {
+        long records = 0;
+        List<Long> segmentIds = listSegments();
+        for(long segmentId : segmentIds) {
+            if(segmentId < fromSegment) {
+                Files.deleteIfExists(segmentPath(segmentId));
+                continue;
+            }
+            records += replaySegment(segmentId, handler);
+        }
+
+        long lastId = segmentIds.isEmpty() ? fromSegment : Math.max(fromSegment, segmentIds.get(segmentIds.size() - 1));
+        openActive(lastId);
+        return records;
+    }
+
+    synchronized void append(byte[] body) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.length);
+        record.putInt(body.length);
+        record.putInt(crc(body));
+        record.put(body);
+        record.flip();
+
+        while(record.hasRemaining()) {
+            activeSize += active.write(record, activeSize);
+        }
+        if(sync) {
+            active.force(false);
+        }
+    }
+
+    /**
+     * Starts a new segment and returns its number, records appended from now on go to it.
+     */
+    synchronized long rotate() throws IOException {
+        active.force(false);
+        active.close();
+        openActive(activeId + 1);
+        return activeId;
+    }
+
+    /**
+     * Deletes the segments older than the given one, which a snapshot already holds.
+     */
+    synchronized void deleteBefore(long segmentId) throws IOException {
+        for(long id : listSegments()) {
+            if(id < segmentId) {
+                Files.deleteIfExists(segmentPath(id));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(active != null) {
+            active.force(false);
+            active.close();
+            active = null;
+        }
+    }
+
+    private long replaySegment(long segmentId, RecordHandler handler) throws IOException {
+        Path path = segmentPath(segmentId);
+        long records = 0;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(offset + HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, offset);
+                int length = header.getInt(0);
+                if(length < 0 || offset + HEADER_SIZE + length > size) {
+                    break;
+                }
+
+                ByteBuffer body = ByteBuffer.allocate(length);
+                readFully(channel, body, offset + HEADER_SIZE);
+                if(header.getInt(4) != crc(body.array())) {
+                    break;
+                }
+
+                handler.handle(body.array());
+                records++;
+                offset += HEADER_SIZE + length;
+            }
+
+            if(offset < size) {
+                logger.warn("Truncate write-ahead log segment {} from {} to {} bytes after a torn or corrupted record",
+                    path, size, offset);
+                channel.truncate(offset);
+            }
+        }
+        return records;
+    }
+
+    private void openActive(long segmentId) throws IOException {
+        activeId = segmentId;
+        active = FileChannel.open(segmentPath(segmentId),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        activeSize = active.size();
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try(Stream<Path> paths = Files.list(folder)) {
+            return paths
+                .map(p -> p.getFileName().toString())
+                .filter(n -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_EXTENSION))
+                .map(n -> Long.parseLong(n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_EXTENSION.length())))
+                .sorted()
+                .collect(toList());
+        }
+    }
+
+    private Path segmentPath(long segmentId) {
+        return folder.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segmentId, SEGMENT_EXTENSION));
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if(read < 0) {
+                throw new IOException("Unexpected end of write-ahead log at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    interface RecordHandler {
+        void handle(byte[] body) throws IOException;
+    }
+}
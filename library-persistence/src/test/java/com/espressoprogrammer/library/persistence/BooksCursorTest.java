@@ -0,0 +1,54 @@
+package com.espressoprogrammer.library.persistence;
+
+import com.espressoprogrammer.library.dto.Book;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BooksCursorTest {
+
+    @Test
+    public void decodeEncodedCursor() {
+        BooksCursor cursor = BooksCursor.of(BooksSort.TITLE, book("uuid-1", "Two\nLines", 100), 0);
+
+        assertThat(BooksCursor.decode(cursor.encode(), BooksSort.TITLE)).isEqualTo(cursor);
+        assertThat(cursor.encode()).matches("[A-Za-z0-9_-]+");
+    }
+
+    @Test
+    public void sameKeysAreOrderedByUuid() {
+        BooksCursor first = BooksCursor.of(BooksSort.PAGES, book("uuid-1", "Title", 100), 0);
+        BooksCursor second = BooksCursor.of(BooksSort.PAGES, book("uuid-2", "Title", 100), 0);
+        BooksCursor third = BooksCursor.of(BooksSort.PAGES, book("uuid-0", "Title", 1000), 0);
+
+        assertThat(Arrays.asList(third, second, first)).isSortedAccordingTo((a, b) -> b.compareTo(a));
+    }
+
+    @Test
+    public void booksWithoutPagesComeFirst() {
+        BooksCursor withoutPages = BooksCursor.of(BooksSort.PAGES,
+            new Book("uuid-1", null, null, "Title", Arrays.asList("Author"), null, null),
+            0);
+        BooksCursor withPages = BooksCursor.of(BooksSort.PAGES, book("uuid-0", "Title", 0), 0);
+
+        assertThat(withoutPages).isLessThan(withPages);
+        assertThat(BooksCursor.decode(withoutPages.encode(), BooksSort.PAGES)).isEqualTo(withoutPages);
+    }
+
+    @Test
+    public void rejectCursorOfAnotherSort() {
+        String cursor = BooksCursor.of(BooksSort.PAGES, book("uuid-1", "Title", 100), 0).encode();
+
+        assertThatThrownBy(() -> BooksCursor.decode(cursor, BooksSort.CREATED))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BooksCursor.decode("not a cursor", BooksSort.PAGES))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private Book book(String uuid, String title, int pages) {
+        return new Book(uuid, null, null, title, Arrays.asList("Author"), null, pages);
+    }
+}
@@ -0,0 +1,55 @@
+package com.espressoprogrammer.library.persistence;
+
+import com.espressoprogrammer.library.dto.Book;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IsbnsTest {
+
+    @Test
+    public void isbn10IsConvertedToIsbn13() {
+        assertThat(Isbns.toKey("1-61729-310-5")).isEqualTo(Optional.of("9781617293108"));
+    }
+
+    @Test
+    public void isbn13KeepsItsDigits() {
+        assertThat(Isbns.toKey("978-1-61729-310-8")).isEqualTo(Optional.of("9781617293108"));
+        assertThat(Isbns.toKey(" 978 1 61729 310 8 ")).isEqualTo(Optional.of("9781617293108"));
+    }
+
+    @Test
+    public void isbn10WithXCheckDigit() {
+        assertThat(Isbns.isValidIsbn10("080442957X")).isTrue();
+        assertThat(Isbns.toKey("0-8044-2957-x")).isEqualTo(Optional.of("9780804429573"));
+    }
+
+    @Test
+    public void invalidIsbnIsKeptAsItIs() {
+        assertThat(Isbns.toKey("1-61729-310-6")).isEqualTo(Optional.of("1-61729-310-6"));
+        assertThat(Isbns.toKey("978-1-61729-310-9")).isEqualTo(Optional.of("978-1-61729-310-9"));
+        assertThat(Isbns.toKey(" isbn10-1 ")).isEqualTo(Optional.of("isbn10-1"));
+    }
+
+    @Test
+    public void blankIsbnHasNoKey() {
+        assertThat(Isbns.toKey(null)).isEmpty();
+        assertThat(Isbns.toKey("  ")).isEmpty();
+    }
+
+    @Test
+    public void equivalentIsbnsOfABookShareTheKey() {
+        Book book = new Book("uuid-1",
+            "1-61729-310-5",
+            "978-1-61729-310-8",
+            "Get Programming with JavaScript",
+            Arrays.asList("John R. Larsen"),
+            null,
+            400);
+
+        assertThat(Isbns.toKeys(book)).containsExactly("9781617293108");
+    }
+}
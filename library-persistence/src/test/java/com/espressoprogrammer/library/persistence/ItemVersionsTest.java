@@ -0,0 +1,44 @@
+package com.espressoprogrammer.library.persistence;
+
+import com.espressoprogrammer.library.dto.Book;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+
+public class ItemVersionsTest {
+
+    @Test
+    public void equalItemsHaveTheSameVersion() {
+        Book book = new Book("uuid-1", "isbn10-1", "isbn13-1", "Title 1", Arrays.asList("First1 Last1"), null, 100);
+        Book sameBook = new Book("uuid-1", "isbn10-1", "isbn13-1", "Title 1", Arrays.asList("First1 Last1"), null, 100);
+
+        assertThat(ItemVersions.of(book)).isEqualTo(ItemVersions.of(sameBook)).hasSize(32);
+    }
+
+    @Test
+    public void changedItemHasAnotherVersion() {
+        Book book = new Book("uuid-1", "isbn10-1", "isbn13-1", "Title 1", Arrays.asList("First1 Last1"), null, 100);
+        Book changedBook = new Book("uuid-1", "isbn10-1", "isbn13-1", "Title 1", Arrays.asList("First1 Last1"), null, 101);
+
+        assertThat(ItemVersions.of(book)).isNotEqualTo(ItemVersions.of(changedBook));
+    }
+
+    @Test
+    public void checkMatchesTheCurrentVersion() {
+        Book book = new Book("uuid-1", "isbn10-1", "isbn13-1", "Title 1", Arrays.asList("First1 Last1"), null, 100);
+
+        ItemVersions.check("uuid-1", book, null);
+        ItemVersions.check("uuid-1", book, ItemVersions.of(book));
+        try {
+            ItemVersions.check("uuid-1", book, "stale");
+            fail("It should fail with " + VersionMismatchException.class.getSimpleName());
+        } catch(VersionMismatchException ex) {
+            assertThat(ex.getUuid()).isEqualTo("uuid-1");
+            assertThat(ex.getExpectedVersion()).isEqualTo("stale");
+            assertThat(ex.getCurrentVersion()).isEqualTo(ItemVersions.of(book));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.DateReadingSession;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBookJson;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestReadingSession;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FilesystemBinaryCodecTest {
+    private final FilesystemItemCodec<Book> booksJsonCodec = new FilesystemJsonCodec<>(Book.class);
+    private final FilesystemItemCodec<Book> booksCodec = new FilesystemBookBinaryCodec(booksJsonCodec);
+    private final FilesystemItemCodec<ReadingSession> readingSessionsCodec =
+        new FilesystemReadingSessionBinaryCodec(new FilesystemJsonCodec<>(ReadingSession.class));
+
+    @Test
+    public void encodeAndDecodeBook() throws Exception {
+        Book book = getTestBook("uuid-2.json");
+
+        byte[] content = booksCodec.encode(book);
+
+        assertThat(FilesystemBinaryCodec.isBinary(content)).isTrue();
+        assertThat(content.length).isLessThan(booksJsonCodec.encode(book).length);
+        assertThat(booksCodec.decode(content)).isEqualTo(book);
+    }
+
+    @Test
+    public void encodeAndDecodeBookWithMissingFields() throws Exception {
+        Book book = new Book(null, null, null, "", Collections.emptyList(), null, null);
+
+        assertThat(booksCodec.decode(booksCodec.encode(book))).isEqualTo(book);
+    }
+
+    @Test
+    public void encodeAndDecodeReadingSession() throws Exception {
+        ReadingSession readingSession = getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-three-gap-readings.json");
+
+        assertThat(readingSessionsCodec.decode(readingSessionsCodec.encode(readingSession))).isEqualTo(readingSession);
+    }
+
+    @Test
+    public void keepDatesThatAreNotIsoDatesAsText() throws Exception {
+        ReadingSession readingSession = new ReadingSession("uuid-1",
+            "book-uuid-1",
+            "2017-1-31",
+            Arrays.asList(new DateReadingSession("1969-12-31", -1, null),
+                new DateReadingSession("tomorrow", 10, "bookmark")));
+
+        assertThat(readingSessionsCodec.decode(readingSessionsCodec.encode(readingSession))).isEqualTo(readingSession);
+    }
+
+    @Test
+    public void decodeJsonBook() throws Exception {
+        assertThat(booksCodec.decode(getTestBookJson("uuid-1.json").getBytes()))
+            .isEqualTo(getTestBook("uuid-1.json"));
+    }
+
+    @Test
+    public void failOnUnknownVersion() throws Exception {
+        byte[] content = booksCodec.encode(getTestBook("uuid-1.json"));
+        content[1] = (byte) (FilesystemBinaryCodec.VERSION + 1);
+
+        assertThatThrownBy(() -> booksCodec.decode(content)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void failOnTruncatedContent() throws Exception {
+        byte[] content = booksCodec.encode(getTestBook("uuid-1.json"));
+
+        assertThatThrownBy(() -> booksCodec.decode(Arrays.copyOf(content, content.length - 3)))
+            .isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,70 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.BooksCursor;
+import com.espressoprogrammer.library.persistence.BooksSort;
+import com.espressoprogrammer.library.persistence.filesystem.FilesystemBookOrderIndex.UserOrder;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesystemBookOrderIndexTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+
+    private final String root = System.getProperty(TMPDIR) + "/library-order-" + System.nanoTime();
+    private final String folder = root + "/books";
+
+    @After
+    public void clear() {
+        FileSystemUtils.deleteRecursively(new File(root));
+    }
+
+    @Test
+    public void pagesFollowTheSort() throws Exception {
+        UserOrder order = new FilesystemBookOrderIndex().get(folder, () -> Arrays.asList(
+            book("uuid-1", "Beta", 300),
+            book("uuid-2", "alpha", 100),
+            book("uuid-3", "Gamma", 200)));
+
+        assertThat(uuids(order.after(BooksSort.TITLE, null, 10, u -> true))).containsExactly("uuid-2", "uuid-1", "uuid-3");
+        assertThat(uuids(order.after(BooksSort.PAGES, null, 2, u -> true))).containsExactly("uuid-2", "uuid-3");
+
+        BooksCursor after = order.after(BooksSort.PAGES, null, 1, u -> true).get(0);
+        order.put(book("uuid-4", "Delta", 50));
+        assertThat(uuids(order.after(BooksSort.PAGES, after, 10, u -> true))).containsExactly("uuid-3", "uuid-1");
+        assertThat(uuids(order.after(BooksSort.PAGES, after, 10, u -> !u.equals("uuid-3")))).containsExactly("uuid-1");
+    }
+
+    @Test
+    public void creationOrderSurvivesReload() throws Exception {
+        UserOrder order = new FilesystemBookOrderIndex().get(folder, () -> Arrays.asList(book("uuid-1", "Title", 100)));
+        order.put(book("uuid-3", "Title", 100));
+        order.put(book("uuid-2", "Title", 100));
+        order.put(book("uuid-3", "Updated title", 100));
+        order.remove("uuid-1");
+
+        UserOrder reloadedOrder = new FilesystemBookOrderIndex().get(folder, () -> Arrays.asList(
+            book("uuid-2", "Title", 100),
+            book("uuid-3", "Updated title", 100),
+            book("uuid-5", "Title", 100)));
+        assertThat(uuids(reloadedOrder.after(BooksSort.CREATED, null, 10, u -> true)))
+            .containsExactly("uuid-3", "uuid-2", "uuid-5");
+    }
+
+    private List<String> uuids(List<BooksCursor> positions) {
+        return positions.stream()
+            .map(BooksCursor::getUuid)
+            .collect(toList());
+    }
+
+    private Book book(String uuid, String title, int pages) {
+        return new Book(uuid, null, null, title, Arrays.asList("Author"), null, pages);
+    }
+}
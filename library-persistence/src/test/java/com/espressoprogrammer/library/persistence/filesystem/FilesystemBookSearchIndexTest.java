@@ -0,0 +1,66 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.filesystem.FilesystemBookSearchIndex.UserTrigrams;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesystemBookSearchIndexTest {
+    private final FilesystemBookSearchIndex searchIndex = new FilesystemBookSearchIndex();
+
+    @Test
+    public void findCandidatesIgnoringCase() throws Exception {
+        UserTrigrams trigrams = searchIndex.get("books", () -> Arrays.asList(
+            book("uuid-1", "Get Programming with JavaScript", "John R. Larsen"),
+            book("uuid-2", "Java Concurrency in Practice", "Brian Goetz")));
+
+        assertThat(trigrams.findCandidates("JAVA").get()).containsExactlyInAnyOrder("uuid-1", "uuid-2");
+        assertThat(trigrams.findCandidates("script").get()).containsExactly("uuid-1");
+        assertThat(trigrams.findCandidates("n. La").get()).isEmpty();
+        assertThat(trigrams.findCandidates("Python").get()).isEmpty();
+    }
+
+    @Test
+    public void shortTextHasNoCandidates() throws Exception {
+        UserTrigrams trigrams = searchIndex.get("books", () -> Collections.singletonList(
+            book("uuid-1", "Get Programming with JavaScript", "John R. Larsen")));
+
+        assertThat(trigrams.findCandidates("Ja")).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void candidatesMayNotMatch() throws Exception {
+        UserTrigrams trigrams = searchIndex.get("books", () -> Collections.singletonList(
+            book("uuid-1", "abcd bcde", "Author")));
+
+        assertThat(trigrams.findCandidates("abcde").get()).containsExactly("uuid-1");
+    }
+
+    @Test
+    public void putAndRemoveKeepPostings() throws Exception {
+        UserTrigrams trigrams = searchIndex.get("books", Collections::emptyList);
+
+        trigrams.put(book("uuid-1", "Title", "Author"));
+        long postings = trigrams.getPostingCount();
+        assertThat(postings).isGreaterThan(0);
+        assertThat(trigrams.getEstimatedBytes()).isGreaterThan(0);
+
+        trigrams.put(book("uuid-1", "Other", "Author"));
+        assertThat(trigrams.findCandidates("Title").get()).isEmpty();
+        assertThat(trigrams.findCandidates("Other").get()).containsExactly("uuid-1");
+
+        trigrams.remove("uuid-1");
+        assertThat(trigrams.getBookCount()).isEqualTo(0);
+        assertThat(trigrams.getTrigramCount()).isEqualTo(0);
+        assertThat(trigrams.getPostingCount()).isEqualTo(0);
+    }
+
+    private Book book(String uuid, String title, String author) {
+        return new Book(uuid, null, null, title, Collections.singletonList(author), null, 100);
+    }
+}
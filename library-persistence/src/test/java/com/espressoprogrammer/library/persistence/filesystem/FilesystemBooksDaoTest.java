@@ -1,26 +1,53 @@
 package com.espressoprogrammer.library.persistence.filesystem;
 
 import com.espressoprogrammer.library.dto.Book;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.espressoprogrammer.library.persistence.BooksPage;
+import com.espressoprogrammer.library.persistence.BooksSort;
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import com.espressoprogrammer.library.persistence.DuplicateIsbnException;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.StoredJson;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.util.FileSystemUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.channels.Channels;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static com.espressoprogrammer.library.util.LibraryTestUtil.copyBook;
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -31,6 +58,33 @@ public class FilesystemBooksDaoTest {
     @Mock
     private FilesystemConfiguration filesystemConfiguration;
 
+    @Spy
+    private FilesystemItemsCache itemsCache = new FilesystemItemsCache(1024 * 1024);
+
+    @Spy
+    private FilesystemOffHeapCache offHeapCache = new FilesystemOffHeapCache(0);
+
+    @Spy
+    private FilesystemStorage storage = new FilesystemFileStorage();
+
+    @Spy
+    private FilesystemItemsScanner itemsScanner = new FilesystemItemsScanner(2, 1);
+
+    @Spy
+    private FilesystemCollectionVersions collectionVersions = new FilesystemCollectionVersions();
+
+    @Spy
+    private FilesystemJsonVersions jsonVersions = new FilesystemJsonVersions();
+
+    @Spy
+    private FilesystemIsbnIndex isbnIndex = new FilesystemIsbnIndex();
+
+    @Spy
+    private FilesystemBookSearchIndex searchIndex = new FilesystemBookSearchIndex();
+
+    @Spy
+    private FilesystemBookOrderIndex orderIndex = new FilesystemBookOrderIndex();
+
     @InjectMocks
     private FilesystemBooksDao booksDao;
 
@@ -39,6 +93,7 @@ public class FilesystemBooksDaoTest {
         when(filesystemConfiguration.getLibraryFolder()).thenReturn(System.getProperty(TMPDIR)
             + "/library-"
             + System.nanoTime());
+        booksDao.userRoots = new FilesystemUserRoots(filesystemConfiguration, storage);
     }
 
     @After
@@ -175,6 +230,59 @@ public class FilesystemBooksDaoTest {
         assertThat(books).isEmpty();
     }
 
+    @Test
+    public void searchUserBooksWithShortText() throws Exception {
+        createBooksFolder(JOHN_DOE_USER);
+        copyBook("uuid-1.json", getUserBooksFolder(JOHN_DOE_USER));
+        copyBook("uuid-2.json", getUserBooksFolder(JOHN_DOE_USER));
+
+        List<Book> books = booksDao.getUserBooks(JOHN_DOE_USER, "2");
+        assertThat(books).extracting(Book::getUuid).containsExactly("uuid-2");
+        verify(searchIndex, never()).get(anyString(), any());
+    }
+
+    @Test
+    public void searchUserBooksReadsOnlyCandidates() throws Exception {
+        createBooksFolder(JOHN_DOE_USER);
+        copyBook("uuid-1.json", getUserBooksFolder(JOHN_DOE_USER));
+        copyBook("uuid-2.json", getUserBooksFolder(JOHN_DOE_USER));
+        copyBook("uuid-3.json", getUserBooksFolder(JOHN_DOE_USER));
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "LAST2")).extracting(Book::getUuid).containsExactly("uuid-2");
+
+        reset(itemsCache);
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "isbn10-3")).extracting(Book::getUuid).containsExactly("uuid-3");
+        verify(itemsCache, times(1)).get(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void searchUserBooksAfterChanges() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "Title 1")).hasSize(1);
+
+        booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), getTestBook("uuid-2.json"));
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "Title 1")).isEmpty();
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "Title 2")).extracting(Book::getUuid).containsExactly(book.getUuid());
+
+        booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid());
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "Title 2")).isEmpty();
+    }
+
+    @Test
+    public void streamUserBooksReadsItemsOnDemand() throws Exception {
+        createBooksFolder(JOHN_DOE_USER);
+        copyBook("uuid-1.json", getUserBooksFolder(JOHN_DOE_USER));
+        copyBook("uuid-2.json", getUserBooksFolder(JOHN_DOE_USER));
+
+        try(Stream<Book> books = booksDao.streamUserBooks(JOHN_DOE_USER, "Ti")) {
+            assertThat(books.findFirst()).isPresent();
+        }
+        verify(storage, times(1)).read(anyString(), anyString());
+
+        try(Stream<Book> books = booksDao.streamUserBooks(JOHN_DOE_USER, "Title 2")) {
+            assertThat(books.map(Book::getUuid)).containsExactly("uuid-2");
+        }
+    }
+
     @Test
     public void createUserBook() throws Exception {
         List<Book> books = booksDao.getUserBooks(JOHN_DOE_USER);
@@ -197,6 +305,18 @@ public class FilesystemBooksDaoTest {
                 100));
     }
 
+    @Test
+    public void createUserBookInBinaryFormat() throws Exception {
+        when(filesystemConfiguration.isBinaryFormat()).thenReturn(true);
+
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        itemsCache.remove(JOHN_DOE_USER, "books", book.getUuid());
+
+        assertThat(storage.read(getUserBooksFolder(JOHN_DOE_USER), book.getUuid()).get()[0])
+            .isEqualTo((byte) FilesystemBinaryCodec.MAGIC);
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, book.getUuid())).contains(book);
+    }
+
     @Test
     public void createUserBookWithIsbn13Null() throws Exception {
         List<Book> books = booksDao.getUserBooks(JOHN_DOE_USER);
@@ -307,6 +427,266 @@ public class FilesystemBooksDaoTest {
         assertThat(optionalBook.isPresent()).isFalse();
     }
 
+    @Test
+    public void readRacingAnUpdateDoesNotCacheTheOldBook() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        itemsCache.remove(JOHN_DOE_USER, "books", book.getUuid());
+
+        Book updatedBook = updateWhileReading(book, () -> booksDao.getUserBook(JOHN_DOE_USER, book.getUuid()).get());
+
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, book.getUuid())).contains(updatedBook);
+    }
+
+    @Test
+    public void readRacingAnUpdateDoesNotKeepTheOldBookOffHeap() throws Exception {
+        booksDao.itemsCache = new FilesystemItemsCache(0);
+        booksDao.offHeapCache = new FilesystemOffHeapCache(FilesystemOffHeapCache.PAGE_BYTES);
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        booksDao.offHeapCache.remove(JOHN_DOE_USER, "books", book.getUuid());
+
+        Book updatedBook = updateWhileReading(book, () -> booksDao.getUserBook(JOHN_DOE_USER, book.getUuid()).get());
+
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, book.getUuid())).contains(updatedBook);
+    }
+
+    @Test
+    public void updateUserBookWithVersion() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        String version = ItemVersions.of(book);
+
+        Book update = new Book(null, "isbn10-1", "isbn13-1", "Updated Title 1", Arrays.asList("First1 Last1"), null, 100);
+        assertThat(booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), update, version))
+            .isEqualTo(Optional.of(book.getUuid()));
+
+        try {
+            booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), getTestBook("uuid-1.json"), version);
+            fail("It should fail with " + VersionMismatchException.class.getSimpleName());
+        } catch(VersionMismatchException ex) {
+            assertThat(ex.getExpectedVersion()).isEqualTo(version);
+            assertThat(ex.getCurrentVersion()).isEqualTo(ItemVersions.of(booksDao.getUserBook(JOHN_DOE_USER, book.getUuid()).get()));
+        }
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, book.getUuid()).map(Book::getTitle))
+            .isEqualTo(Optional.of("Updated Title 1"));
+    }
+
+    @Test
+    public void deleteUserBookWithStaleVersion() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        String version = ItemVersions.of(book);
+        booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), getTestBook("uuid-2.json"));
+
+        try {
+            booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid(), version);
+            fail("It should fail with " + VersionMismatchException.class.getSimpleName());
+        } catch(VersionMismatchException ex) {
+            assertThat(ex.getUuid()).isEqualTo(book.getUuid());
+        }
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, book.getUuid())).isPresent();
+    }
+
+    @Test
+    public void createUserBookWithExistingIsbn() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
+
+        Book sameIsbn10 = new Book(null, "1617293105", null, "Other title", Arrays.asList("Other author"), null, 100);
+        try {
+            booksDao.createUserBook(JOHN_DOE_USER, sameIsbn10);
+            fail("It should fail with " + DuplicateIsbnException.class.getSimpleName());
+        } catch(DuplicateIsbnException ex) {
+            assertThat(ex.getIsbn()).isEqualTo("9781617293108");
+            assertThat(ex.getExistingUuid()).isEqualTo(book.getUuid());
+        }
+
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER)).hasSize(1);
+    }
+
+    @Test
+    public void updateUserBookWithExistingIsbn() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        Book otherBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-2.json"));
+
+        Book update = new Book(null, "isbn10-2", null, "Title 1", Arrays.asList("First1 Last1"), null, 100);
+        try {
+            booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), update);
+            fail("It should fail with " + DuplicateIsbnException.class.getSimpleName());
+        } catch(DuplicateIsbnException ex) {
+            assertThat(ex.getExistingUuid()).isEqualTo(otherBook.getUuid());
+        }
+
+        assertThat(booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), getTestBook("uuid-1.json")))
+            .isEqualTo(Optional.of(book.getUuid()));
+    }
+
+    @Test
+    public void getUserBookByIsbn() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
+
+        assertThat(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "978-1-61729-310-8")).isEqualTo(Optional.of(book));
+        assertThat(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "1617293105")).isEqualTo(Optional.of(book));
+        assertThat(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "9780000000002")).isEmpty();
+    }
+
+    @Test
+    public void getUserBookByIsbnBuildsTheIndexFromStoredBooks() throws Exception {
+        createBooksFolder(JOHN_DOE_USER);
+        copyBook("uuid-1.json", getUserBooksFolder(JOHN_DOE_USER));
+        copyBook("uuid-2.json", getUserBooksFolder(JOHN_DOE_USER));
+
+        Optional<Book> book = booksDao.getUserBookByIsbn(JOHN_DOE_USER, "isbn13-2");
+        assertThat(book.map(Book::getUuid)).isEqualTo(Optional.of("uuid-2"));
+    }
+
+    @Test
+    public void deleteUserBookReleasesItsIsbn() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid());
+
+        assertThat(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "isbn10-1")).isEmpty();
+        Book recreatedBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        assertThat(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "isbn10-1")).isEqualTo(Optional.of(recreatedBook));
+    }
+
+    @Test
+    public void getUserBooksPages() throws Exception {
+        List<String> uuids = new ArrayList<>();
+        for(int i = 0; i < 5; i++) {
+            uuids.add(booksDao.createUserBook(JOHN_DOE_USER, new Book(null, null, null, "Title " + (4 - i),
+                Arrays.asList("Author"), null, 100)).getUuid());
+        }
+
+        BooksPage firstPage = booksDao.getUserBooksPage(JOHN_DOE_USER, null, BooksSort.CREATED, null, 2);
+        assertThat(firstPage.getBooks()).extracting(Book::getUuid).containsExactly(uuids.get(0), uuids.get(1));
+        booksDao.createUserBook(JOHN_DOE_USER, new Book(null, null, null, "Title 5", Arrays.asList("Author"), null, 100));
+        booksDao.deleteUserBook(JOHN_DOE_USER, uuids.get(2));
+
+        BooksPage secondPage = booksDao.getUserBooksPage(JOHN_DOE_USER, null, BooksSort.CREATED, firstPage.getNextCursor(), 2);
+        assertThat(secondPage.getBooks()).extracting(Book::getUuid).containsExactly(uuids.get(3), uuids.get(4));
+
+        BooksPage titlePage = booksDao.getUserBooksPage(JOHN_DOE_USER, "title", BooksSort.TITLE, null, 10);
+        assertThat(titlePage.getBooks()).extracting(Book::getTitle)
+            .containsExactly("Title 0", "Title 1", "Title 3", "Title 4", "Title 5");
+        assertThat(titlePage.getNextCursor()).isNull();
+    }
+
+    @Test
+    public void writesChangeTheBooksVersion() throws Exception {
+        String initialTag = booksDao.getUserBooksVersion(JOHN_DOE_USER).get().getTag();
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        CollectionVersion createdVersion = booksDao.getUserBooksVersion(JOHN_DOE_USER).get();
+        assertThat(createdVersion.getTag()).isNotEqualTo(initialTag);
+
+        booksDao.getUserBooks(JOHN_DOE_USER);
+        assertThat(booksDao.getUserBooksVersion(JOHN_DOE_USER).get().getTag()).isEqualTo(createdVersion.getTag());
+
+        booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), getTestBook("uuid-2.json"));
+        String updatedTag = booksDao.getUserBooksVersion(JOHN_DOE_USER).get().getTag();
+        assertThat(updatedTag).isNotEqualTo(createdVersion.getTag());
+
+        booksDao.deleteUserBook(JOHN_DOE_USER, "missing-uuid");
+        assertThat(booksDao.getUserBooksVersion(JOHN_DOE_USER).get().getTag()).isEqualTo(updatedTag);
+        booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid());
+        assertThat(booksDao.getUserBooksVersion(JOHN_DOE_USER).get().getTag()).isNotEqualTo(updatedTag);
+        assertThat(booksDao.getUserBooksVersion(JOHN_DOE_USER).get().getLastModified())
+            .isGreaterThanOrEqualTo(createdVersion.getLastModified());
+    }
+
+    @Test
+    public void booksVersionFollowsTheUserToAnotherFolder() throws Exception {
+        booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        String createdTag = booksDao.getUserBooksVersion(JOHN_DOE_USER).get().getTag();
+
+        String libraryFolder = filesystemConfiguration.getLibraryFolder();
+        when(filesystemConfiguration.getLibraryFolder()).thenReturn(libraryFolder + "-moved");
+        try {
+            assertThat(booksDao.getUserBooksVersion(JOHN_DOE_USER).get().getTag()).isEqualTo(createdTag);
+        } finally {
+            when(filesystemConfiguration.getLibraryFolder()).thenReturn(libraryFolder);
+        }
+    }
+
+    @Test
+    public void getUserBookJson() throws Exception {
+        when(filesystemConfiguration.isPassthroughEnabled()).thenReturn(true);
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+
+        Optional<StoredJson> storedJson = booksDao.getUserBookJson(JOHN_DOE_USER, book.getUuid());
+        assertThat(storedJson).isPresent();
+        try(StoredJson json = storedJson.get()) {
+            assertThat(json.getVersion()).isEqualTo(ItemVersions.of(book));
+            assertThat(transferToBytes(json)).isEqualTo(new FilesystemJsonCodec<>(Book.class).encode(book));
+        }
+    }
+
+    @Test
+    public void getUserBookJsonNotStoredCompact() throws Exception {
+        when(filesystemConfiguration.isPassthroughEnabled()).thenReturn(true);
+        createBooksFolder(JOHN_DOE_USER);
+        copyBook("uuid-1.json", getUserBooksFolder(JOHN_DOE_USER));
+
+        assertThat(booksDao.getUserBookJson(JOHN_DOE_USER, "uuid-1")).isEmpty();
+        assertThat(booksDao.getUserBookJson(JOHN_DOE_USER, "missing-uuid")).isEmpty();
+    }
+
+    @Test
+    public void writeUserBooksJson() throws Exception {
+        when(filesystemConfiguration.isPassthroughEnabled()).thenReturn(true);
+        createBooksFolder(JOHN_DOE_USER);
+        copyBook("uuid-1.json", getUserBooksFolder(JOHN_DOE_USER));
+        when(filesystemConfiguration.isBinaryFormat()).thenReturn(true);
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-2.json"));
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        assertThat(booksDao.writeUserBooksJson(JOHN_DOE_USER, Channels.newChannel(target))).isTrue();
+        Book[] books = new ObjectMapper().readValue(target.toByteArray(), Book[].class);
+        assertThat(books).containsExactlyInAnyOrder(getTestBook("uuid-1.json"), book);
+    }
+
+    /**
+     * Updates the title of the book while the read is between reading the book from the storage and
+     * caching it, returns the updated book.
+     */
+    private Book updateWhileReading(Book book, Callable<Book> read) throws Exception {
+        CountDownLatch readDone = new CountDownLatch(1);
+        CountDownLatch updateDone = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            Object content = invocation.callRealMethod();
+            readDone.countDown();
+            updateDone.await();
+            return content;
+        }).when(storage).read(anyString(), eq(book.getUuid()));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Book> readBook = executor.submit(read);
+            readDone.await();
+            reset(storage);
+
+            Book updatedBook = withTitle(book, "Updated " + book.getTitle());
+            booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), updatedBook);
+            updateDone.countDown();
+            assertThat(readBook.get()).isEqualTo(book);
+            return updatedBook;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Book withTitle(Book book, String title) {
+        return new Book(book.getUuid(),
+            book.getIsbn10(),
+            book.getIsbn13(),
+            title,
+            book.getAuthors(),
+            book.getImage(),
+            book.getPages());
+    }
+
+    private byte[] transferToBytes(StoredJson json) throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        json.transferTo(Channels.newChannel(target));
+        return target.toByteArray();
+    }
+
     private void createBooksFolder(String user) throws Exception {
         Path path = Paths.get(getUserBooksFolder(user));
         if(!path.toFile().exists()) {
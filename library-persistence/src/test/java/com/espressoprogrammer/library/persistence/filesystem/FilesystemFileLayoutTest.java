@@ -0,0 +1,126 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FilesystemFileLayoutTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+    private static final String FILE_EXTENSION = ".json";
+
+    private Path libraryFolder;
+    private Path folder;
+    private FilesystemFileStorage storage;
+
+    @Before
+    public void init() throws Exception {
+        libraryFolder = Paths.get(System.getProperty(TMPDIR), "library-layout-" + System.nanoTime());
+        folder = libraryFolder.resolve("books");
+        Files.createDirectories(folder);
+    }
+
+    @After
+    public void clear() throws Exception {
+        if(storage != null) {
+            storage.close();
+        }
+        FileSystemUtils.deleteRecursively(new File(libraryFolder.toString()));
+    }
+
+    @Test
+    public void spreadItemsOverTwoLevelsOfSubfolders() throws Exception {
+        FilesystemFileLayout layout = FilesystemFileLayout.create(FilesystemFileLayout.SHARDED);
+
+        Path path = layout.getPath(folder.toString(), "uuid-1", FILE_EXTENSION);
+        assertThat(path.getFileName().toString()).isEqualTo("uuid-1.json");
+        assertThat(folder.relativize(path).getNameCount()).isEqualTo(3);
+        assertThat(folder.relativize(path).getName(0).toString()).matches("[0-9a-f]{2}");
+        assertThat(layout.getPath(folder.toString(), "uuid-1", FILE_EXTENSION)).isEqualTo(path);
+        assertThat(layout.getPath(folder.toString(), "uuid-2", FILE_EXTENSION).getParent()).isNotEqualTo(path.getParent());
+
+        FilesystemFileLayout flat = FilesystemFileLayout.create(FilesystemFileLayout.FLAT);
+        assertThat(flat.getPath(folder.toString(), "uuid-1", FILE_EXTENSION)).isEqualTo(folder.resolve("uuid-1.json"));
+    }
+
+    @Test
+    public void rejectUnknownLayout() throws Exception {
+        assertThatThrownBy(() -> FilesystemFileLayout.create("nested"))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void readWriteAndDeleteShardedItems() throws Exception {
+        for(boolean indexed : new boolean[] {true, false}) {
+            storage = createShardedStorage(indexed);
+            String storageFolder = folder.resolve(String.valueOf(indexed)).toString();
+            Files.createDirectories(Paths.get(storageFolder));
+            for(int i = 0; i < 20; i++) {
+                storage.write(storageFolder, "uuid-" + i, ("item-" + i).getBytes());
+            }
+            assertThat(storage.delete(storageFolder, "uuid-0")).isTrue();
+
+            assertThat(storage.list(storageFolder)).hasSize(19).doesNotContain("uuid-0");
+            assertThat(storage.exists(storageFolder, "uuid-7")).isTrue();
+            assertThat(storage.exists(storageFolder, "uuid-0")).isFalse();
+            assertThat(storage.read(storageFolder, "uuid-7").get()).isEqualTo("item-7".getBytes());
+            assertThat(listFlatFiles(Paths.get(storageFolder))).isEmpty();
+            storage.close();
+        }
+    }
+
+    @Test
+    public void moveFlatItemsIntoSubfolders() throws Exception {
+        for(int i = 0; i < 50; i++) {
+            Files.write(folder.resolve("uuid-" + i + FILE_EXTENSION), ("item-" + i).getBytes());
+        }
+        storage = createShardedStorage(true);
+
+        assertThat(storage.list(folder.toString())).hasSize(50);
+        assertThat(storage.read(folder.toString(), "uuid-3").get()).isEqualTo("item-3".getBytes());
+        storage.write(folder.toString(), "uuid-4", "item-4-updated".getBytes());
+        assertThat(storage.delete(folder.toString(), "uuid-5")).isTrue();
+        awaitNoFlatFiles();
+
+        assertThat(storage.list(folder.toString())).hasSize(49).doesNotContain("uuid-5");
+        assertThat(storage.read(folder.toString(), "uuid-4").get()).isEqualTo("item-4-updated".getBytes());
+        assertThat(storage.read(folder.toString(), "uuid-5")).isEmpty();
+        assertThat(storage.read(folder.toString(), "uuid-49").get()).isEqualTo("item-49".getBytes());
+        assertThat(Files.exists(FilesystemFileLayout.create(FilesystemFileLayout.SHARDED)
+            .getPath(folder.toString(), "uuid-49", FILE_EXTENSION))).isTrue();
+    }
+
+    private FilesystemFileStorage createShardedStorage(boolean indexed) {
+        return new FilesystemFileStorage(indexed,
+            FILE_EXTENSION,
+            new FilesystemFileWriter(false),
+            FilesystemFileLayout.create(FilesystemFileLayout.SHARDED));
+    }
+
+    private void awaitNoFlatFiles() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(!listFlatFiles(folder).isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(listFlatFiles(folder)).isEmpty();
+    }
+
+    private List<Path> listFlatFiles(Path folder) throws Exception {
+        try(Stream<Path> paths = Files.list(folder)) {
+            return paths
+                .filter(Files::isRegularFile)
+                .collect(toList());
+        }
+    }
+}
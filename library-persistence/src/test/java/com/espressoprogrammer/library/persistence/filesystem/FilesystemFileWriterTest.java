@@ -0,0 +1,136 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FilesystemFileWriterTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+
+    private Path folder;
+
+    @Before
+    public void init() throws Exception {
+        folder = Paths.get(System.getProperty(TMPDIR), "library-writer-" + System.nanoTime());
+        Files.createDirectories(folder);
+    }
+
+    @After
+    public void clear() throws Exception {
+        FileSystemUtils.deleteRecursively(new File(folder.toString()));
+    }
+
+    @Test
+    public void replaceFileWithEveryDurability() throws Exception {
+        for(String durability : new String[] {FilesystemFileWriter.NONE, FilesystemFileWriter.FSYNC, FilesystemFileWriter.GROUP_COMMIT}) {
+            try(FilesystemFileWriter writer = FilesystemFileWriter.create(durability, 1)) {
+                Path path = folder.resolve(durability + ".json");
+                writer.write(path, "old".getBytes());
+                writer.write(path, "new".getBytes());
+
+                assertThat(Files.readAllBytes(path)).isEqualTo("new".getBytes());
+            }
+        }
+        assertThat(listFolder()).containsExactlyInAnyOrder("none.json", "fsync.json", "group-commit.json");
+    }
+
+    @Test
+    public void rejectUnknownDurability() throws Exception {
+        assertThatThrownBy(() -> FilesystemFileWriter.create("sometimes", 1))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void leftoverTemporaryFilesAreNotItems() throws Exception {
+        FilesystemFileStorage storage = new FilesystemFileStorage(false, FilesystemFileStorage.JSON_EXTENSION);
+        storage.write(folder.toString(), "uuid-1", "item-1".getBytes());
+        FilesystemFileWriter.writeTemp(folder.resolve("uuid-2.json"), "{\"uuid\":".getBytes(), false);
+
+        assertThat(storage.list(folder.toString())).containsExactly("uuid-1");
+        assertThat(storage.exists(folder.toString(), "uuid-2")).isFalse();
+    }
+
+    @Test
+    public void groupCommitSharesFlushesOfConcurrentWriters() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try(FilesystemGroupCommitWriter writer = new FilesystemGroupCommitWriter(20)) {
+            List<Future<?>> writes = new ArrayList<>();
+            for(int i = 0; i < 64; i++) {
+                Path path = folder.resolve("uuid-" + i + ".json");
+                byte[] content = ("item-" + i).getBytes();
+                writes.add(executor.submit(() -> {
+                    writer.write(path, content);
+                    return null;
+                }));
+            }
+            for(Future<?> write : writes) {
+                write.get();
+            }
+
+            assertThat(writer.getWriteCount()).isEqualTo(64);
+            assertThat(writer.getCommitCount()).isLessThan(64);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(listFolder()).hasSize(64).allMatch(name -> name.endsWith(".json"));
+        assertThat(Files.readAllBytes(folder.resolve("uuid-7.json"))).isEqualTo("item-7".getBytes());
+    }
+
+    @Test
+    public void closedGroupCommitRejectsWrites() throws Exception {
+        FilesystemGroupCommitWriter writer = new FilesystemGroupCommitWriter(1);
+        writer.close();
+
+        assertThatThrownBy(() -> writer.write(folder.resolve("uuid-1.json"), "item-1".getBytes()))
+            .hasMessageContaining("closed");
+        assertThat(listFolder()).isEmpty();
+    }
+
+    @Test
+    public void interruptedGroupCommitFailsPendingWrites() throws Exception {
+        FilesystemGroupCommitWriter writer = new FilesystemGroupCommitWriter(60_000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> write = executor.submit(() -> {
+                writer.write(folder.resolve("uuid-1.json"), "item-1".getBytes());
+                return null;
+            });
+            while(listFolder().isEmpty()) {
+                Thread.sleep(1);
+            }
+            Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> "filesystem-group-commit".equals(t.getName()))
+                .forEach(Thread::interrupt);
+
+            assertThatThrownBy(write::get).hasCauseInstanceOf(IOException.class);
+            assertThat(listFolder()).isEmpty();
+            assertThatThrownBy(() -> writer.write(folder.resolve("uuid-2.json"), "item-2".getBytes()))
+                .hasMessageContaining("closed");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<String> listFolder() throws Exception {
+        try(Stream<Path> paths = Files.list(folder)) {
+            return paths.map(p -> p.getFileName().toString()).collect(toList());
+        }
+    }
+}
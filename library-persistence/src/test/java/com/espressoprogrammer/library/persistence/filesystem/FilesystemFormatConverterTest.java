@@ -0,0 +1,77 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static com.espressoprogrammer.library.util.LibraryTestUtil.copyBook;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.copyReadingSession;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBookJson;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestReadingSession;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesystemFormatConverterTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+
+    private Path userFolder;
+
+    @Before
+    public void init() throws Exception {
+        userFolder = Paths.get(System.getProperty(TMPDIR), "library-" + System.nanoTime(), "johndoe");
+        Files.createDirectories(userFolder.resolve("books"));
+        Files.createDirectories(userFolder.resolve("reading-sessions"));
+    }
+
+    @After
+    public void clear() throws Exception {
+        FileSystemUtils.deleteRecursively(userFolder.getParent());
+    }
+
+    @Test
+    public void convertToBinaryAndBack() throws Exception {
+        copyBook("uuid-1.json", userFolder.resolve("books").toString());
+        copyBook("uuid-2.json", userFolder.resolve("books").toString());
+        copyReadingSession("uuid-1.json", userFolder.resolve("reading-sessions").toString());
+
+        FilesystemFormatConverter converter = new FilesystemFormatConverter();
+        converter.convert(userFolder, true);
+
+        assertThat(userFolder.resolve("books/uuid-1.json")).doesNotExist();
+        assertThat(userFolder.resolve("reading-sessions/uuid-1.json")).doesNotExist();
+        byte[] binaryBook = Files.readAllBytes(userFolder.resolve("books/uuid-2.bin"));
+        assertThat(FilesystemBinaryCodec.isBinary(binaryBook)).isTrue();
+        assertThat(new FilesystemBookBinaryCodec(new FilesystemJsonCodec<>(Book.class)).decode(binaryBook))
+            .isEqualTo(getTestBook("uuid-2.json"));
+        assertThat(new FilesystemReadingSessionBinaryCodec(new FilesystemJsonCodec<>(ReadingSession.class))
+            .decode(Files.readAllBytes(userFolder.resolve("reading-sessions/uuid-1.bin"))))
+            .isEqualTo(getTestReadingSession("uuid-1.json"));
+
+        converter.convert(userFolder, false);
+
+        assertThat(userFolder.resolve("books/uuid-2.bin")).doesNotExist();
+        assertThat(new FilesystemJsonCodec<>(Book.class).decode(Files.readAllBytes(userFolder.resolve("books/uuid-2.json"))))
+            .isEqualTo(new FilesystemJsonCodec<>(Book.class).decode(getTestBookJson("uuid-2.json").getBytes()));
+    }
+
+    @Test
+    public void dropStaleIndex() throws Exception {
+        copyBook("uuid-1.json", userFolder.resolve("books").toString());
+        new FilesystemFileStorage().list(userFolder.resolve("books").toString());
+        assertThat(FilesystemItemsIndex.getIndexPath(userFolder.resolve("books"))).exists();
+
+        new FilesystemFormatConverter().convert(userFolder, true);
+
+        assertThat(FilesystemItemsIndex.getIndexPath(userFolder.resolve("books"))).doesNotExist();
+        assertThat(new FilesystemFileStorage(true, FilesystemFileStorage.BINARY_EXTENSION)
+            .list(userFolder.resolve("books").toString()))
+            .containsExactly("uuid-1");
+    }
+}
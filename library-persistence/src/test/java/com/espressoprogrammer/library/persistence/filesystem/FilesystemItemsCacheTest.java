@@ -0,0 +1,63 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesystemItemsCacheTest {
+    private static final String JOHN_DOE_USER = "johndoe";
+    private static final String BOOKS = "books";
+
+    @Test
+    public void countHitsAndMisses() throws Exception {
+        FilesystemItemsCache itemsCache = new FilesystemItemsCache(100);
+
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isNull();
+        itemsCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", "book-1", 10);
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isEqualTo("book-1");
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, "reading-sessions", "uuid-1")).isNull();
+
+        assertThat(itemsCache.getHitCount()).isEqualTo(1);
+        assertThat(itemsCache.getMissCount()).isEqualTo(2);
+        assertThat(itemsCache.getSizeInBytes()).isEqualTo(10);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedItems() throws Exception {
+        FilesystemItemsCache itemsCache = new FilesystemItemsCache(100);
+
+        itemsCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", "book-1", 40);
+        itemsCache.put(JOHN_DOE_USER, BOOKS, "uuid-2", "book-2", 40);
+        itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-1");
+        itemsCache.put(JOHN_DOE_USER, BOOKS, "uuid-3", "book-3", 40);
+
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isEqualTo("book-1");
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-2")).isNull();
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-3")).isEqualTo("book-3");
+        assertThat(itemsCache.getEvictionCount()).isEqualTo(1);
+        assertThat(itemsCache.getSizeInBytes()).isEqualTo(80);
+    }
+
+    @Test
+    public void replaceAndRemoveItems() throws Exception {
+        FilesystemItemsCache itemsCache = new FilesystemItemsCache(100);
+
+        itemsCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", "book-1", 40);
+        itemsCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", "updated-book-1", 50);
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isEqualTo("updated-book-1");
+        assertThat(itemsCache.getSizeInBytes()).isEqualTo(50);
+
+        itemsCache.remove(JOHN_DOE_USER, BOOKS, "uuid-1");
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isNull();
+        assertThat(itemsCache.getSizeInBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void disabledCache() throws Exception {
+        FilesystemItemsCache itemsCache = new FilesystemItemsCache(0);
+
+        itemsCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", "book-1", 10);
+        assertThat((Object) itemsCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isNull();
+        assertThat(itemsCache.getSizeInBytes()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesystemItemsIndexTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+    private static final String FILE_EXTENSION = ".json";
+
+    private Path libraryFolder;
+    private Path folder;
+
+    @Before
+    public void init() throws Exception {
+        libraryFolder = Paths.get(System.getProperty(TMPDIR), "library-index-" + System.nanoTime());
+        folder = libraryFolder.resolve("books");
+        Files.createDirectories(folder);
+    }
+
+    @After
+    public void clear() throws Exception {
+        FileSystemUtils.deleteRecursively(new File(libraryFolder.toString()));
+    }
+
+    @Test
+    public void buildIndexFromFiles() throws Exception {
+        writeItem("uuid-1", "item-1");
+        writeItem("uuid-2", "item-22");
+        Files.write(folder.resolve("notes.txt"), "notes".getBytes());
+
+        FilesystemItemsIndex index = FilesystemItemsIndex.open(folder, FILE_EXTENSION);
+        assertThat(index.list()).containsExactlyInAnyOrder("uuid-1", "uuid-2");
+        assertThat(index.contains("uuid-1")).isTrue();
+        assertThat(index.contains("uuid-3")).isFalse();
+        assertThat(index.getLength("uuid-2").getAsInt()).isEqualTo(7);
+    }
+
+    @Test
+    public void reuseIndexUpdatedWithTheFolder() throws Exception {
+        FilesystemItemsIndex index = FilesystemItemsIndex.open(folder, FILE_EXTENSION);
+        for(int i = 0; i < 100; i++) {
+            writeItem("uuid-" + i, "item-" + i);
+            index.put("uuid-" + i, ("item-" + i).length(), System.currentTimeMillis());
+        }
+        Files.delete(folder.resolve("uuid-0" + FILE_EXTENSION));
+        index.remove("uuid-0");
+
+        FilesystemItemsIndex reopenedIndex = FilesystemItemsIndex.open(folder, FILE_EXTENSION);
+        assertThat(reopenedIndex.list()).hasSize(99);
+        assertThat(reopenedIndex.contains("uuid-0")).isFalse();
+        assertThat(reopenedIndex.getLength("uuid-99").getAsInt()).isEqualTo(7);
+    }
+
+    @Test
+    public void reuseForcedIndexUpdatedWithTheFolder() throws Exception {
+        FilesystemItemsIndex index = FilesystemItemsIndex.open(folder, FILE_EXTENSION, 1, true);
+        writeItem("uuid-1", "item-1");
+        index.put("uuid-1", "item-1".length(), System.currentTimeMillis());
+
+        FilesystemItemsIndex reopenedIndex = FilesystemItemsIndex.open(folder, FILE_EXTENSION, 1, true);
+        assertThat(reopenedIndex.list()).containsExactly("uuid-1");
+    }
+
+    @Test
+    public void rebuildStaleIndex() throws Exception {
+        writeItem("uuid-1", "item-1");
+        FilesystemItemsIndex.open(folder, FILE_EXTENSION);
+
+        writeItem("uuid-2", "item-2");
+
+        FilesystemItemsIndex index = FilesystemItemsIndex.open(folder, FILE_EXTENSION);
+        assertThat(index.list()).containsExactlyInAnyOrder("uuid-1", "uuid-2");
+    }
+
+    @Test
+    public void streamKeepsListingAcrossResize() throws Exception {
+        FilesystemItemsIndex index = FilesystemItemsIndex.open(folder, FILE_EXTENSION);
+        for(int i = 0; i < 10; i++) {
+            index.put("uuid-" + i, 6, System.currentTimeMillis());
+        }
+
+        List<String> uuids = new ArrayList<>();
+        try(Stream<String> stream = index.stream()) {
+            Iterator<String> iterator = stream.iterator();
+            uuids.add(iterator.next());
+            for(int i = 10; i < 1000; i++) {
+                index.put("uuid-" + i, 6, System.currentTimeMillis());
+            }
+            iterator.forEachRemaining(uuids::add);
+        }
+
+        assertThat(uuids).doesNotHaveDuplicates();
+        for(int i = 0; i < 10; i++) {
+            assertThat(uuids).contains("uuid-" + i);
+        }
+        assertThat(index.list()).hasSize(1000);
+    }
+
+    @Test
+    public void skipFoldersWithNamesTooLongToIndex() throws Exception {
+        StringBuilder uuid = new StringBuilder();
+        for(int i = 0; i < 65; i++) {
+            uuid.append('a');
+        }
+        writeItem(uuid.toString(), "item");
+
+        assertThat(FilesystemItemsIndex.open(folder, FILE_EXTENSION)).isNull();
+    }
+
+    private void writeItem(String uuid, String content) throws Exception {
+        Files.write(folder.resolve(uuid + FILE_EXTENSION), content.getBytes());
+    }
+}
@@ -0,0 +1,67 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FilesystemItemsScannerTest {
+    private final FilesystemItemsScanner itemsScanner = new FilesystemItemsScanner(4, 100);
+
+    @After
+    public void clear() {
+        itemsScanner.close();
+    }
+
+    @Test
+    public void scanSmallFoldersOnCallerThread() throws Exception {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        List<String> items = itemsScanner.scan(uuids(99), uuid -> {
+            threads.add(Thread.currentThread().getName());
+            return Optional.of(uuid);
+        }, uuid -> true);
+
+        assertThat(items).isEqualTo(uuids(99));
+        assertThat(threads).containsExactly(Thread.currentThread().getName());
+    }
+
+    @Test
+    public void scanLargeFoldersOnScanPoolKeepingOrder() throws Exception {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        List<String> items = itemsScanner.scan(uuids(10000), uuid -> {
+            threads.add(Thread.currentThread().getName());
+            return uuid.endsWith("7") ? Optional.empty() : Optional.of(uuid);
+        }, uuid -> !uuid.endsWith("3"));
+
+        assertThat(items).isEqualTo(uuids(10000).stream()
+            .filter(uuid -> !uuid.endsWith("7") && !uuid.endsWith("3"))
+            .collect(toList()));
+        assertThat(threads).allMatch(name -> name.startsWith("filesystem-scan-"));
+    }
+
+    @Test
+    public void propagateReadErrors() throws Exception {
+        assertThatThrownBy(() -> itemsScanner.scan(uuids(1000), uuid -> {
+            if("uuid-500".equals(uuid)) {
+                throw new FilesystemDaoException(new IllegalStateException("broken item"));
+            }
+            return Optional.of(uuid);
+        }, uuid -> true))
+            .isInstanceOf(FilesystemDaoException.class)
+            .hasRootCauseMessage("broken item");
+    }
+
+    private List<String> uuids(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "uuid-" + i).collect(toList());
+    }
+}
@@ -0,0 +1,40 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBookJson;
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestReadingSession;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FilesystemJsonCodecTest {
+
+    @Test
+    public void decodeBook() throws Exception {
+        FilesystemItemCodec<Book> codec = new FilesystemJsonCodec<>(Book.class);
+
+        Book book = codec.decode(getTestBookJson("1e4014b1-a551-4310-9f30-590c3140b695.json").getBytes());
+
+        assertThat(book).isEqualTo(getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
+    }
+
+    @Test
+    public void encodeAndDecodeReadingSession() throws Exception {
+        FilesystemItemCodec<ReadingSession> codec = new FilesystemJsonCodec<>(ReadingSession.class);
+        ReadingSession readingSession = getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-three-gap-readings.json");
+
+        assertThat(codec.decode(codec.encode(readingSession))).isEqualTo(readingSession);
+    }
+
+    @Test
+    public void failOnInvalidContent() throws Exception {
+        FilesystemItemCodec<Book> codec = new FilesystemJsonCodec<>(Book.class);
+
+        assertThatThrownBy(() -> codec.decode("{".getBytes())).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,173 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesystemLogStorageTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+
+    private String folder;
+    private FilesystemLogStorage storage;
+
+    @Before
+    public void init() throws Exception {
+        folder = System.getProperty(TMPDIR) + "/library-log-" + System.nanoTime();
+        Files.createDirectories(Paths.get(folder));
+        storage = new FilesystemLogStorage(128, 0);
+    }
+
+    @After
+    public void clear() throws Exception {
+        storage.close();
+        FileSystemUtils.deleteRecursively(new File(folder));
+    }
+
+    @Test
+    public void writeReadAndDeleteItems() throws Exception {
+        storage.write(folder, "uuid-1", "item-1".getBytes());
+        storage.write(folder, "uuid-2", "item-2".getBytes());
+        storage.write(folder, "uuid-1", "updated-item-1".getBytes());
+
+        assertThat(storage.list(folder)).containsExactly("uuid-2", "uuid-1");
+        assertThat(storage.read(folder, "uuid-1").get()).isEqualTo("updated-item-1".getBytes());
+        assertThat(storage.exists(folder, "uuid-2")).isTrue();
+
+        assertThat(storage.delete(folder, "uuid-2")).isTrue();
+        assertThat(storage.delete(folder, "uuid-2")).isFalse();
+        assertThat(storage.exists(folder, "uuid-2")).isFalse();
+        assertThat(storage.read(folder, "uuid-2").isPresent()).isFalse();
+    }
+
+    @Test
+    public void replayLogOnOpen() throws Exception {
+        for(int i = 0; i < 20; i++) {
+            storage.write(folder, "uuid-" + (i % 5), ("item-" + i).getBytes());
+        }
+        storage.delete(folder, "uuid-4");
+        storage.close();
+
+        assertThat(segments()).hasSizeGreaterThan(1);
+
+        storage = new FilesystemLogStorage(128, 0);
+        assertThat(storage.list(folder)).containsExactlyInAnyOrder("uuid-0", "uuid-1", "uuid-2", "uuid-3");
+        assertThat(storage.read(folder, "uuid-3").get()).isEqualTo("item-18".getBytes());
+    }
+
+    @Test
+    public void compactSegments() throws Exception {
+        storage.write(folder, "uuid-0", "item-0".getBytes());
+        for(int i = 0; i < 50; i++) {
+            storage.write(folder, "uuid-" + (1 + i % 3), ("item-" + i).getBytes());
+        }
+        storage.delete(folder, "uuid-3");
+        long segmentsBeforeCompaction = segments().size();
+
+        storage.compact();
+
+        assertThat(segments().size()).isLessThan((int) segmentsBeforeCompaction);
+        assertThat(storage.list(folder)).containsExactlyInAnyOrder("uuid-0", "uuid-1", "uuid-2");
+        assertThat(storage.read(folder, "uuid-0").get()).isEqualTo("item-0".getBytes());
+        assertThat(storage.read(folder, "uuid-1").get()).isEqualTo("item-48".getBytes());
+
+        storage.close();
+        storage = new FilesystemLogStorage(128, 0);
+        assertThat(storage.list(folder)).containsExactlyInAnyOrder("uuid-0", "uuid-1", "uuid-2");
+        assertThat(storage.read(folder, "uuid-2").get()).isEqualTo("item-49".getBytes());
+    }
+
+    @Test
+    public void compactionDropsDeletesNoOlderSegmentNeeds() throws Exception {
+        for(int i = 1; i <= 5; i++) {
+            storage.write(folder, "uuid-" + i, ("item-" + i).getBytes());
+        }
+        storage.write(folder, "uuid-9", "item-9".getBytes());
+        for(int i = 0; i < 20; i++) {
+            storage.write(folder, "uuid-0", ("item-" + i).getBytes());
+        }
+        storage.delete(folder, "uuid-9");
+        for(int i = 0; i < 10; i++) {
+            storage.write(folder, "uuid-0", ("item-" + i).getBytes());
+        }
+
+        storage.compact();
+        storage.compact();
+
+        for(Path segment : segments()) {
+            assertThat(new String(Files.readAllBytes(segment), StandardCharsets.UTF_8)).doesNotContain("uuid-9");
+        }
+        storage.close();
+        storage = new FilesystemLogStorage(128, 0);
+        assertThat(storage.list(folder)).containsExactlyInAnyOrder("uuid-0", "uuid-1", "uuid-2", "uuid-3", "uuid-4", "uuid-5");
+    }
+
+    @Test
+    public void writeWithGroupCommitDurability() throws Exception {
+        storage.close();
+        storage = new FilesystemLogStorage(128, 0, FilesystemFileWriter.GROUP_COMMIT, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int i = 0; i < 20; i++) {
+                int item = i;
+                futures.add(executor.submit(() -> {
+                    storage.write(folder, "uuid-" + item, ("item-" + item).getBytes());
+                    return null;
+                }));
+            }
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(storage.delete(folder, "uuid-0")).isTrue();
+        storage.close();
+
+        storage = new FilesystemLogStorage(128, 0);
+        assertThat(storage.list(folder)).hasSize(19);
+        assertThat(storage.read(folder, "uuid-19").get()).isEqualTo("item-19".getBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownDurability() throws Exception {
+        new FilesystemLogStorage(128, 0, "sometimes", 0);
+    }
+
+    @Test
+    public void truncateTornRecord() throws Exception {
+        storage.write(folder, "uuid-1", "item-1".getBytes());
+        storage.close();
+
+        Path segment = segments().get(0);
+        Files.write(segment, new byte[] {0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        storage = new FilesystemLogStorage(128, 0);
+        assertThat(storage.list(folder)).containsExactly("uuid-1");
+        storage.write(folder, "uuid-2", "item-2".getBytes());
+        assertThat(storage.read(folder, "uuid-2").get()).isEqualTo("item-2".getBytes());
+    }
+
+    private List<Path> segments() throws Exception {
+        try(Stream<Path> paths = Files.list(Paths.get(folder))) {
+            return paths.sorted().collect(toList());
+        }
+    }
+}
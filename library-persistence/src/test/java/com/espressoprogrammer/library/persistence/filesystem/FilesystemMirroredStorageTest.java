@@ -0,0 +1,130 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FilesystemMirroredStorageTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+
+    private Path libraryFolder;
+    private String folder;
+    private String mirrorFolder;
+    private volatile long primaryReadDelay;
+    private volatile boolean failMirrorWrites;
+    private FilesystemMirroredStorage storage;
+
+    @Before
+    public void init() throws Exception {
+        libraryFolder = Paths.get(System.getProperty(TMPDIR), "library-mirror-" + System.nanoTime());
+        folder = libraryFolder.resolve("primary/johndoe/books").toString();
+        mirrorFolder = libraryFolder.resolve("mirror/johndoe/books").toString();
+        Files.createDirectories(Paths.get(folder));
+        storage = new FilesystemMirroredStorage(new SlowPrimaryStorage(), libraryFolder.resolve("mirror").toString(), 95, 0);
+    }
+
+    @After
+    public void clear() throws Exception {
+        storage.close();
+        FileSystemUtils.deleteRecursively(new File(libraryFolder.toString()));
+    }
+
+    @Test
+    public void writeAndDeleteBothCopies() throws Exception {
+        storage.write(folder, "uuid-1", "item-1".getBytes());
+        storage.write(folder, "uuid-2", "item-2".getBytes());
+        assertThat(storage.delete(folder, "uuid-2")).isTrue();
+
+        assertThat(Files.readAllBytes(Paths.get(folder, "uuid-1.json"))).isEqualTo("item-1".getBytes());
+        assertThat(Files.readAllBytes(Paths.get(mirrorFolder, "uuid-1.json"))).isEqualTo("item-1".getBytes());
+        assertThat(Files.exists(Paths.get(mirrorFolder, "uuid-2.json"))).isFalse();
+        assertThat(storage.list(folder)).containsExactly("uuid-1");
+        assertThat(storage.read(folder, "uuid-1").get()).isEqualTo("item-1".getBytes());
+        assertThat(storage.getHedgeCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void slowPrimaryReadIsAnsweredByTheMirror() throws Exception {
+        storage.write(folder, "uuid-1", "item-1".getBytes());
+        for(int i = 0; i < 128; i++) {
+            storage.read(folder, "uuid-1");
+        }
+
+        primaryReadDelay = 2000;
+        long start = System.nanoTime();
+        Optional<byte[]> content = storage.read(folder, "uuid-1");
+
+        assertThat(content.get()).isEqualTo("item-1".getBytes());
+        assertThat(System.nanoTime() - start).isLessThan(1_000_000_000L);
+        assertThat(storage.getHedgeCount()).isGreaterThanOrEqualTo(1);
+        assertThat(storage.getMirrorWinCount()).isGreaterThanOrEqualTo(1);
+        assertThat(storage.getReadCount()).isEqualTo(129);
+    }
+
+    @Test
+    public void itemMissingFromTheMirrorComesFromThePrimary() throws Exception {
+        Files.write(Paths.get(folder, "uuid-1.json"), "item-1".getBytes());
+        primaryReadDelay = 100;
+
+        assertThat(storage.read(folder, "uuid-1").get()).isEqualTo("item-1".getBytes());
+        assertThat(storage.getHedgeCount()).isEqualTo(1);
+        assertThat(storage.getMirrorWinCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void mirrorCopyLeftBehindByAFailedWriteIsNotRead() throws Exception {
+        storage.write(folder, "uuid-1", "item-1".getBytes());
+        failMirrorWrites = true;
+        assertThatThrownBy(() -> storage.write(folder, "uuid-1", "item-2".getBytes())).isInstanceOf(IOException.class);
+
+        primaryReadDelay = 100;
+        assertThat(storage.read(folder, "uuid-1").get()).isEqualTo("item-2".getBytes());
+        assertThat(storage.getHedgeCount()).isEqualTo(0);
+
+        failMirrorWrites = false;
+        storage.write(folder, "uuid-1", "item-3".getBytes());
+        assertThat(storage.read(folder, "uuid-1").get()).isEqualTo("item-3".getBytes());
+        assertThat(storage.getHedgeCount()).isEqualTo(1);
+        assertThat(storage.getMirrorWinCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void locateThePrimaryFile() throws Exception {
+        storage.write(folder, "uuid-1", "item-1".getBytes());
+
+        assertThat(storage.locate(folder, "uuid-1")).contains(Paths.get(folder, "uuid-1.json"));
+    }
+
+    private class SlowPrimaryStorage extends FilesystemFileStorage {
+        @Override
+        public void write(String writeFolder, String uuid, byte[] content) throws IOException {
+            if(writeFolder.equals(mirrorFolder) && failMirrorWrites) {
+                throw new IOException("Mirror disk is full");
+            }
+            super.write(writeFolder, uuid, content);
+        }
+
+        @Override
+        public Optional<byte[]> read(String readFolder, String uuid) throws IOException {
+            if(readFolder.equals(folder) && primaryReadDelay > 0) {
+                try {
+                    Thread.sleep(primaryReadDelay);
+                } catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.read(readFolder, uuid);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesystemOffHeapCacheTest {
+    private static final String JOHN_DOE_USER = "johndoe";
+    private static final String BOOKS = "books";
+    private static final int HALF_PAGE = FilesystemOffHeapCache.PAGE_BYTES / 2;
+
+    @Test
+    public void copyItemsInAndOut() throws Exception {
+        FilesystemOffHeapCache offHeapCache = new FilesystemOffHeapCache(FilesystemOffHeapCache.PAGE_BYTES);
+
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isNull();
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", "book-1".getBytes());
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-2", "book-2".getBytes());
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", "updated-book-1".getBytes());
+
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isEqualTo("updated-book-1".getBytes());
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-2")).isEqualTo("book-2".getBytes());
+        assertThat(offHeapCache.get(JOHN_DOE_USER, "reading-sessions", "uuid-1")).isNull();
+        assertThat(offHeapCache.getUsedBytes()).isEqualTo(20);
+
+        offHeapCache.remove(JOHN_DOE_USER, BOOKS, "uuid-2");
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-2")).isNull();
+        assertThat(offHeapCache.getHitCount()).isEqualTo(2);
+        assertThat(offHeapCache.getMissCount()).isEqualTo(3);
+        assertThat(offHeapCache.getAllocatedBytes()).isEqualTo(FilesystemOffHeapCache.PAGE_BYTES);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedItemOfTheSameSize() throws Exception {
+        FilesystemOffHeapCache offHeapCache = new FilesystemOffHeapCache(FilesystemOffHeapCache.PAGE_BYTES);
+
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", content(HALF_PAGE, 1));
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-2", content(HALF_PAGE, 2));
+        offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-1");
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-3", content(HALF_PAGE - 1, 3));
+
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isEqualTo(content(HALF_PAGE, 1));
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-2")).isNull();
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-3")).isEqualTo(content(HALF_PAGE - 1, 3));
+        assertThat(offHeapCache.getEvictionCount()).isEqualTo(1);
+        assertThat(offHeapCache.getAllocatedBytes()).isEqualTo(FilesystemOffHeapCache.PAGE_BYTES);
+    }
+
+    @Test
+    public void rejectItemsBeyondTheCap() throws Exception {
+        FilesystemOffHeapCache offHeapCache = new FilesystemOffHeapCache(FilesystemOffHeapCache.PAGE_BYTES);
+
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-1", content(HALF_PAGE, 1));
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-2", content(100, 2));
+        offHeapCache.put(JOHN_DOE_USER, BOOKS, "uuid-3", content(FilesystemOffHeapCache.PAGE_BYTES + 1, 3));
+
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-1")).isNotNull();
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-2")).isNull();
+        assertThat(offHeapCache.get(JOHN_DOE_USER, BOOKS, "uuid-3")).isNull();
+        assertThat(offHeapCache.getRejectionCount()).isEqualTo(2);
+        assertThat(offHeapCache.getAllocatedBytes()).isEqualTo(FilesystemOffHeapCache.PAGE_BYTES);
+    }
+
+    @Test
+    public void pickSizeClasses() throws Exception {
+        assertThat(FilesystemOffHeapCache.sizeClassIndex(1)).isEqualTo(0);
+        assertThat(FilesystemOffHeapCache.sizeClassIndex(FilesystemOffHeapCache.MIN_CHUNK_BYTES)).isEqualTo(0);
+        assertThat(FilesystemOffHeapCache.sizeClassIndex(FilesystemOffHeapCache.MIN_CHUNK_BYTES + 1)).isEqualTo(1);
+        assertThat(FilesystemOffHeapCache.sizeClassIndex(FilesystemOffHeapCache.PAGE_BYTES)).isEqualTo(14);
+    }
+
+    private byte[] content(int length, int value) {
+        byte[] content = new byte[length];
+        Arrays.fill(content, (byte) value);
+        return content;
+    }
+}
@@ -2,12 +2,15 @@ package com.espressoprogrammer.library.persistence.filesystem;
 
 import com.espressoprogrammer.library.dto.DateReadingSession;
 import com.espressoprogrammer.library.dto.ReadingSession;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.util.FileSystemUtils;
 
@@ -15,13 +18,26 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static com.espressoprogrammer.library.util.LibraryTestUtil.copyReadingSession;
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestReadingSession;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -33,6 +49,30 @@ public class FilesystemReadingSessionsDaoTest {
     @Mock
     private FilesystemConfiguration filesystemConfiguration;
 
+    @Spy
+    private FilesystemItemsCache itemsCache = new FilesystemItemsCache(1024 * 1024);
+
+    @Spy
+    private FilesystemOffHeapCache offHeapCache = new FilesystemOffHeapCache(0);
+
+    @Spy
+    private FilesystemStorage storage = new FilesystemFileStorage();
+
+    @Spy
+    private FilesystemItemsScanner itemsScanner = new FilesystemItemsScanner(2, 1);
+
+    @Spy
+    private FilesystemCollectionVersions collectionVersions = new FilesystemCollectionVersions();
+
+    @Spy
+    private FilesystemJsonVersions jsonVersions = new FilesystemJsonVersions();
+
+    @Spy
+    private FilesystemReadingSessionsIndex readingSessionsIndex = new FilesystemReadingSessionsIndex();
+
+    @Spy
+    private FilesystemWriteBehindQueue writeBehindQueue = new FilesystemWriteBehindQueue(0, 0);
+
     @InjectMocks
     private FilesystemReadingSessionsDao readingSessionsDao;
 
@@ -41,10 +81,12 @@ public class FilesystemReadingSessionsDaoTest {
         when(filesystemConfiguration.getLibraryFolder()).thenReturn(System.getProperty(TMPDIR)
             + "/library-"
             + System.nanoTime());
+        readingSessionsDao.userRoots = new FilesystemUserRoots(filesystemConfiguration, storage);
     }
 
     @After
     public void clear() throws Exception {
+        readingSessionsDao.writeBehindQueue.close();
         deleteLibraryFolder();
     }
 
@@ -100,6 +142,66 @@ public class FilesystemReadingSessionsDaoTest {
             );
     }
 
+    @Test
+    public void streamUserReadingSessions() throws Exception {
+        createReadingSessionsFolder(JOHN_DOE_USER);
+        copyReadingSession("uuid-1.json", getUserReadingSessionsFolder(JOHN_DOE_USER));
+        copyReadingSession("uuid-2.json", getUserReadingSessionsFolder(JOHN_DOE_USER));
+
+        try(Stream<ReadingSession> readingSessions = readingSessionsDao.streamUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)) {
+            assertThat(readingSessions.map(ReadingSession::getUuid)).containsExactlyInAnyOrder("uuid-1", "uuid-2");
+        }
+        try(Stream<ReadingSession> readingSessions = readingSessionsDao.streamUserReadingSessions(JOHN_DOE_USER, "book-uuid-2")) {
+            assertThat(readingSessions).isEmpty();
+        }
+    }
+
+    @Test
+    public void getUserReadingSessionsInCreationOrder() throws Exception {
+        ReadingSession readingSession = getTestReadingSession("uuid-1.json");
+        List<String> uuids = new ArrayList<>();
+        for(int i = 0; i < 5; i++) {
+            uuids.add(readingSessionsDao.createUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession).getUuid());
+        }
+
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID))
+            .extracting(ReadingSession::getUuid)
+            .containsExactlyElementsOf(uuids);
+    }
+
+    @Test
+    public void readOnlyTheReadingSessionsOfTheBook() throws Exception {
+        ReadingSession readingSession = getTestReadingSession("uuid-1.json");
+        ReadingSession otherReadingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
+            "book-uuid-2",
+            new ReadingSession(null, "book-uuid-2", null, Collections.emptyList()));
+        ReadingSession createdReadingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession);
+        itemsCache.remove(JOHN_DOE_USER, "reading-sessions", otherReadingSession.getUuid());
+        itemsCache.remove(JOHN_DOE_USER, "reading-sessions", createdReadingSession.getUuid());
+
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID))
+            .extracting(ReadingSession::getUuid)
+            .containsExactly(createdReadingSession.getUuid());
+        verify(storage, never()).read(anyString(), eq(otherReadingSession.getUuid()));
+    }
+
+    @Test
+    public void moveReadingSessionToItsNewBook() throws Exception {
+        ReadingSession readingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            getTestReadingSession("uuid-1.json"));
+
+        readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            readingSession.getUuid(),
+            readingSession.copy(readingSession.getUuid(), "book-uuid-2", null, Collections.emptyList()));
+
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)).isEmpty();
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, "book-uuid-2"))
+            .extracting(ReadingSession::getUuid)
+            .containsExactly(readingSession.getUuid());
+    }
+
     @Test
     public void createUserReadingSession() throws Exception {
         List<ReadingSession> readingSessions = readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID);
@@ -216,6 +318,146 @@ public class FilesystemReadingSessionsDaoTest {
         assertThat(optionalUuid.isPresent()).isFalse();
     }
 
+    @Test
+    public void coalesceUpdatesWithWriteBehind() throws Exception {
+        FilesystemWriteBehindQueue queue = new FilesystemWriteBehindQueue(60000, 10);
+        readingSessionsDao.writeBehindQueue = queue;
+        ReadingSession createdReadingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            getTestReadingSession("uuid-1.json"));
+
+        for(int page = 102; page <= 110; page++) {
+            Optional<String> optionalUuid = readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER,
+                BOOK_UUID,
+                createdReadingSession.getUuid(),
+                readingSessionAtPage(page));
+            assertThat(optionalUuid).isEqualTo(Optional.of(createdReadingSession.getUuid()));
+        }
+        verify(storage, times(1)).write(anyString(), anyString(), any());
+
+        ReadingSession expectedReadingSession = new ReadingSession(createdReadingSession.getUuid(),
+            BOOK_UUID,
+            null,
+            Collections.singletonList(new DateReadingSession("2017-01-01", 110, "bookmark-110")));
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, createdReadingSession.getUuid()))
+            .isEqualTo(Optional.of(expectedReadingSession));
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID))
+            .containsExactly(expectedReadingSession);
+
+        readingSessionsDao.destroy();
+        verify(storage, times(2)).write(anyString(), anyString(), any());
+        assertThat(queue.getUpdateCount()).isEqualTo(9);
+        assertThat(queue.getWriteCount()).isEqualTo(1);
+        assertThat(queue.getPendingCount()).isEqualTo(0);
+
+        readingSessionsDao.writeBehindQueue = new FilesystemWriteBehindQueue(0, 0);
+        itemsCache.remove(JOHN_DOE_USER, "reading-sessions", createdReadingSession.getUuid());
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, createdReadingSession.getUuid()))
+            .isEqualTo(Optional.of(expectedReadingSession));
+    }
+
+    @Test
+    public void deleteDiscardsPendingUpdate() throws Exception {
+        readingSessionsDao.writeBehindQueue = new FilesystemWriteBehindQueue(60000, 10);
+        ReadingSession createdReadingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            getTestReadingSession("uuid-1.json"));
+        readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            createdReadingSession.getUuid(),
+            readingSessionAtPage(102));
+
+        readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, createdReadingSession.getUuid());
+        readingSessionsDao.destroy();
+
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, createdReadingSession.getUuid()))
+            .isEmpty();
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)).isEmpty();
+    }
+
+    @Test
+    public void writeThroughWhenWriteBehindIsFull() throws Exception {
+        readingSessionsDao.writeBehindQueue = new FilesystemWriteBehindQueue(60000, 1);
+        ReadingSession first = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            getTestReadingSession("uuid-1.json"));
+        ReadingSession second = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            getTestReadingSession("uuid-1.json"));
+
+        readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, first.getUuid(), readingSessionAtPage(102));
+        readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, second.getUuid(), readingSessionAtPage(103));
+
+        verify(storage, times(3)).write(anyString(), anyString(), any());
+        assertThat(readingSessionsDao.writeBehindQueue.getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void updateUserReadingSessionWithStaleVersion() throws Exception {
+        readingSessionsDao.writeBehindQueue = new FilesystemWriteBehindQueue(60000, 10);
+        ReadingSession createdReadingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            getTestReadingSession("uuid-1.json"));
+        String version = ItemVersions.of(createdReadingSession);
+        readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, createdReadingSession.getUuid(),
+            readingSessionAtPage(102), version);
+
+        try {
+            readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, createdReadingSession.getUuid(),
+                readingSessionAtPage(103), version);
+            fail("It should fail with " + VersionMismatchException.class.getSimpleName());
+        } catch(VersionMismatchException ex) {
+            assertThat(ex.getExpectedVersion()).isEqualTo(version);
+        }
+        try {
+            readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, createdReadingSession.getUuid(), version);
+            fail("It should fail with " + VersionMismatchException.class.getSimpleName());
+        } catch(VersionMismatchException ex) {
+            assertThat(ex.getExpectedVersion()).isEqualTo(version);
+        }
+
+        ReadingSession currentReadingSession = readingSessionsDao.getUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            createdReadingSession.getUuid()).get();
+        assertThat(currentReadingSession.getDateReadingSessions().get(0).getLastReadPage()).isEqualTo(102);
+        assertThat(readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, createdReadingSession.getUuid(),
+            ItemVersions.of(currentReadingSession))).isEqualTo(Optional.of(createdReadingSession.getUuid()));
+    }
+
+    @Test
+    public void concurrentVersionedUpdatesLoseNoDateReadingSession() throws Exception {
+        ReadingSession createdReadingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
+            BOOK_UUID,
+            new ReadingSession(null, BOOK_UUID, null, Collections.emptyList()));
+        String uuid = createdReadingSession.getUuid();
+
+        int threads = 4;
+        int datesPerThread = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for(int d = 1; d <= datesPerThread; d++) {
+                        String date = String.format("2017-%02d-%02d", thread + 1, d);
+                        while(!addDateReadingSession(uuid, new DateReadingSession(date, d, null))) {
+                            Thread.yield();
+                        }
+                    }
+                }));
+            }
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, uuid).get().getDateReadingSessions())
+            .hasSize(threads * datesPerThread);
+    }
+
     @Test
     public void deleteUserReadingSession() throws Exception {
         ReadingSession readingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER,
@@ -237,6 +479,7 @@ public class FilesystemReadingSessionsDaoTest {
             BOOK_UUID,
             readingSession.getUuid());
         assertThat(optionalReadingSession.isPresent()).isFalse();
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)).isEmpty();
     }
 
     private void createReadingSessionsFolder(String user) throws Exception {
@@ -251,6 +494,29 @@ public class FilesystemReadingSessionsDaoTest {
         return filesystemConfiguration.getLibraryFolder() + "/" + user + "/reading-sessions";
     }
 
+    private boolean addDateReadingSession(String uuid, DateReadingSession dateReadingSession) {
+        ReadingSession readingSession = readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, uuid).get();
+        List<DateReadingSession> dateReadingSessions = new ArrayList<>(readingSession.getDateReadingSessions());
+        dateReadingSessions.add(dateReadingSession);
+        try {
+            readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER,
+                BOOK_UUID,
+                uuid,
+                new ReadingSession(uuid, BOOK_UUID, null, dateReadingSessions),
+                ItemVersions.of(readingSession));
+            return true;
+        } catch(VersionMismatchException ex) {
+            return false;
+        }
+    }
+
+    private ReadingSession readingSessionAtPage(int page) {
+        return new ReadingSession(null,
+            BOOK_UUID,
+            null,
+            Collections.singletonList(new DateReadingSession("2017-01-01", page, "bookmark-" + page)));
+    }
+
     private void deleteLibraryFolder() {
         FileSystemUtils.deleteRecursively(new File(filesystemConfiguration.getLibraryFolder()));
     }
@@ -0,0 +1,112 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesystemReadingSessionsIndexTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+    private static final Supplier<Map<String, String>> NO_SESSIONS = Collections::emptyMap;
+
+    private Path folder;
+
+    @Before
+    public void init() throws Exception {
+        folder = Paths.get(System.getProperty(TMPDIR), "library-" + System.nanoTime(), "reading-sessions");
+        Files.createDirectories(folder);
+    }
+
+    @After
+    public void clear() throws Exception {
+        FileSystemUtils.deleteRecursively(folder.getParent());
+    }
+
+    @Test
+    public void rebuildMissingJournal() throws Exception {
+        Map<String, String> sessions = new LinkedHashMap<>();
+        sessions.put("uuid-2", "book-uuid-1");
+        sessions.put("uuid-1", "book-uuid-1");
+        sessions.put("uuid-3", "book-uuid-2");
+
+        assertThat(new FilesystemReadingSessionsIndex().get(folder.toString(), "book-uuid-1", () -> sessions))
+            .containsExactly("uuid-2", "uuid-1");
+        assertThat(FilesystemReadingSessionsIndex.getJournalPath(folder)).exists();
+        assertThat(new FilesystemReadingSessionsIndex().get(folder.toString(), "book-uuid-2", NO_SESSIONS))
+            .containsExactly("uuid-3");
+    }
+
+    @Test
+    public void replayJournal() throws Exception {
+        FilesystemReadingSessionsIndex index = new FilesystemReadingSessionsIndex();
+        index.put(folder.toString(), "book-uuid-1", "uuid-1", NO_SESSIONS);
+        index.put(folder.toString(), "book-uuid-1", "uuid-2", NO_SESSIONS);
+        index.put(folder.toString(), "book\t-uuid%09", "uuid-3", NO_SESSIONS);
+        index.put(folder.toString(), "book-uuid-2", "uuid-1", NO_SESSIONS);
+        index.remove(folder.toString(), "uuid-2", NO_SESSIONS);
+        index.put(folder.toString(), "book-uuid-1", "uuid-4", NO_SESSIONS);
+
+        FilesystemReadingSessionsIndex reopenedIndex = new FilesystemReadingSessionsIndex();
+        assertThat(reopenedIndex.get(folder.toString(), "book-uuid-1", NO_SESSIONS)).containsExactly("uuid-4");
+        assertThat(reopenedIndex.get(folder.toString(), "book-uuid-2", NO_SESSIONS)).containsExactly("uuid-1");
+        assertThat(reopenedIndex.get(folder.toString(), "book\t-uuid%09", NO_SESSIONS)).containsExactly("uuid-3");
+    }
+
+    @Test
+    public void rebuildJournalBehindTheFolder() throws Exception {
+        FilesystemReadingSessionsIndex index = new FilesystemReadingSessionsIndex();
+        index.put(folder.toString(), "book-uuid-1", "uuid-1", NO_SESSIONS);
+        Files.write(folder.resolve("uuid-2.json"), "{}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(folder,
+            FileTime.fromMillis(Files.getLastModifiedTime(folder).toMillis() + TimeUnit.SECONDS.toMillis(1)));
+
+        Map<String, String> sessions = new LinkedHashMap<>();
+        sessions.put("uuid-1", "book-uuid-1");
+        sessions.put("uuid-2", "book-uuid-1");
+        assertThat(new FilesystemReadingSessionsIndex().get(folder.toString(), "book-uuid-1", () -> sessions))
+            .containsExactly("uuid-1", "uuid-2");
+    }
+
+    @Test
+    public void dropIncompleteLastLine() throws Exception {
+        FilesystemReadingSessionsIndex index = new FilesystemReadingSessionsIndex();
+        index.put(folder.toString(), "book-uuid-1", "uuid-1", NO_SESSIONS);
+        Path journal = FilesystemReadingSessionsIndex.getJournalPath(folder);
+        Files.write(journal, "+\tbook-uuid-1\tuu".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        FilesystemReadingSessionsIndex reopenedIndex = new FilesystemReadingSessionsIndex();
+        assertThat(reopenedIndex.get(folder.toString(), "book-uuid-1", NO_SESSIONS)).containsExactly("uuid-1");
+        reopenedIndex.put(folder.toString(), "book-uuid-1", "uuid-2", NO_SESSIONS);
+
+        assertThat(new FilesystemReadingSessionsIndex().get(folder.toString(), "book-uuid-1", NO_SESSIONS))
+            .containsExactly("uuid-1", "uuid-2");
+    }
+
+    @Test
+    public void compactJournal() throws Exception {
+        FilesystemReadingSessionsIndex index = new FilesystemReadingSessionsIndex();
+        for(int i = 0; i < 1000; i++) {
+            index.put(folder.toString(), "book-uuid-1", "uuid-" + i, NO_SESSIONS);
+            index.remove(folder.toString(), "uuid-" + i, NO_SESSIONS);
+        }
+        index.put(folder.toString(), "book-uuid-1", "uuid-last", NO_SESSIONS);
+
+        assertThat(Files.readAllLines(FilesystemReadingSessionsIndex.getJournalPath(folder)).size()).isLessThan(100);
+        assertThat(new FilesystemReadingSessionsIndex().get(folder.toString(), "book-uuid-1", NO_SESSIONS))
+            .containsExactly("uuid-last");
+    }
+}
@@ -0,0 +1,121 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FilesystemUserRootsTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+
+    private Path libraryFolder;
+    private String firstRoot;
+    private String secondRoot;
+    private String thirdRoot;
+    private FilesystemUserRoots userRoots;
+
+    @Before
+    public void init() throws Exception {
+        libraryFolder = Paths.get(System.getProperty(TMPDIR), "library-roots-" + System.nanoTime());
+        firstRoot = libraryFolder.resolve("disk-1").toString();
+        secondRoot = libraryFolder.resolve("disk-2").toString();
+        thirdRoot = libraryFolder.resolve("disk-3").toString();
+    }
+
+    @After
+    public void clear() throws Exception {
+        if(userRoots != null) {
+            userRoots.close();
+        }
+        FileSystemUtils.deleteRecursively(new File(libraryFolder.toString()));
+    }
+
+    @Test
+    public void addingRootOnlyTakesUsersAwayFromTheOtherRoots() throws Exception {
+        FilesystemUserRoots twoRoots = createUserRoots(firstRoot, secondRoot);
+        FilesystemUserRoots threeRoots = createUserRoots(firstRoot, secondRoot, thirdRoot);
+        int[] usersPerRoot = new int[3];
+        for(int i = 0; i < 3000; i++) {
+            String user = "user-" + i;
+            String root = threeRoots.getTargetRoot(user);
+            if(!root.equals(thirdRoot)) {
+                assertThat(root).isEqualTo(twoRoots.getTargetRoot(user));
+            }
+            usersPerRoot[Arrays.asList(firstRoot, secondRoot, thirdRoot).indexOf(root)]++;
+        }
+        twoRoots.close();
+        threeRoots.close();
+
+        assertThat(usersPerRoot[0]).isGreaterThan(600);
+        assertThat(usersPerRoot[1]).isGreaterThan(600);
+        assertThat(usersPerRoot[2]).isGreaterThan(600);
+    }
+
+    @Test
+    public void moveUsersToTheRootTheyBelongTo() throws Exception {
+        FilesystemUserRoots probe = createUserRoots(firstRoot, secondRoot);
+        String user = findUserOf(probe, secondRoot);
+        probe.close();
+        Path booksFolder = Paths.get(firstRoot, user, "books");
+        Files.createDirectories(booksFolder);
+        Files.write(booksFolder.resolve("uuid-1.json"), "book-1".getBytes());
+
+        FilesystemFolderCache folderCache = mock(FilesystemFolderCache.class);
+        userRoots = createUserRoots(Arrays.asList(folderCache), firstRoot, secondRoot);
+        long deadline = System.currentTimeMillis() + 10000;
+        while(Files.exists(Paths.get(firstRoot, user)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(userRoots.getUserFolder(user)).isEqualTo(secondRoot + "/" + user);
+        assertThat(Files.readAllBytes(Paths.get(secondRoot, user, "books", "uuid-1.json"))).isEqualTo("book-1".getBytes());
+        assertThat(Files.exists(Paths.get(firstRoot, user))).isFalse();
+        verify(folderCache, atLeastOnce()).release(firstRoot + "/" + user + "/books");
+    }
+
+    @Test
+    public void singleRootComesFromConfiguration() throws Exception {
+        FilesystemConfiguration filesystemConfiguration = mock(FilesystemConfiguration.class);
+        when(filesystemConfiguration.getLibraryFolders()).thenReturn(Arrays.asList(firstRoot));
+        when(filesystemConfiguration.getLibraryFolder()).thenReturn(firstRoot);
+        userRoots = new FilesystemUserRoots(filesystemConfiguration, new FilesystemFileStorage());
+
+        assertThat(userRoots.getUserFolder("johndoe")).isEqualTo(firstRoot + "/johndoe");
+        assertThat(userRoots.write("johndoe", () -> "written")).isEqualTo("written");
+    }
+
+    private FilesystemUserRoots createUserRoots(String... roots) {
+        return createUserRoots(Collections.emptyList(), roots);
+    }
+
+    private FilesystemUserRoots createUserRoots(List<FilesystemFolderCache> folderCaches, String... roots) {
+        List<String> libraryFolders = Arrays.asList(roots);
+        FilesystemConfiguration filesystemConfiguration = mock(FilesystemConfiguration.class);
+        when(filesystemConfiguration.getLibraryFolders()).thenReturn(libraryFolders);
+        when(filesystemConfiguration.getRebalanceGrace()).thenReturn(0L);
+        return new FilesystemUserRoots(filesystemConfiguration, new FilesystemFileStorage(), folderCaches);
+    }
+
+    private String findUserOf(FilesystemUserRoots userRoots, String root) {
+        for(int i = 0; ; i++) {
+            String user = "user-" + i;
+            if(root.equals(userRoots.getTargetRoot(user))) {
+                return user;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.espressoprogrammer.library.persistence.filesystem;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FilesystemWriteBehindQueueTest {
+    private static final String USER = "johndoe";
+    private static final String TYPE = "reading-sessions";
+
+    @Test
+    public void writeLatestUpdateAfterDelay() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        try(FilesystemWriteBehindQueue queue = new FilesystemWriteBehindQueue(20, 10)) {
+            for(int i = 1; i <= 5; i++) {
+                String item = "item-" + i;
+                assertThat(queue.offer(USER, TYPE, "uuid-1", item, () -> written.add(item))).isTrue();
+            }
+            assertThat(queue.<String>get(USER, TYPE, "uuid-1")).isEqualTo(Optional.of("item-5"));
+
+            waitForPendingWrites(queue);
+
+            assertThat(written).containsExactly("item-5");
+            assertThat(queue.<String>get(USER, TYPE, "uuid-1")).isEmpty();
+        }
+    }
+
+    @Test
+    public void writePendingUpdatesOnClose() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        FilesystemWriteBehindQueue queue = new FilesystemWriteBehindQueue(60000, 10);
+        queue.offer(USER, TYPE, "uuid-1", "item-1", () -> written.add("item-1"));
+        queue.offer(USER, TYPE, "uuid-2", "item-2", () -> written.add("item-2"));
+
+        queue.close();
+
+        assertThat(written).containsExactlyInAnyOrder("item-1", "item-2");
+        assertThat(queue.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void writeThroughDiscardsPendingUpdate() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        try(FilesystemWriteBehindQueue queue = new FilesystemWriteBehindQueue(60000, 10)) {
+            queue.offer(USER, TYPE, "uuid-1", "item-1", () -> written.add("item-1"));
+
+            queue.writeThrough(USER, TYPE, "uuid-1", () -> written.add("item-2"));
+            queue.flush();
+
+            assertThat(written).containsExactly("item-2");
+        }
+    }
+
+    @Test
+    public void retryFailedWrite() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        AtomicInteger attempts = new AtomicInteger();
+        try(FilesystemWriteBehindQueue queue = new FilesystemWriteBehindQueue(5, 10)) {
+            queue.offer(USER, TYPE, "uuid-1", "item-1", () -> {
+                if(attempts.incrementAndGet() < 3) {
+                    throw new UncheckedIOException(new IOException("Disk full"));
+                }
+                written.add("item-1");
+            });
+
+            waitForPendingWrites(queue);
+
+            assertThat(written).containsExactly("item-1");
+            assertThat(queue.getFailureCount()).isEqualTo(2);
+            assertThat(queue.getLostCount()).isEqualTo(0);
+            assertThat(queue.isHealthy()).isTrue();
+        }
+    }
+
+    @Test
+    public void reportLostUpdateToTheNextWrite() throws Exception {
+        try(FilesystemWriteBehindQueue queue = new FilesystemWriteBehindQueue(5, 10, 3)) {
+            queue.offer(USER, TYPE, "uuid-1", "item-1", () -> {
+                throw new UncheckedIOException(new IOException("Disk full"));
+            });
+
+            waitForPendingWrites(queue);
+
+            assertThat(queue.getFailureCount()).isEqualTo(3);
+            assertThat(queue.getLostCount()).isEqualTo(1);
+            assertThat(queue.isHealthy()).isFalse();
+            assertThatThrownBy(() -> queue.offer(USER, TYPE, "uuid-1", "item-2", () -> {}))
+                .isInstanceOf(FilesystemDaoException.class);
+            assertThat(queue.isHealthy()).isTrue();
+            assertThat(queue.offer(USER, TYPE, "uuid-1", "item-2", () -> {})).isTrue();
+        }
+    }
+
+    @Test
+    public void disabledQueueTakesNothing() throws Exception {
+        FilesystemWriteBehindQueue queue = new FilesystemWriteBehindQueue(0, 10);
+
+        assertThat(queue.offer(USER, TYPE, "uuid-1", "item-1", () -> {})).isFalse();
+        assertThat(queue.<String>get(USER, TYPE, "uuid-1")).isEmpty();
+    }
+
+    private void waitForPendingWrites(FilesystemWriteBehindQueue queue) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(queue.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.espressoprogrammer.library.persistence.h2;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.DuplicateIsbnException;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+
+public class H2BooksDaoTest {
+    private static final String JOHN_DOE_USER = "johndoe";
+    private static final String JANE_DOE_USER = "janedoe";
+
+    private JdbcConnectionPool dataSource;
+    private H2BooksDao booksDao;
+
+    @Before
+    public void init() throws Exception {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:library-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        H2Schema.create(dataSource);
+        booksDao = new H2BooksDao();
+        booksDao.dataSource = dataSource;
+    }
+
+    @After
+    public void clear() throws Exception {
+        dataSource.getConnection().createStatement().execute("SHUTDOWN");
+        dataSource.dispose();
+    }
+
+    @Test
+    public void createAndGetUserBooks() throws Exception {
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER)).isEmpty();
+
+        Book firstBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        Book secondBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-2.json"));
+        booksDao.createUserBook(JANE_DOE_USER, getTestBook("uuid-3.json"));
+
+        assertThat(firstBook).isEqualTo(new Book(firstBook.getUuid(),
+            "isbn10-1",
+            "isbn13-1",
+            "Title 1",
+            Arrays.asList("First1 Last1"),
+            "image-1",
+            100));
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER)).containsExactly(firstBook, secondBook);
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, secondBook.getUuid())).contains(secondBook);
+        assertThat(booksDao.getUserBook(JANE_DOE_USER, secondBook.getUuid())).isEmpty();
+    }
+
+    @Test
+    public void searchUserBooks() throws Exception {
+        Book firstBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        Book secondBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-2.json"));
+
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "title 2")).containsExactly(secondBook);
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "ISBN13-1")).containsExactly(firstBook);
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "last1")).containsExactly(firstBook);
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "title")).containsExactly(firstBook, secondBook);
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "%")).isEmpty();
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "")).hasSize(2);
+    }
+
+    @Test
+    public void updateUserBook() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        Book update = new Book(null, "1617293105", null, "New title", Arrays.asList("Author 2", "Author 1"), null, 200);
+
+        assertThat(booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), update, ItemVersions.of(book)))
+            .contains(book.getUuid());
+        assertThat(booksDao.updateUserBook(JOHN_DOE_USER, "missing", update)).isEmpty();
+
+        Book updatedBook = booksDao.getUserBook(JOHN_DOE_USER, book.getUuid()).get();
+        assertThat(updatedBook).isEqualTo(new Book(book.getUuid(), "1617293105", null, "New title",
+            Arrays.asList("Author 2", "Author 1"), null, 200));
+        assertThat(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "978-1-61729-310-8")).contains(updatedBook);
+        assertThat(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "isbn10-1")).isEmpty();
+    }
+
+    @Test
+    public void updateUserBookWithStaleVersion() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        String staleVersion = ItemVersions.of(book);
+        booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), getTestBook("uuid-2.json"));
+
+        try {
+            booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid(), staleVersion);
+            fail("It should fail with " + VersionMismatchException.class.getSimpleName());
+        } catch(VersionMismatchException ex) {
+            assertThat(ex.getUuid()).isEqualTo(book.getUuid());
+        }
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, book.getUuid())).isPresent();
+    }
+
+    @Test
+    public void createUserBookWithExistingIsbn() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
+
+        Book sameIsbn10 = new Book(null, "1617293105", null, "Other title", Arrays.asList("Other author"), null, 100);
+        try {
+            booksDao.createUserBook(JOHN_DOE_USER, sameIsbn10);
+            fail("It should fail with " + DuplicateIsbnException.class.getSimpleName());
+        } catch(DuplicateIsbnException ex) {
+            assertThat(ex.getIsbn()).isEqualTo("9781617293108");
+            assertThat(ex.getExistingUuid()).isEqualTo(book.getUuid());
+        }
+
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER)).hasSize(1);
+        assertThat(booksDao.createUserBook(JANE_DOE_USER, sameIsbn10).getUuid()).isNotNull();
+    }
+
+    @Test
+    public void deleteUserBookReleasesItsIsbn() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+
+        assertThat(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid())).isEqualTo(Optional.of(book.getUuid()));
+        assertThat(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid())).isEmpty();
+
+        List<Book> books = booksDao.getUserBooks(JOHN_DOE_USER);
+        assertThat(books).isEmpty();
+        assertThat(booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json")).getUuid()).isNotNull();
+    }
+}
@@ -0,0 +1,136 @@
+package com.espressoprogrammer.library.persistence.h2;
+
+import com.espressoprogrammer.library.dto.DateReadingSession;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestReadingSession;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+
+public class H2ReadingSessionsDaoTest {
+    private static final String JOHN_DOE_USER = "johndoe";
+    private static final String BOOK_UUID = "1e4014b1-a551-4310-9f30-590c3140b695";
+
+    private JdbcConnectionPool dataSource;
+    private H2ReadingSessionsDao readingSessionsDao;
+
+    @Before
+    public void init() throws Exception {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:library-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        H2Schema.create(dataSource);
+        readingSessionsDao = new H2ReadingSessionsDao();
+        readingSessionsDao.dataSource = dataSource;
+    }
+
+    @After
+    public void clear() throws Exception {
+        dataSource.getConnection().createStatement().execute("SHUTDOWN");
+        dataSource.dispose();
+    }
+
+    @Test
+    public void createAndGetUserReadingSessions() throws Exception {
+        ReadingSession readingSession = getTestReadingSession(BOOK_UUID + "-three-consecutive-readings.json");
+
+        ReadingSession firstReadingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession);
+        ReadingSession secondReadingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER, BOOK_UUID,
+            new ReadingSession(null, BOOK_UUID, null, new ArrayList<>()));
+        readingSessionsDao.createUserReadingSession(JOHN_DOE_USER, "other-book", readingSession.copy(null, "other-book",
+            null, new ArrayList<>()));
+
+        assertThat(firstReadingSession.getUuid()).isNotEqualTo(readingSession.getUuid());
+        assertThat(firstReadingSession.getDateReadingSessions()).isEqualTo(readingSession.getDateReadingSessions());
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID))
+            .containsExactly(firstReadingSession, secondReadingSession);
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, firstReadingSession.getUuid()))
+            .contains(firstReadingSession);
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, "missing")).isEmpty();
+    }
+
+    @Test
+    public void updateUserReadingSession() throws Exception {
+        ReadingSession readingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER, BOOK_UUID,
+            getTestReadingSession(BOOK_UUID + "-two-consecutive-readings.json"));
+        List<DateReadingSession> dateReadingSessions = new ArrayList<>(readingSession.getDateReadingSessions());
+        dateReadingSessions.add(new DateReadingSession("2017-03-05", 400, "Section 4"));
+
+        ReadingSession appended = readingSession.copy(null, BOOK_UUID, "2019-04-30", dateReadingSessions);
+        assertThat(readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(), appended,
+            ItemVersions.of(readingSession))).contains(readingSession.getUuid());
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid()))
+            .contains(appended.copy(readingSession.getUuid(), BOOK_UUID, "2019-04-30", dateReadingSessions));
+
+        List<DateReadingSession> replaced = Arrays.asList(new DateReadingSession("2017-03-01", 10, null));
+        readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(),
+            readingSession.copy(null, BOOK_UUID, null, replaced));
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid()).get()
+            .getDateReadingSessions()).isEqualTo(replaced);
+
+        assertThat(readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, "missing", appended)).isEmpty();
+    }
+
+    @Test
+    public void deleteUserReadingSessionWithStaleVersion() throws Exception {
+        ReadingSession readingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER, BOOK_UUID,
+            getTestReadingSession(BOOK_UUID + "-one-reading.json"));
+        String staleVersion = ItemVersions.of(readingSession);
+        readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(),
+            readingSession.copy(null, BOOK_UUID, "2020-01-01", readingSession.getDateReadingSessions()));
+
+        try {
+            readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(), staleVersion);
+            fail("It should fail with " + VersionMismatchException.class.getSimpleName());
+        } catch(VersionMismatchException ex) {
+            assertThat(ex.getUuid()).isEqualTo(readingSession.getUuid());
+        }
+
+        assertThat(readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid()))
+            .contains(readingSession.getUuid());
+        assertThat(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)).isEmpty();
+    }
+
+    @Test
+    public void concurrentVersionedUpdatesLoseNoDateReadingSession() throws Exception {
+        ReadingSession readingSession = readingSessionsDao.createUserReadingSession(JOHN_DOE_USER, BOOK_UUID,
+            new ReadingSession(null, BOOK_UUID, null, new ArrayList<>()));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            String date = String.format("2017-03-%02d", i + 1);
+            futures.add(executor.submit(() -> {
+                while(true) {
+                    ReadingSession current = readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid()).get();
+                    List<DateReadingSession> dateReadingSessions = new ArrayList<>(current.getDateReadingSessions());
+                    dateReadingSessions.add(new DateReadingSession(date, 1, null));
+                    try {
+                        readingSessionsDao.updateUserReadingSession(JOHN_DOE_USER, BOOK_UUID, current.getUuid(),
+                            current.copy(null, BOOK_UUID, null, dateReadingSessions), ItemVersions.of(current));
+                        return null;
+                    } catch(VersionMismatchException ex) {
+                        // Someone else added theirs first, try again
+                    }
+                }
+            }));
+        }
+        for(Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid()).get()
+            .getDateReadingSessions()).hasSize(20);
+    }
+}
@@ -0,0 +1,90 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.DuplicateIsbnException;
+import com.espressoprogrammer.library.persistence.ItemVersions;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+
+public class MemoryBooksDaoTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+    private static final String JOHN_DOE_USER = "johndoe";
+    private static final String JANE_DOE_USER = "janedoe";
+
+    private String folder;
+    private MemoryBooksDao booksDao;
+
+    @Before
+    public void init() throws Exception {
+        folder = System.getProperty(TMPDIR) + "/library-memory-" + System.nanoTime();
+        booksDao = new MemoryBooksDao();
+        booksDao.store = new MemoryStore(Paths.get(folder), false, 0, 0);
+    }
+
+    @After
+    public void clear() throws Exception {
+        booksDao.store.close();
+        FileSystemUtils.deleteRecursively(new File(folder));
+    }
+
+    @Test
+    public void createGetAndSearchUserBooks() throws Exception {
+        Book firstBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        Book secondBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-2.json"));
+        booksDao.createUserBook(JANE_DOE_USER, getTestBook("uuid-3.json"));
+
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER)).containsExactly(firstBook, secondBook);
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, secondBook.getUuid())).contains(secondBook);
+        assertThat(booksDao.getUserBook(JANE_DOE_USER, secondBook.getUuid())).isEmpty();
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "title 2")).containsExactly(secondBook);
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER, "last1")).containsExactly(firstBook);
+        assertThat(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "isbn13-1")).contains(firstBook);
+    }
+
+    @Test
+    public void updateUserBookWithExistingIsbn() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
+        Book otherBook = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+
+        Book sameIsbn10 = new Book(null, "1617293105", null, "Other title", Arrays.asList("Other author"), null, 100);
+        try {
+            booksDao.updateUserBook(JOHN_DOE_USER, otherBook.getUuid(), sameIsbn10);
+            fail("It should fail with " + DuplicateIsbnException.class.getSimpleName());
+        } catch(DuplicateIsbnException ex) {
+            assertThat(ex.getIsbn()).isEqualTo("9781617293108");
+            assertThat(ex.getExistingUuid()).isEqualTo(book.getUuid());
+        }
+
+        assertThat(booksDao.getUserBook(JOHN_DOE_USER, otherBook.getUuid())).contains(otherBook);
+        assertThat(booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), sameIsbn10)).contains(book.getUuid());
+    }
+
+    @Test
+    public void deleteUserBookWithStaleVersion() throws Exception {
+        Book book = booksDao.createUserBook(JOHN_DOE_USER, getTestBook("uuid-1.json"));
+        String staleVersion = ItemVersions.of(book);
+        booksDao.updateUserBook(JOHN_DOE_USER, book.getUuid(), getTestBook("uuid-2.json"));
+
+        try {
+            booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid(), staleVersion);
+            fail("It should fail with " + VersionMismatchException.class.getSimpleName());
+        } catch(VersionMismatchException ex) {
+            assertThat(ex.getUuid()).isEqualTo(book.getUuid());
+        }
+
+        assertThat(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid())).contains(book.getUuid());
+        assertThat(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid())).isEmpty();
+        assertThat(booksDao.getUserBooks(JOHN_DOE_USER)).isEmpty();
+    }
+}
@@ -0,0 +1,108 @@
+package com.espressoprogrammer.library.persistence.memory;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MemoryStoreTest {
+    private static final String TMPDIR = "java.io.tmpdir";
+    private static final String JOHN_DOE_USER = "johndoe";
+
+    private Path folder;
+    private MemoryStore store;
+
+    @Before
+    public void init() throws Exception {
+        folder = Paths.get(System.getProperty(TMPDIR) + "/library-memory-" + System.nanoTime());
+        store = new MemoryStore(folder, false, 0, 0);
+    }
+
+    @After
+    public void clear() throws Exception {
+        store.close();
+        FileSystemUtils.deleteRecursively(new File(folder.toString()));
+    }
+
+    @Test
+    public void replayLogAfterSnapshot() throws Exception {
+        for(int i = 0; i < 5; i++) {
+            putBook("uuid-" + i, "Title " + i);
+        }
+        store.snapshot();
+        putBook("uuid-1", "New title 1");
+        store.update(JOHN_DOE_USER, items -> Optional.of(MemoryChange.deleteBook("uuid-2")));
+        store.update(JOHN_DOE_USER, items -> Optional.of(MemoryChange.putReadingSession(
+            new ReadingSession("session-1", "uuid-1", null, new ArrayList<>()))));
+
+        assertThat(files("snapshot-")).hasSize(1);
+        assertThat(files("wal-")).hasSize(1);
+
+        // Open the folder again without closing the store, as after a crash
+        store = new MemoryStore(folder, false, 0, 0);
+        assertThat(store.getRecoveredChanges()).isEqualTo(3);
+        assertThat(titles(store)).containsExactly("Title 0", "New title 1", "Title 3", "Title 4");
+        assertThat(store.get(JOHN_DOE_USER).getReadingSessions("uuid-1")).hasSize(1);
+        assertThat(store.get(JOHN_DOE_USER).findIsbn("isbn-uuid-2")).isEmpty();
+    }
+
+    @Test
+    public void closeWritesSnapshot() throws Exception {
+        putBook("uuid-1", "Title 1");
+        store.close();
+
+        store = new MemoryStore(folder, false, 0, 0);
+        assertThat(store.getRecoveredChanges()).isZero();
+        assertThat(titles(store)).containsExactly("Title 1");
+    }
+
+    @Test
+    public void skipTornRecordAtTheEndOfTheLog() throws Exception {
+        putBook("uuid-1", "Title 1");
+        putBook("uuid-2", "Title 2");
+        Path segment = files("wal-").get(0);
+        store.update(JOHN_DOE_USER, items -> Optional.of(MemoryChange.deleteBook("uuid-2")));
+        long size = Files.size(segment);
+        Files.write(segment, new byte[] {0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        store = new MemoryStore(folder, false, 0, 0);
+        assertThat(store.getRecoveredChanges()).isEqualTo(3);
+        assertThat(titles(store)).containsExactly("Title 1");
+        assertThat(Files.size(segment)).isEqualTo(size);
+    }
+
+    private void putBook(String uuid, String title) {
+        store.update(JOHN_DOE_USER, items -> Optional.of(MemoryChange.putBook(
+            new Book(uuid, "isbn-" + uuid, null, title, Arrays.asList("Author"), null, 100))));
+    }
+
+    private List<String> titles(MemoryStore memoryStore) {
+        return memoryStore.get(JOHN_DOE_USER).getBooks().stream()
+            .map(Book::getTitle)
+            .collect(toList());
+    }
+
+    private List<Path> files(String prefix) throws Exception {
+        try(Stream<Path> paths = Files.list(folder)) {
+            return paths
+                .filter(p -> p.getFileName().toString().startsWith(prefix))
+                .collect(toList());
+        }
+    }
+}
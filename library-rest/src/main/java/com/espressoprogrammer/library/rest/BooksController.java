@@ -1,8 +1,12 @@
 package com.espressoprogrammer.library.rest;
 
 import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.BooksPage;
+import com.espressoprogrammer.library.persistence.BooksSort;
+import com.espressoprogrammer.library.persistence.StoredJson;
 import com.espressoprogrammer.library.service.BooksService;
 import com.espressoprogrammer.library.service.BooksException;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,13 +19,35 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static com.espressoprogrammer.library.rest.EntityTags.isNotModified;
+import static com.espressoprogrammer.library.rest.EntityTags.toVersion;
+import static com.espressoprogrammer.library.rest.FieldProjections.isProjection;
+import static com.espressoprogrammer.library.rest.EntityTags.withEntityTag;
+import static com.espressoprogrammer.library.rest.JsonStreams.NDJSON_VARIANT;
+import static com.espressoprogrammer.library.rest.JsonStreams.acceptsNdjson;
+import static com.espressoprogrammer.library.rest.StoredJsonResponses.send;
+import static com.espressoprogrammer.library.rest.StoredJsonResponses.startJsonArray;
+import static org.springframework.util.StringUtils.hasLength;
 
 @RestController
 public class BooksController {
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final String NEXT_CURSOR = "Next-Cursor";
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Autowired
@@ -30,17 +56,62 @@ public class BooksController {
     @Autowired
     private HttpStatusConverter httpStatusConverter;
 
+    @Autowired
+    private FieldProjections fieldProjections;
+
+    /**
+     * Streams the books of the user. Everything that can fail the request is done before the first byte is
+     * sent; once the books are being written the status can't change anymore, so an error aborts the
+     * response instead.
+     */
     @GetMapping(value = "/users/{user}/books")
-    public ResponseEntity<List<Book>> getUserBooks(@PathVariable("user") String user,
-                                                   @RequestParam(value = "searchText", required = false) String searchText)  {
-        try {
-            logger.debug("Look for books for user {}", user);
+    public void getUserBooks(@PathVariable("user") String user,
+                             @RequestParam(value = "searchText", required = false) String searchText,
+                             @RequestParam(value = "limit", required = false) Integer limit,
+                             @RequestParam(value = "cursor", required = false) String cursor,
+                             @RequestParam(value = "sort", required = false) String sort,
+                             @RequestParam(value = "fields", required = false) String fields,
+                             @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                             WebRequest webRequest,
+                             HttpServletResponse response) throws IOException {
+        logger.debug("Look for books for user {}", user);
 
-            List<Book> userBooks = booksService.getUserBooks(user, searchText);
-            return new ResponseEntity<>(userBooks, HttpStatus.OK);
+        boolean ndjson = acceptsNdjson(accept);
+        ObjectWriter writer;
+        BooksPage page = null;
+        try {
+            writer = fieldProjections.writer(Book.class, fields);
+            // The version is read before the books, a change in between can only make it older than them
+            if(isNotModified(booksService.getUserBooksVersion(user), ndjson ? NDJSON_VARIANT : "", webRequest)) {
+                return;
+            }
+            if(limit != null || cursor != null || sort != null) {
+                page = getUserBooksPage(user, searchText, limit, cursor, sort, response);
+            }
+        } catch (IllegalArgumentException ex) {
+            logger.debug("Invalid request for books", ex);
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
         } catch (Exception ex) {
             logger.error("Error on looking for books", ex);
-            return new ResponseEntity(HttpStatus.INTERNAL_SERVER_ERROR);
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            return;
+        }
+
+        if(page != null) {
+            JsonStreams.write(page.getBooks().stream(), ndjson, writer, response);
+            return;
+        }
+
+        if(!ndjson && !hasLength(searchText) && !isProjection(fields)) {
+            startJsonArray(response);
+            if(booksService.writeUserBooksJson(user, Channels.newChannel(response.getOutputStream()))) {
+                return;
+            }
+        }
+
+        try(Stream<Book> userBooks = booksService.streamUserBooks(user, searchText)) {
+            JsonStreams.write(userBooks, ndjson, writer, response);
         }
     }
 
@@ -51,7 +122,7 @@ public class BooksController {
             logger.debug("Add new book for user {}", user);
 
             Book persistedBook = booksService.createUserBook(user, book);
-            HttpHeaders httpHeaders = new HttpHeaders();
+            HttpHeaders httpHeaders = withEntityTag(booksService.getVersion(persistedBook));
             httpHeaders.add(HttpHeaders.LOCATION, String.format("/users/%s/books/%s", user, persistedBook.getUuid()));
             return new ResponseEntity(persistedBook, httpHeaders, HttpStatus.CREATED);
         } catch (BooksException ex) {
@@ -65,12 +136,47 @@ public class BooksController {
 
     @GetMapping(value = "/users/{user}/books/{uuid}")
     public ResponseEntity<Book> getUserBook(@PathVariable("user") String user,
-                                            @PathVariable("uuid") String uuid)  {
+                                            @PathVariable("uuid") String uuid,
+                                            @RequestParam(value = "fields", required = false) String fields,
+                                            HttpServletResponse response)  {
         try {
             logger.debug("Look for book for user {} with uuid {} ", user, uuid);
 
+            if(isProjection(fields)) {
+                ObjectWriter writer = fieldProjections.writer(Book.class, fields);
+                // Entity tags are versions of whole books, a part of a book gets none
+                JsonStreams.write(booksService.getUserBook(user, uuid), writer, response);
+                return null;
+            }
+
+            Optional<StoredJson> storedJson = booksService.getUserBookJson(user, uuid);
+            if(storedJson.isPresent()) {
+                send(storedJson.get(), response);
+                return null;
+            }
+
             Book book = booksService.getUserBook(user, uuid);
-            return new ResponseEntity(book, HttpStatus.OK);
+            return new ResponseEntity(book, withEntityTag(booksService.getVersion(book)), HttpStatus.OK);
+        } catch (BooksException ex) {
+            logger.error("Error on looking for books", ex);
+            return new ResponseEntity(httpStatusConverter.from(ex));
+        } catch (IllegalArgumentException ex) {
+            logger.debug("Invalid request for book", ex);
+            return new ResponseEntity(HttpStatus.BAD_REQUEST);
+        } catch (Exception ex) {
+            logger.error("Error on looking for books", ex);
+            return new ResponseEntity(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @GetMapping(value = "/users/{user}/books/by-isbn/{isbn}")
+    public ResponseEntity<Book> getUserBookByIsbn(@PathVariable("user") String user,
+                                                  @PathVariable("isbn") String isbn)  {
+        try {
+            logger.debug("Look for book for user {} with ISBN {} ", user, isbn);
+
+            Book book = booksService.getUserBookByIsbn(user, isbn);
+            return new ResponseEntity(book, withEntityTag(booksService.getVersion(book)), HttpStatus.OK);
         } catch (BooksException ex) {
             logger.error("Error on looking for books", ex);
             return new ResponseEntity(httpStatusConverter.from(ex));
@@ -83,11 +189,12 @@ public class BooksController {
     @PutMapping(value = "/users/{user}/books/{uuid}")
     public ResponseEntity updateUserBook(@PathVariable("user") String user,
                                          @PathVariable("uuid") String uuid,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
                                          @RequestBody Book book)  {
         try {
             logger.debug("Update book for user {} with uuid {} ", user, uuid);
 
-            booksService.updateUserBook(user, uuid, book);
+            booksService.updateUserBook(user, uuid, book, toVersion(ifMatch));
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         } catch (BooksException ex) {
             logger.error("Error on updating book", ex);
@@ -100,11 +207,12 @@ public class BooksController {
 
     @DeleteMapping(value= "/users/{user}/books/{uuid}")
     public ResponseEntity deleteUserBook(@PathVariable("user") String user,
-                                               @PathVariable("uuid") String uuid)  {
+                                               @PathVariable("uuid") String uuid,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)  {
         try {
             logger.debug("Delete book for user {} with uuid {}", user, uuid);
 
-            booksService.deleteUserBook(user, uuid);
+            booksService.deleteUserBook(user, uuid, toVersion(ifMatch));
 
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         } catch (BooksException ex) {
@@ -116,4 +224,33 @@ public class BooksController {
         }
     }
 
+    /**
+     * Looks up one page of books and sets the URL of the next page in the {@code Link} header and its cursor
+     * in the {@code Next-Cursor} header. Both are missing on the last page.
+     */
+    private BooksPage getUserBooksPage(String user,
+                                       String searchText,
+                                       Integer limit,
+                                       String cursor,
+                                       String sort,
+                                       HttpServletResponse response) {
+        int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+        if(pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size " + pageSize + " isn't between 1 and " + MAX_PAGE_SIZE);
+        }
+        BooksSort booksSort = sort != null ? BooksSort.valueOf(sort.toUpperCase(Locale.ROOT)) : BooksSort.CREATED;
+
+        BooksPage page = booksService.getUserBooksPage(user, searchText, booksSort, cursor, pageSize);
+        if(page.getNextCursor() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("limit", pageSize)
+                .replaceQueryParam("sort", booksSort.name().toLowerCase(Locale.ROOT))
+                .replaceQueryParam("cursor", page.getNextCursor())
+                .toUriString();
+            response.setHeader(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+            response.setHeader(NEXT_CURSOR, page.getNextCursor());
+        }
+        return page;
+    }
+
 }
@@ -0,0 +1,63 @@
+package com.espressoprogrammer.library.rest;
+
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.Optional;
+
+/**
+ * Maps item versions to entity tags and back.
+ * <p>
+ * Versions are sent as strong entity tags in the {@code ETag} header. A request that sends one of them in
+ * {@code If-Match} changes the item only if it is still at that version, otherwise it gets 412. A missing
+ * {@code If-Match} or {@code If-Match: *} changes the item whatever its version is.
+ * <p>
+ * Lists get the version of the whole collection instead, with its last modified time, so a request with
+ * {@code If-None-Match} or {@code If-Modified-Since} gets 304 while the collection stays the same.
+ */
+final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    static HttpHeaders withEntityTag(HttpHeaders httpHeaders, String version) {
+        if(version != null) {
+            httpHeaders.setETag("\"" + version + "\"");
+        }
+        return httpHeaders;
+    }
+
+    static HttpHeaders withEntityTag(String version) {
+        return withEntityTag(new HttpHeaders(), version);
+    }
+
+    /**
+     * Sets the entity tag and the last modified time of the collection on the response. Returns true when the
+     * request already has this version of the collection, the response being 304 then. Representations of
+     * the same collection tell their tags apart by the variant.
+     */
+    static boolean isNotModified(Optional<CollectionVersion> version, String variant, WebRequest webRequest) {
+        return version.isPresent()
+            && webRequest.checkNotModified(version.get().getTag() + variant, version.get().getLastModified());
+    }
+
+    /**
+     * Returns the version the request expects, or null when it doesn't expect any.
+     */
+    static String toVersion(String ifMatch) {
+        if(ifMatch == null) {
+            return null;
+        }
+
+        String entityTag = ifMatch.trim();
+        if(entityTag.isEmpty() || entityTag.equals("*")) {
+            return null;
+        }
+        if(entityTag.length() > 1 && entityTag.startsWith("\"") && entityTag.endsWith("\"")) {
+            return entityTag.substring(1, entityTag.length() - 1);
+        }
+        // Weak or malformed tags never match, If-Match uses the strong comparison
+        return entityTag;
+    }
+}
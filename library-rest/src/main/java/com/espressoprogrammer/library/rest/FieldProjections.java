@@ -0,0 +1,73 @@
+package com.espressoprogrammer.library.rest;
+
+import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.ReadingSession;
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Writers of books and reading sessions that serialize only the fields a request asks for with the
+ * {@code fields} parameter, a comma separated list of top level field names.
+ * <p>
+ * The fields that weren't asked for are skipped by the serializer, no pruned copy of the item is made.
+ * Items nested in a book or a reading session are always written whole. Without a fields parameter the
+ * items are written whole too.
+ */
+@Component
+class FieldProjections {
+    private static final String FILTER = "fields";
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    FieldProjections(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper.copy()
+            .addMixIn(Book.class, Projected.class)
+            .addMixIn(ReadingSession.class, Projected.class)
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    static boolean isProjection(String fields) {
+        return StringUtils.hasLength(fields);
+    }
+
+    /**
+     * @throws IllegalArgumentException if one of the fields isn't a field of the type
+     */
+    ObjectWriter writer(Class<?> type, String fields) {
+        SimpleBeanPropertyFilter filter = SimpleBeanPropertyFilter.serializeAll();
+        if(isProjection(fields)) {
+            Set<String> names = new LinkedHashSet<>(Arrays.asList(StringUtils.tokenizeToStringArray(fields, ",")));
+            Set<String> knownNames = objectMapper.getSerializationConfig()
+                .introspect(objectMapper.constructType(type))
+                .findProperties().stream()
+                .map(BeanPropertyDefinition::getName)
+                .collect(toSet());
+            for(String name : names) {
+                if(!knownNames.contains(name)) {
+                    throw new IllegalArgumentException(name + " isn't a field of " + type.getSimpleName());
+                }
+            }
+            filter = SimpleBeanPropertyFilter.filterOutAllExcept(names);
+        }
+        return objectMapper.writer(new SimpleFilterProvider().addFilter(FILTER, filter));
+    }
+
+    @JsonFilter(FILTER)
+    private interface Projected {
+    }
+}
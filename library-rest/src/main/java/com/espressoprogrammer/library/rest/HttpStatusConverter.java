@@ -16,6 +16,8 @@ public class HttpStatusConverter {
                 return HttpStatus.FORBIDDEN;
             case BOOK_NOT_FOUND:
                 return HttpStatus.NOT_FOUND;
+            case BOOK_VERSION_MISMATCH:
+                return HttpStatus.PRECONDITION_FAILED;
             default:
                 return HttpStatus.INTERNAL_SERVER_ERROR;
         }
@@ -30,6 +32,8 @@ public class HttpStatusConverter {
             case READING_SESSION_NOT_FOUND:
             case DATE_READING_SESSION_NOT_FOUND:
                 return HttpStatus.NOT_FOUND;
+            case READING_SESSION_VERSION_MISMATCH:
+                return HttpStatus.PRECONDITION_FAILED;
             default:
                 return HttpStatus.INTERNAL_SERVER_ERROR;
         }
@@ -0,0 +1,69 @@
+package com.espressoprogrammer.library.rest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes items to the response one at a time as they are read, so neither the list of items nor the
+ * response body is ever held whole.
+ * <p>
+ * Items go out either as a JSON array or, when the client accepts {@value #APPLICATION_NDJSON_VALUE}, as one
+ * JSON document per line. The first item is flushed as soon as it is written, later ones as the buffers
+ * fill up. Once the first item is sent the status can't change anymore, an error after it cuts the body
+ * short.
+ */
+final class JsonStreams {
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    static final String NDJSON_VARIANT = "-ndjson";
+
+    private JsonStreams() {
+    }
+
+    static boolean acceptsNdjson(String accept) {
+        return accept != null && MediaType.parseMediaTypes(accept).stream()
+            .anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(MediaType.valueOf(APPLICATION_NDJSON_VALUE)));
+    }
+
+    static <T> void write(Stream<T> items, boolean ndjson, ObjectWriter writer, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(ndjson ? APPLICATION_NDJSON_VALUE : MediaType.APPLICATION_JSON_VALUE);
+
+        try(JsonGenerator generator = writer.getFactory().createGenerator(response.getOutputStream())) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            if(!ndjson) {
+                generator.writeStartArray();
+            }
+
+            boolean first = true;
+            Iterator<T> iterator = items.iterator();
+            while(iterator.hasNext()) {
+                writer.writeValue(generator, iterator.next());
+                if(ndjson) {
+                    generator.writeRaw('\n');
+                }
+                if(first) {
+                    generator.flush();
+                    first = false;
+                }
+            }
+
+            if(!ndjson) {
+                generator.writeEndArray();
+            }
+        }
+    }
+
+    static void write(Object item, ObjectWriter writer, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        writer.writeValue(response.getOutputStream(), item);
+    }
+}
@@ -3,9 +3,12 @@ package com.espressoprogrammer.library.rest;
 import com.espressoprogrammer.library.dto.DateReadingSession;
 import com.espressoprogrammer.library.dto.ReadingSession;
 import com.espressoprogrammer.library.dto.ReadingSessionProgress;
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import com.espressoprogrammer.library.persistence.StoredJson;
 import com.espressoprogrammer.library.service.BooksException;
 import com.espressoprogrammer.library.service.ReadingSessionsException;
 import com.espressoprogrammer.library.service.ReadingSessionsService;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,9 +21,24 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static com.espressoprogrammer.library.rest.EntityTags.isNotModified;
+import static com.espressoprogrammer.library.rest.EntityTags.toVersion;
+import static com.espressoprogrammer.library.rest.FieldProjections.isProjection;
+import static com.espressoprogrammer.library.rest.EntityTags.withEntityTag;
+import static com.espressoprogrammer.library.rest.JsonStreams.NDJSON_VARIANT;
+import static com.espressoprogrammer.library.rest.JsonStreams.acceptsNdjson;
+import static com.espressoprogrammer.library.rest.StoredJsonResponses.send;
 
 @RestController
 public class ReadingSessionsController {
@@ -32,17 +50,41 @@ public class ReadingSessionsController {
     @Autowired
     private HttpStatusConverter httpStatusConverter;
 
+    @Autowired
+    private FieldProjections fieldProjections;
+
+    /**
+     * Streams the reading sessions of the book. Once they are being written the status can't change anymore,
+     * so an error aborts the response instead.
+     */
     @GetMapping(value = "/users/{user}/books/{bookUuid}/reading-sessions")
-    public ResponseEntity<List<ReadingSession>> getUserReadingSessions(@PathVariable("user") String user,
-                                                                       @PathVariable("bookUuid") String bookUuid)  {
-        try {
-            logger.debug("Look for reading sessions for user {}", user);
+    public void getUserReadingSessions(@PathVariable("user") String user,
+                                       @PathVariable("bookUuid") String bookUuid,
+                                       @RequestParam(value = "fields", required = false) String fields,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                       WebRequest webRequest,
+                                       HttpServletResponse response) throws IOException {
+        logger.debug("Look for reading sessions for user {}", user);
 
-            List<ReadingSession> userReadingSessions = readingSessionsService.getUserReadingSessions(user, bookUuid);
-            return new ResponseEntity<>(userReadingSessions, HttpStatus.OK);
+        boolean ndjson = acceptsNdjson(accept);
+        ObjectWriter writer;
+        try {
+            writer = fieldProjections.writer(ReadingSession.class, fields);
+            if(isNotModified(readingSessionsService.getUserReadingSessionsVersion(user), ndjson ? NDJSON_VARIANT : "", webRequest)) {
+                return;
+            }
+        } catch (IllegalArgumentException ex) {
+            logger.debug("Invalid request for reading sessions", ex);
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
         } catch (Exception ex) {
             logger.error("Error on looking for reading sessions", ex);
-            return new ResponseEntity(HttpStatus.INTERNAL_SERVER_ERROR);
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            return;
+        }
+
+        try(Stream<ReadingSession> userReadingSessions = readingSessionsService.streamUserReadingSessions(user, bookUuid)) {
+            JsonStreams.write(userReadingSessions, ndjson, writer, response);
         }
     }
 
@@ -53,7 +95,7 @@ public class ReadingSessionsController {
             logger.debug("Look for current reading sessions for user {}", user);
 
             ReadingSession currentReadingSession = readingSessionsService.getUserCurrentReadingSession(user, bookUuid);
-            return new ResponseEntity<>(currentReadingSession, HttpStatus.OK);
+            return new ResponseEntity<>(currentReadingSession, withEntityTag(readingSessionsService.getVersion(currentReadingSession)), HttpStatus.OK);
         } catch (BooksException ex) {
             logger.error("Error on looking for reading sessions", ex);
             return new ResponseEntity(httpStatusConverter.from(ex));
@@ -74,7 +116,7 @@ public class ReadingSessionsController {
             logger.debug("Add new reading session for user {}", user);
 
             ReadingSession persistedReadingSession = readingSessionsService.createUserReadingSession(user, bookUuid, readingSession);
-            HttpHeaders httpHeaders = new HttpHeaders();
+            HttpHeaders httpHeaders = withEntityTag(readingSessionsService.getVersion(persistedReadingSession));
             httpHeaders.add(HttpHeaders.LOCATION, String.format("/users/%s/books/%s/reading-sessions/%s",
                 user,
                 bookUuid,
@@ -95,15 +137,33 @@ public class ReadingSessionsController {
     @GetMapping(value = "/users/{user}/books/{bookUuid}/reading-sessions/{uuid}")
     public ResponseEntity<ReadingSession> getUserReadingSession(@PathVariable("user") String user,
                                                                 @PathVariable("bookUuid") String bookUuid,
-                                                                @PathVariable("uuid") String uuid)  {
+                                                                @PathVariable("uuid") String uuid,
+                                                                @RequestParam(value = "fields", required = false) String fields,
+                                                                HttpServletResponse response)  {
         try {
             logger.debug("Look for reading session for user {} with uuid {} ", user, uuid);
 
+            if(isProjection(fields)) {
+                ObjectWriter writer = fieldProjections.writer(ReadingSession.class, fields);
+                ReadingSession readingSession = readingSessionsService.getUserReadingSession(user, bookUuid, uuid);
+                JsonStreams.write(readingSession, writer, response);
+                return null;
+            }
+
+            Optional<StoredJson> storedJson = readingSessionsService.getUserReadingSessionJson(user, bookUuid, uuid);
+            if(storedJson.isPresent()) {
+                send(storedJson.get(), response);
+                return null;
+            }
+
             ReadingSession readingSession = readingSessionsService.getUserReadingSession(user, bookUuid, uuid);
-            return new ResponseEntity(readingSession, HttpStatus.OK);
+            return new ResponseEntity(readingSession, withEntityTag(readingSessionsService.getVersion(readingSession)), HttpStatus.OK);
         } catch (ReadingSessionsException ex) {
             logger.error("Error on looking for reading session", ex);
             return new ResponseEntity(httpStatusConverter.from(ex));
+        } catch (IllegalArgumentException ex) {
+            logger.debug("Invalid request for reading session", ex);
+            return new ResponseEntity(HttpStatus.BAD_REQUEST);
         } catch (Exception ex) {
             logger.error("Error on looking for reading session", ex);
             return new ResponseEntity(HttpStatus.INTERNAL_SERVER_ERROR);
@@ -113,11 +173,12 @@ public class ReadingSessionsController {
     @DeleteMapping(value= "/users/{user}/books/{bookUuid}/reading-sessions/{uuid}")
     public ResponseEntity deleteUserReadingSession(@PathVariable("user") String user,
                                                    @PathVariable("bookUuid") String bookUuid,
-                                                   @PathVariable("uuid") String uuid)  {
+                                                   @PathVariable("uuid") String uuid,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)  {
         try {
             logger.debug("Delete a reading session for user {} with uuid {} ", user, uuid);
 
-            readingSessionsService.deleteUserReadingSession(user, bookUuid, uuid);
+            readingSessionsService.deleteUserReadingSession(user, bookUuid, uuid, toVersion(ifMatch));
 
             return new ResponseEntity<>(HttpStatus.OK);
         } catch (ReadingSessionsException ex) {
@@ -136,8 +197,13 @@ public class ReadingSessionsController {
         try {
             logger.debug("Look for date reading sessions for user {} with uuid {}", user, uuid);
 
+            // Read first, the last modified time of the collection is never older than the reading session
+            Optional<CollectionVersion> readingSessionsVersion = readingSessionsService.getUserReadingSessionsVersion(user);
             ReadingSession optionalReadingSession = readingSessionsService.getUserReadingSession(user, bookUuid, uuid);
-            return new ResponseEntity<>(optionalReadingSession.getDateReadingSessions(), HttpStatus.OK);
+            // The entity tag stays the version of the reading session, If-Match of date reading sessions uses it
+            HttpHeaders httpHeaders = withEntityTag(readingSessionsService.getVersion(optionalReadingSession));
+            readingSessionsVersion.ifPresent(v -> httpHeaders.setLastModified(v.getLastModified()));
+            return new ResponseEntity<>(optionalReadingSession.getDateReadingSessions(), httpHeaders, HttpStatus.OK);
         } catch (ReadingSessionsException ex) {
             logger.error("Error on looking for date reading sessions", ex);
             return new ResponseEntity(httpStatusConverter.from(ex));
@@ -151,11 +217,12 @@ public class ReadingSessionsController {
     public ResponseEntity<DateReadingSession> createDateReadingSession(@PathVariable("user") String user,
                                                    @PathVariable("bookUuid") String bookUuid,
                                                    @PathVariable("uuid") String uuid,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
                                                    @RequestBody DateReadingSession dateReadingSession)  {
         try {
             logger.debug("Add new date reading session for user {} with uuid {} ", user, uuid);
 
-            DateReadingSession persistedDateReadingSession = readingSessionsService.createDateReadingSession(user, bookUuid, uuid, dateReadingSession);
+            DateReadingSession persistedDateReadingSession = readingSessionsService.createDateReadingSession(user, bookUuid, uuid, dateReadingSession, toVersion(ifMatch));
             HttpHeaders httpHeaders = new HttpHeaders();
             httpHeaders.add(HttpHeaders.LOCATION,
                 String.format("/users/%s/reading-sessions/%s/date-reading-sessions/%s",
@@ -194,11 +261,12 @@ public class ReadingSessionsController {
                                                    @PathVariable("bookUuid") String bookUuid,
                                                    @PathVariable("uuid") String uuid,
                                                    @PathVariable("date") String date,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
                                                    @RequestBody DateReadingSession dateReadingSession)  {
         try {
             logger.debug("Update date reading session for user {} with uuid {} and date {}", user, uuid, date);
 
-            readingSessionsService.updateDateReadingSession(user, bookUuid, uuid, date, dateReadingSession);
+            readingSessionsService.updateDateReadingSession(user, bookUuid, uuid, date, dateReadingSession, toVersion(ifMatch));
 
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         } catch (ReadingSessionsException ex) {
@@ -214,11 +282,12 @@ public class ReadingSessionsController {
     public ResponseEntity deleteDateReadingSession(@PathVariable("user") String user,
                                                    @PathVariable("bookUuid") String bookUuid,
                                                    @PathVariable("uuid") String uuid,
-                                                   @PathVariable("date") String date) {
+                                                   @PathVariable("date") String date,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
             logger.debug("Delete date reading session for user {} with uuid {} and date {}", user, uuid, date);
 
-            readingSessionsService.deleteDateReadingSession(user, bookUuid, uuid, date);
+            readingSessionsService.deleteDateReadingSession(user, bookUuid, uuid, date, toVersion(ifMatch));
 
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         } catch (ReadingSessionsException ex) {
@@ -0,0 +1,40 @@
+package com.espressoprogrammer.library.rest;
+
+import com.espressoprogrammer.library.persistence.StoredJson;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+/**
+ * Writes stored JSON to the response as it is, without reading it into an item first.
+ * <p>
+ * The bytes are copied from the file the item was opened from rather than handed to the container's
+ * sendfile, which would open the file again by name and could send a newer item than the entity tag says.
+ */
+final class StoredJsonResponses {
+
+    private StoredJsonResponses() {
+    }
+
+    static void send(StoredJson storedJson, HttpServletResponse response) throws IOException {
+        try(StoredJson json = storedJson) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setHeader(HttpHeaders.ETAG, "\"" + json.getVersion() + "\"");
+            response.setContentLengthLong(json.getLength());
+            json.transferTo(Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    /**
+     * Prepares the response for a JSON array written by the service as it is stored.
+     */
+    static void startJsonArray(HttpServletResponse response) {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    }
+}
@@ -1,9 +1,13 @@
 package com.espressoprogrammer.library.rest;
 
 import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.persistence.BooksPage;
+import com.espressoprogrammer.library.persistence.BooksSort;
+import com.espressoprogrammer.library.persistence.CollectionVersion;
 import com.espressoprogrammer.library.service.BooksService;
 import com.espressoprogrammer.library.service.BooksException;
 import com.espressoprogrammer.library.service.BooksException.Reason;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -20,10 +24,17 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBookJson;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.restdocs.headers.HeaderDocumentation.headerWithName;
 import static org.springframework.restdocs.headers.HeaderDocumentation.responseHeaders;
@@ -61,7 +72,7 @@ public class BooksControllerTest {
     public void getUserBooks() throws Exception {
         ArrayList<Book> books = new ArrayList<>();
         books.add(getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
-        when(booksService.getUserBooks(JOHN_DOE_USER, "JavaScript")).thenReturn(books);
+        when(booksService.streamUserBooks(JOHN_DOE_USER, "JavaScript")).thenReturn(books.stream());
 
         this.mockMvc.perform(get("/users/{user}/books?searchText={searchText}", JOHN_DOE_USER, "JavaScript"))
             .andExpect(status().isOk())
@@ -90,6 +101,130 @@ public class BooksControllerTest {
                 )));
     }
 
+    @Test
+    public void getUserBooksPage() throws Exception {
+        Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
+        when(booksService.getUserBooksPage(JOHN_DOE_USER, null, BooksSort.TITLE, "cursor-1", 1))
+            .thenReturn(new BooksPage(Collections.singletonList(book), "cursor-2"));
+
+        this.mockMvc.perform(get("/users/{user}/books?sort={sort}&limit={limit}&cursor={cursor}", JOHN_DOE_USER, "title", 1, "cursor-1"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(BooksController.NEXT_CURSOR, "cursor-2"))
+            .andExpect(header().string(HttpHeaders.LINK, containsString("cursor=cursor-2")))
+            .andExpect(jsonPath("$[0].uuid", is("1e4014b1-a551-4310-9f30-590c3140b695")))
+            .andDo(document("{class-name}/{method-name}",
+                pathParameters(
+                    parameterWithName("user").description("User id")),
+                requestParameters(
+                    parameterWithName("sort").description("Order of the books, title, pages or created (Optional, created by default)").optional(),
+                    parameterWithName("limit").description("Maximum number of books returned (Optional, 50 by default, at most 1000)").optional(),
+                    parameterWithName("cursor").description("Cursor of the page, taken from the previous page (Optional)").optional()),
+                responseHeaders(
+                    headerWithName(HttpHeaders.LINK).description("URL of the next page, missing on the last page"),
+                    headerWithName(BooksController.NEXT_CURSOR).description("Cursor of the next page, missing on the last page"))));
+    }
+
+    @Test
+    public void getUserBooksWithFields() throws Exception {
+        ArrayList<Book> books = new ArrayList<>();
+        books.add(getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
+        when(booksService.streamUserBooks(JOHN_DOE_USER, null)).thenReturn(books.stream());
+
+        this.mockMvc.perform(get("/users/{user}/books?fields={fields}", JOHN_DOE_USER, "uuid,title,pages"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].uuid", is("1e4014b1-a551-4310-9f30-590c3140b695")))
+            .andExpect(jsonPath("$[0].title", is("Get Programming with JavaScript")))
+            .andExpect(jsonPath("$[0].pages", is(400)))
+            .andExpect(jsonPath("$[0].authors").doesNotExist())
+            .andExpect(jsonPath("$[0].image").doesNotExist())
+            .andDo(document("{class-name}/{method-name}",
+                pathParameters(
+                    parameterWithName("user").description("User id")),
+                requestParameters(
+                    parameterWithName("fields").description("Comma separated fields returned for every book (Optional, all by default)").optional()),
+                responseFields(
+                    fieldWithPath("[].uuid").description("UUID used to identify a book"),
+                    fieldWithPath("[].title").description("Book title"),
+                    fieldWithPath("[].pages").description("Number of pages"))));
+    }
+
+    @Test
+    public void getUserBookWithUnknownField() throws Exception {
+        this.mockMvc.perform(get("/users/{user}/books/{uuid}?fields={fields}", JOHN_DOE_USER, "1e4014b1-a551-4310-9f30-590c3140b695", "uuid,color"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getUserBooksPageWithInvalidSort() throws Exception {
+        this.mockMvc.perform(get("/users/{user}/books?sort={sort}", JOHN_DOE_USER, "color"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getUserBooksAsNdjson() throws Exception {
+        ArrayList<Book> books = new ArrayList<>();
+        books.add(getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
+        books.add(getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json"));
+        when(booksService.streamUserBooks(JOHN_DOE_USER, null)).thenReturn(books.stream());
+
+        String book = new ObjectMapper().writeValueAsString(books.get(0));
+        this.mockMvc.perform(get("/users/{user}/books", JOHN_DOE_USER)
+                .header(HttpHeaders.ACCEPT, JsonStreams.APPLICATION_NDJSON_VALUE))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(JsonStreams.APPLICATION_NDJSON_VALUE))
+            .andExpect(content().string(book + "\n" + book + "\n"))
+            .andDo(document("{class-name}/{method-name}",
+                pathParameters(
+                    parameterWithName("user").description("User id"))));
+    }
+
+    @Test
+    public void getUserBooksFailingWhileWritten() throws Exception {
+        Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
+        when(booksService.streamUserBooks(JOHN_DOE_USER, null)).thenReturn(Stream.of(book, null).map(b -> {
+            if(b == null) {
+                throw new IllegalStateException("Can't read the next book");
+            }
+            return b;
+        }));
+
+        assertThatThrownBy(() -> this.mockMvc.perform(get("/users/{user}/books", JOHN_DOE_USER)
+                .header(HttpHeaders.ACCEPT, JsonStreams.APPLICATION_NDJSON_VALUE)))
+            .hasRootCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void getUnchangedUserBooks() throws Exception {
+        when(booksService.getUserBooksVersion(JOHN_DOE_USER)).thenReturn(Optional.of(new CollectionVersion("3f2a9c1e-7", 1530403200000L)));
+
+        this.mockMvc.perform(get("/users/{user}/books", JOHN_DOE_USER)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"3f2a9c1e-7\""))
+            .andExpect(status().isNotModified())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"3f2a9c1e-7\""))
+            .andExpect(header().string(HttpHeaders.LAST_MODIFIED, "Sun, 01 Jul 2018 00:00:00 GMT"))
+            .andExpect(content().string(""))
+            .andDo(document("{class-name}/{method-name}",
+                pathParameters(
+                    parameterWithName("user").description("User id")),
+                responseHeaders(
+                    headerWithName(HttpHeaders.ETAG).description("Version of the books of the user"),
+                    headerWithName(HttpHeaders.LAST_MODIFIED).description("Time of the last change of the books of the user"))));
+
+        verify(booksService, never()).streamUserBooks(JOHN_DOE_USER, null);
+    }
+
+    @Test
+    public void getChangedUserBooksAsNdjson() throws Exception {
+        when(booksService.getUserBooksVersion(JOHN_DOE_USER)).thenReturn(Optional.of(new CollectionVersion("3f2a9c1e-7", 1530403200000L)));
+        when(booksService.streamUserBooks(JOHN_DOE_USER, null)).thenReturn(Stream.empty());
+
+        this.mockMvc.perform(get("/users/{user}/books", JOHN_DOE_USER)
+                .header(HttpHeaders.ACCEPT, JsonStreams.APPLICATION_NDJSON_VALUE)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"3f2a9c1e-7\""))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"3f2a9c1e-7-ndjson\""));
+    }
+
     @Test
     public void createUserBook() throws Exception {
         Book bookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-request.json");
@@ -153,9 +288,11 @@ public class BooksControllerTest {
         String uuid = "1e4014b1-a551-4310-9f30-590c3140b695";
         Book book = getTestBook(uuid + ".json");
         when(booksService.getUserBook(JOHN_DOE_USER, uuid)).thenReturn(book);
+        when(booksService.getVersion(book)).thenReturn("5b7fb1c3a4c84ae4b1f9b4d7a1c4a6e2");
 
         this.mockMvc.perform(get("/users/{user}/books/{uuid}", JOHN_DOE_USER, uuid))
             .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"5b7fb1c3a4c84ae4b1f9b4d7a1c4a6e2\""))
             .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
             .andExpect(jsonPath("uuid", is("1e4014b1-a551-4310-9f30-590c3140b695")))
             .andExpect(jsonPath("isbn10", is("1-61729-310-5")))
@@ -168,6 +305,8 @@ public class BooksControllerTest {
                 pathParameters(
                     parameterWithName("user").description("User id"),
                     parameterWithName("uuid").description("Book uuid")),
+                responseHeaders(
+                    headerWithName(HttpHeaders.ETAG).description("Version of the book, to be sent in If-Match when the book is changed")),
                 responseFields(
                     fieldWithPath("uuid").description("UUID used to identify a book"),
                     fieldWithPath("isbn10").description("10 digits ISBN (optional)").optional(),
@@ -189,11 +328,48 @@ public class BooksControllerTest {
             .andDo(document("{class-name}/{method-name}"));
     }
 
+    @Test
+    public void getUserBookByIsbn() throws Exception {
+        String isbn = "1-61729-310-5";
+        Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
+        when(booksService.getUserBookByIsbn(JOHN_DOE_USER, isbn)).thenReturn(book);
+
+        this.mockMvc.perform(get("/users/{user}/books/by-isbn/{isbn}", JOHN_DOE_USER, isbn))
+            .andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("uuid", is("1e4014b1-a551-4310-9f30-590c3140b695")))
+            .andExpect(jsonPath("isbn10", is("1-61729-310-5")))
+            .andExpect(jsonPath("isbn13", is("978-1-61729-310-8")))
+            .andDo(document("{class-name}/{method-name}",
+                pathParameters(
+                    parameterWithName("user").description("User id"),
+                    parameterWithName("isbn").description("10 or 13 digits ISBN, with or without hyphens")),
+                responseFields(
+                    fieldWithPath("uuid").description("UUID used to identify a book"),
+                    fieldWithPath("isbn10").description("10 digits ISBN (optional)").optional(),
+                    fieldWithPath("isbn13").description("13 digits ISBN (optional)").optional(),
+                    fieldWithPath("title").description("Book title"),
+                    fieldWithPath("authors").description("Book authors (optional)").optional(),
+                    fieldWithPath("image").description("Book image (optional)").optional(),
+                    fieldWithPath("pages").description("Number of pages")
+                )));
+    }
+
+    @Test
+    public void getMissingUserBookByIsbn() throws Exception {
+        String isbn = "978-0-00-000000-2";
+        when(booksService.getUserBookByIsbn(JOHN_DOE_USER, isbn)).thenThrow(new BooksException(Reason.BOOK_NOT_FOUND));
+
+        this.mockMvc.perform(get("/users/{user}/books/by-isbn/{isbn}", JOHN_DOE_USER, isbn))
+            .andExpect(status().isNotFound())
+            .andDo(document("{class-name}/{method-name}"));
+    }
+
     @Test
     public void updateUserBook() throws Exception {
         Book updateBook = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
         Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json");
-        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest)).thenReturn(updateBook.getUuid());
+        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, null)).thenReturn(updateBook.getUuid());
 
         this.mockMvc.perform(put("/users/{user}/books/{uuid}", JOHN_DOE_USER, updateBook.getUuid())
             .content(getTestBookJson("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json"))
@@ -217,7 +393,7 @@ public class BooksControllerTest {
     public void updateInvalidUserBook() throws Exception {
         Book updateBook = getTestBook("f2e10e37-b0fc-4eff-93aa-3dff682cc388.json");
         Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-invalid-request.json");
-        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest)).thenThrow(new BooksException(Reason.BOOK_INVALID));
+        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, null)).thenThrow(new BooksException(Reason.BOOK_INVALID));
 
         this.mockMvc.perform(put("/users/{user}/books/{uuid}", JOHN_DOE_USER, updateBook.getUuid())
                 .content(getTestBookJson("1e4014b1-a551-4310-9f30-590c3140b695-invalid-request.json"))
@@ -230,7 +406,7 @@ public class BooksControllerTest {
     public void updateExistingUserBook() throws Exception {
         Book updateBook = getTestBook("f2e10e37-b0fc-4eff-93aa-3dff682cc388.json");
         Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-request.json");
-        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest)).thenThrow(new BooksException(Reason.BOOK_ALREADY_EXISTS));
+        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, null)).thenThrow(new BooksException(Reason.BOOK_ALREADY_EXISTS));
 
         this.mockMvc.perform(put("/users/{user}/books/{uuid}", JOHN_DOE_USER, updateBook.getUuid())
             .content(getTestBookJson("1e4014b1-a551-4310-9f30-590c3140b695-request.json"))
@@ -243,7 +419,7 @@ public class BooksControllerTest {
     public void updateMissingUserBook() throws Exception {
         Book updateBook = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update.json");
         Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json");
-        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest)).thenThrow(new BooksException(Reason.BOOK_NOT_FOUND));
+        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, null)).thenThrow(new BooksException(Reason.BOOK_NOT_FOUND));
 
         this.mockMvc.perform(put("/users/{user}/books/{uuid}", JOHN_DOE_USER, updateBook.getUuid())
             .content(getTestBookJson("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json"))
@@ -252,10 +428,25 @@ public class BooksControllerTest {
             .andDo(document("{class-name}/{method-name}"));
     }
 
+    @Test
+    public void updateUserBookWithStaleVersion() throws Exception {
+        Book updateBook = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
+        Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json");
+        when(booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, "5b7fb1c3a4c84ae4b1f9b4d7a1c4a6e2"))
+            .thenThrow(new BooksException(Reason.BOOK_VERSION_MISMATCH));
+
+        this.mockMvc.perform(put("/users/{user}/books/{uuid}", JOHN_DOE_USER, updateBook.getUuid())
+            .header(HttpHeaders.IF_MATCH, "\"5b7fb1c3a4c84ae4b1f9b4d7a1c4a6e2\"")
+            .content(getTestBookJson("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json"))
+            .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isPreconditionFailed())
+            .andDo(document("{class-name}/{method-name}"));
+    }
+
     @Test
     public void deleteUserBook() throws Exception {
         Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid())).thenReturn(book.getUuid());
+        when(booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid(), null)).thenReturn(book.getUuid());
 
         this.mockMvc.perform(delete("/users/{user}/books/{uuid}", JOHN_DOE_USER, book.getUuid()))
             .andExpect(status().isNoContent())
@@ -268,7 +459,7 @@ public class BooksControllerTest {
     @Test
     public void deleteMissingUserBook() throws Exception {
         Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid())).thenThrow(new BooksException(Reason.BOOK_NOT_FOUND));
+        when(booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid(), null)).thenThrow(new BooksException(Reason.BOOK_NOT_FOUND));
 
         this.mockMvc.perform(delete("/users/{user}/books/{uuid}", JOHN_DOE_USER, book.getUuid()))
             .andExpect(status().isNotFound())
@@ -278,7 +469,7 @@ public class BooksControllerTest {
     @Test
     public void deleteUserBookWithReadingSessions() throws Exception {
         Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid())).thenThrow(new BooksException(Reason.BOOK_HAS_READING_SESSION));
+        when(booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid(), null)).thenThrow(new BooksException(Reason.BOOK_HAS_READING_SESSION));
 
         this.mockMvc.perform(delete("/users/{user}/books/{uuid}", JOHN_DOE_USER, book.getUuid()))
                 .andExpect(status().isForbidden())
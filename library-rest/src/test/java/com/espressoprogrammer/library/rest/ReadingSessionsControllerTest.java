@@ -43,6 +43,7 @@ import static org.springframework.restdocs.payload.PayloadDocumentation.requestF
 import static org.springframework.restdocs.payload.PayloadDocumentation.responseFields;
 import static org.springframework.restdocs.request.RequestDocumentation.parameterWithName;
 import static org.springframework.restdocs.request.RequestDocumentation.pathParameters;
+import static org.springframework.restdocs.request.RequestDocumentation.requestParameters;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -76,7 +77,7 @@ public class ReadingSessionsControllerTest {
     public void getUserReadingSessions() throws Exception {
         ArrayList<ReadingSession> readingSessions = new ArrayList<>();
         readingSessions.add(getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695.json"));
-        when(readingSessionsService.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)).thenReturn(readingSessions);
+        when(readingSessionsService.streamUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)).thenReturn(readingSessions.stream());
 
         this.mockMvc.perform(get("/users/{user}/books/{bookUuid}/reading-sessions", JOHN_DOE_USER, BOOK_UUID))
             .andExpect(status().isOk())
@@ -192,14 +193,34 @@ public class ReadingSessionsControllerTest {
             .andDo(document("{class-name}/{method-name}"));
     }
 
+    @Test
+    public void getUserReadingSessionWithFields() throws Exception {
+        String uuid = "1e4014b1-a551-4310-9f30-590c3140b695";
+        ReadingSession readingSession = getTestReadingSession(uuid + ".json");
+        when(readingSessionsService.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, uuid)).thenReturn(readingSession);
+
+        this.mockMvc.perform(get("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}?fields={fields}", JOHN_DOE_USER, BOOK_UUID, uuid, "uuid,deadline"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.ETAG))
+            .andExpect(jsonPath("uuid", is("1e4014b1-a551-4310-9f30-590c3140b695")))
+            .andExpect(jsonPath("deadline", is("2017-01-31")))
+            .andExpect(jsonPath("bookUuid").doesNotExist())
+            .andExpect(jsonPath("dateReadingSessions").doesNotExist())
+            .andDo(document("{class-name}/{method-name}",
+                requestParameters(
+                    parameterWithName("fields").description("Comma separated fields returned for the reading session (Optional, all by default)").optional())));
+    }
+
     @Test
     public void getUserReadingSession() throws Exception {
         String uuid = "1e4014b1-a551-4310-9f30-590c3140b695";
         ReadingSession readingSession = getTestReadingSession(uuid + ".json");
         when(readingSessionsService.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID, uuid)).thenReturn(readingSession);
+        when(readingSessionsService.getVersion(readingSession)).thenReturn("0d6f4f7e2b1c4b8e9a3f5c6d7e8f9a0b");
 
         this.mockMvc.perform(get("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}", JOHN_DOE_USER, BOOK_UUID, uuid))
             .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"0d6f4f7e2b1c4b8e9a3f5c6d7e8f9a0b\""))
             .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
             .andExpect(jsonPath("uuid", is("1e4014b1-a551-4310-9f30-590c3140b695")))
             .andExpect(jsonPath("bookUuid", is("1e4014b1-a551-4310-9f30-590c3140b695")))
@@ -212,6 +233,8 @@ public class ReadingSessionsControllerTest {
                     parameterWithName("user").description("User id"),
                     parameterWithName("bookUuid").description("Book uuid"),
                     parameterWithName("uuid").description("Reading session uuid")),
+                responseHeaders(
+                    headerWithName(HttpHeaders.ETAG).description("Version of the reading session, to be sent in If-Match when the reading session or its date reading sessions are changed")),
                 responseFields(
                     fieldWithPath("uuid").description("UUID used to identify a reading session"),
                     fieldWithPath("bookUuid").description("UUID used to identify a book"),
@@ -237,7 +260,7 @@ public class ReadingSessionsControllerTest {
     @Test
     public void deleteUserReadingSession() throws Exception {
         ReadingSession readingSession = getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(readingSessionsService.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid())).thenReturn(readingSession.getUuid());
+        when(readingSessionsService.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(), null)).thenReturn(readingSession.getUuid());
 
         this.mockMvc.perform(delete("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}",
             JOHN_DOE_USER,
@@ -254,7 +277,7 @@ public class ReadingSessionsControllerTest {
     @Test
     public void deleteMissingUserReadingSession() throws Exception {
         ReadingSession readingSession = getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(readingSessionsService.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid()))
+        when(readingSessionsService.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(), null))
                 .thenThrow(new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND));
 
         this.mockMvc.perform(delete("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}",
@@ -292,7 +315,7 @@ public class ReadingSessionsControllerTest {
     public void createDateReadingSession() throws Exception {
         ReadingSession readingSession = getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695.json");
         DateReadingSession dateReadingSession = getTestDateReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-new-date-reading-session.json");
-        when(readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(), dateReadingSession))
+        when(readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(), dateReadingSession, null))
                 .thenReturn(dateReadingSession);
 
         this.mockMvc.perform(post("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}/date-reading-sessions",
@@ -327,7 +350,7 @@ public class ReadingSessionsControllerTest {
     @Test
     public void createInvalidDateReadingSession() throws Exception {
         DateReadingSession dateReadingSession = getTestDateReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-invalid-date-reading-session.json");
-        when(readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", dateReadingSession))
+        when(readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", dateReadingSession, null))
                 .thenThrow(new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_INVALID));
 
         this.mockMvc.perform(post("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}/date-reading-sessions",
@@ -343,7 +366,7 @@ public class ReadingSessionsControllerTest {
     @Test
     public void createDateReadingSessionExistingDate() throws Exception {
         DateReadingSession dateReadingSession = getTestDateReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-existing-date-reading-session.json");
-        when(readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", dateReadingSession))
+        when(readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", dateReadingSession, null))
                 .thenThrow(new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_ALREADY_EXISTS));
 
         this.mockMvc.perform(post("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}/date-reading-sessions",
@@ -429,7 +452,7 @@ public class ReadingSessionsControllerTest {
 
         DateReadingSession dateReadingSession = getTestDateReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-invalid-date-reading-session.json");
         String date = "2017-01-01";
-        when(readingSessionsService.updateDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date, dateReadingSession))
+        when(readingSessionsService.updateDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date, dateReadingSession, null))
                 .thenThrow(new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_INVALID));
 
         this.mockMvc.perform(put("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}/date-reading-sessions/{date}",
@@ -440,11 +463,27 @@ public class ReadingSessionsControllerTest {
                 .andDo(document("{class-name}/{method-name}"));
     }
 
+    @Test
+    public void updateDateReadingSessionWithStaleVersion() throws Exception {
+        DateReadingSession dateReadingSession = getTestDateReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-update-date-reading-session-request.json");
+        String date = "2017-01-01";
+        when(readingSessionsService.updateDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date, dateReadingSession, "0d6f4f7e2b1c4b8e9a3f5c6d7e8f9a0b"))
+                .thenThrow(new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_VERSION_MISMATCH));
+
+        this.mockMvc.perform(put("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}/date-reading-sessions/{date}",
+            JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date)
+            .header(HttpHeaders.IF_MATCH, "\"0d6f4f7e2b1c4b8e9a3f5c6d7e8f9a0b\"")
+            .content(getTestDateReadingSessionJson("1e4014b1-a551-4310-9f30-590c3140b695-update-date-reading-session-request.json"))
+            .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isPreconditionFailed())
+            .andDo(document("{class-name}/{method-name}"));
+    }
+
     @Test
     public void updateMissingDateReadingSession() throws Exception {
         DateReadingSession dateReadingSession = getTestDateReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-update-date-reading-session-request.json");
         String date = "2017-01-02";
-        when(readingSessionsService.updateDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date, dateReadingSession))
+        when(readingSessionsService.updateDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date, dateReadingSession, null))
                 .thenThrow(new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_NOT_FOUND));
 
         this.mockMvc.perform(put("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}/date-reading-sessions/{date}",
@@ -458,7 +497,7 @@ public class ReadingSessionsControllerTest {
     @Test
     public void deleteDateReadingSession() throws Exception {
         String date = "2017-01-01";
-        when(readingSessionsService.deleteDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date)).thenReturn(date);
+        when(readingSessionsService.deleteDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date, null)).thenReturn(date);
 
         this.mockMvc.perform(delete("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}/date-reading-sessions/{date}",
             JOHN_DOE_USER,
@@ -479,7 +518,7 @@ public class ReadingSessionsControllerTest {
     @Test
     public void deleteMissingDateReadingSession() throws Exception {
         String date = "2017-01-02";
-        when(readingSessionsService.deleteDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date))
+        when(readingSessionsService.deleteDateReadingSession(JOHN_DOE_USER, BOOK_UUID, "1e4014b1-a551-4310-9f30-590c3140b695", date, null))
                 .thenThrow(new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_NOT_FOUND));
 
         this.mockMvc.perform(delete("/users/{user}/books/{bookUuid}/reading-sessions/{uuid}/date-reading-sessions/{date}",
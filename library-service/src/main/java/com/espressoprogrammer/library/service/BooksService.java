@@ -3,7 +3,14 @@ package com.espressoprogrammer.library.service;
 import com.espressoprogrammer.library.dto.Book;
 import com.espressoprogrammer.library.dto.ReadingSession;
 import com.espressoprogrammer.library.persistence.BooksDao;
+import com.espressoprogrammer.library.persistence.BooksPage;
+import com.espressoprogrammer.library.persistence.BooksSort;
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import com.espressoprogrammer.library.persistence.DuplicateIsbnException;
+import com.espressoprogrammer.library.persistence.ItemVersions;
 import com.espressoprogrammer.library.persistence.ReadingSessionsDao;
+import com.espressoprogrammer.library.persistence.StoredJson;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
 import com.espressoprogrammer.library.service.BooksException.Reason;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,8 +19,11 @@ import org.springframework.stereotype.Service;
 import static org.springframework.util.StringUtils.isEmpty;
 import static org.springframework.util.CollectionUtils.isEmpty;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 public class BooksService {
@@ -25,12 +35,44 @@ public class BooksService {
     @Autowired
     private ReadingSessionsDao readingSessionsDao;
 
+    @Autowired
+    private UserWriteLanes writeLanes;
+
     public List<Book> getUserBooks(String user, String searchText)  {
         logger.debug("Look for books for user {}", user);
 
         return booksDao.getUserBooks(user, searchText);
     }
 
+    public Stream<Book> streamUserBooks(String user, String searchText)  {
+        logger.debug("Stream books for user {}", user);
+
+        return booksDao.streamUserBooks(user, searchText);
+    }
+
+    public Optional<CollectionVersion> getUserBooksVersion(String user) {
+        return booksDao.getUserBooksVersion(user);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor is malformed or was made for another sort
+     */
+    public BooksPage getUserBooksPage(String user, String searchText, BooksSort sort, String cursor, int limit) {
+        logger.debug("Look for {} books for user {} sorted by {}", limit, user, sort);
+
+        return booksDao.getUserBooksPage(user, searchText, sort, cursor, limit);
+    }
+
+    /**
+     * Writes the JSON array of all the books of the user as they are stored, returns false when the books
+     * have to be read with {@link #getUserBooks(String, String)} instead.
+     */
+    public boolean writeUserBooksJson(String user, WritableByteChannel target) throws IOException {
+        logger.debug("Copy books for user {}", user);
+
+        return booksDao.writeUserBooksJson(user, target);
+    }
+
     public Book createUserBook(String user, Book book) throws BooksException {
         logger.debug("Add new book for user {}", user);
 
@@ -38,11 +80,14 @@ public class BooksService {
             throw new BooksException(Reason.BOOK_INVALID);
         }
 
-        if(hasTheBook(user, book)) {
-            throw new BooksException(Reason.BOOK_ALREADY_EXISTS);
-        }
-
-        return booksDao.createUserBook(user, book);
+        return writeLanes.execute(user, () -> {
+            try {
+                return booksDao.createUserBook(user, book);
+            } catch(DuplicateIsbnException ex) {
+                logger.debug("Book with ISBN {} already exists for user {}", ex.getIsbn(), user);
+                throw new BooksException(Reason.BOOK_ALREADY_EXISTS);
+            }
+        });
     }
 
     public Book getUserBook(String user, String uuid) throws BooksException {
@@ -56,42 +101,94 @@ public class BooksService {
         return optionalBook.get();
     }
 
+    /**
+     * The stored JSON of the book, empty when the book has to be read with {@link #getUserBook(String, String)}.
+     */
+    public Optional<StoredJson> getUserBookJson(String user, String uuid) {
+        logger.debug("Look for stored book for user {} with uuid {} ", user, uuid);
+
+        return booksDao.getUserBookJson(user, uuid);
+    }
+
+    public Book getUserBookByIsbn(String user, String isbn) throws BooksException {
+        logger.debug("Look for book for user {} with ISBN {} ", user, isbn);
+
+        Optional<Book> optionalBook = booksDao.getUserBookByIsbn(user, isbn);
+        if(!optionalBook.isPresent()) {
+            throw new BooksException(Reason.BOOK_NOT_FOUND);
+        }
+
+        return optionalBook.get();
+    }
+
+    /**
+     * Version of the book, which changes with every change of the book.
+     */
+    public String getVersion(Book book) {
+        return ItemVersions.of(book);
+    }
+
     public String updateUserBook(String user, String uuid, Book book) throws BooksException {
+        return updateUserBook(user, uuid, book, null);
+    }
+
+    /**
+     * Updates the book only if it is still at the given version, a null version updating it anyway.
+     */
+    public String updateUserBook(String user, String uuid, Book book, String version) throws BooksException {
         logger.debug("Update book for user {} with uuid {} ", user, uuid);
 
         if(!isValidBook(book)) {
             throw new BooksException(Reason.BOOK_INVALID);
         }
 
-        if(hasTheBook(user, book)) {
-            throw new BooksException(Reason.BOOK_ALREADY_EXISTS);
-        }
-
-        Optional<String> optionalUuid = booksDao.updateUserBook(user, uuid, book);
-        if(!optionalUuid.isPresent()) {
-            throw new BooksException(Reason.BOOK_NOT_FOUND);
-        }
+        return writeLanes.execute(user, () -> {
+            Optional<String> optionalUuid;
+            try {
+                optionalUuid = booksDao.updateUserBook(user, uuid, book, version);
+            } catch(DuplicateIsbnException ex) {
+                logger.debug("Book with ISBN {} already exists for user {}", ex.getIsbn(), user);
+                throw new BooksException(Reason.BOOK_ALREADY_EXISTS);
+            } catch(VersionMismatchException ex) {
+                logger.debug("Book {} of user {} is at version {}", uuid, user, ex.getCurrentVersion());
+                throw new BooksException(Reason.BOOK_VERSION_MISMATCH);
+            }
+            if(!optionalUuid.isPresent()) {
+                throw new BooksException(Reason.BOOK_NOT_FOUND);
+            }
 
-        return optionalUuid.get();
+            return optionalUuid.get();
+        });
     }
 
     public String deleteUserBook(String user, String uuid) throws BooksException {
+        return deleteUserBook(user, uuid, null);
+    }
+
+    public String deleteUserBook(String user, String uuid, String version) throws BooksException {
         logger.debug("Delete book for user {} with uuid {}", user, uuid);
 
-        List<ReadingSession> userReadingSessions = readingSessionsDao.getUserReadingSessions(user, uuid);
-        for(ReadingSession userReadingSession : userReadingSessions) {
-            if(!userReadingSession.getDateReadingSessions().isEmpty()) {
-                throw new BooksException(Reason.BOOK_HAS_READING_SESSION);
+        return writeLanes.execute(user, () -> {
+            try(Stream<ReadingSession> userReadingSessions = readingSessionsDao.streamUserReadingSessions(user, uuid)) {
+                if(userReadingSessions.anyMatch(r -> !r.getDateReadingSessions().isEmpty())) {
+                    throw new BooksException(Reason.BOOK_HAS_READING_SESSION);
+                }
             }
-        }
 
-        //TODO - Delete empty reading sessions
-        Optional<String> optionalUuid = booksDao.deleteUserBook(user, uuid);
-        if(!optionalUuid.isPresent()) {
-            throw new BooksException(Reason.BOOK_NOT_FOUND);
-        }
+            //TODO - Delete empty reading sessions
+            Optional<String> optionalUuid;
+            try {
+                optionalUuid = booksDao.deleteUserBook(user, uuid, version);
+            } catch(VersionMismatchException ex) {
+                logger.debug("Book {} of user {} is at version {}", uuid, user, ex.getCurrentVersion());
+                throw new BooksException(Reason.BOOK_VERSION_MISMATCH);
+            }
+            if(!optionalUuid.isPresent()) {
+                throw new BooksException(Reason.BOOK_NOT_FOUND);
+            }
 
-        return optionalUuid.get();
+            return optionalUuid.get();
+        });
     }
 
     private boolean isValidBook(Book book) {
@@ -102,23 +199,4 @@ public class BooksService {
                 && book.getPages() > 0;
     }
 
-    private boolean hasTheBook(String user, Book book) {
-        List<Book> existingBooks = booksDao.getUserBooks(user);
-        for(Book existingBook : existingBooks) {
-            if(areDifferentBooks(book, existingBook) && haveTheSameISBN(book, existingBook)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private boolean areDifferentBooks(Book book, Book existingBook) {
-        return !existingBook.getUuid().equals(book.getUuid());
-    }
-
-    private boolean haveTheSameISBN(Book book, Book existingBook) {
-        return (!isEmpty(existingBook.getIsbn10()) && existingBook.getIsbn10().equals(book.getIsbn10()))
-                || (!isEmpty(existingBook.getIsbn13()) && existingBook.getIsbn13().equals(book.getIsbn13()));
-    }
-
 }
@@ -7,7 +7,8 @@ public class ReadingSessionsException extends Exception {
         DATE_READING_SESSION_NOT_FOUND,
         READING_SESSION_ALREADY_EXISTS,
         DATE_READING_SESSION_ALREADY_EXISTS,
-        DATE_READING_SESSION_INVALID
+        DATE_READING_SESSION_INVALID,
+        READING_SESSION_VERSION_MISMATCH
     }
 
     private Reason reason;
@@ -5,7 +5,11 @@ import com.espressoprogrammer.library.dto.DateReadingSession;
 import com.espressoprogrammer.library.dto.ReadingSession;
 import com.espressoprogrammer.library.dto.ReadingSessionProgress;
 import com.espressoprogrammer.library.persistence.BooksDao;
+import com.espressoprogrammer.library.persistence.CollectionVersion;
+import com.espressoprogrammer.library.persistence.ItemVersions;
 import com.espressoprogrammer.library.persistence.ReadingSessionsDao;
+import com.espressoprogrammer.library.persistence.StoredJson;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,6 +28,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static org.springframework.util.StringUtils.isEmpty;
 
@@ -31,6 +36,8 @@ import static org.springframework.util.StringUtils.isEmpty;
 public class ReadingSessionsService {
     private static final String ISO_DATE_REGEXP = "[\\d]{4}-[\\d]{2}-[\\d]{2}";
     private static final String ISO_DATE_PATTERN = "yyyy-MM-dd";
+    // Changes of date reading sessions are retried this many times when the reading session changes meanwhile
+    private static final int UPDATE_ATTEMPTS = 3;
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -40,6 +47,9 @@ public class ReadingSessionsService {
     @Autowired
     private ReadingSessionsDao readingSessionsDao;
 
+    @Autowired
+    private UserWriteLanes writeLanes;
+
     private DateTimeFormatter isoDateFormatter;
 
     @PostConstruct
@@ -53,6 +63,19 @@ public class ReadingSessionsService {
         return readingSessionsDao.getUserReadingSessions(user, bookUuid);
     }
 
+    /**
+     * The version of all the reading sessions of the user, it changes with the reading sessions of any book.
+     */
+    public Optional<CollectionVersion> getUserReadingSessionsVersion(String user) {
+        return readingSessionsDao.getUserReadingSessionsVersion(user);
+    }
+
+    public Stream<ReadingSession> streamUserReadingSessions(String user, String bookUuid)  {
+        logger.debug("Stream reading sessions for user {}", user);
+
+        return readingSessionsDao.streamUserReadingSessions(user, bookUuid);
+    }
+
     public ReadingSession getUserCurrentReadingSession(String user, String bookUuid) throws BooksException, ReadingSessionsException {
         logger.debug("Look for current reading sessions for user {}", user);
 
@@ -61,35 +84,38 @@ public class ReadingSessionsService {
             throw new BooksException(BooksException.Reason.BOOK_NOT_FOUND);
         }
 
-        List<ReadingSession> userBooks = readingSessionsDao.getUserReadingSessions(user, bookUuid);
-        if(userBooks.isEmpty()) {
-            throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND);
+        // Reading sessions come in creation order, the latest one is the current one
+        try(Stream<ReadingSession> userReadingSessions = readingSessionsDao.streamUserReadingSessions(user, bookUuid)) {
+            return userReadingSessions.reduce((previous, latest) -> latest)
+                .orElseThrow(() -> new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND));
         }
-        return userBooks.get(0);
     }
 
     public ReadingSession createUserReadingSession(String user, String bookUuid, ReadingSession readingSession) throws BooksException, ReadingSessionsException {
         logger.debug("Add new reading session for user {}", user);
 
-        Optional<Book> optionalBook = booksDao.getUserBook(user, bookUuid);
-        if(!optionalBook.isPresent()) {
-            throw new BooksException(BooksException.Reason.BOOK_NOT_FOUND);
-        }
+        return writeLanes.<ReadingSession, BooksException, ReadingSessionsException>execute(user, () -> {
+            Optional<Book> optionalBook = booksDao.getUserBook(user, bookUuid);
+            if(!optionalBook.isPresent()) {
+                throw new BooksException(BooksException.Reason.BOOK_NOT_FOUND);
+            }
 
-        List<ReadingSession> userReadingSessions = readingSessionsDao.getUserReadingSessions(user, bookUuid);
-        if(!userReadingSessions.isEmpty()) {
-            throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_ALREADY_EXISTS);
-        }
+            try(Stream<ReadingSession> userReadingSessions = readingSessionsDao.streamUserReadingSessions(user, bookUuid)) {
+                if(userReadingSessions.findAny().isPresent()) {
+                    throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_ALREADY_EXISTS);
+                }
+            }
 
-        ReadingSession createdReadingSession = readingSession;
-        if(!CollectionUtils.isEmpty(createdReadingSession.getDateReadingSessions())) {
-            createdReadingSession = new ReadingSession(null,
-                    bookUuid,
-                    readingSession.getDeadline(),
-                    Collections.emptyList());
-        }
+            ReadingSession createdReadingSession = readingSession;
+            if(!CollectionUtils.isEmpty(createdReadingSession.getDateReadingSessions())) {
+                createdReadingSession = new ReadingSession(null,
+                        bookUuid,
+                        readingSession.getDeadline(),
+                        Collections.emptyList());
+            }
 
-        return readingSessionsDao.createUserReadingSession(user, bookUuid, createdReadingSession);
+            return readingSessionsDao.createUserReadingSession(user, bookUuid, createdReadingSession);
+        });
     }
 
     public ReadingSession getUserReadingSession(String user, String bookUuid, String uuid) throws ReadingSessionsException {
@@ -103,46 +129,77 @@ public class ReadingSessionsService {
         return optionalReadingSession.get();
     }
 
+    /**
+     * The stored JSON of the reading session, empty when it has to be read with
+     * {@link #getUserReadingSession(String, String, String)}.
+     */
+    public Optional<StoredJson> getUserReadingSessionJson(String user, String bookUuid, String uuid) {
+        logger.debug("Look for stored reading session for user {} with uuid {} ", user, uuid);
+
+        return readingSessionsDao.getUserReadingSessionJson(user, bookUuid, uuid);
+    }
+
+    /**
+     * Version of the reading session, which changes with every change of the reading session or of its date
+     * reading sessions.
+     */
+    public String getVersion(ReadingSession readingSession) {
+        return ItemVersions.of(readingSession);
+    }
+
     public String deleteUserReadingSession(String user, String bookUuid, String uuid) throws ReadingSessionsException {
+        return deleteUserReadingSession(user, bookUuid, uuid, null);
+    }
+
+    public String deleteUserReadingSession(String user, String bookUuid, String uuid, String version) throws ReadingSessionsException {
         logger.debug("Delete a reading session for user {} with uuid {} ", user, uuid);
 
-        Optional<String> optionalUuid = readingSessionsDao.deleteUserReadingSession(user, bookUuid, uuid);
-        if(!optionalUuid.isPresent()) {
-            throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND);
-        }
+        return writeLanes.execute(user, () -> {
+            Optional<String> optionalUuid;
+            try {
+                optionalUuid = readingSessionsDao.deleteUserReadingSession(user, bookUuid, uuid, version);
+            } catch(VersionMismatchException ex) {
+                logger.debug("Reading session {} of user {} is at version {}", uuid, user, ex.getCurrentVersion());
+                throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_VERSION_MISMATCH);
+            }
+            if(!optionalUuid.isPresent()) {
+                throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND);
+            }
 
-        return optionalUuid.get();
+            return optionalUuid.get();
+        });
     }
 
     public DateReadingSession createDateReadingSession(String user, String bookUuid, String uuid, DateReadingSession dateReadingSession) throws ReadingSessionsException {
+        return createDateReadingSession(user, bookUuid, uuid, dateReadingSession, null);
+    }
+
+    /**
+     * Adds the date reading session to the reading session, which has to be at the given version unless the
+     * version is null.
+     */
+    public DateReadingSession createDateReadingSession(String user, String bookUuid, String uuid, DateReadingSession dateReadingSession, String version) throws ReadingSessionsException {
         logger.debug("Add new date reading session for user {} with uuid {} ", user, uuid);
 
         if(!isValidDateReadingSession(dateReadingSession)) {
             throw new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_INVALID);
         }
 
-        Optional<ReadingSession> optionalReadingSession = readingSessionsDao.getUserReadingSession(user, bookUuid, uuid);
-        if(!optionalReadingSession.isPresent()) {
-            throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND);
-        }
-
-        ReadingSession readingSession = optionalReadingSession.get();
-        for(DateReadingSession existingDateReadingSession : readingSession.getDateReadingSessions()) {
-            if(existingDateReadingSession.getDate().equals(dateReadingSession.getDate())) {
-                throw new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_ALREADY_EXISTS);
+        changeReadingSession(user, bookUuid, uuid, version, readingSession -> {
+            for(DateReadingSession existingDateReadingSession : readingSession.getDateReadingSessions()) {
+                if(existingDateReadingSession.getDate().equals(dateReadingSession.getDate())) {
+                    throw new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_ALREADY_EXISTS);
+                }
             }
-        }
 
-        List<DateReadingSession> updatedDateReadingSessions = new ArrayList<>(readingSession.getDateReadingSessions());
-        updatedDateReadingSessions.add(dateReadingSession);
-        updatedDateReadingSessions.sort(Comparator.comparing(DateReadingSession::getDate));
-        readingSessionsDao.updateUserReadingSession(user,
-                bookUuid,
-                uuid,
-                new ReadingSession(readingSession.getUuid(),
-                        readingSession.getBookUuid(),
-                        readingSession.getDeadline(),
-                        updatedDateReadingSessions));
+            List<DateReadingSession> updatedDateReadingSessions = new ArrayList<>(readingSession.getDateReadingSessions());
+            updatedDateReadingSessions.add(dateReadingSession);
+            updatedDateReadingSessions.sort(Comparator.comparing(DateReadingSession::getDate));
+            return new ReadingSession(readingSession.getUuid(),
+                    readingSession.getBookUuid(),
+                    readingSession.getDeadline(),
+                    updatedDateReadingSessions);
+        });
 
         return dateReadingSession;
     }
@@ -165,71 +222,70 @@ public class ReadingSessionsService {
     }
 
     public String updateDateReadingSession(String user, String bookUuid, String uuid, String date, DateReadingSession dateReadingSession) throws ReadingSessionsException {
+        return updateDateReadingSession(user, bookUuid, uuid, date, dateReadingSession, null);
+    }
+
+    public String updateDateReadingSession(String user, String bookUuid, String uuid, String date, DateReadingSession dateReadingSession, String version) throws ReadingSessionsException {
         logger.debug("Update date reading session for user {} with uuid {} and date {}", user, uuid, date);
 
         if(!isValidDateReadingSession(dateReadingSession)) {
             throw new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_INVALID);
         }
 
-        Optional<ReadingSession> optionalReadingSession = readingSessionsDao.getUserReadingSession(user, bookUuid, uuid);
-        if(!optionalReadingSession.isPresent()) {
-            throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND);
-        }
-
-        boolean update = false;
-        List<DateReadingSession> updateDateReadingSessions = new ArrayList<>();
-        ReadingSession existingReadingSession = optionalReadingSession.get();
-        for(DateReadingSession existingDateReadingSession : existingReadingSession.getDateReadingSessions()) {
-            if(existingDateReadingSession.getDate().equals(date)) {
-                update = true;
-                updateDateReadingSessions.add(new DateReadingSession(date,
-                        dateReadingSession.getLastReadPage(),
-                        dateReadingSession.getBookmark()));
-            } else {
-                updateDateReadingSessions.add(existingDateReadingSession);
+        changeReadingSession(user, bookUuid, uuid, version, existingReadingSession -> {
+            boolean update = false;
+            List<DateReadingSession> updateDateReadingSessions = new ArrayList<>();
+            for(DateReadingSession existingDateReadingSession : existingReadingSession.getDateReadingSessions()) {
+                if(existingDateReadingSession.getDate().equals(date)) {
+                    update = true;
+                    updateDateReadingSessions.add(new DateReadingSession(date,
+                            dateReadingSession.getLastReadPage(),
+                            dateReadingSession.getBookmark()));
+                } else {
+                    updateDateReadingSessions.add(existingDateReadingSession);
+                }
             }
-        }
 
-        if(update) {
-            readingSessionsDao.updateUserReadingSession(user, bookUuid, uuid, new ReadingSession(existingReadingSession.getUuid(),
+            if(!update) {
+                throw new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_NOT_FOUND);
+            }
+            return new ReadingSession(existingReadingSession.getUuid(),
                     bookUuid,
                     existingReadingSession.getDeadline(),
-                    updateDateReadingSessions));
-            return date;
-        }
+                    updateDateReadingSessions);
+        });
 
-        throw new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_NOT_FOUND);
+        return date;
     }
 
-
     public String deleteDateReadingSession(String user, String bookUuid, String uuid, String date) throws ReadingSessionsException {
-        logger.debug("Delete date reading session for user {} with uuid {} and date {}", user, uuid, date);
+        return deleteDateReadingSession(user, bookUuid, uuid, date, null);
+    }
 
-        Optional<ReadingSession> optionalReadingSession = readingSessionsDao.getUserReadingSession(user, bookUuid, uuid);
-        if(!optionalReadingSession.isPresent()) {
-            throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND);
-        }
+    public String deleteDateReadingSession(String user, String bookUuid, String uuid, String date, String version) throws ReadingSessionsException {
+        logger.debug("Delete date reading session for user {} with uuid {} and date {}", user, uuid, date);
 
-        boolean delete = false;
-        List<DateReadingSession> updateDateReadingSessions = new ArrayList<>();
-        ReadingSession existingReadingSession = optionalReadingSession.get();
-        for(DateReadingSession existingDateReadingSession : existingReadingSession.getDateReadingSessions()) {
-            if(existingDateReadingSession.getDate().equals(date)) {
-                delete = true;
-            } else {
-                updateDateReadingSessions.add(existingDateReadingSession);
+        changeReadingSession(user, bookUuid, uuid, version, existingReadingSession -> {
+            boolean delete = false;
+            List<DateReadingSession> updateDateReadingSessions = new ArrayList<>();
+            for(DateReadingSession existingDateReadingSession : existingReadingSession.getDateReadingSessions()) {
+                if(existingDateReadingSession.getDate().equals(date)) {
+                    delete = true;
+                } else {
+                    updateDateReadingSessions.add(existingDateReadingSession);
+                }
             }
-        }
 
-        if(delete) {
-            readingSessionsDao.updateUserReadingSession(user, bookUuid, uuid, new ReadingSession(existingReadingSession.getUuid(),
+            if(!delete) {
+                throw new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_NOT_FOUND);
+            }
+            return new ReadingSession(existingReadingSession.getUuid(),
                     bookUuid,
                     existingReadingSession.getDeadline(),
-                    updateDateReadingSessions));
-            return date;
-        }
+                    updateDateReadingSessions);
+        });
 
-        throw new ReadingSessionsException(ReadingSessionsException.Reason.DATE_READING_SESSION_NOT_FOUND);
+        return date;
     }
 
     public ReadingSessionProgress getUserReadingSessionProgress(String user, String bookUuid, String uuid) throws BooksException, ReadingSessionsException {
@@ -302,6 +358,44 @@ public class ReadingSessionsService {
         return readingSessionProgress;
     }
 
+    /**
+     * Reads the reading session, changes it and writes it back only if nobody else changed it in between.
+     * When the caller asked for a version a concurrent change is reported, otherwise the change is applied
+     * again on the newer reading session. With write lanes enabled there are no concurrent changes of the
+     * service left, only those of other instances sharing the storage.
+     */
+    private void changeReadingSession(String user, String bookUuid, String uuid, String version, ReadingSessionChange change) throws ReadingSessionsException {
+        writeLanes.execute(user, () -> {
+            for(int attempt = 1; ; attempt++) {
+                Optional<ReadingSession> optionalReadingSession = readingSessionsDao.getUserReadingSession(user, bookUuid, uuid);
+                if(!optionalReadingSession.isPresent()) {
+                    throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_NOT_FOUND);
+                }
+
+                ReadingSession readingSession = optionalReadingSession.get();
+                String currentVersion = ItemVersions.of(readingSession);
+                if(version != null && !version.equals(currentVersion)) {
+                    throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_VERSION_MISMATCH);
+                }
+
+                ReadingSession changedReadingSession = change.apply(readingSession);
+                try {
+                    readingSessionsDao.updateUserReadingSession(user, bookUuid, uuid, changedReadingSession, currentVersion);
+                    return null;
+                } catch(VersionMismatchException ex) {
+                    if(version != null || attempt >= UPDATE_ATTEMPTS) {
+                        throw new ReadingSessionsException(ReadingSessionsException.Reason.READING_SESSION_VERSION_MISMATCH);
+                    }
+                    logger.debug("Reading session {} of user {} changed meanwhile, changing it again", uuid, user);
+                }
+            }
+        });
+    }
+
+    private interface ReadingSessionChange {
+        ReadingSession apply(ReadingSession readingSession) throws ReadingSessionsException;
+    }
+
     private boolean isValidDateReadingSession(DateReadingSession dateReadingSession) {
         return !isEmpty(dateReadingSession.getDate())
                 && Pattern.matches(ISO_DATE_REGEXP, dateReadingSession.getDate())
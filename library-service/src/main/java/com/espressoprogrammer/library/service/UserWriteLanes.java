@@ -0,0 +1,314 @@
+package com.espressoprogrammer.library.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the writes of every user one after another, in a lane of their own.
+ * <p>
+ * A lane is a queue of writes drained by a thread of a shared pool, so writes of different users still run
+ * in parallel while the check and the change of a write never interleave with another write of the same user.
+ * Reads don't go through lanes. A lane drains up to {@value #BATCH_SIZE} queued writes in one go before it
+ * lets other lanes use the thread. Writes started from inside a lane of the same user run right away.
+ * <p>
+ * Lanes are enabled with {@code service.writelanes.enabled}, {@code service.writelanes.threads} sets the pool
+ * size (default one per processor) and {@code service.writelanes.metrics.interval} how often, in milliseconds,
+ * queue depth and lane latency are logged (0, the default, doesn't log them).
+ */
+@Component
+class UserWriteLanes implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(UserWriteLanes.class);
+
+    static final int BATCH_SIZE = 16;
+
+    private final boolean enabled;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService metricsExecutor;
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ThreadLocal<String> laneUser = new ThreadLocal<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    @Autowired
+    UserWriteLanes(@Value("${service.writelanes.enabled:false}") boolean enabled,
+                   @Value("${service.writelanes.threads:0}") int threads,
+                   @Value("${service.writelanes.metrics.interval:0}") long metricsInterval) {
+        this.enabled = enabled;
+        if(enabled) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "user-write-lane-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            executor = null;
+        }
+        if(enabled && metricsInterval > 0) {
+            metricsExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "user-write-lanes-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            metricsExecutor.scheduleAtFixedRate(this::logMetrics, metricsInterval, metricsInterval, TimeUnit.MILLISECONDS);
+        } else {
+            metricsExecutor = null;
+        }
+    }
+
+    UserWriteLanes(boolean enabled, int threads) {
+        this(enabled, threads, 0);
+    }
+
+    /**
+     * Runs the write in the lane of the user and waits for it. Exceptions thrown by the write are thrown
+     * to the caller as they are.
+     */
+    <T, E1 extends Exception, E2 extends Exception> T execute(String user, Write<T, E1, E2> write) throws E1, E2 {
+        if(!enabled || user.equals(laneUser.get())) {
+            return write.run();
+        }
+
+        Task<T> task = new Task<>(write);
+        submit(user, task);
+        try {
+            return task.result.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a write of user " + user, ex);
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw UserWriteLanes.<E1>checkedException(cause);
+        }
+    }
+
+    /**
+     * Only the checked exceptions declared by the write get here, the compiler just can't tell which of them.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E checkedException(Throwable cause) {
+        return (E) cause;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Writes waiting in lanes right now.
+     */
+    int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Most writes that waited in lanes at the same time.
+     */
+    int getMaxQueueDepth() {
+        return maxQueued.get();
+    }
+
+    int getLaneCount() {
+        return lanes.size();
+    }
+
+    long getWriteCount() {
+        return writes.sum();
+    }
+
+    /**
+     * Time writes spent waiting in their lane, in total.
+     */
+    long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * Time writes spent running in their lane, in total.
+     */
+    long getRunNanos() {
+        return runNanos.sum();
+    }
+
+    @Override
+    public void destroy() {
+        if(metricsExecutor != null) {
+            metricsExecutor.shutdownNow();
+        }
+        if(executor != null) {
+            // Lanes drain what they have queued before the pool stops
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void submit(String user, Task<?> task) {
+        int depth = queued.incrementAndGet();
+        maxQueued.accumulateAndGet(depth, Math::max);
+        while(true) {
+            Lane lane = lanes.computeIfAbsent(user, Lane::new);
+            if(lane.offer(task)) {
+                return;
+            }
+        }
+    }
+
+    private void logMetrics() {
+        long count = writes.sum();
+        logger.info("Write lanes: {} lanes, {} writes waiting (at most {}), {} writes, waited {} us on average (at most {} us), ran {} us on average",
+            lanes.size(),
+            queued.get(),
+            maxQueued.get(),
+            count,
+            count > 0 ? TimeUnit.NANOSECONDS.toMicros(waitNanos.sum() / count) : 0,
+            TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()),
+            count > 0 ? TimeUnit.NANOSECONDS.toMicros(runNanos.sum() / count) : 0);
+    }
+
+    interface Write<T, E1 extends Exception, E2 extends Exception> {
+        T run() throws E1, E2;
+    }
+
+    private class Lane implements Runnable {
+        private final String user;
+        private final Queue<Task<?>> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+        private boolean retired;
+
+        private Lane(String user) {
+            this.user = user;
+        }
+
+        /**
+         * Queues the task, returns false when the lane was retired and the task has to go to a new lane.
+         */
+        private synchronized boolean offer(Task<?> task) {
+            if(retired) {
+                return false;
+            }
+
+            tasks.add(task);
+            if(!scheduled) {
+                try {
+                    executor.execute(this);
+                } catch(RejectedExecutionException ex) {
+                    tasks.remove(task);
+                    queued.decrementAndGet();
+                    throw ex;
+                }
+                scheduled = true;
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while(drain()) {
+                try {
+                    // Give the other lanes a turn before draining the rest
+                    executor.execute(this);
+                    return;
+                } catch(RejectedExecutionException ex) {
+                    // Shutting down, the rest is drained right here
+                }
+            }
+        }
+
+        /**
+         * Runs a batch of tasks, returns true when more tasks are waiting.
+         */
+        private boolean drain() {
+            laneUser.set(user);
+            try {
+                for(int i = 0; i < BATCH_SIZE; i++) {
+                    Task<?> task;
+                    synchronized (this) {
+                        task = tasks.poll();
+                        if(task == null) {
+                            // Nothing left, a new write of the user starts a new lane
+                            scheduled = false;
+                            retired = true;
+                            lanes.remove(user, this);
+                            return false;
+                        }
+                    }
+                    queued.decrementAndGet();
+                    task.run();
+                }
+                return true;
+            } finally {
+                laneUser.remove();
+            }
+        }
+    }
+
+    private class Task<T> {
+        private final Write<T, ?, ?> write;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long queuedNanos = System.nanoTime();
+
+        private Task(Write<T, ?, ?> write) {
+            this.write = write;
+        }
+
+        private void run() {
+            long startNanos = System.nanoTime();
+            long waited = startNanos - queuedNanos;
+            waitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            T value = null;
+            Throwable failure = null;
+            try {
+                value = write.run();
+            } catch(Throwable ex) {
+                failure = ex;
+            }
+            runNanos.add(System.nanoTime() - startNanos);
+            writes.increment();
+
+            if(failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(value);
+            }
+        }
+    }
+}
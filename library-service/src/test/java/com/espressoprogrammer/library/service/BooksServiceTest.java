@@ -1,8 +1,11 @@
 package com.espressoprogrammer.library.service;
 
 import com.espressoprogrammer.library.dto.Book;
+import com.espressoprogrammer.library.dto.ReadingSession;
 import com.espressoprogrammer.library.persistence.BooksDao;
+import com.espressoprogrammer.library.persistence.DuplicateIsbnException;
 import com.espressoprogrammer.library.persistence.ReadingSessionsDao;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
 import com.espressoprogrammer.library.service.BooksException.Reason;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -16,6 +19,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestReadingSession;
@@ -49,8 +53,6 @@ public class BooksServiceTest {
 
     @Test
     public void createUserBook() throws Exception {
-        when(booksDao.getUserBooks(JOHN_DOE_USER)).thenReturn(Collections.emptyList());
-
         Book bookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-request.json");
         Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
         when(booksDao.createUserBook(JOHN_DOE_USER, bookRequest)).thenReturn(book);
@@ -209,9 +211,9 @@ public class BooksServiceTest {
     @Test
     public void createExistingUserBook() throws Exception {
         Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(booksDao.getUserBooks(JOHN_DOE_USER)).thenReturn(Arrays.asList(book));
-
         Book bookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-request.json");
+        when(booksDao.createUserBook(JOHN_DOE_USER, bookRequest)).thenThrow(new DuplicateIsbnException(bookRequest.getIsbn10(), book.getUuid()));
+
         try {
             booksService.createUserBook(JOHN_DOE_USER, bookRequest);
             fail("It should fail with " + Reason.BOOK_ALREADY_EXISTS);
@@ -247,11 +249,35 @@ public class BooksServiceTest {
         }
     }
 
+    @Test
+    public void getUserBookByIsbn() throws Exception {
+        Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
+        when(booksDao.getUserBookByIsbn(JOHN_DOE_USER, "9781617293108")).thenReturn(Optional.of(book));
+
+        Book actualBook = booksService.getUserBookByIsbn(JOHN_DOE_USER, "9781617293108");
+        assertThat(actualBook).isEqualTo(book);
+    }
+
+    @Test
+    public void getMissingUserBookByIsbn() throws Exception {
+        String isbn = "9780000000002";
+        when(booksDao.getUserBookByIsbn(JOHN_DOE_USER, isbn)).thenReturn(Optional.empty());
+
+        try {
+            booksService.getUserBookByIsbn(JOHN_DOE_USER, isbn);
+            fail("It should fail with " + Reason.BOOK_NOT_FOUND);
+        } catch(BooksException ex) {
+            assertThat(ex.getReason()).isEqualTo(Reason.BOOK_NOT_FOUND);
+        } catch (Exception ex) {
+            fail("It should fail with " + Reason.BOOK_NOT_FOUND);
+        }
+    }
+
     @Test
     public void updateUserBook() throws Exception {
         Book updateBook = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update.json");
         Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json");
-        when(booksDao.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest))
+        when(booksDao.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, null))
             .thenReturn(Optional.of(updateBook.getUuid()));
 
         String actualUuid = booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest);
@@ -417,7 +443,8 @@ public class BooksServiceTest {
         Book theOtherBook = getTestBook("f2e10e37-b0fc-4eff-93aa-3dff682cc388.json");
         Book updateBook = getTestBook("f2e10e37-b0fc-4eff-93aa-3dff682cc388.json");
         Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update-existing-book.json");
-        when(booksDao.getUserBooks(JOHN_DOE_USER)).thenReturn(Arrays.asList(updateBook, theOtherBook));
+        when(booksDao.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, null))
+            .thenThrow(new DuplicateIsbnException(updateBookRequest.getIsbn10(), theOtherBook.getUuid()));
 
         try {
             booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest);
@@ -433,7 +460,7 @@ public class BooksServiceTest {
     public void updateMissingUserBook() throws Exception {
         Book updateBook = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update.json");
         Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json");
-        when(booksDao.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest)).thenReturn(Optional.empty());
+        when(booksDao.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, null)).thenReturn(Optional.empty());
 
         try {
             booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest);
@@ -445,12 +472,28 @@ public class BooksServiceTest {
         }
     }
 
+    @Test
+    public void updateUserBookWithStaleVersion() throws Exception {
+        Book updateBookRequest = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update-request.json");
+        Book updateBook = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695-update.json");
+        when(booksDao.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, "stale"))
+            .thenThrow(new VersionMismatchException(updateBook.getUuid(), "stale", "current"));
+
+        try {
+            booksService.updateUserBook(JOHN_DOE_USER, updateBook.getUuid(), updateBookRequest, "stale");
+            fail("It should fail with " + Reason.BOOK_VERSION_MISMATCH);
+        } catch(BooksException ex) {
+            assertThat(ex.getReason()).isEqualTo(Reason.BOOK_VERSION_MISMATCH);
+        }
+    }
+
     @Test
     public void deleteUserBook() throws Exception {
         Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid())).thenReturn(Optional.of(book.getUuid()));
-        when(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, book.getUuid()))
-                .thenReturn(Arrays.asList(getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-delete-date-reading-session.json")));
+        when(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid(), null)).thenReturn(Optional.of(book.getUuid()));
+        ReadingSession readingSession = getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695-delete-date-reading-session.json");
+        when(readingSessionsDao.streamUserReadingSessions(JOHN_DOE_USER, book.getUuid()))
+                .thenAnswer(i -> Stream.of(readingSession));
 
         String actualBookUuid = booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid());
         assertThat(actualBookUuid).isEqualTo(book.getUuid());
@@ -459,7 +502,7 @@ public class BooksServiceTest {
     @Test
     public void deleteMissingUserBook() throws Exception {
         Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid())).thenReturn(Optional.empty());
+        when(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid(), null)).thenReturn(Optional.empty());
 
         try {
             booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid());
@@ -474,9 +517,10 @@ public class BooksServiceTest {
     @Test
     public void deleteUserBookWithReadingSessions() throws Exception {
         Book book = getTestBook("1e4014b1-a551-4310-9f30-590c3140b695.json");
-        when(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid())).thenReturn(Optional.of(book.getUuid()));
-        when(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, book.getUuid()))
-                .thenReturn(Arrays.asList(getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695.json")));
+        when(booksDao.deleteUserBook(JOHN_DOE_USER, book.getUuid(), null)).thenReturn(Optional.of(book.getUuid()));
+        ReadingSession readingSession = getTestReadingSession("1e4014b1-a551-4310-9f30-590c3140b695.json");
+        when(readingSessionsDao.streamUserReadingSessions(JOHN_DOE_USER, book.getUuid()))
+                .thenAnswer(i -> Stream.of(readingSession));
 
         try {
             booksService.deleteUserBook(JOHN_DOE_USER, book.getUuid());
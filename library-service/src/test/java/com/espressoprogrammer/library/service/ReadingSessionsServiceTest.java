@@ -5,7 +5,9 @@ import com.espressoprogrammer.library.dto.DateReadingSession;
 import com.espressoprogrammer.library.dto.ReadingSession;
 import com.espressoprogrammer.library.dto.ReadingSessionProgress;
 import com.espressoprogrammer.library.persistence.BooksDao;
+import com.espressoprogrammer.library.persistence.ItemVersions;
 import com.espressoprogrammer.library.persistence.ReadingSessionsDao;
+import com.espressoprogrammer.library.persistence.VersionMismatchException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,6 +21,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestBook;
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestDateReadingSession;
@@ -26,6 +29,11 @@ import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestReading
 import static com.espressoprogrammer.library.util.LibraryTestUtil.getTestReadingSessionProgress;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Fail.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(SpringRunner.class)
@@ -67,6 +75,20 @@ public class ReadingSessionsServiceTest {
         assertThat(actualReadingSessions).isEqualTo(readingSessions);
     }
 
+    @Test
+    public void getLatestUserCurrentReadingSession() throws Exception {
+        Book book = getTestBook(BOOK_UUID + ".json");
+        when(booksDao.getUserBook(JOHN_DOE_USER, BOOK_UUID)).thenReturn(Optional.of(book));
+
+        ReadingSession firstReadingSession = getTestReadingSession(READING_SESSION_UUID + "-one-reading.json");
+        ReadingSession latestReadingSession = getTestReadingSession(READING_SESSION_UUID + ".json");
+        when(readingSessionsDao.streamUserReadingSessions(JOHN_DOE_USER, BOOK_UUID))
+            .thenAnswer(i -> Stream.of(firstReadingSession, latestReadingSession));
+
+        ReadingSession actualReadingSession = readingSessionsService.getUserCurrentReadingSession(JOHN_DOE_USER, BOOK_UUID);
+        assertThat(actualReadingSession).isEqualTo(latestReadingSession);
+    }
+
     @Test
     public void getMissingUserCurrentReadingSession() throws Exception {
         when(booksDao.getUserBook(JOHN_DOE_USER, BOOK_UUID)).thenReturn(Optional.empty());
@@ -104,7 +126,8 @@ public class ReadingSessionsServiceTest {
         Book book = getTestBook(BOOK_UUID + ".json");
         when(booksDao.getUserBook(JOHN_DOE_USER, BOOK_UUID)).thenReturn(Optional.of(book));
 
-        when(readingSessionsDao.getUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)).thenReturn(Arrays.asList(getTestReadingSession(READING_SESSION_UUID + ".json")));
+        ReadingSession readingSession = getTestReadingSession(READING_SESSION_UUID + ".json");
+        when(readingSessionsDao.streamUserReadingSessions(JOHN_DOE_USER, BOOK_UUID)).thenAnswer(i -> Stream.of(readingSession));
 
         try {
             readingSessionsService.createUserReadingSession(JOHN_DOE_USER, BOOK_UUID, getTestReadingSession(READING_SESSION_UUID + "-request.json"));
@@ -143,7 +166,7 @@ public class ReadingSessionsServiceTest {
     @Test
     public void deleteUserReadingSession() throws Exception {
         ReadingSession readingSession = getTestReadingSession(READING_SESSION_UUID + ".json");
-        when(readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid())).thenReturn(Optional.of(readingSession.getUuid()));
+        when(readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(), null)).thenReturn(Optional.of(readingSession.getUuid()));
 
         String actualUuid = readingSessionsService.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid());
         assertThat(actualUuid).isEqualTo(readingSession.getUuid());
@@ -152,7 +175,7 @@ public class ReadingSessionsServiceTest {
     @Test
     public void deleteMissingUserReadingSession() throws Exception {
         ReadingSession readingSession = getTestReadingSession(READING_SESSION_UUID + ".json");
-        when(readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid())).thenReturn(Optional.empty());
+        when(readingSessionsDao.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid(), null)).thenReturn(Optional.empty());
 
         try {
             readingSessionsService.deleteUserReadingSession(JOHN_DOE_USER, BOOK_UUID, readingSession.getUuid());
@@ -174,6 +197,53 @@ public class ReadingSessionsServiceTest {
         assertThat(actualReadingSession).isEqualTo(dateReadingSession);
     }
 
+    @Test
+    public void createDateReadingSessionWithStaleVersion() throws Exception {
+        ReadingSession readingSession = getTestReadingSession(READING_SESSION_UUID + ".json");
+        when(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID,READING_SESSION_UUID)).thenReturn(Optional.of(readingSession));
+
+        DateReadingSession dateReadingSession = getTestDateReadingSession(READING_SESSION_UUID + "-new-date-reading-session.json");
+        try {
+            readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, READING_SESSION_UUID, dateReadingSession, "stale");
+            fail("It should fail with " + ReadingSessionsException.Reason.READING_SESSION_VERSION_MISMATCH);
+        } catch(ReadingSessionsException ex) {
+            assertThat(ex.getReason()).isEqualTo(ReadingSessionsException.Reason.READING_SESSION_VERSION_MISMATCH);
+        }
+    }
+
+    @Test
+    public void createDateReadingSessionWithConcurrentChange() throws Exception {
+        ReadingSession readingSession = getTestReadingSession(READING_SESSION_UUID + ".json");
+        when(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID,READING_SESSION_UUID)).thenReturn(Optional.of(readingSession));
+        String version = ItemVersions.of(readingSession);
+        when(readingSessionsDao.updateUserReadingSession(eq(JOHN_DOE_USER), eq(BOOK_UUID), eq(READING_SESSION_UUID), any(ReadingSession.class), anyString()))
+            .thenThrow(new VersionMismatchException(READING_SESSION_UUID, version, "newer"))
+            .thenReturn(Optional.of(READING_SESSION_UUID));
+
+        DateReadingSession dateReadingSession = getTestDateReadingSession(READING_SESSION_UUID + "-new-date-reading-session.json");
+        DateReadingSession actualReadingSession = readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, READING_SESSION_UUID, dateReadingSession);
+        assertThat(actualReadingSession).isEqualTo(dateReadingSession);
+        verify(readingSessionsDao, times(2)).updateUserReadingSession(eq(JOHN_DOE_USER), eq(BOOK_UUID), eq(READING_SESSION_UUID), any(ReadingSession.class), eq(version));
+    }
+
+    @Test
+    public void createDateReadingSessionWithConcurrentChangeAndVersion() throws Exception {
+        ReadingSession readingSession = getTestReadingSession(READING_SESSION_UUID + ".json");
+        when(readingSessionsDao.getUserReadingSession(JOHN_DOE_USER, BOOK_UUID,READING_SESSION_UUID)).thenReturn(Optional.of(readingSession));
+        String version = ItemVersions.of(readingSession);
+        when(readingSessionsDao.updateUserReadingSession(eq(JOHN_DOE_USER), eq(BOOK_UUID), eq(READING_SESSION_UUID), any(ReadingSession.class), anyString()))
+            .thenThrow(new VersionMismatchException(READING_SESSION_UUID, version, "newer"));
+
+        DateReadingSession dateReadingSession = getTestDateReadingSession(READING_SESSION_UUID + "-new-date-reading-session.json");
+        try {
+            readingSessionsService.createDateReadingSession(JOHN_DOE_USER, BOOK_UUID, READING_SESSION_UUID, dateReadingSession, version);
+            fail("It should fail with " + ReadingSessionsException.Reason.READING_SESSION_VERSION_MISMATCH);
+        } catch(ReadingSessionsException ex) {
+            assertThat(ex.getReason()).isEqualTo(ReadingSessionsException.Reason.READING_SESSION_VERSION_MISMATCH);
+        }
+        verify(readingSessionsDao, times(1)).updateUserReadingSession(eq(JOHN_DOE_USER), eq(BOOK_UUID), eq(READING_SESSION_UUID), any(ReadingSession.class), eq(version));
+    }
+
     @Test
     public void createDateReadingSessionNullDate() throws Exception {
         ReadingSession readingSession = getTestReadingSession(READING_SESSION_UUID + ".json");
@@ -0,0 +1,123 @@
+package com.espressoprogrammer.library.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+
+public class UserWriteLanesTest {
+    private static final String JOHN_DOE_USER = "johndoe";
+    private static final String JANE_DOE_USER = "janedoe";
+
+    private final UserWriteLanes writeLanes = new UserWriteLanes(true, 4);
+    private final ExecutorService callers = Executors.newFixedThreadPool(8);
+
+    @After
+    public void clear() {
+        callers.shutdownNow();
+        writeLanes.destroy();
+    }
+
+    @Test
+    public void writesOfOneUserRunOneAfterAnother() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        int[] counter = new int[1];
+
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < 8; i++) {
+            futures.add(callers.submit(() -> {
+                for(int j = 0; j < 50; j++) {
+                    writeLanes.execute(JOHN_DOE_USER, () -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        int value = counter[0];
+                        Thread.yield();
+                        counter[0] = value + 1;
+                        running.decrementAndGet();
+                        return null;
+                    });
+                }
+                return null;
+            }));
+        }
+        for(Future<?> future : futures) {
+            future.get();
+        }
+
+        assertThat(counter[0]).isEqualTo(400);
+        assertThat(maxRunning.get()).isEqualTo(1);
+        assertThat(writeLanes.getWriteCount()).isEqualTo(400);
+        assertThat(writeLanes.getQueueDepth()).isEqualTo(0);
+        assertThat(writeLanes.getMaxQueueDepth()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    public void writesOfDifferentUsersRunInParallel() throws Exception {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+
+        Future<Boolean> john = callers.submit(() -> writeLanes.execute(JOHN_DOE_USER, () -> {
+            bothRunning.countDown();
+            return bothRunning.await(10, TimeUnit.SECONDS);
+        }));
+        Future<Boolean> jane = callers.submit(() -> writeLanes.execute(JANE_DOE_USER, () -> {
+            bothRunning.countDown();
+            return bothRunning.await(10, TimeUnit.SECONDS);
+        }));
+
+        assertThat(john.get()).isTrue();
+        assertThat(jane.get()).isTrue();
+    }
+
+    @Test
+    public void writeInsideTheLaneOfTheUserRunsRightAway() throws Exception {
+        String result = writeLanes.execute(JOHN_DOE_USER,
+            () -> writeLanes.execute(JOHN_DOE_USER, () -> "nested"));
+
+        assertThat(result).isEqualTo("nested");
+        assertThat(writeLanes.getWriteCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void exceptionsOfTheWriteReachTheCaller() throws Exception {
+        try {
+            writeLanes.execute(JOHN_DOE_USER, () -> {
+                throw new BooksException(BooksException.Reason.BOOK_NOT_FOUND);
+            });
+            fail("It should fail with " + BooksException.Reason.BOOK_NOT_FOUND);
+        } catch(BooksException ex) {
+            assertThat(ex.getReason()).isEqualTo(BooksException.Reason.BOOK_NOT_FOUND);
+        }
+
+        try {
+            writeLanes.execute(JOHN_DOE_USER, () -> {
+                throw new IllegalArgumentException("invalid");
+            });
+            fail("It should fail with " + IllegalArgumentException.class.getSimpleName());
+        } catch(IllegalArgumentException ex) {
+            assertThat(ex.getMessage()).isEqualTo("invalid");
+        }
+
+        assertThat(writeLanes.getWriteCount()).isEqualTo(2);
+        assertThat(writeLanes.getLaneCount()).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    public void disabledLanesRunWritesInTheCaller() throws Exception {
+        UserWriteLanes disabledLanes = new UserWriteLanes(false, 0);
+        Thread caller = Thread.currentThread();
+
+        assertThat(disabledLanes.execute(JOHN_DOE_USER, () -> Thread.currentThread() == caller)).isTrue();
+        assertThat(disabledLanes.getWriteCount()).isEqualTo(0);
+        disabledLanes.destroy();
+    }
+}